@@ -73,6 +73,7 @@ import org.voltdb.VoltSystemProcedure;
 import org.voltdb.VoltTable;
 import org.voltdb.VoltTableRow;
 import org.voltdb.benchmark.BlockingClient;
+import org.voltdb.benchmark.OpenLoopClient;
 import org.voltdb.benchmark.Verification;
 import org.voltdb.benchmark.Verification.Expression;
 import org.voltdb.catalog.Catalog;
@@ -82,6 +83,7 @@ import org.voltdb.catalog.Table;
 import org.voltdb.client.Client;
 import org.voltdb.client.ClientFactory;
 import org.voltdb.client.ClientResponse;
+import org.voltdb.client.PartitionedTableLoader;
 import org.voltdb.client.ProcCallException;
 import org.voltdb.client.StatsUploaderSettings;
 import org.voltdb.sysprocs.LoadMultipartitionTable;
@@ -92,6 +94,7 @@ import edu.brown.api.results.BenchmarkComponentResults;
 import edu.brown.api.results.ResponseEntries;
 import edu.brown.catalog.CatalogUtil;
 import edu.brown.designer.partitioners.plan.PartitionPlan;
+import edu.brown.hashing.AbstractHasher;
 import edu.brown.hstore.HStoreConstants;
 import edu.brown.hstore.HStoreThreadManager;
 import edu.brown.hstore.Hstoreservice.Status;
@@ -105,6 +108,7 @@ import edu.brown.statistics.TableStatistics;
 import edu.brown.statistics.WorkloadStatistics;
 import edu.brown.utils.ArgumentsParser;
 import edu.brown.utils.FileUtil;
+import edu.brown.utils.PartitionEstimator;
 import edu.brown.utils.StringUtil;
 
 /**
@@ -249,6 +253,13 @@ public abstract class BenchmarkComponent {
     final int m_txnRate;
     
     private final boolean m_blocking;
+    
+    /**
+     * If true, then the ControlWorker will schedule requests on a fixed
+     * timeline and measure latencies from when each request was supposed
+     * to be sent. See ${client.open_loop}
+     */
+    final boolean m_openLoop;
 
     /**
      * Number of transactions to generate for every millisecond of time that
@@ -324,6 +335,12 @@ public abstract class BenchmarkComponent {
     private final ReentrantLock m_loaderBlock = new ReentrantLock();
     private final ClientResponse m_dummyResponse = new ClientResponseImpl(-1, -1, -1, Status.OK, HStoreConstants.EMPTY_RESULT, "");
     
+    /**
+     * Sends tuples for non-replicated tables directly to their partitions
+     * when ${client.loader_direct} is enabled
+     */
+    private PartitionedTableLoader m_directLoader;
+    
     /**
      * Keep track of the number of tuples loaded so that we can generate table statistics
      */
@@ -369,6 +386,7 @@ public abstract class BenchmarkComponent {
         m_txnRate = -1;
         m_isLoader = false;
         m_blocking = false;
+        m_openLoop = false;
         m_txnsPerMillisecond = 0;
         m_catalogPath = null;
         m_projectName = null;
@@ -581,7 +599,15 @@ public abstract class BenchmarkComponent {
         m_password = password;
         m_txnRate = (isLoader ? -1 : transactionRate);
         m_txnsPerMillisecond = (isLoader ? -1 : transactionRate / 1000.0);
+        final boolean openLoop = (isLoader == false && transactionRate > 0 && m_hstoreConf.client.open_loop);
+        if (openLoop && blocking) {
+            // The BlockingClient will stall the worker thread whenever there are too
+            // many outstanding requests, which is exactly what we're trying to avoid
+            if (debug.val) LOG.debug("Disabling BlockingClient because open-loop mode is enabled");
+            blocking = false;
+        }
         m_blocking = blocking;
+        m_openLoop = openLoop;
         m_tickInterval = tickInterval;
         m_noUploading = noUploading;
         m_noConnections = noConnections || (isLoader && m_noUploading);
@@ -804,6 +830,9 @@ public abstract class BenchmarkComponent {
                 concurrent *= 4; // HACK
             }
             m_voltClient = new BlockingClient(new_client, concurrent);
+        } else if (m_openLoop) {
+            if (debug.val) LOG.debug("Using OpenLoopClient");
+            m_voltClient = new OpenLoopClient(new_client);
         } else {
             m_voltClient = new_client;
         }
@@ -955,6 +984,13 @@ public abstract class BenchmarkComponent {
                 } // SYNCH
             }
             
+            // OPEN-LOOP LATENCIES
+            // These are measured from when the request was supposed to be sent
+            if (m_openLoop) {
+                long intended = OpenLoopClient.getIntendedLatency();
+                if (intended >= 0) m_txnStats.recordIntendedLatency(txn_idx, intended / 1000);
+            }
+            
             // RESPONSE ENTRIES
             if (m_enableResponseEntries) {
                 long timestamp = System.currentTimeMillis();
@@ -1018,7 +1054,17 @@ public abstract class BenchmarkComponent {
         
         // Load up this dirty mess...
         ClientResponse cr = null;
-        if (m_noUploading == false) {
+        if (m_noUploading == false && this.useDirectLoader(tableName)) {
+            // The loader will send the tuples out in the background, so we won't
+            // find out whether they failed until the next time that we load
+            // something or when the loader gets drained
+            try {
+                this.getDirectLoader().load(tableName, vt);
+            } catch (Throwable ex) {
+                throw new RuntimeException("Error when trying load data for '" + tableName + "'", ex);
+            }
+            cr = m_dummyResponse;
+        } else if (m_noUploading == false) {
             boolean locked = m_hstoreConf.client.blocking_loader;
             if (locked) m_loaderBlock.lock();
             try {
@@ -1116,6 +1162,51 @@ public abstract class BenchmarkComponent {
         return (weightIfNull);
     }
     
+    private boolean useDirectLoader(String tableName) {
+        if (m_hstoreConf.client.loader_direct == false) {
+            return (false);
+        }
+        Table catalog_tbl = this.getCatalogContext().getTableByName(tableName);
+        return (catalog_tbl != null && PartitionedTableLoader.canLoad(catalog_tbl));
+    }
+    
+    private synchronized PartitionedTableLoader getDirectLoader() throws IOException {
+        if (m_directLoader == null) {
+            CatalogContext catalogContext = this.getCatalogContext();
+            AbstractHasher hasher = AbstractHasher.newInstance(m_hstoreConf.global.hasher_class,
+                                                               m_hstoreConf.global.hasher_plan,
+                                                               catalogContext);
+            m_directLoader = new PartitionedTableLoader(m_voltClient,
+                                                        catalogContext,
+                                                        new PartitionEstimator(catalogContext, hasher),
+                                                        m_hstoreConf.client.loader_direct_chunk_size,
+                                                        m_hstoreConf.client.loader_direct_concurrent);
+        }
+        return (m_directLoader);
+    }
+    
+    /**
+     * Block until all of the tuples that were queued up using loadVoltTable()
+     * have been loaded into the database. This is only needed when
+     * ${client.loader_direct} is enabled. The ControlWorker calls this
+     * once runLoop() returns.
+     */
+    protected final void drainDirectLoader() {
+        PartitionedTableLoader loader = null;
+        synchronized (this) {
+            loader = m_directLoader;
+        } // SYNCH
+        if (loader == null) return;
+        try {
+            loader.drain();
+        } catch (Throwable ex) {
+            throw new RuntimeException("Error when trying to load data", ex);
+        }
+        if (debug.val)
+            LOG.debug(String.format("Loaded %d tuples in %d chunks directly at their partitions [rejected=%d]",
+                      loader.getTupleCount(), loader.getChunkCount(), loader.getRejectCount()));
+    }
+    
     /**
      * Get the number of tuples loaded into the given table thus far
      * @param tableName
@@ -127,6 +127,7 @@ import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.markov.containers.MarkovGraphsContainer;
 import edu.brown.markov.containers.MarkovGraphsContainerUtil;
+import edu.brown.profilers.LatencyHistogram;
 import edu.brown.profilers.ProfileMeasurement;
 import edu.brown.statistics.Histogram;
 import edu.brown.statistics.ObjectHistogram;
@@ -1488,6 +1489,20 @@ public class BenchmarkController {
             Map<String, Object[]> totalRows = new TreeMap<String, Object[]>();
             Map<String, List<Double>[]> stdevRows = new HashMap<String, List<Double>[]>();
             
+            // Percentiles can't be added together, so we have to merge the
+            // LatencyHistograms for each row and then compute them again
+            Map<String, LatencyHistogram[]> latencyRows = new HashMap<String, LatencyHistogram[]>();
+            boolean percentileCols[] = new boolean[cols.length];
+            for (int i = 1; i < cols.length; i++) {
+                String colName = vt.getColumnName(offset + i);
+                if (colName.endsWith(LatencyHistogram.HISTOGRAM_SUFFIX) == false) continue;
+                String prefix = colName.substring(0, colName.length() - LatencyHistogram.HISTOGRAM_SUFFIX.length());
+                for (int j = 0; j < LatencyHistogram.PERCENTILE_SUFFIXES.length; j++) {
+                    int idx = vt.getColumnIndex(prefix + LatencyHistogram.PERCENTILE_SUFFIXES[j]) - offset;
+                    percentileCols[idx] = true;
+                } // FOR
+            } // FOR
+            
             while (vt.advanceRow()) {
                 String procName = vt.getString(offset);
                 Object row[] = totalRows.get(procName);
@@ -1505,9 +1520,20 @@ public class BenchmarkController {
                     stdevs = temp;
                     stdevRows.put(procName, stdevs);
                 }
+                LatencyHistogram latencies[] = latencyRows.get(procName);
+                if (latencies == null) {
+                    latencies = new LatencyHistogram[cols.length];
+                    latencyRows.put(procName, latencies);
+                }
                 
                 for (int i = 1; i < row.length; i++) {
-                    if (vt.getColumnName(offset + i).endsWith("STDEV")) {
+                    if (percentileCols[i]) {
+                        // These will be computed from the merged histograms below
+                        continue;
+                    } else if (vt.getColumnName(offset + i).endsWith(LatencyHistogram.HISTOGRAM_SUFFIX)) {
+                        if (latencies[i] == null) latencies[i] = new LatencyHistogram();
+                        latencies[i].addCompactString(vt.getString(offset + i));
+                    } else if (vt.getColumnName(offset + i).endsWith("STDEV")) {
                         if (stdevs[i] == null) stdevs[i] = new ArrayList<Double>();
                         stdevs[i].add(vt.getDouble(offset + i));
                         // stdevs[i].put(vt.getDouble(offset + i), vt.getLong(offset + 1));
@@ -1535,6 +1561,18 @@ public class BenchmarkController {
                             LOG.trace(String.format("%s STDEV -> %s -> %s", procName, stdevs[i], row[i]));
                     }
                 } // FOR
+                
+                LatencyHistogram latencies[] = latencyRows.get(procName);
+                for (int i = 1; i < row.length; i++) {
+                    if (latencies[i] == null) continue;
+                    String colName = cols[i].getName();
+                    String prefix = colName.substring(0, colName.length() - LatencyHistogram.HISTOGRAM_SUFFIX.length());
+                    for (int j = 0; j < LatencyHistogram.PERCENTILES.length; j++) {
+                        int idx = vt.getColumnIndex(prefix + LatencyHistogram.PERCENTILE_SUFFIXES[j]) - offset;
+                        row[idx] = latencies[i].getValueAtPercentile(LatencyHistogram.PERCENTILES[j]);
+                    } // FOR
+                    row[i] = latencies[i].toCompactString();
+                } // FOR
             } // FOR
             
             vt = new VoltTable(cols);
@@ -1,7 +1,10 @@
 package edu.brown.api;
 
+import java.util.Map;
+
 import org.voltdb.SysProcSelector;
 
+import edu.brown.profilers.LatencyHistogram;
 import edu.brown.statistics.Histogram;
 import edu.brown.statistics.HistogramUtil;
 
@@ -81,4 +84,27 @@ public abstract class BenchmarkControllerUtil {
         return new double[]{ minLatency, maxLatency, avgLatency, stdDevLatency };
     }
     
+    /**
+     * The percentiles that we report for latencies measured by open-loop clients
+     */
+    public static final double LATENCY_CURVE_PERCENTILES[] = { 50d, 75d, 90d, 95d, 99d, 99.9d, 99.99d, 100d };
+    public static final String LATENCY_CURVE_LABELS[] = { "p50", "p75", "p90", "p95", "p99", "p99.9", "p99.99", "max" };
+    
+    /**
+     * Populate the given map with the percentile curve of the latencies recorded
+     * in the given LatencyHistogram. The histogram's values are in microseconds,
+     * but the curve values are in milliseconds so that they line up with
+     * the rest of our latency measurements.
+     * @param latencies
+     * @param curve
+     */
+    public static void computeLatencyCurve(LatencyHistogram latencies, Map<String, Double> curve) {
+        curve.clear();
+        if (latencies.isEmpty()) return;
+        for (int i = 0; i < LATENCY_CURVE_PERCENTILES.length; i++) {
+            long val = latencies.getValueAtPercentile(LATENCY_CURVE_PERCENTILES[i]);
+            curve.put(LATENCY_CURVE_LABELS[i], val / 1000d);
+        } // FOR
+    }
+    
 }
@@ -1,8 +1,10 @@
 package edu.brown.api;
 
 import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.log4j.Logger;
+import org.voltdb.benchmark.OpenLoopClient;
 import org.voltdb.client.Client;
 
 import edu.brown.logging.LoggerUtil;
@@ -57,10 +59,16 @@ class ControlWorker extends Thread {
                     cmp.m_sampler.start();
                 }
                 cmp.runLoop();
+            } else if (cmp.m_openLoop) {
+                if (debug.val) LOG.debug(String.format("Running open-loop [m_txnRate=%d]", cmp.m_txnRate));
+                this.openLoopRunLoop();
             } else {
                 if (debug.val) LOG.debug(String.format("Running rate controlled [m_txnRate=%d, m_txnsPerMillisecond=%f]", cmp.m_txnRate, cmp.m_txnsPerMillisecond));
                 this.rateControlledRunLoop();
             }
+            // Make sure that anything that was queued up for the direct loader
+            // has made it into the database before we say that we're done
+            cmp.drainDirectLoader();
         } catch (Throwable ex) {
             ex.printStackTrace();
             throw new RuntimeException(ex);
@@ -145,6 +153,73 @@ class ControlWorker extends Thread {
         } // WHILE
     }
  
+    /**
+     * Submit requests on a fixed schedule so that we hit the target txn rate
+     * no matter how fast the cluster is responding. Unlike rateControlledRunLoop(),
+     * we never skip a request because of backpressure. Each request's intended
+     * start time is handed to the OpenLoopClient so that its latency includes
+     * however long we were behind schedule when we finally sent it.
+     * @throws InterruptedException
+     */
+    private void openLoopRunLoop() throws InterruptedException {
+        final Client client = cmp.getClientHandle();
+        final double interval = 1000000000d / cmp.m_txnRate; // nanoseconds
+        long startTime = System.nanoTime();
+        long scheduled = 0;
+        
+        boolean hadErrors = false;
+        while (true) {
+            // Check whether we are currently being paused
+            // We don't want the time that we were paused to count against
+            // the requests that we were supposed to send while we were paused,
+            // so we'll shift our schedule forward by however long we were waiting
+            if (cmp.m_controlState == ControlState.PAUSED) {
+                if (debug.val) LOG.debug("Pausing until control lock is released");
+                long pauseStart = System.nanoTime();
+                cmp.m_pauseLock.acquire();
+                startTime += (System.nanoTime() - pauseStart);
+                if (debug.val) LOG.debug("Control lock is released! Resuming execution!");
+            }
+            assert(cmp.m_controlState != ControlState.PAUSED) : "Unexpected " + cmp.m_controlState;
+            
+            final long intendedStart = startTime + (long)(scheduled * interval);
+            final long now = System.nanoTime();
+            if (intendedStart > now) {
+                LockSupport.parkNanos(intendedStart - now);
+                continue;
+            }
+            
+            OpenLoopClient.setIntendedStartTime(intendedStart);
+            boolean bp = false;
+            if (this.profiling) execute_time.start();
+            try {
+                bp = !cmp.runOnce();
+            } catch (final IOException e) {
+                if (hadErrors) return;
+                hadErrors = true;
+                LOG.error("Failed to execute transaction: " + e.getMessage(), e);
+                ThreadUtil.sleep(5000);
+            } finally {
+                if (this.profiling) execute_time.stop();
+            }
+            
+            // If the request was rejected because of backpressure, then we'll
+            // wait until we're allowed to send again and then retry it with
+            // the same intended start time. The time that we spend waiting
+            // here will show up in the txn's latency
+            if (bp) {
+                if (this.profiling) this.block_time.start();
+                try {
+                    client.backpressureBarrier();
+                } finally {
+                    if (this.profiling) this.block_time.stop();
+                }
+                continue;
+            }
+            scheduled++;
+        } // WHILE
+    }
+ 
     public void enableProfiling(boolean val) {
         this.profiling = val;
     }
@@ -6,6 +6,7 @@ import java.lang.reflect.Field;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -13,8 +14,10 @@ import org.json.JSONStringer;
 import org.voltdb.catalog.Database;
 
 import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.profilers.LatencyHistogram;
 import edu.brown.statistics.FastIntHistogram;
 import edu.brown.statistics.ObjectHistogram;
+import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.JSONSerializable;
 import edu.brown.utils.JSONUtil;
 
@@ -45,6 +48,14 @@ public class BenchmarkComponentResults implements JSONSerializable {
     public final Map<Integer, ObjectHistogram<Integer>> spLatencies = new HashMap<Integer, ObjectHistogram<Integer>>();
     public final Map<Integer, ObjectHistogram<Integer>> dtxnLatencies = new HashMap<Integer, ObjectHistogram<Integer>>();
     
+    /**
+     * Transaction Name Index -> Latencies (microseconds) measured from when the
+     * request was supposed to be sent. This is only used for open-loop clients.
+     * These are serialized by hand because LatencyHistogram is not JSONSerializable.
+     */
+    public final transient Map<Integer, LatencyHistogram> intendedLatencies = new ConcurrentHashMap<Integer, LatencyHistogram>();
+    private static final String INTENDED_LATENCIES_KEY = "INTENDEDLATENCIES";
+    
     public FastIntHistogram basePartitions = new FastIntHistogram(true);
     private boolean enableBasePartitions = false;
     
@@ -58,6 +69,26 @@ public class BenchmarkComponentResults implements JSONSerializable {
         // Nothing to do...
     }
     
+    /**
+     * Record the latency of a txn measured from its intended start time.
+     * This does not need to be synchronized.
+     * @param txn_idx
+     * @param latency The latency in microseconds
+     */
+    public void recordIntendedLatency(int txn_idx, long latency) {
+        LatencyHistogram h = this.intendedLatencies.get(txn_idx);
+        if (h == null) {
+            synchronized (this.intendedLatencies) {
+                h = this.intendedLatencies.get(txn_idx);
+                if (h == null) {
+                    h = new LatencyHistogram();
+                    this.intendedLatencies.put(txn_idx, h);
+                }
+            } // SYNCH
+        }
+        h.record(latency);
+    }
+    
     public BenchmarkComponentResults copy() {
         final BenchmarkComponentResults copy = new BenchmarkComponentResults();
 
@@ -95,6 +126,14 @@ public class BenchmarkComponentResults implements JSONSerializable {
             } // FOR
         } // SYNCH
         
+        // We drain these so that we don't lose any latencies that get
+        // recorded in between the copy and when the caller clears us
+        for (Entry<Integer, LatencyHistogram> e : this.intendedLatencies.entrySet()) {
+            LatencyHistogram h = new LatencyHistogram();
+            e.getValue().drainTo(h);
+            if (h.isEmpty() == false) copy.intendedLatencies.put(e.getKey(), h);
+        } // FOR
+        
         copy.enableBasePartitions = this.enableBasePartitions;
         copy.basePartitions.put(this.basePartitions);
         
@@ -126,6 +165,9 @@ public class BenchmarkComponentResults implements JSONSerializable {
         }
         this.spLatencies.clear();
         this.dtxnLatencies.clear();
+        for (LatencyHistogram h : this.intendedLatencies.values()) {
+            h.clear();
+        } // FOR
         this.basePartitions.clearValues();
         this.responseStatuses.clearValues();
     }
@@ -159,6 +201,14 @@ public class BenchmarkComponentResults implements JSONSerializable {
         Field fields[] = JSONUtil.getSerializableFields(this.getClass(), exclude);
         JSONUtil.fieldsToJSON(stringer, this, BenchmarkComponentResults.class, fields);
         
+        if (this.intendedLatencies.isEmpty() == false) {
+            stringer.key(INTENDED_LATENCIES_KEY).object();
+            for (Entry<Integer, LatencyHistogram> e : this.intendedLatencies.entrySet()) {
+                stringer.key(e.getKey().toString()).value(e.getValue().toCompactString());
+            } // FOR
+            stringer.endObject();
+        }
+        
         this.specexecs.setDebugLabels(this.transactions.getDebugLabels());
         this.dtxns.setDebugLabels(this.transactions.getDebugLabels());
     }
@@ -168,6 +218,16 @@ public class BenchmarkComponentResults implements JSONSerializable {
         this.dtxnLatencies.clear();
         Field fields[] = JSONUtil.getSerializableFields(this.getClass());
         JSONUtil.fieldsFromJSON(json_object, catalog_db, this, BenchmarkComponentResults.class, true, fields);
+        
+        this.intendedLatencies.clear();
+        if (json_object.has(INTENDED_LATENCIES_KEY)) {
+            JSONObject json_latencies = json_object.getJSONObject(INTENDED_LATENCIES_KEY);
+            for (String key : CollectionUtil.iterable(json_latencies.keys())) {
+                LatencyHistogram h = new LatencyHistogram();
+                h.addCompactString(json_latencies.getString(key));
+                this.intendedLatencies.put(Integer.valueOf(key), h);
+            } // FOR
+        }
         assert(this.transactions != null);
         assert(this.specexecs != null);
         assert(this.dtxns != null);
@@ -33,6 +33,7 @@ import org.voltdb.utils.Pair;
 import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.profilers.LatencyHistogram;
 import edu.brown.statistics.Histogram;
 import edu.brown.statistics.ObjectHistogram;
 import edu.brown.utils.CollectionUtil;
@@ -97,6 +98,18 @@ public class BenchmarkResults {
     
     private final Histogram<String> responseStatuses = new ObjectHistogram<String>();
     
+    /**
+     * Latencies (microseconds) from open-loop clients measured from each request's
+     * intended start time. These are already merged as they come in, so unlike the
+     * other latencies we only keep track of the totals per txn and per client,
+     * as well as the last interval that we got from each client.
+     * TxnName -> Latencies
+     * ClientName -> Latencies
+     */
+    private final Map<String, LatencyHistogram> txnIntendedLatencies = new TreeMap<String, LatencyHistogram>();
+    private final Map<String, LatencyHistogram> clientIntendedLatencies = new TreeMap<String, LatencyHistogram>();
+    private final Map<String, LatencyHistogram> lastIntendedLatencies = new TreeMap<String, LatencyHistogram>();
+    
     private int completedIntervals = 0;
     private final Histogram<String> clientResultCount = new ObjectHistogram<String>();
     
@@ -292,6 +305,40 @@ public class BenchmarkResults {
         return this.getTransactionLatencies(txnName, true);
     }
     
+    // ----------------------------------------------------------------------------
+    // OPEN-LOOP LATENCIES
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Returns true if we have received latencies from any open-loop clients
+     */
+    public boolean hasIntendedLatencies() {
+        return (this.clientIntendedLatencies.isEmpty() == false);
+    }
+    
+    private static LatencyHistogram mergeLatencies(Collection<LatencyHistogram> histograms) {
+        LatencyHistogram latencies = new LatencyHistogram();
+        for (LatencyHistogram h : histograms) {
+            latencies.add(h);
+        } // FOR
+        return (latencies);
+    }
+    
+    public LatencyHistogram getAllIntendedLatencies() {
+        return mergeLatencies(this.clientIntendedLatencies.values());
+    }
+    public LatencyHistogram getLastIntendedLatencies() {
+        return mergeLatencies(this.lastIntendedLatencies.values());
+    }
+    public LatencyHistogram getClientIntendedLatencies(String clientName) {
+        LatencyHistogram latencies = this.clientIntendedLatencies.get(clientName);
+        return (latencies != null ? latencies : new LatencyHistogram());
+    }
+    public LatencyHistogram getTransactionIntendedLatencies(String txnName) {
+        LatencyHistogram latencies = this.txnIntendedLatencies.get(txnName);
+        return (latencies != null ? latencies : new LatencyHistogram());
+    }
+    
     public Result[] getResultsForClientAndTransaction(String clientName, String txnName) {
         int intervals = getCompletedIntervalCount();
         
@@ -426,6 +473,7 @@ public class BenchmarkResults {
                 this.data.put(clientName, txnResults);
             }
     
+            LatencyHistogram clientIntended = new LatencyHistogram();
             for (String txnName : this.transactionNames.keySet()) {
                 List<Result> results = txnResults.get(txnName);
                 if (results == null) {
@@ -457,7 +505,27 @@ public class BenchmarkResults {
                     }
                 }
                 results.add(r);
+                
+                LatencyHistogram intended = cmpResults.intendedLatencies.get(txnOffset);
+                if (intended != null) {
+                    LatencyHistogram h = this.txnIntendedLatencies.get(txnName);
+                    if (h == null) {
+                        h = new LatencyHistogram();
+                        this.txnIntendedLatencies.put(txnName, h);
+                    }
+                    h.add(intended);
+                    clientIntended.add(intended);
+                }
             } // FOR
+            if (clientIntended.isEmpty() == false || this.lastIntendedLatencies.containsKey(clientName)) {
+                LatencyHistogram h = this.clientIntendedLatencies.get(clientName);
+                if (h == null) {
+                    h = new LatencyHistogram();
+                    this.clientIntendedLatencies.put(clientName, h);
+                }
+                h.add(clientIntended);
+                this.lastIntendedLatencies.put(clientName, clientIntended);
+            }
             this.clientResultCount.put(clientName);
             if (debug.val)
                 LOG.debug(String.format("New Result for '%s' => %d [minCount=%d]",
@@ -483,6 +551,18 @@ public class BenchmarkResults {
         clone.transactionNames.putAll(this.transactionNames);
         clone.completedIntervals = this.completedIntervals;
         clone.clientResultCount.put(this.clientResultCount);
+        
+        for (Entry<String, LatencyHistogram> e : this.txnIntendedLatencies.entrySet()) {
+            LatencyHistogram h = new LatencyHistogram();
+            h.add(e.getValue());
+            clone.txnIntendedLatencies.put(e.getKey(), h);
+        } // FOR
+        for (Entry<String, LatencyHistogram> e : this.clientIntendedLatencies.entrySet()) {
+            LatencyHistogram h = new LatencyHistogram();
+            h.add(e.getValue());
+            clone.clientIntendedLatencies.put(e.getKey(), h);
+        } // FOR
+        clone.lastIntendedLatencies.putAll(this.lastIntendedLatencies);
 
         for (Entry<String, Map<String, List<Result>>> entry : this.data.entrySet()) {
             Map<String, List<Result>> txnsForClient = new TreeMap<String, List<Result>>();
@@ -15,6 +15,7 @@ import org.voltdb.utils.Pair;
 import org.voltdb.utils.VoltTableUtil;
 
 import edu.brown.api.BenchmarkInterest;
+import edu.brown.profilers.LatencyHistogram;
 import edu.brown.statistics.Histogram;
 import edu.brown.statistics.HistogramUtil;
 
@@ -33,8 +34,19 @@ public class CSVResultsPrinter implements BenchmarkInterest {
         new ColumnInfo("LATENCY_50", VoltType.FLOAT),
         new ColumnInfo("LATENCY_95", VoltType.FLOAT),
         new ColumnInfo("LATENCY_99", VoltType.FLOAT),
-
+        new ColumnInfo("INTENDED_LATENCY_50", VoltType.FLOAT),
+        new ColumnInfo("INTENDED_LATENCY_90", VoltType.FLOAT),
+        new ColumnInfo("INTENDED_LATENCY_99", VoltType.FLOAT),
+        new ColumnInfo("INTENDED_LATENCY_999", VoltType.FLOAT),
+        new ColumnInfo("INTENDED_LATENCY_9999", VoltType.FLOAT),
+        new ColumnInfo("INTENDED_LATENCY_MAX", VoltType.FLOAT),
     };
+    
+    /**
+     * The percentiles for the INTENDED_LATENCY columns.
+     * These are only populated for open-loop clients.
+     */
+    public static final double[] intendedPercentiles = { 50d, 90d, 99d, 99.9d, 99.99d, 100d };
 
     private final List<Object[]> results = new ArrayList<Object[]>(); 
     private final File outputPath;
@@ -94,6 +106,14 @@ public class CSVResultsPrinter implements BenchmarkInterest {
         double intervalLatency_50 = latencies[0];
         double intervalLatency_95 = latencies[1];
         double intervalLatency_99 = latencies[2];
+        
+        // INTERVAL OPEN-LOOP LATENCY (microseconds -> milliseconds)
+        LatencyHistogram lastIntended = br.getLastIntendedLatencies();
+        double intendedLatencies[] = new double[intendedPercentiles.length];
+        for (int i = 0; i < intendedLatencies.length; i++) {
+            intendedLatencies[i] = lastIntended.getValueAtPercentile(intendedPercentiles[i]) / 1000d;
+        } // FOR
+        
         Object row[] = {
             this.intervalCounter++,
             br.getElapsedTime(),
@@ -104,7 +124,13 @@ public class CSVResultsPrinter implements BenchmarkInterest {
             0,
             intervalLatency_50,
             intervalLatency_95,
-            intervalLatency_99
+            intervalLatency_99,
+            intendedLatencies[0],
+            intendedLatencies[1],
+            intendedLatencies[2],
+            intendedLatencies[3],
+            intendedLatencies[4],
+            intendedLatencies[5],
         };
         this.results.add(row);
         
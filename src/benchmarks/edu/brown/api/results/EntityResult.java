@@ -2,6 +2,8 @@ package edu.brown.api.results;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -9,6 +11,7 @@ import org.json.JSONStringer;
 import org.voltdb.catalog.Database;
 
 import edu.brown.api.BenchmarkControllerUtil;
+import edu.brown.profilers.LatencyHistogram;
 import edu.brown.statistics.Histogram;
 import edu.brown.utils.JSONSerializable;
 import edu.brown.utils.JSONUtil;
@@ -37,6 +40,12 @@ public class EntityResult implements JSONSerializable {
     public double dtxnMinLatency = 0d;
     public double dtxnMaxLatency = 0d;
     
+    /**
+     * Percentile -> Latency measured from the intended start time
+     * This is only populated for open-loop clients
+     */
+    public final Map<String, Double> intendedLatencyCurve = new TreeMap<String, Double>();
+    
     public EntityResult(long totalTxnCount, long duration, long txnCount, long dtxnCount,
                         Histogram<Integer> totalLatencies, Histogram<Integer> spLatencies, Histogram<Integer> dtxnLatencies) {
         this.txnCount = txnCount;
@@ -87,6 +96,13 @@ public class EntityResult implements JSONSerializable {
         }
     }
     
+    public void setIntendedLatencies(LatencyHistogram latencies) {
+        BenchmarkControllerUtil.computeLatencyCurve(latencies, this.intendedLatencyCurve);
+    }
+    public Map<String, Double> getIntendedLatencyCurve() {
+        return this.intendedLatencyCurve;
+    }
+    
     public long getTxnCount() {
         return this.txnCount;
     }
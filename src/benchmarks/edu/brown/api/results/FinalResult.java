@@ -6,6 +6,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.apache.log4j.Logger;
 import org.json.JSONException;
@@ -17,6 +18,7 @@ import edu.brown.api.BenchmarkControllerUtil;
 import edu.brown.api.results.BenchmarkResults.Result;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.profilers.LatencyHistogram;
 import edu.brown.statistics.Histogram;
 import edu.brown.statistics.ObjectHistogram;
 import edu.brown.utils.JSONSerializable;
@@ -57,6 +59,12 @@ public class FinalResult implements JSONSerializable {
     public double dtxnMinLatency;
     public double dtxnMaxLatency;
     
+    /**
+     * Percentile -> Latency measured from the intended start time
+     * This is only populated for open-loop clients
+     */
+    public final Map<String, Double> intendedLatencyCurve = new TreeMap<String, Double>();
+    
     /** TransactionName -> Results */
     public final Map<String, EntityResult> txnResults = new HashMap<String, EntityResult>();
     /** ClientName -> Results */
@@ -139,6 +147,9 @@ public class FinalResult implements JSONSerializable {
             EntityResult er = new EntityResult(this.txnTotalCount, this.duration,
                                                txnCounts.get(txnName), dtxnCounts.get(txnName),
                                                allTxnLatencies, spTxnLatencies, dtxnTxnLatencies);
+            if (results.hasIntendedLatencies()) {
+                er.setIntendedLatencies(results.getTransactionIntendedLatencies(txnName));
+            }
             this.txnResults.put(txnName, er);
             totalLatencies.put(allTxnLatencies);
             spLatencies.put(spTxnLatencies);
@@ -177,8 +188,17 @@ public class FinalResult implements JSONSerializable {
             EntityResult er = new EntityResult(this.txnTotalCount, this.duration,
                                                clientTxnCounts.get(clientName), clientDtxnCounts.get(clientName),
                                                totalLatencies, spLatencies, dtxnLatencies);
+            if (results.hasIntendedLatencies()) {
+                er.setIntendedLatencies(results.getClientIntendedLatencies(clientName));
+            }
             this.clientResults.put(clientName.replace("client-", ""), er);
         } // FOR
+        
+        // OPEN-LOOP LATENCIES
+        if (results.hasIntendedLatencies()) {
+            LatencyHistogram intendedLatencies = results.getAllIntendedLatencies();
+            BenchmarkControllerUtil.computeLatencyCurve(intendedLatencies, this.intendedLatencyCurve);
+        }
     }
     
     public long getDuration() {
@@ -228,6 +248,10 @@ public class FinalResult implements JSONSerializable {
         return this.totalMaxLatency;
     }
 
+    public Map<String, Double> getIntendedLatencyCurve() {
+        return this.intendedLatencyCurve;
+    }
+
     public EntityResult getTransactionResult(String txnName) {
         return this.txnResults.get(txnName);
     }
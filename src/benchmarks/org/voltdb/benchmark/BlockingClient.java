@@ -10,6 +10,7 @@ import java.util.concurrent.Semaphore;
 import org.apache.log4j.Logger;
 import org.voltdb.StoredProcedureInvocationHints;
 import org.voltdb.VoltTable;
+import org.voltdb.catalog.Catalog;
 import org.voltdb.client.Client;
 import org.voltdb.client.ClientResponse;
 import org.voltdb.client.ClientStatusListener;
@@ -208,6 +209,14 @@ public class BlockingClient extends Semaphore implements Client {
         return this.inner.getBuildString();
     }
 
+    /* (non-Javadoc)
+     * @see org.voltdb.client.Client#updateCatalog(org.voltdb.catalog.Catalog)
+     */
+    @Override
+    public void updateCatalog(Catalog catalog) throws IOException, ProcCallException {
+        this.inner.updateCatalog(catalog);
+    }
+
     /* (non-Javadoc)
      * @see org.voltdb.client.Client#getIOStats()
      */
@@ -0,0 +1,227 @@
+package org.voltdb.benchmark;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+
+import org.voltdb.StoredProcedureInvocationHints;
+import org.voltdb.VoltTable;
+import org.voltdb.catalog.Catalog;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ClientStatusListener;
+import org.voltdb.client.NoConnectionsException;
+import org.voltdb.client.ProcCallException;
+import org.voltdb.client.ProcedureCallback;
+
+import edu.brown.profilers.ProfileMeasurement;
+
+/**
+ * Client wrapper for open-loop benchmark runs.
+ * <p>
+ * The thread that generates the requests tells us when each request was supposed to
+ * be sent with {@link #setIntendedStartTime(long)}. Every asynchronous invocation
+ * remembers that time, and when the response comes back we compute the latency
+ * from the intended start time rather than from when the request actually made it
+ * out of the client. The inner callback can then retrieve that latency on the same
+ * thread with {@link #getIntendedLatency()}. This makes sure that any time that a
+ * request spent waiting for the client to catch up is included in its latency.
+ */
+public class OpenLoopClient implements Client {
+
+    /**
+     * The intended start time (in nanoseconds) for the next request
+     * that is submitted by the current thread.
+     */
+    private static final ThreadLocal<Long> INTENDED_START = new ThreadLocal<Long>();
+
+    /**
+     * The latency (in nanoseconds) of the response that is being processed
+     * by the current thread. This is only set while we are inside of
+     * an inner callback.
+     */
+    private static final ThreadLocal<Long> INTENDED_LATENCY = new ThreadLocal<Long>();
+
+    private final Client inner;
+
+    private class OpenLoopCallback implements ProcedureCallback {
+        private final ProcedureCallback inner_callback;
+        private final long intended_start;
+
+        public OpenLoopCallback(ProcedureCallback inner_callback) {
+            assert(inner_callback != null);
+            this.inner_callback = inner_callback;
+            Long start = INTENDED_START.get();
+            this.intended_start = (start != null ? start.longValue() : System.nanoTime());
+        }
+
+        @Override
+        public void clientCallback(ClientResponse clientResponse) {
+            INTENDED_LATENCY.set(System.nanoTime() - this.intended_start);
+            try {
+                this.inner_callback.clientCallback(clientResponse);
+            } finally {
+                INTENDED_LATENCY.remove();
+            }
+        }
+    }
+
+    public OpenLoopClient(Client inner) {
+        this.inner = inner;
+    }
+
+    public Client getClient() {
+        return (this.inner);
+    }
+
+    /**
+     * Set the time (from System.nanoTime()) that the next requests submitted
+     * by the current thread were supposed to be sent at.
+     * @param timestamp
+     */
+    public static void setIntendedStartTime(long timestamp) {
+        INTENDED_START.set(timestamp);
+    }
+
+    /**
+     * Return the latency in nanoseconds of the response that the current thread
+     * is processing, measured from when its request was supposed to be sent.
+     * Returns -1 if the current thread is not inside of a callback for
+     * a request that went through an OpenLoopClient.
+     * @return
+     */
+    public static long getIntendedLatency() {
+        Long latency = INTENDED_LATENCY.get();
+        return (latency != null ? latency.longValue() : -1);
+    }
+
+    // ----------------------------------------------------------------------------
+    // ASYNCHRONOUS INVOCATIONS
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public boolean callProcedure(ProcedureCallback callback, String procName, Object... parameters) throws IOException,
+            NoConnectionsException {
+        return this.inner.callProcedure(this.wrap(callback), procName, parameters);
+    }
+
+    @Override
+    public boolean callProcedure(ProcedureCallback callback, String procName, StoredProcedureInvocationHints hints, Object... parameters) throws IOException, NoConnectionsException {
+        return this.inner.callProcedure(this.wrap(callback), procName, hints, parameters);
+    }
+
+    @Override
+    public boolean callProcedure(ProcedureCallback callback, int expectedSerializedSize, String procName,
+            StoredProcedureInvocationHints hints, Object... parameters) throws IOException, NoConnectionsException {
+        return this.inner.callProcedure(this.wrap(callback), expectedSerializedSize, procName, hints, parameters);
+    }
+
+    private ProcedureCallback wrap(ProcedureCallback callback) {
+        return (callback != null ? new OpenLoopCallback(callback) : null);
+    }
+
+    // ----------------------------------------------------------------------------
+    // PASS-THROUGH METHODS
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public ClientResponse callProcedure(String procName, Object... parameters) throws IOException,
+            NoConnectionsException, ProcCallException {
+        return this.inner.callProcedure(procName, parameters);
+    }
+
+    @Override
+    public ClientResponse callProcedure(String procName, StoredProcedureInvocationHints hints, Object... parameters) throws IOException, NoConnectionsException, ProcCallException {
+        return this.inner.callProcedure(procName, hints, parameters);
+    }
+
+    @Override
+    public void addClientStatusListener(ClientStatusListener listener) {
+        this.inner.addClientStatusListener(listener);
+    }
+
+    @Override
+    public boolean removeClientStatusListener(ClientStatusListener listener) {
+        return this.inner.removeClientStatusListener(listener);
+    }
+
+    @Override
+    public void backpressureBarrier() throws InterruptedException {
+        this.inner.backpressureBarrier();
+    }
+
+    @Override
+    public boolean blocking() {
+        return this.inner.blocking();
+    }
+
+    @Override
+    public void configureBlocking(boolean blocking) {
+        this.inner.configureBlocking(blocking);
+    }
+
+    @Override
+    public int calculateInvocationSerializedSize(String procName, Object... parameters) {
+        return this.inner.calculateInvocationSerializedSize(procName, parameters);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        this.inner.close();
+    }
+
+    @Override
+    public void createConnection(String host, int port) throws UnknownHostException, IOException {
+        this.inner.createConnection(host, port);
+    }
+
+    @Override
+    public void createConnection(Integer siteId, String host, int port, String username, String password) throws UnknownHostException,
+            IOException {
+        this.inner.createConnection(siteId, host, port, username, password);
+    }
+
+    @Override
+    public void drain() throws NoConnectionsException, InterruptedException {
+        this.inner.drain();
+    }
+
+    @Override
+    public String getBuildString() {
+        return this.inner.getBuildString();
+    }
+
+    @Override
+    public void updateCatalog(Catalog catalog) throws IOException, ProcCallException {
+        this.inner.updateCatalog(catalog);
+    }
+
+    @Override
+    public VoltTable getIOStats() {
+        return this.inner.getIOStats();
+    }
+
+    @Override
+    public VoltTable getIOStatsInterval() {
+        return this.inner.getIOStatsInterval();
+    }
+
+    @Override
+    public Object[] getInstanceId() {
+        return this.inner.getInstanceId();
+    }
+
+    @Override
+    public VoltTable getProcedureStats() {
+        return this.inner.getProcedureStats();
+    }
+
+    @Override
+    public VoltTable getProcedureStatsInterval() {
+        return this.inner.getProcedureStatsInterval();
+    }
+
+    @Override
+    public ProfileMeasurement getQueueTime() {
+        return this.inner.getQueueTime();
+    }
+}
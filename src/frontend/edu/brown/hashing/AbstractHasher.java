@@ -9,6 +9,7 @@ import org.voltdb.CatalogContext;
 import org.voltdb.catalog.CatalogType;
 import org.voltdb.catalog.Database;
 
+import edu.brown.utils.ClassUtil;
 import edu.brown.utils.JSONSerializable;
 import edu.brown.utils.JSONUtil;
 
@@ -23,6 +24,25 @@ public abstract class AbstractHasher implements JSONSerializable {
         this.num_partitions = num_partitions;
     }
     
+    /**
+     * Create a new instance of the given AbstractHasher class for the catalog.
+     * If a partition plan file is given, then the hasher will load it in.
+     * @param hasherClass
+     * @param hasherPlan The path to the partition plan file (may be null)
+     * @param catalogContext
+     * @return
+     * @throws IOException
+     */
+    public static AbstractHasher newInstance(String hasherClass, String hasherPlan, CatalogContext catalogContext) throws IOException {
+        AbstractHasher hasher = ClassUtil.newInstance(hasherClass,
+                                                      new Object[]{ catalogContext, catalogContext.numberOfPartitions },
+                                                      new Class<?>[]{ CatalogContext.class, int.class });
+        if (hasherPlan != null && hasherPlan.isEmpty() == false) {
+            hasher.load(new File(hasherPlan), catalogContext.database);
+        }
+        return (hasher);
+    }
+    
     /**
      * Combine multiple values into a single key and get the hash of that
      * Should be uniformly distributed (or at least good enough for what we need)
@@ -53,6 +73,16 @@ public abstract class AbstractHasher implements JSONSerializable {
         return (this.num_partitions);
     }
     
+    /**
+     * Return the version of the mapping from values to partitions that this
+     * hasher is using. This only changes for hashers that support moving
+     * values to different partitions while the system is running.
+     * @return
+     */
+    public int getVersion() {
+        return (0);
+    }
+    
     // -----------------------------------------------------------------
     // ABSTRACT INTERFACE
     // -----------------------------------------------------------------
@@ -0,0 +1,283 @@
+package edu.brown.hashing;
+
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+import org.voltdb.CatalogContext;
+import org.voltdb.TheHashinator;
+import org.voltdb.catalog.CatalogType;
+import org.voltdb.catalog.Database;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.utils.ClassUtil;
+
+/**
+ * A hasher that maps values onto a fixed ring of tokens and then uses a token
+ * table to map those tokens to partitions. Since the number of tokens never changes,
+ * we can move a subset of the tokens to new partitions without reshuffling every
+ * other key in the database.
+ * <p>
+ * The initial token table assigns each token to <code>token % num_partitions</code>.
+ * Whenever the number of partitions evenly divides {@link #NUM_TOKENS}, this
+ * gives exactly the same partitions as the {@link DefaultHasher}, so a database
+ * that was loaded with the DefaultHasher can switch over to this hasher without
+ * having to be reloaded.
+ * <p>
+ * Every change to the token table creates a new immutable plan with a new version
+ * number, so threads that are hashing values never see a partially updated table.
+ */
+public class ElasticHasher extends AbstractHasher {
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    private static final LoggerBoolean trace = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * The number of tokens in the ring. This is divisible by every
+     * partition count up to 16 and most of the common ones after that.
+     */
+    public static final int NUM_TOKENS = 20160;
+
+    public enum Members {
+        VERSION,
+        NUM_PARTITIONS,
+        TOKENS;
+    }
+
+    /**
+     * An immutable version of the token table
+     */
+    private static final class Plan {
+        private final int version;
+        private final int num_partitions;
+        private final int tokens[];
+
+        private Plan(int version, int num_partitions, int tokens[]) {
+            assert(tokens.length == NUM_TOKENS);
+            this.version = version;
+            this.num_partitions = num_partitions;
+            this.tokens = tokens;
+        }
+    } // CLASS
+
+    private volatile Plan plan;
+
+    /**
+     * @param catalogContext
+     * @param num_partitions
+     */
+    public ElasticHasher(CatalogContext catalogContext, int num_partitions) {
+        super(catalogContext, num_partitions);
+        int tokens[] = new int[NUM_TOKENS];
+        for (int token = 0; token < NUM_TOKENS; token++) {
+            tokens[token] = token % num_partitions;
+        } // FOR
+        this.plan = new Plan(0, num_partitions, tokens);
+    }
+
+    /**
+     * Make sure that the token table still fits the given catalog. The number of
+     * partitions can't change underneath us, because then the tokens would be
+     * assigned to partitions that don't exist.
+     */
+    @Override
+    public void init(CatalogContext catalogContext) {
+        if (catalogContext.numberOfPartitions != this.num_partitions) {
+            throw new RuntimeException(String.format("%s was created for %d partitions but the catalog has %d",
+                                       this.getClass().getSimpleName(), this.num_partitions,
+                                       catalogContext.numberOfPartitions));
+        }
+    }
+
+    // -----------------------------------------------------------------
+    // HASHING
+    // -----------------------------------------------------------------
+
+    /**
+     * Return the token in the ring that the given value maps to.
+     * This never changes for a value.
+     * @param value
+     * @return
+     */
+    public int getToken(Object value) {
+        assert(!ClassUtil.isArray(value)) : "Value for hashing is an array: " + Arrays.toString((Object[])value);
+        return (TheHashinator.hashToPartition(value, NUM_TOKENS));
+    }
+
+    /**
+     * Return the partition that the given token is currently assigned to
+     * @param token
+     * @return
+     */
+    public int getPartition(int token) {
+        return (this.plan.tokens[token]);
+    }
+
+    @Override
+    public int hash(Object value) {
+        return (this.plan.tokens[this.getToken(value)]);
+    }
+
+    @Override
+    public int hash(Object value, CatalogType catalogItem) {
+        assert(catalogItem != null) : "Null catalog item [value=" + value + "]";
+        return (this.hash(value));
+    }
+
+    @Override
+    public int hash(Object value, int num_partitions) {
+        // The token table only knows about the partitions that it was built for.
+        // Anybody that wants a different partition count gets the regular hash.
+        if (num_partitions == this.num_partitions) {
+            return (this.hash(value));
+        }
+        return (TheHashinator.hashToPartition(value, num_partitions));
+    }
+
+    // -----------------------------------------------------------------
+    // REPARTITIONING
+    // -----------------------------------------------------------------
+
+    /**
+     * Return the version of the current token table. This is incremented
+     * every time that tokens are moved to a different partition.
+     */
+    @Override
+    public int getVersion() {
+        return (this.plan.version);
+    }
+
+    /**
+     * Return the number of partitions that currently have tokens assigned to them.
+     * This can be less than {@link #getNumPartitions()} if the catalog has partitions
+     * that have not been given any data yet.
+     */
+    public int getNumActivePartitions() {
+        return (this.plan.num_partitions);
+    }
+
+    /**
+     * Move all of the tokens in the range [firstToken, lastToken] to the given partition.
+     * Returns the new version of the token table.
+     * @param firstToken
+     * @param lastToken
+     * @param partition
+     * @return
+     */
+    public synchronized int move(int firstToken, int lastToken, int partition) {
+        if (firstToken < 0 || lastToken >= NUM_TOKENS || firstToken > lastToken) {
+            throw new IllegalArgumentException(String.format("Invalid token range [%d, %d]", firstToken, lastToken));
+        }
+        if (partition < 0 || partition >= this.num_partitions) {
+            throw new IllegalArgumentException("Invalid partition " + partition);
+        }
+        Plan prev = this.plan;
+        int tokens[] = Arrays.copyOf(prev.tokens, NUM_TOKENS);
+        Arrays.fill(tokens, firstToken, lastToken + 1, partition);
+        this.plan = new Plan(prev.version + 1, Math.max(prev.num_partitions, partition + 1), tokens);
+        if (debug.val)
+            LOG.debug(String.format("Moved tokens [%d, %d] to partition %d [version=%d]",
+                      firstToken, lastToken, partition, this.plan.version));
+        return (this.plan.version);
+    }
+
+    /**
+     * Spread the tokens out evenly over the given number of partitions. Only the tokens
+     * that need to be moved to make room for the new partitions are moved, so only
+     * about <code>1 - (old / new)</code> of the keys in the database will change partitions.
+     * Returns the new version of the token table.
+     * @param num_partitions
+     * @return
+     */
+    public synchronized int rebalance(int num_partitions) {
+        if (num_partitions < 1 || num_partitions > this.num_partitions) {
+            throw new IllegalArgumentException(String.format("Invalid number of partitions %d [max=%d]",
+                                               num_partitions, this.num_partitions));
+        }
+        Plan prev = this.plan;
+        int tokens[] = Arrays.copyOf(prev.tokens, NUM_TOKENS);
+
+        // Figure out how many tokens each partition should end up with
+        int targets[] = new int[num_partitions];
+        for (int p = 0; p < num_partitions; p++) {
+            targets[p] = NUM_TOKENS / num_partitions + (p < NUM_TOKENS % num_partitions ? 1 : 0);
+        } // FOR
+        int counts[] = new int[Math.max(prev.num_partitions, num_partitions)];
+        for (int token = 0; token < NUM_TOKENS; token++) {
+            counts[tokens[token]]++;
+        } // FOR
+
+        // Take tokens away from the partitions that have too many (or that are going
+        // away) and give them to the ones that do not have enough. We walk the ring
+        // in a stride so that the tokens that a partition gives up are spread out.
+        int receiver = 0;
+        for (int offset = 0; offset < num_partitions; offset++) {
+            for (int token = offset; token < NUM_TOKENS; token += num_partitions) {
+                int owner = tokens[token];
+                int target = (owner < num_partitions ? targets[owner] : 0);
+                if (counts[owner] <= target) continue;
+                while (receiver < num_partitions && counts[receiver] >= targets[receiver]) {
+                    receiver++;
+                } // WHILE
+                if (receiver == num_partitions) break;
+                tokens[token] = receiver;
+                counts[owner]--;
+                counts[receiver]++;
+            } // FOR
+        } // FOR
+
+        this.plan = new Plan(prev.version + 1, num_partitions, tokens);
+        if (debug.val)
+            LOG.debug(String.format("Rebalanced tokens from %d to %d partitions [version=%d]",
+                      prev.num_partitions, num_partitions, this.plan.version));
+        return (this.plan.version);
+    }
+
+    // -----------------------------------------------------------------
+    // SERIALIZATION
+    // -----------------------------------------------------------------
+
+    @Override
+    public void toJSON(JSONStringer stringer) throws JSONException {
+        Plan p = this.plan;
+        stringer.key(Members.VERSION.name()).value(p.version);
+        stringer.key(Members.NUM_PARTITIONS.name()).value(p.num_partitions);
+        stringer.key(Members.TOKENS.name()).array();
+        for (int token = 0; token < NUM_TOKENS; token++) {
+            stringer.value(p.tokens[token]);
+        } // FOR
+        stringer.endArray();
+    }
+
+    @Override
+    public void fromJSON(JSONObject json_object, Database catalog_db) throws JSONException {
+        int version = json_object.getInt(Members.VERSION.name());
+        // The plan can use fewer partitions than the catalog has (e.g., when it was
+        // saved before the cluster grew and hasn't been rebalanced yet), but never more
+        int num_partitions = json_object.getInt(Members.NUM_PARTITIONS.name());
+        if (num_partitions < 1 || num_partitions > this.num_partitions) {
+            throw new JSONException(String.format("Plan has %d partitions but the catalog only has %d",
+                                                  num_partitions, this.num_partitions));
+        }
+        JSONArray json_arr = json_object.getJSONArray(Members.TOKENS.name());
+        if (json_arr.length() != NUM_TOKENS) {
+            throw new JSONException(String.format("Expected %d tokens but found %d", NUM_TOKENS, json_arr.length()));
+        }
+        int tokens[] = new int[NUM_TOKENS];
+        for (int token = 0; token < NUM_TOKENS; token++) {
+            tokens[token] = json_arr.getInt(token);
+            if (tokens[token] < 0 || tokens[token] >= num_partitions) {
+                throw new JSONException(String.format("Token %d is assigned to invalid partition %d",
+                                                      token, tokens[token]));
+            }
+        } // FOR
+        synchronized (this) {
+            this.plan = new Plan(version, num_partitions, tokens);
+        } // SYNCH
+    }
+}
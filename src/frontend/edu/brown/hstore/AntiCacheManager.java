@@ -1047,6 +1047,26 @@ public class AntiCacheManager extends AbstractProcessingRunnable<AntiCacheManage
         public boolean isEvicting() {
             return (pendingEvictions != 0);
         }
+        public int getQueueSize() {
+            return (queue.size());
+        }
+        /**
+         * The following return the values from the last time that we collected
+         * the memory stats for the given partition. They are read without holding
+         * the lock, so they may be slightly out of date.
+         */
+        public long getPartitionSizeKb(int partition) {
+            return (partitionStats[partition].sizeKb);
+        }
+        public long getBlocksEvicted(int partition) {
+            return (partitionStats[partition].blocksEvicted);
+        }
+        public long getBlocksFetched(int partition) {
+            return (partitionStats[partition].blocksFetched);
+        }
+        public long getBlocksWritten(int partition) {
+            return (partitionStats[partition].blocksWritten);
+        }
     }
 
     private AntiCacheManager.Debug cachedDebugContext;
@@ -777,7 +777,8 @@ public class BatchPlanner {
                             ProfileMeasurementUtil.swap(profiler.plan_time, profiler.partest_time);
                         this.p_estimator.getAllFragmentPartitions(frag_partitions,
                                                                   stmt_all_partitions,
-                                                                  fragments.values(),
+                                                                  catalog_stmt,
+                                                                  is_singlePartition,
                                                                   params,
                                                                   base_partition);
                         if (hstore_conf.site.planner_profiling && profiler != null)
@@ -587,7 +587,7 @@ public class ClientInterface implements Shutdownable, Configurable {
     private long maxPendingTxnBytes;
     private final double maxPendingTxnBytesRelease = 0.8;
     
-    private int maxPendingTxnCount;
+    private volatile int maxPendingTxnCount;
     private final double maxPendingTxnCountRelease = 0.8;
     
     
@@ -712,6 +712,14 @@ public class ClientInterface implements Shutdownable, Configurable {
     public int getMaxPendingTxnCount() {
         return (this.maxPendingTxnCount);
     }
+    /**
+     * Change the max number of txns that we will allow to be pending before
+     * we turn on backpressure. This is used by the AdmissionController.
+     * @param count
+     */
+    public void setMaxPendingTxnCount(int count) {
+        this.maxPendingTxnCount = count;
+    }
     public int getPendingTxnCount() {
         return currentPendingTxnCount.get();
     }
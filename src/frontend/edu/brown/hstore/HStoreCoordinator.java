@@ -98,6 +98,7 @@ import edu.brown.hstore.util.TransactionCounter;
 import edu.brown.interfaces.Shutdownable;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.profilers.HStoreSiteProfiler;
 import edu.brown.protorpc.NIOEventLoop;
 import edu.brown.protorpc.ProtoRpcChannel;
 import edu.brown.protorpc.ProtoRpcController;
@@ -133,10 +134,15 @@ public class HStoreCoordinator implements Shutdownable {
     /** SiteId -> HStoreService */
     private final HStoreService channels[];
     
-    private final Thread listener_thread;
+    /**
+     * The event loops that process all of our network messages. Every connection
+     * to a remote site is pinned to a single loop so that its messages are always
+     * processed in order. The first loop is also the one that accepts new connections.
+     */
+    private final NIOEventLoop eventLoops[];
+    private final Thread listener_threads[];
     private final ProtoServer listener;
     private final HStoreService remoteService;
-    private final NIOEventLoop eventLoop = new NIOEventLoop();
     
     private Shutdownable.ShutdownState state = ShutdownState.INITIALIZED;
     
@@ -186,18 +192,29 @@ public class HStoreCoordinator implements Shutdownable {
     // ----------------------------------------------------------------------------
     
     /**
-     * 
+     * Runs one of our NIOEventLoops
      */
     private class MessengerListener implements Runnable {
+        private final int loop_id;
+        
+        private MessengerListener(int loop_id) {
+            this.loop_id = loop_id;
+        }
+        
         @Override
         public void run() {
             Thread self = Thread.currentThread();
-            self.setName(HStoreThreadManager.getThreadName(hstore_site, HStoreConstants.THREAD_NAME_COORDINATOR));
+            if (this.loop_id == 0) {
+                self.setName(HStoreThreadManager.getThreadName(hstore_site, HStoreConstants.THREAD_NAME_COORDINATOR));
+            } else {
+                self.setName(HStoreThreadManager.getThreadName(hstore_site, HStoreConstants.THREAD_NAME_COORDINATOR,
+                                                               Integer.toString(this.loop_id)));
+            }
             hstore_site.getThreadManager().registerProcessingThread();
             
             Throwable error = null;
             try {
-                HStoreCoordinator.this.eventLoop.run();
+                HStoreCoordinator.this.eventLoops[this.loop_id].run();
             } catch (Throwable ex) {
                 error = ex;
             }
@@ -303,8 +320,23 @@ public class HStoreCoordinator implements Shutdownable {
         // Incoming RPC Handler
         this.remoteService = this.initHStoreService();
         
-        // This listener thread will process incoming messages
-        this.listener = new ProtoServer(this.eventLoop);
+        // These event loops will process all of our incoming and outgoing messages
+        int num_loops = Math.max(1, hstore_conf.site.coordinator_event_loops);
+        this.eventLoops = new NIOEventLoop[num_loops];
+        HStoreSiteProfiler profiler = hstore_site.getProfiler();
+        if (profiler != null) profiler.initCoordinatorLoops(num_loops);
+        for (int i = 0; i < num_loops; i++) {
+            this.eventLoops[i] = new NIOEventLoop();
+            if (profiler != null) {
+                this.eventLoops[i].setProfilers(profiler.coordinator_idle[i], profiler.coordinator_busy[i]);
+            }
+        } // FOR
+        
+        // This listener will accept connections from the other sites
+        // and then spread them out over all of our event loops
+        this.listener = new ProtoServer(this.eventLoops[0]);
+        this.listener.setConnectionEventLoops(this.eventLoops);
+        this.listener.setCoalesceLimit(hstore_conf.site.coordinator_coalesce_bytes);
         
         // Special dispatcher threads to handle incoming requests
         // These are used so that we can process messages in a different thread than the main HStoreCoordinator thread
@@ -348,10 +380,13 @@ public class HStoreCoordinator implements Shutdownable {
         this.transactionFinish_handler = new TransactionFinishHandler(hstore_site, this, this.transactionFinish_dispatcher);
         this.sendData_handler = new SendDataHandler(hstore_site, this);
         
-        // Wrap the listener in a daemon thread
-        this.listener_thread = new Thread(new MessengerListener());
-        this.listener_thread.setDaemon(true);
-        this.eventLoop.setExitOnSigInt(true);
+        // Wrap each event loop in a daemon thread
+        this.listener_threads = new Thread[num_loops];
+        for (int i = 0; i < num_loops; i++) {
+            this.listener_threads[i] = new Thread(new MessengerListener(i));
+            this.listener_threads[i].setDaemon(true);
+        } // FOR
+        this.eventLoops[0].setExitOnSigInt(true);
         
         // Initialize the PrefetchQueryPlanner if we're allowed to execute
         // speculative queries and we actually have some in the catalog 
@@ -395,8 +430,10 @@ public class HStoreCoordinator implements Shutdownable {
             t.start();
         } // FOR
         
-        if (debug.val) LOG.debug("Starting listener thread");
-        this.listener_thread.start();
+        if (debug.val) LOG.debug("Starting " + this.listener_threads.length + " listener threads");
+        for (Thread t : this.listener_threads) {
+            t.start();
+        } // FOR
         
         // If we're at site zero, then we'll announce our instanceId
         // to everyone in the cluster
@@ -447,14 +484,20 @@ public class HStoreCoordinator implements Shutdownable {
                 thread.interrupt();
             } // FOR
             
-            if (trace.val) LOG.trace("Stopping eventLoop for Site #" + this.getLocalSiteId());
-            this.eventLoop.exitLoop();
+            if (trace.val) LOG.trace("Stopping eventLoops for Site #" + this.getLocalSiteId());
+            for (NIOEventLoop eventLoop : this.eventLoops) {
+                eventLoop.exitLoop();
+            } // FOR
 
-            if (trace.val) LOG.trace("Stopping listener thread for Site #" + this.getLocalSiteId());
-            this.listener_thread.interrupt();
+            if (trace.val) LOG.trace("Stopping listener threads for Site #" + this.getLocalSiteId());
+            for (Thread t : this.listener_threads) {
+                t.interrupt();
+            } // FOR
             
-            if (trace.val) LOG.trace("Joining on listener thread for Site #" + this.getLocalSiteId());
-            this.listener_thread.join();
+            if (trace.val) LOG.trace("Joining on listener threads for Site #" + this.getLocalSiteId());
+            for (Thread t : this.listener_threads) {
+                t.join();
+            } // FOR
         } catch (InterruptedException ex) {
             // IGNORE
         } catch (Throwable ex) {
@@ -484,8 +527,11 @@ public class HStoreCoordinator implements Shutdownable {
     protected int getLocalMessengerPort() {
         return (this.hstore_site.getSite().getMessenger_port());
     }
+    /**
+     * Returns the thread for the event loop that accepts new connections
+     */
     protected final Thread getListenerThread() {
-        return (this.listener_thread);
+        return (this.listener_threads[0]);
     }
     
     public HStoreService getChannel(int site_id) {
@@ -544,7 +590,8 @@ public class HStoreCoordinator implements Shutdownable {
             Throwable error = null;
             while (tries-- > 0 && success == false) {
                 try {
-                    channels = ProtoRpcChannel.connectParallel(this.eventLoop,
+                    channels = ProtoRpcChannel.connectParallel(this.eventLoops[0],
+                                                               this.eventLoops,
                                                                arr,
                                                                hstore_conf.site.network_startup_wait);
                     success = true;
@@ -563,6 +610,7 @@ public class HStoreCoordinator implements Shutdownable {
             assert channels.length == destinations.size();
             for (int i = 0; i < channels.length; i++) {
                 Pair<Integer, InetSocketAddress> p = destinations.get(i);
+                channels[i].setCoalesceLimit(hstore_conf.site.coordinator_coalesce_bytes);
                 this.channels[p.getFirst()] = HStoreService.newStub(channels[i]);
             } // FOR
             
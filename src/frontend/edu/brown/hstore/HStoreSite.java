@@ -34,13 +34,8 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -101,6 +96,8 @@ import edu.brown.hstore.callbacks.LocalFinishCallback;
 import edu.brown.hstore.callbacks.LocalInitQueueCallback;
 import edu.brown.hstore.callbacks.PartitionCountingCallback;
 import edu.brown.hstore.callbacks.RedirectCallback;
+import edu.brown.hstore.cmdlog.CommandLogReader;
+import edu.brown.hstore.cmdlog.CommandLogReplayer;
 import edu.brown.hstore.cmdlog.CommandLogWriter;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.estimators.EstimatorState;
@@ -121,6 +118,7 @@ import edu.brown.hstore.txns.AbstractTransaction;
 import edu.brown.hstore.txns.DependencyTracker;
 import edu.brown.hstore.txns.LocalTransaction;
 import edu.brown.hstore.txns.RemoteTransaction;
+import edu.brown.hstore.util.AdmissionController;
 import edu.brown.hstore.util.MapReduceHelperThread;
 import edu.brown.hstore.util.TransactionCounter;
 import edu.brown.hstore.util.TransactionProfilerDumper;
@@ -134,8 +132,8 @@ import edu.brown.markov.EstimationThresholds;
 import edu.brown.plannodes.PlanNodeUtil;
 import edu.brown.profilers.HStoreSiteProfiler;
 import edu.brown.statistics.FastIntHistogram;
-import edu.brown.utils.ClassUtil;
 import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.ConcurrentLongHashMap;
 import edu.brown.utils.EventObservable;
 import edu.brown.utils.EventObservableExceptionHandler;
 import edu.brown.utils.EventObserver;
@@ -228,14 +226,8 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     /**
      * Keep track of which txns that we have in-flight right now
      */
-    private final Map<Long, AbstractTransaction> inflight_txns = 
-                        new ConcurrentHashMap<Long, AbstractTransaction>();
-    
-    /**
-     * Queues for transactions that are ready to be cleaned up and deleted
-     * There is one queue for each Status type
-     */
-    private final Map<Status, Queue<Long>> deletable_txns = new HashMap<Status, Queue<Long>>();
+    private final ConcurrentLongHashMap<AbstractTransaction> inflight_txns = 
+                        new ConcurrentLongHashMap<AbstractTransaction>();
     
     /**
      * The list of the last txn ids that were successfully deleted
@@ -303,6 +295,13 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
      */
     private final TransactionQueueManager txnQueueManager;
     
+    /**
+     * Adjusts the admission limits for the PartitionLockQueues and the
+     * ClientInterface based on how long txns wait in the partitions' queues.
+     * This will be null if it is not enabled.
+     */
+    private final AdmissionController admissionController;
+    
     /**
      * The HStoreCoordinator is responsible for communicating with other HStoreSites
      * in the cluster to execute distributed transactions.
@@ -326,9 +325,11 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     private BlockingQueue<Object[]> postProcessorQueue = null;
     
     /**
-     * Transaction Handle Cleaner
+     * Transaction Handle Cleaners
+     * Each partition's txns are deleted by the cleaner at its offset in txnCleanerOffsets
      */
     private final List<TransactionCleaner> txnCleaners = new ArrayList<TransactionCleaner>();
+    private final TransactionCleaner txnCleanerOffsets[];
     
     /**
      * MapReduceHelperThread
@@ -417,6 +418,11 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
      */
     private final HStoreSiteStatus status_monitor;
     
+    /**
+     * HTTP listener for the out-of-band metrics
+     */
+    private HStoreSiteMetrics metrics_listener;
+    
     /**
      * Profiler
      */
@@ -480,18 +486,18 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         this.local_partitions.addAll(CatalogUtil.getLocalPartitionIds(catalog_site));
         int num_local_partitions = this.local_partitions.size();
         
-         for (Status s : Status.values()) {
-             this.deletable_txns.put(s, new ConcurrentLinkedQueue<Long>());
-         } // FOR
-        
         this.executors = new PartitionExecutor[num_partitions];
         this.executor_threads = new Thread[num_partitions];
         this.depTrackers = new DependencyTracker[num_partitions];
         
         // Get the hasher we will use for this HStoreSite
-        this.hasher = ClassUtil.newInstance(hstore_conf.global.hasher_class,
-                                             new Object[]{ this.catalogContext, num_partitions },
-                                             new Class<?>[]{ CatalogContext.class, int.class });
+        try {
+            this.hasher = AbstractHasher.newInstance(hstore_conf.global.hasher_class,
+                                                     hstore_conf.global.hasher_plan,
+                                                     this.catalogContext);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to load hasher plan '" + hstore_conf.global.hasher_plan + "'", ex);
+        }
         this.p_estimator = new PartitionEstimator(this.catalogContext, this.hasher);
         this.remoteTxnEstimator = new RemoteEstimator(this.p_estimator);
         
@@ -569,13 +575,40 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         // HStoreSite Thread Manager (this always get invoked first)
         this.threadManager = new HStoreThreadManager(this);
         
+        // Admission Controller
+        // This needs to be created before the TransactionQueueManager
+        if (hstore_conf.site.admission_enable) {
+            int initLimit = (int)(hstore_conf.site.network_incoming_limit_txns * hstore_conf.site.queue_threshold_factor);
+            this.admissionController = new AdmissionController(this.local_partitions.values(),
+                                                               num_partitions,
+                                                               hstore_conf.site.admission_target,
+                                                               hstore_conf.site.admission_interval,
+                                                               initLimit,
+                                                               Math.max(1, (int)(initLimit * hstore_conf.site.queue_min_factor)),
+                                                               Math.max(1, (int)(initLimit * hstore_conf.site.queue_max_factor)),
+                                                               hstore_conf.site.admission_increase_delta,
+                                                               hstore_conf.site.admission_decrease_factor);
+        } else {
+            this.admissionController = null;
+        }
+        
         // Distributed Transaction Queue Manager
         this.txnQueueManager = new TransactionQueueManager(this);
         
-        // One Transaction Cleaner for every eight partitions
-        int numCleaners = (int)Math.ceil(num_local_partitions / 8.0);
+        // By default, one Transaction Cleaner for every eight partitions
+        int numCleaners = hstore_conf.site.txn_cleaner_threads;
+        if (numCleaners <= 0) numCleaners = (int)Math.ceil(num_local_partitions / 8.0);
+        numCleaners = Math.max(1, Math.min(numCleaners, num_local_partitions));
         for (int i = 0; i < numCleaners; i++) {
-            this.txnCleaners.add(new TransactionCleaner(this));
+            this.txnCleaners.add(new TransactionCleaner(this, i));
+        } // FOR
+        // Remote txns whose base partition is not at this site are spread
+        // across the cleaners by their partition id
+        this.txnCleanerOffsets = new TransactionCleaner[num_partitions];
+        for (int partition = 0; partition < num_partitions; partition++) {
+            int cleaner = this.local_partition_offsets[partition];
+            if (cleaner == HStoreConstants.NULL_PARTITION_ID) cleaner = partition;
+            this.txnCleanerOffsets[partition] = this.txnCleaners.get(cleaner % numCleaners);
         } // FOR
         
         // MapReduce Transaction helper thread
@@ -1072,6 +1105,28 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         }
         if (debug.val) LOG.info("exec status enable");
         
+        // Admission Controller
+        if (this.admissionController != null) {
+            this.threadManager.schedulePeriodicWork(new ExceptionHandlingRunnable() {
+                @Override
+                public void runImpl() {
+                    HStoreSite.this.updateAdmissionLimits();
+                }
+            }, hstore_conf.site.admission_interval,
+               hstore_conf.site.admission_interval, TimeUnit.MILLISECONDS);
+        }
+        
+        // Metrics Listener
+        if (hstore_conf.site.metrics_enable) {
+            int port = hstore_conf.site.metrics_port + this.site_id;
+            try {
+                this.metrics_listener = new HStoreSiteMetrics(this, port);
+            } catch (IOException ex) {
+                LOG.warn(String.format("Failed to start metrics listener for %s on port %d",
+                         this.getSiteName(), port), ex);
+            }
+        }
+        
         // AntiCache Memory Monitor
         if (debug.val) LOG.debug("about to starting memory monitor thread");
         if (this.anticacheManager != null) {
@@ -1318,6 +1373,14 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     public TransactionQueueManager getTransactionQueueManager() {
         return (this.txnQueueManager);
     }
+    /**
+     * Returns the AdmissionController for this site.
+     * This will be null if it is not enabled.
+     * @return
+     */
+    public AdmissionController getAdmissionController() {
+        return (this.admissionController);
+    }
     public AntiCacheManager getAntiCacheManager() {
         return (this.anticacheManager);
     }
@@ -1342,11 +1405,11 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     public CommandLogWriter getCommandLogWriter() {
         return (this.commandLogger);
     }
-    protected final Map<Long, AbstractTransaction> getInflightTxns() {
+    protected final ConcurrentLongHashMap<AbstractTransaction> getInflightTxns() {
         return (this.inflight_txns);
     }
-    protected final Map<Status, Queue<Long>> getDeletableQueues() {
-        return (this.deletable_txns);
+    protected final List<TransactionCleaner> getTransactionCleaners() {
+        return (this.txnCleaners);
     }
     protected final String getRejectionMessage() {
         return (this.REJECTION_MESSAGE);
@@ -1420,8 +1483,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
     }
 
     @SuppressWarnings("unchecked")
-    public <T extends AbstractTransaction> T getTransaction(Long txn_id) {
-        assert(txn_id != null) : "Null txnId";
+    public <T extends AbstractTransaction> T getTransaction(long txn_id) {
         return ((T)this.inflight_txns.get(txn_id));
     }
 
@@ -1444,6 +1506,17 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         return this.local_partition_offsets[partition];
     }
     
+    /**
+     * Return the array that maps every partition id to its offset in the list
+     * of the local partition ids managed by this HStoreSite. Non-local partitions
+     * have an offset of HStoreConstants.NULL_PARTITION_ID.
+     * <B>Note:</B> This array is shared, so do not modify it.
+     * @return
+     */
+    public int[] getLocalPartitionOffsets() {
+        return (this.local_partition_offsets);
+    }
+    
     // ----------------------------------------------------------------------------
     // EVENT OBSERVABLES
     // ----------------------------------------------------------------------------
@@ -1509,7 +1582,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         }
         
         // LOGICAL
-        if (this.hstore_conf.site.snapshot){
+        if (this.hstore_conf.site.snapshot || this.hstore_conf.site.commandlog_replay_file != null) {
             doLogicalRecovery();
         }
         
@@ -1623,7 +1696,19 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         LOG.warn("Logical : recovery at site with min id :" + this.site_id);
                 
         //XXX Load snapshot using @SnapshotRestore
-        //XXX Load command log and redo all entires
+        
+        // Replay everything in the command log after the snapshot
+        if (hstore_conf.site.commandlog_replay_file != null) {
+            String path = FileUtil.realpath(hstore_conf.site.commandlog_replay_file);
+            LOG.info("Logical : replaying command log " + path);
+            CommandLogReader reader = new CommandLogReader(path);
+            CommandLogReplayer replayer = new CommandLogReplayer(this, reader);
+            try {
+                replayer.replay();
+            } catch (InterruptedException ex) {
+                throw new ServerFaultException("Unexpected interruption while replaying command log", ex);
+            }
+        }
      
         LOG.warn("Logical : recovery completed on site with min id :" + this.site_id);
     }
@@ -1741,6 +1826,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
 
         // Stop the monitor thread
         if (this.status_monitor != null) this.status_monitor.shutdown();
+        if (this.metrics_listener != null) this.metrics_listener.shutdown();
         
         // Kill the queue manager
         this.txnQueueManager.shutdown();
@@ -2923,7 +3009,7 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
 
     /**
      * Queue a completed txn for final cleanup and bookkeeping. This will be deleted
-     * by the HStoreSite's periodic work thread. It is ok to queue up the same txn twice
+     * by the TransactionCleaner for the txn's base partition. It is ok to queue up the same txn twice
      * <B>Note:</B> If you call this, you can never access anything in this txn again.
      * @param txn_id
      * @param status The final status for the txn
@@ -2934,13 +3020,17 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             LOG.debug(String.format("Queueing txn #%d for deletion [status=%s]", txn_id, status));
         
         // Queue it up for deletion! There is no return for the txn from this!
-        try {
-            this.deletable_txns.get(status).offer(txn_id);
-        } catch (NullPointerException ex) {
-            LOG.warn("STATUS = " + status);
-            LOG.warn("TXN_ID = " + txn_id);
-            throw new RuntimeException(ex);
+        // If we don't have a handle for it, then the first cleaner can just deal with it
+        TransactionCleaner cleaner = this.txnCleaners.get(0);
+        AbstractTransaction ts = this.inflight_txns.get(txn_id.longValue());
+        if (ts != null) {
+            int base_partition = ts.getBasePartition();
+            if (base_partition != HStoreConstants.NULL_PARTITION_ID) {
+                cleaner = this.txnCleanerOffsets[base_partition];
+            }
+            ts.markDeletableQueued(System.nanoTime());
         }
+        cleaner.queue(txn_id, status);
     }
     
     /**
@@ -2966,6 +3056,9 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
                      ts, ts.getClass().getSimpleName(), ts.hashCode()));
             this.deletable_last.add(String.format("%s :: %s", ts, status));
         }
+        
+        // Give the handle back so that it can be reused
+        if (rm != null) this.txnInitializer.recycleTransaction(ts);
         return;
     }
 
@@ -3178,6 +3271,9 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
             this.deletable_last.add(String.format("%s :: %s [SPECULATIVE=%s]",
                                     ts, status, ts.isSpeculative()));
         }
+        
+        // Give the handle back so that it can be reused
+        if (rm != null) this.txnInitializer.recycleTransaction(ts);
     }
 
     // ----------------------------------------------------------------------------
@@ -3214,6 +3310,21 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         return;
     }
 
+    /**
+     * Let the AdmissionController adjust its limits and then push them
+     * out to the PartitionLockQueues and the ClientInterface.
+     */
+    private void updateAdmissionLimits() {
+        if (this.admissionController.update(System.nanoTime()) == false) return;
+        for (int partition : this.local_partitions.values()) {
+            int limit = this.admissionController.getPartitionLimit(partition);
+            this.txnQueueManager.getLockQueue(partition).setThrottleThreshold(limit);
+        } // FOR
+        if (this.clientInterface != null) {
+            this.clientInterface.setMaxPendingTxnCount(this.admissionController.getSiteLimit());
+        }
+    }
+    
     /**
      * Added for @AdHoc processes
      * 
@@ -3300,8 +3411,8 @@ public class HStoreSite implements VoltProcedureListener.Handler, Shutdownable,
         }
         public int getDeletableTxnCount() {
             int total = 0;
-            for (Queue<Long> q : deletable_txns.values()) {
-                total += q.size();
+            for (TransactionCleaner cleaner : txnCleaners) {
+                total += cleaner.getPendingCount();
             }
             return (total);
         }
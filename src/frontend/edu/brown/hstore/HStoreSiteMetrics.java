@@ -0,0 +1,354 @@
+package edu.brown.hstore;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+import org.voltdb.utils.NanoHTTPD;
+
+import edu.brown.hstore.cmdlog.CommandLogWriter;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.util.AdmissionController;
+import edu.brown.hstore.util.TransactionCounter;
+import edu.brown.interfaces.Shutdownable;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.profilers.AbstractProfiler;
+import edu.brown.profilers.AntiCacheManagerProfiler;
+import edu.brown.profilers.CommandLogWriterProfiler;
+import edu.brown.profilers.HStoreSiteProfiler;
+import edu.brown.profilers.LatencyHistogram;
+import edu.brown.profilers.PartitionExecutorProfiler;
+import edu.brown.profilers.ProfileMeasurement;
+
+/**
+ * Small HTTP server that exposes the internal counters of an HStoreSite in the
+ * plain-text exposition format that most monitoring systems know how to scrape.
+ * <p>
+ * Unlike the @Statistics sysproc, nothing in here goes through a PartitionExecutor.
+ * Every request is answered on the HTTP server's own thread by reading the current
+ * values of the queues, profilers, and counters directly without taking any locks.
+ * That means that the numbers might be slightly stale or inconsistent with each other,
+ * but polling them will never stall the transactions that are running at the site.
+ */
+public class HStoreSiteMetrics extends NanoHTTPD implements Shutdownable {
+    private static final Logger LOG = Logger.getLogger(HStoreSiteMetrics.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    private static final LoggerBoolean trace = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    public static final String METRICS_URI = "/metrics";
+    public static final String MIME_METRICS = "text/plain; version=0.0.4";
+
+    private static final String PREFIX = "hstore_";
+
+    private final HStoreSite hstore_site;
+    private final HStoreConf hstore_conf;
+    private final String siteLabel;
+    private volatile boolean stop = false;
+
+    /**
+     * Constructor
+     * @param hstore_site
+     * @param port
+     * @throws IOException if the port is already in use
+     */
+    public HStoreSiteMetrics(HStoreSite hstore_site, int port) throws IOException {
+        super(port);
+        this.hstore_site = hstore_site;
+        this.hstore_conf = hstore_site.getHStoreConf();
+        this.siteLabel = "site=\"" + hstore_site.getSiteId() + "\"";
+        if (debug.val)
+            LOG.debug(String.format("Started metrics listener for %s on port %d",
+                      hstore_site.getSiteName(), port));
+    }
+
+    @Override
+    public Response serve(String uri, String method, Properties header, Properties parms) {
+        if (trace.val)
+            LOG.trace(String.format("%s %s", method, uri));
+        if (uri.equals(METRICS_URI) == false && uri.equals("/") == false) {
+            return new NanoHTTPD.Response(HTTP_NOTFOUND, MIME_PLAINTEXT, "Unknown URI " + uri);
+        }
+        String body;
+        try {
+            body = this.snapshot();
+        } catch (Throwable ex) {
+            LOG.warn("Failed to collect metrics for " + this.hstore_site.getSiteName(), ex);
+            return new NanoHTTPD.Response(HTTP_INTERNALERROR, MIME_PLAINTEXT, ex.toString());
+        }
+        return new NanoHTTPD.Response(HTTP_OK, MIME_METRICS, body);
+    }
+
+    // ----------------------------------------------------------------------------
+    // SNAPSHOT
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Helper for writing out metric families. All of the samples for a
+     * family have to be written out right after its header.
+     */
+    private class MetricsWriter {
+        private final StringBuilder sb = new StringBuilder();
+
+        void family(String name, String type, String help) {
+            sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+            sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+        }
+
+        void sample(String name, String labels, long value) {
+            this.prefix(name, labels).append(value).append('\n');
+        }
+
+        void sample(String name, String labels, double value) {
+            this.prefix(name, labels).append(value).append('\n');
+        }
+
+        /**
+         * Write out the percentiles of the histogram as the quantiles of a summary,
+         * along with its _sum and _count samples. The histogram holds nanoseconds.
+         * The quantiles are NaN when nothing has been recorded.
+         */
+        void summary(String name, String labels, LatencyHistogram h, double sumSeconds, long count) {
+            boolean empty = h.isEmpty();
+            for (double percentile : LatencyHistogram.PERCENTILES) {
+                String quantile = "quantile=\"" + (percentile / 100d) + "\"";
+                this.sample(name, (labels != null ? labels + "," + quantile : quantile),
+                            (empty ? Double.NaN : h.getValueAtPercentile(percentile) / 1000000000d));
+            } // FOR
+            this.sample(name + "_sum", labels, sumSeconds);
+            this.sample(name + "_count", labels, count);
+        }
+
+        private StringBuilder prefix(String name, String labels) {
+            sb.append(PREFIX).append(name).append('{').append(siteLabel);
+            if (labels != null) sb.append(',').append(labels);
+            return (sb.append("} "));
+        }
+
+        @Override
+        public String toString() {
+            return (sb.toString());
+        }
+    }
+
+    private static String partitionLabel(int partition) {
+        return ("partition=\"" + partition + "\"");
+    }
+
+    private static String cleanerLabel(TransactionCleaner cleaner) {
+        return ("cleaner=\"" + cleaner.getId() + "\"");
+    }
+
+    private static String measurementLabel(String labels, ProfileMeasurement pm) {
+        String label = "measurement=\"" + pm.getName() + "\"";
+        return (labels != null ? labels + "," + label : label);
+    }
+
+    /**
+     * Write out the total time and invocations for all of the
+     * ProfileMeasurements in each of the given profilers
+     */
+    private void writeProfilers(MetricsWriter w, String name, String help,
+                                AbstractProfiler profilers[], String labels[]) {
+        w.family(name + "_seconds_total", "counter", help + " (seconds)");
+        for (int i = 0; i < profilers.length; i++) {
+            if (profilers[i] == null) continue;
+            for (ProfileMeasurement pm : profilers[i].getProfileMeasurements()) {
+                w.sample(name + "_seconds_total", measurementLabel(labels[i], pm), pm.getTotalThinkTimeSeconds());
+            } // FOR
+        } // FOR
+        w.family(name + "_invocations_total", "counter", help + " (invocations)");
+        for (int i = 0; i < profilers.length; i++) {
+            if (profilers[i] == null) continue;
+            for (ProfileMeasurement pm : profilers[i].getProfileMeasurements()) {
+                w.sample(name + "_invocations_total", measurementLabel(labels[i], pm), pm.getInvocations());
+            } // FOR
+        } // FOR
+    }
+
+    /**
+     * Generate the current metrics for this HStoreSite
+     * @return
+     */
+    public String snapshot() {
+        MetricsWriter w = new MetricsWriter();
+        HStoreSite.Debug siteDebug = this.hstore_site.getDebugContext();
+        int partitions[] = this.hstore_site.getLocalPartitionIds().values();
+        String partitionLabels[] = new String[partitions.length];
+        for (int i = 0; i < partitions.length; i++) {
+            partitionLabels[i] = partitionLabel(partitions[i]);
+        } // FOR
+
+        // TRANSACTIONS
+        w.family("txns_total", "counter", "Number of transactions processed at this site");
+        for (TransactionCounter tc : TransactionCounter.values()) {
+            w.sample("txns_total", "counter=\"" + tc.name().toLowerCase() + "\"", tc.get());
+        } // FOR
+        w.family("inflight_txns", "gauge", "Number of transactions currently running at this site");
+        w.sample("inflight_txns", null, siteDebug.getInflightTxnCount());
+        w.family("queued_responses", "gauge", "Number of ClientResponses waiting to be sent back");
+        w.sample("queued_responses", null, siteDebug.getQueuedResponseCount());
+
+        // TRANSACTION CLEANERS
+        List<TransactionCleaner> cleaners = this.hstore_site.getTransactionCleaners();
+        w.family("cleanup_pending_txns", "gauge", "Number of finished transactions waiting to be deleted by each TransactionCleaner");
+        for (TransactionCleaner cleaner : cleaners) {
+            w.sample("cleanup_pending_txns", cleanerLabel(cleaner), cleaner.getPendingCount());
+        } // FOR
+        w.family("cleanup_txns_total", "counter", "Number of transactions deleted by each TransactionCleaner");
+        for (TransactionCleaner cleaner : cleaners) {
+            w.sample("cleanup_txns_total", cleanerLabel(cleaner), cleaner.getDeletedCount());
+        } // FOR
+        w.family("cleanup_lag_seconds", "summary", "Time between when a transaction was queued for deletion and when it was deleted");
+        for (TransactionCleaner cleaner : cleaners) {
+            LatencyHistogram h = cleaner.getLagHistogram();
+            w.summary("cleanup_lag_seconds", cleanerLabel(cleaner), h,
+                      cleaner.getLagTotal() / 1000000000d, h.getCount());
+        } // FOR
+
+        // QUEUES
+        TransactionQueueManager queueManager = this.hstore_site.getTransactionQueueManager();
+        w.family("lock_queue_size", "gauge", "Number of transactions waiting in each PartitionLockQueue");
+        for (int i = 0; i < partitions.length; i++) {
+            w.sample("lock_queue_size", partitionLabels[i], queueManager.getLockQueue(partitions[i]).size());
+        } // FOR
+        w.family("lock_queue_throttled", "gauge", "Whether each PartitionLockQueue is throttling new transactions");
+        for (int i = 0; i < partitions.length; i++) {
+            w.sample("lock_queue_throttled", partitionLabels[i], queueManager.getLockQueue(partitions[i]).isThrottled() ? 1 : 0);
+        } // FOR
+        w.family("work_queue_size", "gauge", "Number of messages waiting in each PartitionExecutor's work queue");
+        for (int i = 0; i < partitions.length; i++) {
+            PartitionExecutor executor = this.hstore_site.getPartitionExecutor(partitions[i]);
+            w.sample("work_queue_size", partitionLabels[i], executor.getDebugContext().getWorkQueueSize());
+        } // FOR
+
+        // ADMISSION CONTROLLER
+        AdmissionController admission = this.hstore_site.getAdmissionController();
+        if (admission != null) {
+            w.family("admission_partition_limit", "gauge", "Max number of transactions that each partition will admit");
+            for (int i = 0; i < partitions.length; i++) {
+                w.sample("admission_partition_limit", partitionLabels[i], admission.getPartitionLimit(partitions[i]));
+            } // FOR
+            w.family("admission_site_limit", "gauge", "Max number of pending transactions that this site will admit");
+            w.sample("admission_site_limit", null, admission.getSiteLimit());
+            w.family("admission_sojourn_seconds", "gauge", "Smallest queue wait time at each partition in the last interval");
+            for (int i = 0; i < partitions.length; i++) {
+                long sojourn = admission.getLastSojourn(partitions[i]);
+                if (sojourn < 0) continue;
+                w.sample("admission_sojourn_seconds", partitionLabels[i], sojourn / 1000000000d);
+            } // FOR
+            w.family("admission_changes_total", "counter", "Number of times that each partition's admission limit was changed");
+            for (int i = 0; i < partitions.length; i++) {
+                w.sample("admission_changes_total", partitionLabels[i] + ",direction=\"increase\"", admission.getIncreaseCount(partitions[i]));
+                w.sample("admission_changes_total", partitionLabels[i] + ",direction=\"decrease\"", admission.getDecreaseCount(partitions[i]));
+            } // FOR
+        }
+
+        // PARTITIONEXECUTOR PROFILERS
+        if (hstore_conf.site.exec_profiling) {
+            PartitionExecutorProfiler execProfilers[] = new PartitionExecutorProfiler[partitions.length];
+            for (int i = 0; i < partitions.length; i++) {
+                execProfilers[i] = this.hstore_site.getPartitionExecutor(partitions[i]).getProfiler();
+            } // FOR
+            w.family("exec_txns_total", "counter", "Number of transactions executed at each partition");
+            for (int i = 0; i < partitions.length; i++) {
+                if (execProfilers[i] == null) continue;
+                w.sample("exec_txns_total", partitionLabels[i], execProfilers[i].numTransactions);
+            } // FOR
+            this.writeProfilers(w, "exec", "Time spent in each part of the PartitionExecutor", execProfilers, partitionLabels);
+
+            // Both the quantiles and the _sum and _count cover every invocation
+            // since the ProfileMeasurement was last reset
+            w.family("exec_latency_seconds", "summary", "Latency of the PartitionExecutor measurements");
+            for (int i = 0; i < partitions.length; i++) {
+                if (execProfilers[i] == null) continue;
+                for (ProfileMeasurement pm : execProfilers[i].getProfileMeasurements()) {
+                    LatencyHistogram h = pm.getLatencyHistogram();
+                    if (h == null) continue;
+                    w.summary("exec_latency_seconds", measurementLabel(partitionLabels[i], pm), h,
+                              pm.getTotalThinkTimeSeconds(), pm.getInvocations());
+                } // FOR
+            } // FOR
+        }
+
+        // HSTORESITE PROFILER
+        HStoreSiteProfiler siteProfiler = this.hstore_site.getProfiler();
+        if (siteProfiler != null) {
+            this.writeProfilers(w, "site", "Time spent in each part of the HStoreSite",
+                                new AbstractProfiler[]{ siteProfiler }, new String[]{ null });
+            w.family("coordinator_utilization", "gauge", "Fraction of time that each HStoreCoordinator event loop was busy");
+            for (int i = 0; i < siteProfiler.coordinator_busy.length; i++) {
+                w.sample("coordinator_utilization", "loop=\"" + i + "\"", siteProfiler.getCoordinatorUtilization(i));
+            } // FOR
+        }
+
+        // COMMAND LOG
+        CommandLogWriter commandLogger = this.hstore_site.getCommandLogWriter();
+        if (commandLogger != null) {
+            w.family("cmdlog_pending_txns", "gauge", "Number of transactions waiting to be written to the command log");
+            w.sample("cmdlog_pending_txns", null, commandLogger.getTotalTxnCount());
+            CommandLogWriterProfiler profiler = commandLogger.getProfiler();
+            if (profiler != null) {
+                this.writeProfilers(w, "cmdlog", "Time spent in each part of the CommandLogWriter",
+                                    new AbstractProfiler[]{ profiler }, new String[]{ null });
+            }
+        }
+
+        // ANTI-CACHE
+        AntiCacheManager anticacheManager = this.hstore_site.getAntiCacheManager();
+        if (anticacheManager != null) {
+            AntiCacheManager.Debug acDebug = anticacheManager.getDebugContext();
+            w.family("anticache_queue_size", "gauge", "Number of pending requests to fetch evicted blocks");
+            w.sample("anticache_queue_size", null, acDebug.getQueueSize());
+            w.family("anticache_memory_kilobytes", "gauge", "Size of each partition's data the last time that it was checked");
+            for (int i = 0; i < partitions.length; i++) {
+                w.sample("anticache_memory_kilobytes", partitionLabels[i], acDebug.getPartitionSizeKb(partitions[i]));
+            } // FOR
+            w.family("anticache_blocks_evicted", "gauge", "Number of blocks currently evicted from each partition");
+            for (int i = 0; i < partitions.length; i++) {
+                w.sample("anticache_blocks_evicted", partitionLabels[i], acDebug.getBlocksEvicted(partitions[i]));
+            } // FOR
+            w.family("anticache_blocks_fetched", "gauge", "Number of blocks fetched back in for each partition");
+            for (int i = 0; i < partitions.length; i++) {
+                w.sample("anticache_blocks_fetched", partitionLabels[i], acDebug.getBlocksFetched(partitions[i]));
+            } // FOR
+            w.family("anticache_blocks_written", "gauge", "Number of blocks written out for each partition");
+            for (int i = 0; i < partitions.length; i++) {
+                w.sample("anticache_blocks_written", partitionLabels[i], acDebug.getBlocksWritten(partitions[i]));
+            } // FOR
+            if (hstore_conf.site.anticache_profiling) {
+                AntiCacheManagerProfiler acProfilers[] = new AntiCacheManagerProfiler[partitions.length];
+                for (int i = 0; i < partitions.length; i++) {
+                    acProfilers[i] = acDebug.getProfiler(partitions[i]);
+                } // FOR
+                this.writeProfilers(w, "anticache", "Time spent in each part of the AntiCacheManager", acProfilers, partitionLabels);
+            }
+        }
+
+        return (w.toString());
+    }
+
+    // ----------------------------------------------------------------------------
+    // SHUTDOWN METHODS
+    // ----------------------------------------------------------------------------
+
+    @Override
+    public void prepareShutdown(boolean error) {
+        this.stop = true;
+    }
+
+    @Override
+    public void shutdown() {
+        this.stop = true;
+        this.shutdown(false);
+    }
+
+    @Override
+    public boolean isShuttingDown() {
+        return (this.stop);
+    }
+}
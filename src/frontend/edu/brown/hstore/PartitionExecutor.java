@@ -101,7 +101,6 @@ import org.voltdb.jni.ExecutionEngine;
 import org.voltdb.jni.ExecutionEngineIPC;
 import org.voltdb.jni.ExecutionEngineJNI;
 import org.voltdb.jni.MockExecutionEngine;
-import org.voltdb.messaging.FastDeserializer;
 import org.voltdb.messaging.FastSerializer;
 import org.voltdb.types.AntiCacheDBType;
 import org.voltdb.types.SpecExecSchedulerPolicyType;
@@ -111,6 +110,7 @@ import org.voltdb.utils.DBBPool;
 import org.voltdb.utils.DBBPool.BBContainer;
 import org.voltdb.utils.Encoder;
 import org.voltdb.utils.EstTime;
+import org.voltdb.utils.VoltTableUtil;
 
 import com.google.protobuf.ByteString;
 import com.google.protobuf.RpcCallback;
@@ -159,6 +159,7 @@ import edu.brown.hstore.txns.LocalTransaction;
 import edu.brown.hstore.txns.MapReduceTransaction;
 import edu.brown.hstore.txns.PrefetchState;
 import edu.brown.hstore.txns.RemoteTransaction;
+import edu.brown.hstore.util.AdmissionController;
 import edu.brown.hstore.util.ArrayCache.IntArrayCache;
 import edu.brown.hstore.util.ArrayCache.LongArrayCache;
 import edu.brown.hstore.util.ParameterSetArrayCache;
@@ -183,7 +184,6 @@ import edu.brown.utils.PartitionEstimator;
 import edu.brown.utils.PartitionSet;
 import edu.brown.utils.StringBoxUtil;
 import edu.brown.utils.StringUtil;
-import edu.brown.utils.ThreadUtil;
 /**
  * The main executor of transactional work in the system for a single partition.
  * Controls running stored procedures and manages the execution engine's running of plan
@@ -201,6 +201,12 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
     private static final long WORK_QUEUE_POLL_TIME = 10; // 0.5 milliseconds
     private static final TimeUnit WORK_QUEUE_POLL_TIMEUNIT = TimeUnit.MICROSECONDS;
     
+    /**
+     * How long we will stay parked waiting for new work when there is nothing else
+     * for us to do. We still need to wake up periodically to check our lock queue.
+     */
+    private static final long WORK_QUEUE_IDLE_TIME = 5000; // 5 milliseconds
+    
     private static final UtilityWorkMessage UTIL_WORK_MSG = new UtilityWorkMessage();
     private static final UpdateMemoryMessage STATS_WORK_MSG = new UpdateMemoryMessage();
     
@@ -249,7 +255,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
     /**
      * If this flag is enabled, then we need to shut ourselves down and stop running txns
      */
-    private ShutdownState shutdown_state = Shutdownable.ShutdownState.INITIALIZED;
+    private volatile ShutdownState shutdown_state = Shutdownable.ShutdownState.INITIALIZED;
     private Semaphore shutdown_latch;
     
     /**
@@ -302,6 +308,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
     private TransactionQueueManager queueManager;
     private PartitionLockQueue lockQueue;
     private DependencyTracker depTracker;
+    private AdmissionController admissionController;
     
     // ----------------------------------------------------------------------------
     // Work Queue
@@ -455,6 +462,23 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
      */
     private boolean specExecIgnoreCurrent = false;
     
+    // ----------------------------------------------------------------------------
+    // BATCH EXECUTION STATE
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Single-partition transactions that were executed in the current batch
+     * and are now waiting to be committed together.
+     * Any transaction in this list should have its ClientResponse member set.
+     */
+    private final List<LocalTransaction> batchTxns = new ArrayList<LocalTransaction>();
+    
+    /**
+     * If this flag is set to true, then we are in the middle of executing a batch
+     * of single-partition txns that we took from our lock queue
+     */
+    private boolean batchMode = false;
+    
     // ----------------------------------------------------------------------------
     // SHARED VOLTPROCEDURE DATA MEMBERS
     // ----------------------------------------------------------------------------
@@ -755,7 +779,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                              final PartitionEstimator p_estimator,
                              final TransactionEstimator t_estimator) {
         this.hstore_conf = HStoreConf.singleton();
-        this.work_queue = new PartitionMessageQueue();
+        this.work_queue = new PartitionMessageQueue(hstore_conf.site.admission_enable);
         this.backend_target = target;
         this.catalogContext = catalogContext;
         this.partition = catalogContext.getPartitionById(partitionId);
@@ -931,6 +955,7 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
         this.thresholds = hstore_site.getThresholds();
         this.queueManager = hstore_site.getTransactionQueueManager();
         this.lockQueue = this.queueManager.getLockQueue(this.partitionId);
+        this.admissionController = hstore_site.getAdmissionController();
         
         if (hstore_conf.site.exec_deferrable_queries) {
             tmp_def_txn = new LocalTransaction(hstore_site);
@@ -1211,7 +1236,10 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                                 System.out.println("Null work!");
                             }*/
                         } else {
-                            nextWork = this.work_queue.poll(WORK_QUEUE_POLL_TIME, WORK_QUEUE_POLL_TIMEUNIT);    
+                            // Park until something shows up in our work queue. If we're not
+                            // going to look for utility work, then we can wait longer
+                            long waitTime = (hstore_conf.site.specexec_enable ? WORK_QUEUE_POLL_TIME : WORK_QUEUE_IDLE_TIME);
+                            nextWork = this.work_queue.poll(waitTime, WORK_QUEUE_POLL_TIMEUNIT);    
                             /*if (nextWork != null) {
                                         LOG.info(String.format("Polled a work %s from partition %d",
                                                                           nextWork.getClass().getSimpleName(), this.work_queue.size()));
@@ -1224,6 +1252,10 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                     } finally {
                         if (hstore_conf.site.exec_profiling) profiler.idle_time.stopIfStarted();
                     }
+                    if (nextWork != null && this.admissionController != null) {
+                        this.admissionController.recordSojourn(AdmissionController.QueueType.WORK_QUEUE, this.partitionId,
+                                                               System.nanoTime() - this.work_queue.getLastQueueTime());
+                    }
                 }
                 
                 // -------------------------------
@@ -1237,10 +1269,16 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                         if (this.currentDtxn != null) profiler.sp2_time.stopIfStarted();
                     }
                     try {
+                        // -------------------------------
+                        // SINGLE-PARTITION TXN BATCH
+                        // -------------------------------
+                        if (nextTxn != null && nextTxn.isPredictSinglePartition() && hstore_conf.site.exec_batch_size > 1) {
+                            this.processStartTxnBatch((StartTxnMessage)nextWork);
+                        }
                         // -------------------------------
                         // TRANSACTIONAL WORK
                         // -------------------------------
-                        if (nextWork instanceof InternalTxnMessage) {
+                        else if (nextWork instanceof InternalTxnMessage) {
                             this.processInternalTxnMessage((InternalTxnMessage)nextWork);
                         }
                         // -------------------------------
@@ -1265,8 +1303,6 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                     if (this.utilityWork()) {
                         nextWork = UTIL_WORK_MSG;
                     }
-                } else {
-                    ThreadUtil.sleep(5);
                 }
             } // WHILE
         } catch (final Throwable ex) {
@@ -1290,6 +1326,10 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                          txnDebug));
             }
             
+            // We are the only thread that is allowed to remove things from
+            // our work queue, so we have to be the one to clear it out
+            this.work_queue.clear();
+            
             // Release the shutdown latch in case anybody waiting for us
             this.shutdown_latch.release();
         }
@@ -1514,6 +1554,23 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                 return;
             }
 
+            // The HStoreCoordinator hands us the raw requests for remote txns, so we
+            // have to deserialize whatever came with them before we can do anything.
+            // If that fails, then we'll send the error back to the txn's base partition
+            // just like we would if the fragment failed in the EE.
+            if (ts instanceof RemoteTransaction) {
+                try {
+                    ((RemoteTransaction)ts).unpackWorkRequests();
+                } catch (ServerFaultException ex) {
+                    RpcCallback<WorkResult> callback = ((RemoteTransaction)ts).getWorkCallback();
+                    if (callback == null) throw ex;
+                    LOG.warn(String.format("%s - Failed to unpack work requests at partition %d",
+                             ts, this.partitionId), ex);
+                    callback.run(this.buildWorkResult(ts, null, Status.ABORT_UNEXPECTED, ex));
+                    return;
+                }
+            }
+
             // Get the ParameterSet array for this WorkFragment
             // It can either be attached to the AbstractTransaction handle if it came
             // over the wire directly from the txn's base partition, or it can be attached
@@ -1592,6 +1649,62 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
         }
     }
 
+    /**
+     * Execute the given single-partition txn followed by any other single-partition 
+     * txns that are ready in our lock queue, up to site.exec_batch_size txns in total.
+     * The txns that commit are committed in the EE together, and their ClientResponses
+     * are released once the whole batch is finished.
+     * @param work The StartTxnMessage for the first txn in the batch
+     */
+    private void processStartTxnBatch(StartTxnMessage work) {
+        AbstractTransaction nextDtxn = null;
+        int batchSize = 0;
+        
+        this.batchMode = true;
+        try {
+            InternalTxnMessage next = work;
+            while (next != null) {
+                this.processInternalTxnMessage(next);
+                if (this.currentTxnId != null) this.lastExecutedTxnId = this.currentTxnId;
+                batchSize++;
+                next = null;
+                
+                // Stop if the batch is full or if something changed that means
+                // we're no longer allowed to execute txns on our own
+                if (batchSize >= hstore_conf.site.exec_batch_size || this.currentDtxn != null) break;
+                
+                AbstractTransaction nextTxn = null;
+                try {
+                    nextTxn = this.queueManager.checkLockQueue(this.partitionId); // NON-BLOCKING
+                } catch (InterruptedException ex) {
+                    break;
+                }
+                if (nextTxn == null) break;
+                
+                if (nextTxn.isPredictSinglePartition()) {
+                    LocalTransaction localTxn = (LocalTransaction)nextTxn;
+                    next = localTxn.getStartTxnMessage();
+                    if (hstore_conf.site.txn_profiling && localTxn.profiler != null) 
+                        localTxn.profiler.startQueueExec();
+                }
+                // The dtxn will have to wait until everything in our batch 
+                // is committed before it can become our current dtxn
+                else {
+                    nextDtxn = nextTxn;
+                }
+            } // WHILE
+        } finally {
+            this.batchMode = false;
+        }
+        this.finishTransactionBatch();
+        if (hstore_conf.site.exec_profiling) profiler.batchSizes.put(batchSize);
+        if (debug.val)
+            LOG.debug(String.format("Executed batch of %d single-partition txns at partition %d",
+                      batchSize, this.partitionId));
+        
+        if (nextDtxn != null) this.setCurrentDtxn(nextDtxn);
+    }
+
     // ----------------------------------------------------------------------------
     // DATA MEMBER METHODS
     // ----------------------------------------------------------------------------
@@ -2124,8 +2237,9 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
         }
         // Otherwise they will be "attached" inputs to the RemoteTransaction handle
         // We should really try to merge these two concepts into a single function call
-        else if (ts.getAttachedInputDependencies().containsKey(input_dep_id)) {
+        else {
             List<VoltTable> deps = ts.getAttachedInputDependencies().get(input_dep_id);
+            if (deps == null) return;
             List<VoltTable> pDeps = null;
             // We have to copy the tables if we have debugging enabled
             if (trace.val) { // this.firstPartition == false) {
@@ -2499,15 +2613,10 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
             ByteString bs = result.getDepData(i);
             VoltTable vt = null;
             if (bs.isEmpty() == false) {
-                FastDeserializer fd = new FastDeserializer(bs.asReadOnlyByteBuffer());
-                try {
-                    vt = fd.readObject(VoltTable.class);
-                    if (trace.val)
-                        LOG.trace(String.format("Displaying results from partition %d for %s :: \n %s",
-                                  result.getPartitionId(), ts, vt.toString()));                    
-                } catch (Exception ex) {
-                    throw new ServerFaultException("Failed to deserialize VoltTable from partition " + result.getPartitionId() + " for " + ts, ex);
-                }
+                vt = VoltTableUtil.fromByteString(bs);
+                if (trace.val)
+                    LOG.trace(String.format("Displaying results from partition %d for %s :: \n %s",
+                              result.getPartitionId(), ts, vt.toString()));                    
             }
             this.depTracker.addResult(ts, result.getPartitionId(), depId, vt);
         } // FOR (dependencies)
@@ -2705,9 +2814,21 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
             }
         }
 
+        // If we're executing a batch of single-partition txns, then we can hold on to
+        // this txn's response and commit it along with everyone else in the batch
+        if (this.batchMode && predict_singlePartition && status == Status.OK &&
+                this.currentDtxn == null && ts.isSpeculative() == false) {
+            if (trace.val)
+                LOG.trace(String.format("%s - Adding to txn batch at partition %d [batchSize=%d]",
+                          ts, this.partitionId, this.batchTxns.size()));
+            this.batchTxns.add(ts);
+        }
         // We assume that most transactions are not speculatively executed and are successful
         // Therefore we don't want to grab the exec_mode lock here.
-        if (predict_singlePartition == false || this.canProcessClientResponseNow(ts, status, before_mode)) {
+        else if (predict_singlePartition == false || this.canProcessClientResponseNow(ts, status, before_mode)) {
+            // Anything in the current batch executed before this txn, so we need to make
+            // sure that they are committed before this guy is committed or aborted
+            if (this.batchMode) this.finishTransactionBatch();
             this.processClientResponse(ts, cresponse);
         }
         // Otherwise always queue our response, since we know that whatever thread is out there
@@ -3719,19 +3840,11 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
         if (status == Status.OK) {
             for (int i = 0, cnt = result.size(); i < cnt; i++) {
                 builder.addDepId(result.depIds[i]);
-                this.fs.clear();
-                try {
-                    result.dependencies[i].writeExternal(this.fs);
-                    ByteString bs = ByteString.copyFrom(this.fs.getBBContainer().b);
-                    builder.addDepData(bs);
-                } catch (Exception ex) {
-                    throw new ServerFaultException(String.format("Failed to serialize output dependency %d for %s", result.depIds[i], ts), ex);
-                }
+                builder.addDepData(VoltTableUtil.toByteString(result.dependencies[i]));
                 if (trace.val)
                     LOG.trace(String.format("%s - Serialized Output Dependency %d\n%s",
                               ts, result.depIds[i], result.dependencies[i]));  
             } // FOR
-            this.fs.getBBContainer().discard();
         }
         
         return (builder.build());
@@ -3851,15 +3964,8 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                         LOG.debug(String.format("%s - Attaching %d input dependencies to be sent to %s",
                                   ts, e.getValue().size(), HStoreThreadManager.formatSiteName(target_site)));
                     for (VoltTable vt : e.getValue()) {
-                        this.fs.clear();
-                        try {
-                            this.fs.writeObject(vt);
-                            builder.addAttachedDepId(e.getKey().intValue());
-                            builder.addAttachedData(ByteString.copyFrom(this.fs.getBBContainer().b));
-                        } catch (Exception ex) {
-                            String msg = String.format("Failed to serialize input dependency %d for %s", e.getKey(), ts);
-                            throw new ServerFaultException(msg, ts.getTransactionId());
-                        }
+                        builder.addAttachedDepId(e.getKey().intValue());
+                        builder.addAttachedData(VoltTableUtil.toByteString(vt));
                         if (debug.val)
                             LOG.debug(String.format("%s - Storing %d rows for InputDependency %d to send " +
                                       "to partition %d [bytes=%d]",
@@ -3868,7 +3974,6 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
                     } // FOR
                     requestBuilder.addInputDependencyId(e.getKey());
                 } // FOR
-                this.fs.getBBContainer().discard();
             }
             builder.addFragments(fragmentBuilder);
         } // FOR (tasks)
@@ -5250,7 +5355,16 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
         assert(targetTxn != null);
         long lastUndoToken = targetTxn.getFirstUndoToken(this.partitionId);
         this.finishWorkEE(targetTxn, lastUndoToken, (status == Status.OK));
-        
+        this.releaseClientResponseBatch(batch);
+    }
+    
+    /**
+     * Mark all of the txns in the given batch as finished at this partition
+     * and send out their ClientResponses. The txns must have already been
+     * committed or aborted in the EE.
+     * @param batch
+     */
+    private void releaseClientResponseBatch(Collection<LocalTransaction> batch) {
         for (LocalTransaction ts : batch) {
             // Marking the txn as finished will prevent us from going down
             // into the EE to finish up the transaction.
@@ -5272,6 +5386,48 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
         } // FOR
     }
     
+    /**
+     * Commit all of the txns in the current single-partition txn batch
+     * and then release their ClientResponses.
+     */
+    private void finishTransactionBatch() {
+        if (this.batchTxns.isEmpty()) return;
+        if (debug.val)
+            LOG.debug(String.format("Committing batch of %d single-partition txns at partition %d",
+                      this.batchTxns.size(), this.partitionId));
+        
+        // This is normally done in finishTransaction(). We have to tell the queue manager
+        // that these txns are finished before we send out their responses, since that
+        // will clean up their handles
+        for (LocalTransaction ts : this.batchTxns) {
+            this.queueManager.lockQueueFinished(ts, Status.OK, this.partitionId);
+        } // FOR
+        this.lastCommittedTxnId = CollectionUtil.last(this.batchTxns).getTransactionId();
+        try {
+            // Unlike the speculative txns in processClientResponseBatch(), a txn in
+            // this batch may not have used an undo token at all, so we commit with the
+            // greatest token that anybody used. That will commit everything before it.
+            LocalTransaction targetTxn = null;
+            long lastUndoToken = HStoreConstants.NULL_UNDO_LOGGING_TOKEN;
+            for (LocalTransaction ts : this.batchTxns) {
+                long undoToken = ts.getLastUndoToken(this.partitionId);
+                if (undoToken == HStoreConstants.NULL_UNDO_LOGGING_TOKEN ||
+                    undoToken == HStoreConstants.DISABLE_UNDO_LOGGING_TOKEN) continue;
+                if (targetTxn == null || undoToken > lastUndoToken) {
+                    targetTxn = ts;
+                    lastUndoToken = undoToken;
+                }
+            } // FOR
+            // Somebody else may have already committed this token for us
+            if (targetTxn != null && lastUndoToken > this.lastCommittedUndoToken) {
+                this.finishWorkEE(targetTxn, lastUndoToken, true);
+            }
+            this.releaseClientResponseBatch(this.batchTxns);
+        } finally {
+            this.batchTxns.clear();
+        }
+    }
+    
     private void blockTransaction(InternalTxnMessage work) {
         if (debug.val)
             LOG.debug(String.format("%s - Adding %s work to blocked queue",
@@ -5365,8 +5521,8 @@ public class PartitionExecutor implements Runnable, Configurable, Shutdownable {
         
         if (debug.val) LOG.debug(String.format("Shutting down PartitionExecutor for Partition #%d", this.partitionId));
         
-        // Clear the queue
-        this.work_queue.clear();
+        // Our thread will clear out the work queue once it wakes up and
+        // sees that it needs to stop
         
         // Knock out this ma
         if (this.m_snapshotter != null) this.m_snapshotter.shutdown();
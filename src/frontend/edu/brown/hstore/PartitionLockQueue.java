@@ -1,10 +1,16 @@
 package edu.brown.hstore;
 
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
@@ -12,6 +18,7 @@ import org.voltdb.TransactionIdManager;
 
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.txns.AbstractTransaction;
+import edu.brown.hstore.util.AdmissionController;
 import edu.brown.hstore.util.ThrottlingQueue;
 import edu.brown.interfaces.DebugContext;
 import edu.brown.logging.LoggerUtil;
@@ -20,7 +27,7 @@ import edu.brown.profilers.PartitionLockQueueProfiler;
 import edu.brown.utils.StringUtil;
 
 /**
- * <p>Extends a PriorityQueue such that is only stores transaction state
+ * <p>A txnId-ordered queue that only stores transaction state
  * objects, and it only releases them (to a poll() call) if they are
  * ready to be processed.</p>
  *
@@ -31,6 +38,12 @@ import edu.brown.utils.StringUtil;
  *
  * <p>This class manages all that state.</p>
  * 
+ * <p>The queue is built for many inserting threads and a single consumer.
+ * The txns themselves are kept in a lock-free skip list, so an offer() never
+ * has to wait to insert. The queue state is still only changed while holding
+ * the lock, but an offer() that finds the lock already taken does not wait for it.
+ * It leaves behind a flag so that the thread holding the lock
+ * updates the queue state on its behalf before it lets go.</p>
  */
 public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
     protected static final Logger LOG = Logger.getLogger(PartitionLockQueue.class);
@@ -56,17 +69,156 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
      * for the next txn to release.
      */
     private static final long NULL_BLOCK_TIMESTAMP = -1l;
-    
+
+    /**
+     * Lock-free queue of txns sorted by their txnIds.
+     * Iterators are snapshots of the queue at the moment that they were created.
+     */
+    private static class TxnOrderedQueue extends AbstractQueue<AbstractTransaction> {
+        
+        /**
+         * A txn in the queue and when it was added
+         */
+        private static final class Entry {
+            private final AbstractTransaction ts;
+            private final long timestamp;
+            private Entry(AbstractTransaction ts, long timestamp) {
+                this.ts = ts;
+                this.timestamp = timestamp;
+            }
+        } // CLASS
+        
+        private final ConcurrentSkipListMap<Long, Entry> txns =
+                new ConcurrentSkipListMap<Long, Entry>();
+        
+        /**
+         * The time (from System.nanoTime()) that the last txn
+         * returned by poll() was added to the queue.
+         */
+        private long lastQueueTime = -1;
+
+        /**
+         * The skip list's size() has to walk the entire list,
+         * so we keep track of it ourselves.
+         */
+        private final AtomicInteger size = new AtomicInteger(0);
+
+        @Override
+        public boolean offer(AbstractTransaction ts) {
+            Entry e = new Entry(ts, System.nanoTime());
+            if (this.txns.putIfAbsent(ts.getTransactionId(), e) != null) {
+                return (false);
+            }
+            this.size.incrementAndGet();
+            return (true);
+        }
+        @Override
+        public boolean add(AbstractTransaction ts) {
+            return (this.offer(ts));
+        }
+        @Override
+        public AbstractTransaction poll() {
+            Map.Entry<Long, Entry> e = this.txns.pollFirstEntry();
+            if (e == null) return (null);
+            this.size.decrementAndGet();
+            this.lastQueueTime = e.getValue().timestamp;
+            return (e.getValue().ts);
+        }
+        @Override
+        public AbstractTransaction peek() {
+            Map.Entry<Long, Entry> e = this.txns.firstEntry();
+            return (e != null ? e.getValue().ts : null);
+        }
+        @Override
+        public boolean remove(Object obj) {
+            if ((obj instanceof AbstractTransaction) == false) return (false);
+            Long txnId = ((AbstractTransaction)obj).getTransactionId();
+            if (txnId == null) return (false);
+            Entry e = this.txns.get(txnId);
+            if (e == null || obj.equals(e.ts) == false || this.txns.remove(txnId, e) == false) return (false);
+            this.size.decrementAndGet();
+            return (true);
+        }
+        @Override
+        public boolean contains(Object obj) {
+            if ((obj instanceof AbstractTransaction) == false) return (false);
+            Long txnId = ((AbstractTransaction)obj).getTransactionId();
+            if (txnId == null) return (false);
+            Entry e = this.txns.get(txnId);
+            return (e != null && obj.equals(e.ts));
+        }
+        @Override
+        public void clear() {
+            while (this.poll() != null) {
+                // Nothing to do...
+            } // WHILE
+        }
+        @Override
+        public int size() {
+            return (this.size.get());
+        }
+        @Override
+        public boolean isEmpty() {
+            return (this.txns.isEmpty());
+        }
+        @Override
+        public Iterator<AbstractTransaction> iterator() {
+            final List<AbstractTransaction> snapshot = new ArrayList<AbstractTransaction>();
+            for (Entry e : this.txns.values()) {
+                snapshot.add(e.ts);
+            } // FOR
+            return new Iterator<AbstractTransaction>() {
+                private final Iterator<AbstractTransaction> it = snapshot.iterator();
+                private AbstractTransaction last = null;
+                @Override
+                public boolean hasNext() {
+                    return (this.it.hasNext());
+                }
+                @Override
+                public AbstractTransaction next() {
+                    this.last = this.it.next();
+                    return (this.last);
+                }
+                @Override
+                public void remove() {
+                    if (this.last == null) throw new IllegalStateException();
+                    TxnOrderedQueue.this.remove(this.last);
+                    this.last = null;
+                }
+            };
+        }
+    } // CLASS
+
     // ----------------------------------------------------------------------------
     // INTERNAL STATE
     // ----------------------------------------------------------------------------
 
     private final int partitionId;
     private int maxWaitTime;
-    
-    private final ReentrantLock lock = new ReentrantLock(true);
-    private final Condition isReady = lock.newCondition();
-    
+
+    /**
+     * This lock protects the queue state. It is not fair because offer() never
+     * waits for it, so there is nobody left that needs to be protected from starving.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * This flag is set when an offer() could not get the lock to update the
+     * queue state. Whoever is holding the lock must check this flag before releasing it.
+     */
+    private final AtomicBoolean pendingCheck = new AtomicBoolean(false);
+
+    /**
+     * The consumer thread if it is currently parked in take()
+     */
+    private volatile Thread waiter = null;
+
+    /**
+     * The number of times that the queue state has changed. The consumer
+     * uses this to figure out whether it missed a change after it released the lock.
+     */
+    private volatile long stateVersion = 0;
+
     /**
      * This is the timestamp (in milliseconds) when we can unblock
      * the next transaction in the queue.
@@ -87,6 +239,12 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
     
     private final PartitionLockQueueProfiler profiler;
     
+    /**
+     * If this is not null, then we will tell it how long each txn
+     * was waiting in the queue before it was released.
+     */
+    private AdmissionController admissionController;
+    
     // ----------------------------------------------------------------------------
     // INITIALIZATION
     // ----------------------------------------------------------------------------
@@ -100,7 +258,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
      * @param hstore_site
      */
     public PartitionLockQueue(int partitionId, int maxWaitTime, int throttle_threshold, double throttle_release) {
-        super(new PriorityBlockingQueue<AbstractTransaction>(), throttle_threshold, throttle_release);
+        super(new TxnOrderedQueue(), throttle_threshold, throttle_release);
         
         this.partitionId = partitionId;
         this.maxWaitTime = maxWaitTime;
@@ -133,6 +291,71 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         return (this.lastTxnPopped);
     }
     
+    public void setAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+    
+    /**
+     * Tell the AdmissionController how long the txn that we just popped was
+     * waiting in the queue. We don't count the time that we purposely
+     * blocked it for, since that does not mean that we are backed up.
+     * <B>Note:</B> This must be called while holding the lock.
+     */
+    private void recordSojourn() {
+        long sojourn = System.nanoTime() - ((TxnOrderedQueue)this.getQueue()).lastQueueTime;
+        sojourn -= TimeUnit.MILLISECONDS.toNanos(this.maxWaitTime);
+        this.admissionController.recordSojourn(AdmissionController.QueueType.LOCK_QUEUE,
+                                               this.partitionId, Math.max(0, sojourn));
+    }
+
+    // ----------------------------------------------------------------------------
+    // LOCKING METHODS
+    // ----------------------------------------------------------------------------
+
+    private void lock() {
+        if (trace.val)
+            LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
+        if (this.lock.tryLock()) return;
+
+        if (this.profiler != null) {
+            long start = System.nanoTime();
+            this.lock.lock();
+            this.profiler.lockContention.incrementAndGet();
+            this.profiler.lockWaitTime.addAndGet(System.nanoTime() - start);
+        } else {
+            this.lock.lock();
+        }
+    }
+
+    /**
+     * Release the lock. Before we let it go, we will update the queue state
+     * for any offer() that came along while we were holding it.
+     */
+    private void unlock() {
+        while (true) {
+            try {
+                this.checkPendingQueueState();
+            } finally {
+                if (trace.val)
+                    LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
+                this.lock.unlock();
+            }
+            // Somebody could have set the flag right after we checked it. If nobody
+            // else has grabbed the lock since then, then it's up to us to handle it.
+            if (this.pendingCheck.get() == false || this.lock.tryLock() == false) break;
+        } // WHILE
+    }
+
+    /**
+     * Update the queue state if an offer() asked for it.
+     * <B>Note:</B> The caller must be holding the lock.
+     */
+    private void checkPendingQueueState() {
+        if (this.pendingCheck.getAndSet(false)) {
+            this.checkQueueState(false);
+        }
+    }
+
     // ----------------------------------------------------------------------------
     // POLL/TAKE METHODS
     // ----------------------------------------------------------------------------
@@ -146,36 +369,31 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
     public AbstractTransaction poll() {
         AbstractTransaction retval = null;
         
-        if (trace.val)
-            LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
-        this.lock.lock();
+        this.lock();
         try {
+            this.checkPendingQueueState();
             if (this.state == QueueState.BLOCKED_SAFETY || this.state == QueueState.BLOCKED_ORDERING) {
                 this.checkQueueState(false);
             }
             if (this.state == QueueState.UNBLOCKED) {
-
-                if (this.state == QueueState.UNBLOCKED) {
-                    // 2012-12-21
-                    // So this is allow to be null because there is a race condition 
-                    // if another thread removes the txn from the queue.
-                    retval = super.poll();
-                    
-                    if (retval != null) {
-                        if (debug.val)
-                            LOG.debug(String.format("Partition %d :: poll() -> %s",
-                                      this.partitionId, retval));
-                        this.lastTxnPopped = retval.getTransactionId();
-                        this.txnsPopped++;
-                    }
-                    // call this again to prime the next txn
-                    this.checkQueueState(true);
+                // 2012-12-21
+                // So this is allow to be null because there is a race condition 
+                // if another thread removes the txn from the queue.
+                retval = super.poll();
+                
+                if (retval != null) {
+                    if (debug.val)
+                        LOG.debug(String.format("Partition %d :: poll() -> %s",
+                                  this.partitionId, retval));
+                    this.lastTxnPopped = retval.getTransactionId();
+                    this.txnsPopped++;
+                    if (this.admissionController != null) this.recordSojourn();
                 }
+                // call this again to prime the next txn
+                this.checkQueueState(true);
             }
         } finally {
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-            this.lock.unlock();
+            this.unlock();
         } // SYNCH
         return (retval);
     }
@@ -183,6 +401,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
     /**
      * Only return transaction state objects that are ready to run.
      * This method will wait until the transaction's block time has passed.
+     * <B>Note:</B> This should only be allowed to be called by one thread.
      * @return
      * @throws InterruptedException
      */
@@ -195,102 +414,92 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         //  (1) The queue is empty.
         //  (2) The waiting period for the next txn hasn't passed yet.
         // 
-        // Note that we can't simply attach ourselves to our inner queue because
-        // we don't want to get back the txn right when it gets added.
-        // We want to wait until the time period has passed.
-        if (trace.val)
-            LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
-        this.lock.lockInterruptibly();
-        try {
-            if (debug.val && this.state != QueueState.UNBLOCKED)
-                LOG.debug(String.format("Partition %d :: take() -> " +
-                          "Current state is %s. Blocking until ready", this.partitionId, this.state));
-            while (this.state != QueueState.UNBLOCKED) {
-                if (trace.val)
-                    LOG.trace(String.format("Partition %d :: take() -> Calculating how long to block",
-                              this.partitionId));
-                
-                long waitTime = -1;
-                boolean isEmpty = (this.state == QueueState.BLOCKED_EMPTY);
-                boolean needsUpdateQueue = false;
+        // We don't hold the lock while we are waiting. We park ourselves
+        // instead and let whoever changes the queue state wake us up.
+        Thread self = Thread.currentThread();
+        while (true) {
+            if (Thread.interrupted()) throw new InterruptedException();
+            
+            long waitTime = 0;
+            long version;
+            this.lock();
+            try {
+                this.checkPendingQueueState();
+                if (this.state == QueueState.BLOCKED_SAFETY || this.state == QueueState.BLOCKED_ORDERING) {
+                    this.checkQueueState(false);
+                }
                 
-                // If the queue isn't empty, then we need to figure out
-                // how long we should sleep for
-                if (isEmpty == false) {
-                    // If we're blocked because of an ordering issue (i.e., we have a new txn
-                    // in the system that is less than our current head of the queue, but we 
-                    // haven't inserted it yet), then we will want to wait for the full timeout
-                    // period. We won't actually have to wait this long because somebody will poke
-                    // us after the new txn is added to the queue.
-                    if (this.state == QueueState.BLOCKED_ORDERING) {
-                        waitTime = this.maxWaitTime;
-                    } else { 
-                        waitTime = this.blockTimestamp - System.currentTimeMillis();
+                // The next txn is ready to run now!
+                if (this.state == QueueState.UNBLOCKED) {
+                    retval = super.poll();
+                    
+                    // 2012-01-06
+                    // This could be null because there is a race condition if all of the
+                    // txns are removed by another thread right before we try to
+                    // poll our queue.
+                    if (retval != null) {
+                        this.lastTxnPopped = retval.getTransactionId();
+                        this.txnsPopped++;
+                        if (this.admissionController != null) this.recordSojourn();
+                        
+                        // Call this again to prime the next txn
+                        this.checkQueueState(true);
                     }
+                    break;
                 }
                 
-                try {
-                    // If we're empty, then we need to block indefinitely until we're poked
-                    if (isEmpty) {
+                if (debug.val)
+                    LOG.debug(String.format("Partition %d :: take() -> " +
+                              "Current state is %s. Blocking until ready", this.partitionId, this.state));
+                
+                // If we're empty, then we need to block indefinitely until we're poked
+                if (this.state == QueueState.BLOCKED_EMPTY) {
+                    waitTime = -1;
+                }
+                // If we're blocked because of an ordering issue (i.e., we have a new txn
+                // in the system that is less than our current head of the queue, but we 
+                // haven't inserted it yet), then we will want to wait for the full timeout
+                // period. We won't actually have to wait this long because somebody will poke
+                // us after the new txn is added to the queue.
+                else if (this.state == QueueState.BLOCKED_ORDERING) {
+                    waitTime = this.maxWaitTime;
+                }
+                // Otherwise, we'll sleep until our time out and then 
+                // check the queue status for ourselves
+                else {
+                    waitTime = Math.max(0, this.blockTimestamp - System.currentTimeMillis());
+                }
+                version = this.stateVersion;
+            } finally {
+                this.unlock();
+            }
+            
+            // Our txn is ready to run now, so we don't need to block
+            if (waitTime == 0) continue;
+            
+            // We have to check whether anything changed after we set ourselves as
+            // the waiter, otherwise we could miss the wake up from an offer()
+            // that came in right after we released the lock.
+            this.waiter = self;
+            try {
+                if (this.pendingCheck.get() == false && this.stateVersion == version) {
+                    if (waitTime < 0) {
                         if (debug.val)
                             LOG.debug(String.format("Partition %d :: take() -> " +
-                            		  "Blocking because queue is empty", this.partitionId));
-                        this.isReady.await();
-                    }
-                    // Otherwise, we'll sleep until our time out and then 
-                    // check the queue status for ourselves
-                    else if (waitTime > 0) {
-                        // We are going to wait for the specified time
-                        // The Condition will return true if somebody poked us, which
-                        // means that somebody changed the queue state to UNBLOCKED 
-                        // for us. If we are woken because of a timeout, then the
-                        // return status will be false, which means that we need to
-                        // queue state ourself.
+                                      "Blocking because queue is empty", this.partitionId));
+                        LockSupport.park(this);
+                    } else {
                         if (debug.val)
                             LOG.debug(String.format("Partition %d :: take() -> " +
                                       "Blocking for %d ms", this.partitionId, waitTime));
-                        needsUpdateQueue = (this.isReady.await(waitTime, TimeUnit.MILLISECONDS) == false);
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(waitTime));
                     }
-                    // Our txn is ready to run now, so we don't need to block
-                    else {
-                        if (debug.val)
-                            LOG.debug(String.format("Partition %d :: take() -> " +
-                                      "Ready to retrieve next txn immediately [waitTime=%d, isEmpty=%s]",
-                                      this.partitionId, waitTime, isEmpty));
-                        needsUpdateQueue = true;
-                    }
-                } catch (InterruptedException ex) {
-                    this.isReady.signal();
-                    throw ex;
                 }
-                
-                if (needsUpdateQueue) this.checkQueueState(false);
-                
-            } // WHILE
-            // The next txn is ready to run now!
-            assert(this.state == QueueState.UNBLOCKED);
-            retval = super.poll();
-            
-            // 2012-01-06
-            // This could be null because there is a race condition if all of the
-            // txns are removed by another thread right before we try to
-            // poll our queue.
-            if (retval != null) {
-                this.lastTxnPopped = retval.getTransactionId();
-                this.txnsPopped++;
-                
-                // Call this again to prime the next txn
-                this.checkQueueState(true);
+            } finally {
+                this.waiter = null;
             }
-            
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: take() -> Leaving blocking section",
-                          this.partitionId));
-        } finally {
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-            this.lock.unlock();
-        }
+        } // WHILE
+        
         if (debug.val)
             LOG.debug(String.format("Partition %d :: take() -> %s",
                       this.partitionId, retval));
@@ -321,7 +530,9 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
     
     /**
      * Add in a transaction to the queue.
-     * It is safe to call this from any thread if you need to
+     * It is safe to call this from any thread if you need to.
+     * This will never block waiting for the lock. If somebody else is holding it,
+     * then they will update the queue state for us when they release it.
      */
     @Override
     public boolean offer(AbstractTransaction ts, boolean force) {
@@ -334,16 +545,20 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
             LOG.debug(String.format("Partition %d :: offer(%s) -> %s", this.partitionId, ts, retval));
 
         if (retval) {
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
-            this.lock.lock();
-            try {
-                if (retval) this.checkQueueState(false);
-            } finally {
+            this.pendingCheck.set(true);
+            if (this.lock.tryLock()) {
+                this.unlock();
+            } else {
                 if (trace.val)
-                    LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-                this.lock.unlock();
+                    LOG.trace(String.format("Partition %d :: Lock is busy. Deferring queue state check",
+                              this.partitionId));
+                if (this.profiler != null) this.profiler.deferredChecks.incrementAndGet();
             }
+            
+            // Always poke the consumer. The txn may not be ready to run just yet,
+            // but at least they'll be able to recompute a new sleep time.
+            Thread t = this.waiter;
+            if (t != null) LockSupport.unpark(t);
         }
         return (retval);
     }
@@ -363,9 +578,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         AbstractTransaction txn = (AbstractTransaction)obj;
         boolean retval;
         
-        if (trace.val)
-            LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
-        this.lock.lock();
+        this.lock();
         try {
             // We have to check whether we are the first txn in the queue,
             // because we will need to reset the blockTimestamp after 
@@ -381,9 +594,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
             }
             if (retval) this.checkQueueState(reset);
         } finally {
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-            this.lock.unlock();
+            this.unlock();
         }
         return (retval);
     }
@@ -402,9 +613,8 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         if (trace.val) {
             LOG.trace(String.format("Partition %d :: SET lastSeenTxnId = %d",
                       this.partitionId, this.lastSeenTxnId));
-            LOG.trace(String.format("Partition %d :: Attempting to acquire lock", this.partitionId));
         }
-        this.lock.lock();
+        this.lock();
         try {
             if (this.lastTxnPopped.compareTo(txnId) > 0) {
                 if (debug.val)
@@ -432,9 +642,7 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
                 // this.checkQueueState(false);
             }
         } finally {
-            if (trace.val)
-                LOG.trace(String.format("Partition %d :: Releasing lock", this.partitionId));
-            this.lock.unlock();
+            this.unlock();
         } // SYNCH
         return (this.lastSafeTxnId);
     }
@@ -588,11 +796,13 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
                 this.profiler.queueStates.get(newState).start();
             }
             this.state = newState;
+            this.stateVersion++;
             
             // Always poke anybody that is blocking on this queue.
             // The txn may not be ready to run just yet, but at least they'll be
             // able to recompute a new sleep time.
-            this.isReady.signal();
+            Thread t = this.waiter;
+            if (t != null) LockSupport.unpark(t);
         }
         else if (this.profiler != null) {
             this.profiler.queueStates.get(this.state).restart();
@@ -629,11 +839,11 @@ public class PartitionLockQueue extends ThrottlingQueue<AbstractTransaction> {
         }
         public QueueState checkQueueState() {
             QueueState ret = null;
-            lock.lock();
+            PartitionLockQueue.this.lock();
             try {
                 ret = PartitionLockQueue.this.checkQueueState(false);
             } finally {
-                lock.unlock();
+                PartitionLockQueue.this.unlock();
             }
             return (ret);
         }
@@ -1,108 +1,357 @@
 package edu.brown.hstore;
 
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 import edu.brown.hstore.internal.FinishTxnMessage;
 import edu.brown.hstore.internal.InternalMessage;
 import edu.brown.hstore.internal.InternalTxnMessage;
 import edu.brown.hstore.internal.PrepareTxnMessage;
 import edu.brown.hstore.internal.SetDistributedTxnMessage;
-import edu.brown.hstore.internal.WorkFragmentMessage;
 import edu.brown.hstore.internal.UtilityWorkMessage;
+import edu.brown.hstore.internal.WorkFragmentMessage;
 
-public class PartitionMessageQueue extends PriorityBlockingQueue<InternalMessage> {
-    
-    private static final long serialVersionUID = 1L;
-//    private List<InternalMessage> swap = null;
-    
-    public PartitionMessageQueue() {
-        super(100000, WORK_COMPARATOR); // FIXME
-    }
-    
-//    @Override
-//    public int drainTo(Collection<? super InternalMessage> c) {
-//        assert(c != null);
-//        InternalMessage msg = null;
-//        int ctr = 0;
-//        
-//        if (this.swap == null) {
-//            this.swap = new ArrayList<InternalMessage>();
-//        } else {
-//            this.swap.clear();
-//        }
-//        
-//        while ((msg = this.poll()) != null) {
-//            // All new transaction requests must be put in the new collection
-//            if (msg instanceof InitializeRequestMessage) {
-//                c.add(msg);
-//                ctr++;
-//            // Everything else will get added back in afterwards 
-//            } else {
-//                this.swap.add(msg);
-//            }
-//        } // WHILE
-//        if (this.swap.isEmpty() == false) this.addAll(this.swap);
-//        return (ctr);
-//    }
-    
-    private static final Comparator<InternalMessage> WORK_COMPARATOR = new Comparator<InternalMessage>() {
-        @SuppressWarnings("unchecked")
-        private final Class<? extends InternalMessage> compareOrder[] = (Class<? extends InternalMessage>[])new Class<?>[]{
-            SetDistributedTxnMessage.class,
-            PrepareTxnMessage.class,
-            FinishTxnMessage.class,
-            WorkFragmentMessage.class,
-        };
-        
+/**
+ * Multi-producer, single-consumer work queue for a PartitionExecutor.
+ * <p>
+ * Messages are polled in the following order:
+ * <ol>
+ *  <li>Table stats requests</li>
+ *  <li>Transactional messages, ordered by their txnId. Messages for the same txn
+ *      are ordered by their type (SetDistributedTxn, Prepare, Finish, WorkFragment,
+ *      and then everything else) so that we never remove a txn before it's been added.
+ *      Messages for the same txn with the same type come out in the order that they
+ *      were added.</li>
+ *  <li>Everything else in the order that it was added</li>
+ * </ol>
+ * Producers push their messages onto a lock-free stack with a single CAS. The
+ * PartitionExecutor is the only thread that removes messages: whenever it polls,
+ * it takes everything that has been pushed since the last time in one shot and then
+ * sorts the transactional messages on the consumer side, so nobody else ever has to
+ * pay for the sorting.
+ * <p>
+ * <B>Note:</B> Only the owning PartitionExecutor's thread is allowed
+ * to poll, peek, drain, or clear this queue.
+ */
+public class PartitionMessageQueue extends AbstractQueue<InternalMessage> {
+
+    // ----------------------------------------------------------------------------
+    // LANES
+    // ----------------------------------------------------------------------------
+
+    // The lanes are listed in the order that they will be polled.
+    private static final int LANE_STATS = 0;
+    private static final int LANE_TXN = 1;
+    private static final int LANE_OTHER = 2;
+    private static final int NUM_LANES = 3;
+
+    private static int getLane(InternalMessage msg) {
+        if (msg instanceof InternalTxnMessage) return (LANE_TXN);
+        if (msg instanceof UtilityWorkMessage.TableStatsRequestMessage) return (LANE_STATS);
+        return (LANE_OTHER);
+    }
+
+    /**
+     * The order of the different types of messages for the same txn.
+     * This prevents us from removing a txn before it's been added.
+     */
+    private static int getRank(InternalMessage msg) {
+        if (msg instanceof SetDistributedTxnMessage) return (0);
+        if (msg instanceof PrepareTxnMessage) return (1);
+        if (msg instanceof FinishTxnMessage) return (2);
+        if (msg instanceof WorkFragmentMessage) return (3);
+        return (4);
+    }
+
+    private static final Comparator<Node> TXN_COMPARATOR = new Comparator<Node>() {
         @Override
-        public int compare(InternalMessage msg0, InternalMessage msg1) {
-            assert(msg0 != null) : "Unexpected null message [msg0]";
-            assert(msg1 != null) : "Unexpected null message [msg1]";
-
-            Class<?> class0 = msg0.getClass();
-            Class<?> class1 = msg1.getClass();
-
-            boolean isUtl0 = class0.equals(UtilityWorkMessage.TableStatsRequestMessage.class);
-            boolean isUtl1 = class1.equals(UtilityWorkMessage.TableStatsRequestMessage.class);
-            if (isUtl0 && !isUtl1) return -1;
-            if (!isUtl0 && isUtl1) return 1;
-            
-            // Always compare Transaction Ids first
-            boolean isTxn0 = (msg0 instanceof InternalTxnMessage);
-            boolean isTxn1 = (msg1 instanceof InternalTxnMessage);
-            if (isTxn0 && isTxn1) {
-                // If they're both for the same txn, then use the compareOrder
-                Long txnId0 = ((InternalTxnMessage)msg0).getTransactionId();
-                assert(txnId0 != null) : "Unexpected null txnId for " + msg0;
-                Long txnId1 = ((InternalTxnMessage)msg1).getTransactionId();
-                assert(txnId1 != null) : "Unexpected null txnId for " + msg1;
-
-                // Compare TxnIds
-                int result = txnId0.compareTo(txnId1);
-                if (result != 0) return (result);
-                
-                // Rank them based on their message type
-                // This prevents us from removing a txn before it's been added 
-                if (class0.equals(class1) == false) {
-                    for (Class<? extends InternalMessage> clazz : compareOrder) {
-                        boolean isMatch0 = class0.equals(clazz);
-                        boolean isMatch1 = class1.equals(clazz);
-                        if (isMatch0 && !isMatch1) return (-1);
-                        else if (!isMatch0 && isMatch1) return (1);                    
-                    } // FOR
-                }
+        public int compare(Node node0, Node node1) {
+            if (node0.txnId != node1.txnId) return (node0.txnId < node1.txnId ? -1 : 1);
+            if (node0.rank != node1.rank) return (node0.rank - node1.rank);
+            return (node0.seq < node1.seq ? -1 : (node0.seq == node1.seq ? 0 : 1));
+        }
+    };
+
+    /**
+     * Singly-linked node for a lane's producer stack. The consumer keeps
+     * the node around after it drains the stack so that we still know
+     * when the message was added.
+     */
+    private static final class Node {
+        private final InternalMessage msg;
+        private final long timestamp;
+        private final long txnId;
+        private final int rank;
+        /**
+         * The order that the consumer took this node out of the inbox
+         */
+        private long seq;
+        private Node next;
+        private Node(InternalMessage msg, long timestamp) {
+            this.msg = msg;
+            this.timestamp = timestamp;
+            if (msg instanceof InternalTxnMessage) {
+                Long txnId = ((InternalTxnMessage)msg).getTransactionId();
+                assert(txnId != null) : "Unexpected null txnId for " + msg;
+                this.txnId = txnId.longValue();
+                this.rank = getRank(msg);
+            } else {
+                this.txnId = -1;
+                this.rank = -1;
             }
-            else if (isTxn0) {
-                return (-1); 
-            } else if (isTxn1) {
-                return (1);
+        }
+    } // CLASS
+
+    // ----------------------------------------------------------------------------
+    // DATA MEMBERS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * The head of each lane's stack of newly added messages (producer side)
+     */
+    private final AtomicReferenceArray<Node> inbox = new AtomicReferenceArray<Node>(NUM_LANES);
+
+    /**
+     * The messages that the consumer has already taken out of each lane's inbox
+     */
+    private final Queue<Node> outbox[];
+
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    /**
+     * The number of nodes that the consumer has taken out of the inboxes
+     */
+    private long nextSeq = 0;
+
+    /**
+     * If true, then we will record when each message is added to the queue
+     */
+    private final boolean trackQueueTime;
+
+    /**
+     * The time (from System.nanoTime()) that the last message returned
+     * by poll() was added to the queue. Only the consumer uses this.
+     */
+    private long lastQueueTime = -1;
+
+    /**
+     * The consumer thread if it is currently parked waiting for new messages
+     */
+    private volatile Thread waiter = null;
+
+    public PartitionMessageQueue() {
+        this(false);
+    }
+
+    /**
+     * Constructor
+     * @param trackQueueTime If true, then the queue will keep track of how long each message waited.
+     */
+    @SuppressWarnings("unchecked")
+    public PartitionMessageQueue(boolean trackQueueTime) {
+        this.trackQueueTime = trackQueueTime;
+        this.outbox = (Queue<Node>[])new Queue<?>[NUM_LANES];
+        for (int lane = 0; lane < NUM_LANES; lane++) {
+            if (lane == LANE_TXN) {
+                this.outbox[lane] = new PriorityQueue<Node>(16, TXN_COMPARATOR);
+            } else {
+                this.outbox[lane] = new ArrayDeque<Node>();
             }
+        } // FOR
+    }
+
+    // ----------------------------------------------------------------------------
+    // PRODUCER METHODS
+    // ----------------------------------------------------------------------------
 
-            // Last Resort: Just use hashCode
-            return msg0.hashCode() - msg1.hashCode();
+    @Override
+    public boolean offer(InternalMessage msg) {
+        assert(msg != null) : "Unexpected null message";
+        int lane = getLane(msg);
+        Node node = new Node(msg, (this.trackQueueTime ? System.nanoTime() : -1));
+        // We have to count the message before we publish it, otherwise the
+        // consumer could poll it and decrement the size before we increment it
+        this.size.incrementAndGet();
+        Node head = null;
+        do {
+            head = this.inbox.get(lane);
+            node.next = head;
+        } while (this.inbox.compareAndSet(lane, head, node) == false);
+
+        // Wake up the consumer if it's waiting for us
+        Thread t = this.waiter;
+        if (t != null) LockSupport.unpark(t);
+        return (true);
+    }
+
+    // ----------------------------------------------------------------------------
+    // CONSUMER METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Move everything in the given lane's inbox over to its outbox.
+     * The inbox is a stack, so we have to reverse it to keep things FIFO.
+     */
+    private void drainInbox(int lane) {
+        Node node = this.inbox.getAndSet(lane, null);
+        Node prev = null;
+        while (node != null) {
+            Node next = node.next;
+            node.next = prev;
+            prev = node;
+            node = next;
+        } // WHILE
+        Queue<Node> q = this.outbox[lane];
+        node = prev;
+        while (node != null) {
+            Node next = node.next;
+            node.next = null;
+            node.seq = this.nextSeq++;
+            q.add(node);
+            node = next;
+        } // WHILE
+    }
+
+    private Queue<Node> nextLane() {
+        for (int lane = 0; lane < NUM_LANES; lane++) {
+            // We always have to check the inbox first, otherwise a message
+            // with a smaller txnId that was just added could get passed over
+            if (this.inbox.get(lane) != null) this.drainInbox(lane);
+            Queue<Node> q = this.outbox[lane];
+            if (q.isEmpty() == false) return (q);
+        } // FOR
+        return (null);
+    }
+
+    @Override
+    public InternalMessage poll() {
+        Queue<Node> q = this.nextLane();
+        if (q == null) return (null);
+        this.size.decrementAndGet();
+        Node node = q.poll();
+        this.lastQueueTime = node.timestamp;
+        return (node.msg);
+    }
+
+    @Override
+    public InternalMessage peek() {
+        Queue<Node> q = this.nextLane();
+        return (q != null ? q.peek().msg : null);
+    }
+
+    /**
+     * Returns the time (from System.nanoTime()) that the last message that
+     * was returned by poll() was added to this queue. This will be -1 if
+     * the queue was not created with trackQueueTime enabled.
+     * @return
+     */
+    public long getLastQueueTime() {
+        return (this.lastQueueTime);
+    }
+
+    /**
+     * Retrieve and remove the next message, parking the calling thread for up to
+     * the given amount of time until one becomes available. Returns null if
+     * nothing shows up before then.
+     * @param timeout
+     * @param unit
+     * @throws InterruptedException
+     */
+    public InternalMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        InternalMessage msg = this.poll();
+        if (msg != null) return (msg);
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        this.waiter = Thread.currentThread();
+        try {
+            // We have to check again after we set the waiter, otherwise
+            // we could miss an unpark from a message that was just added
+            while ((msg = this.poll()) == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) break;
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) throw new InterruptedException();
+            } // WHILE
+        } finally {
+            this.waiter = null;
         }
-    };
+        return (msg);
+    }
+
+    /**
+     * Remove all of the available messages from this queue and add them
+     * to the given collection in the order that they would have been polled.
+     * @param c
+     * @return The number of messages that were added
+     */
+    public int drainTo(Collection<? super InternalMessage> c) {
+        int ctr = 0;
+        InternalMessage msg = null;
+        while ((msg = this.poll()) != null) {
+            c.add(msg);
+            ctr++;
+        } // WHILE
+        return (ctr);
+    }
+
+    @Override
+    public void clear() {
+        while (this.poll() != null) {
+            // Nothing to do...
+        } // WHILE
+    }
 
+    // ----------------------------------------------------------------------------
+    // UTILITY METHODS
+    // ----------------------------------------------------------------------------
 
+    @Override
+    public int size() {
+        return (this.size.get());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return (this.size.get() == 0);
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the messages in this queue.
+     * This is only meant for debugging, so the order is only approximate
+     * and anything that is added or removed while the snapshot is being made
+     * may or may not be included.
+     */
+    @Override
+    public Iterator<InternalMessage> iterator() {
+        List<InternalMessage> snapshot = new ArrayList<InternalMessage>();
+        for (int lane = 0; lane < NUM_LANES; lane++) {
+            try {
+                for (Node node : this.outbox[lane]) {
+                    snapshot.add(node.msg);
+                } // FOR
+            } catch (ConcurrentModificationException ex) {
+                // The consumer changed the outbox out from under us. Skip it.
+            }
+            List<InternalMessage> pending = new ArrayList<InternalMessage>();
+            for (Node node = this.inbox.get(lane); node != null; node = node.next) {
+                pending.add(node.msg);
+            } // FOR
+            Collections.reverse(pending);
+            snapshot.addAll(pending);
+        } // FOR
+        return (Collections.unmodifiableList(snapshot).iterator());
+    }
 }
@@ -2,9 +2,11 @@ package edu.brown.hstore;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.log4j.Logger;
 
@@ -16,11 +18,16 @@ import edu.brown.hstore.txns.RemoteTransaction;
 import edu.brown.interfaces.Shutdownable;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.profilers.LatencyHistogram;
+import edu.brown.utils.ConcurrentLongHashMap;
 import edu.brown.utils.ExceptionHandlingRunnable;
-import edu.brown.utils.ThreadUtil;
 
 /**
- * Simple thread that will rip through the deletable threads and remove txn handles
+ * Thread that will rip through the deletable txns that are queued for it and remove
+ * their handles. The HStoreSite can have more than one of these, in which case each
+ * cleaner only gets the txns whose base partition is assigned to it.
+ * The thread parks itself whenever it has nothing to do and will get woken up as
+ * soon as a new txn is queued for it.
  * @author pavlo
  */
 public class TransactionCleaner extends ExceptionHandlingRunnable implements Shutdownable {
@@ -30,126 +37,236 @@ public class TransactionCleaner extends ExceptionHandlingRunnable implements Shu
     static {
         LoggerUtil.attachObserver(LOG, debug, trace);
     }
-    
+
     private static final int LIMIT_PER_ROUND = 10000;
     private static final int NUM_REQUEUE_LISTS = 3;
-    
-    
+
+
     private final HStoreSite hstore_site;
-    @SuppressWarnings("unused")
     private final HStoreConf hstore_conf;
-    private boolean shutdown = false;
-    private final Map<Long, AbstractTransaction> inflight_txns;
-    
+    private final int id;
+    private volatile boolean shutdown = false;
+    private final ConcurrentLongHashMap<AbstractTransaction> inflight_txns;
+
     /**
      * Queues for transactions that are ready to be cleaned up and deleted
-     * There is one queue for each Status type
+     * There is one queue for each Status type, indexed by the Status' ordinal
      */
     private final Queue<Long> deletables[];
     private final Status statuses[];
-    
+
+    /**
+     * The number of txns that are sitting in our deletable queues.
+     * We keep this separately so that we don't have to walk the queues.
+     */
+    private final AtomicInteger pending = new AtomicInteger(0);
+
     /**
      * We'll maintain multiple sets of txns that need to get requeued for deletion.
      * We'll cycle through them to add in a natural delay for waiting until a txn
      * is fully ready to be deleted. This is probably only really necessary for distributed txns.
      */
     private final Collection<Long> requeues[][];
-    
+    private int requeue_ctr = 0;
+
+    /**
+     * The thread that is running this cleaner. The idle flag is set to
+     * true whenever that thread is about to park and wait for new work.
+     */
+    private volatile Thread self;
+    private volatile boolean idle = false;
+
+    /**
+     * How long it took between when a txn was queued and when it was deleted (nanoseconds)
+     */
+    private final LatencyHistogram lag = new LatencyHistogram();
+    private volatile long lagTotal = 0;
+    private volatile long deleted = 0;
+
     /**
      * Constructor
      * @param hstore_site
+     * @param id
      */
     @SuppressWarnings("unchecked")
-    public TransactionCleaner(HStoreSite hstore_site) {
+    public TransactionCleaner(HStoreSite hstore_site, int id) {
         this.hstore_site = hstore_site;
         this.hstore_conf = hstore_site.getHStoreConf();
+        this.id = id;
         this.inflight_txns = hstore_site.getInflightTxns();
-        this.statuses = new Status[Status.values().length];
+        this.statuses = Status.values();
         this.deletables = new Queue[this.statuses.length];
         this.requeues = new Collection[NUM_REQUEUE_LISTS][this.statuses.length];
-        
-        int i = 0;
-        for (Entry<Status, Queue<Long>> e : hstore_site.getDeletableQueues().entrySet()) {
-            this.statuses[i] = e.getKey();
-            this.deletables[i] = e.getValue();
+
+        for (int i = 0; i < this.statuses.length; i++) {
+            this.deletables[i] = new ConcurrentLinkedQueue<Long>();
             for (int j = 0; j < this.requeues.length; j++) {
                 this.requeues[j][i] = new ArrayList<Long>();
             } // FOR
-            i += 1;
         } // FOR
     }
 
+    /**
+     * Queue up a txn for this cleaner to delete. If the cleaner thread is
+     * idle, then it will be woken up.
+     * @param txn_id
+     * @param status
+     */
+    public void queue(Long txn_id, Status status) {
+        this.deletables[status.ordinal()].offer(txn_id);
+        this.pending.incrementAndGet();
+        if (this.idle) {
+            Thread t = this.self;
+            if (t != null) LockSupport.unpark(t);
+        }
+    }
+
     @Override
     public void runImpl() {
+        this.self = Thread.currentThread();
         this.hstore_site.getThreadManager().registerProcessingThread();
-        
-        // Delete txn handles
-        Long txn_id = null;
-        int cur_index = 0;
+        long requeueDelay = TimeUnit.MICROSECONDS.toNanos(Math.max(1, hstore_conf.site.txn_cleaner_requeue_delay));
+
         while (this.shutdown == false) {
-            int swap_index = (cur_index + 1) % NUM_REQUEUE_LISTS;
-            
-            // if (hstore_conf.site.profiling) this.profiler.cleanup.start();
-            boolean needsSleep = true;
+            int swap_index = (this.requeue_ctr + 1) % NUM_REQUEUE_LISTS;
+            int requeued = 0;
             for (int i = 0; i < this.statuses.length; i++) {
-                Status status = this.statuses[i];
-                Queue<Long> queue = this.deletables[i];
                 Collection<Long> swap_queue = this.requeues[swap_index][i];
                 if (swap_queue.isEmpty() == false) {
-                    queue.addAll(swap_queue);
+                    this.deletables[i].addAll(swap_queue);
+                    this.pending.addAndGet(swap_queue.size());
                     swap_queue.clear();
                 }
-                
-                Collection<Long> requeue = this.requeues[cur_index][i];
-                int limit = LIMIT_PER_ROUND;
-                while ((txn_id = queue.poll()) != null) {
-                    // It's ok for us to not have a transaction handle, because it could be
-                    // for a remote transaction that told us that they were going to need one
-                    // of our partitions but then they never actually sent work to us
-                    AbstractTransaction ts = this.inflight_txns.get(txn_id);
-                    if (ts != null) {
-                        assert(txn_id.equals(ts.getTransactionId())) :
-                            String.format("Mismatched %s - Expected[%d] != Actual[%s]",
-                                          ts, txn_id, ts.getTransactionId());
-                        // We need to check whether a txn is ready to be deleted
-                        if (ts.isDeletable()) {
-                            if (ts instanceof RemoteTransaction) {
-                                this.hstore_site.deleteRemoteTransaction((RemoteTransaction)ts, status);    
-                            }
-                            else {
-                                this.hstore_site.deleteLocalTransaction((LocalTransaction)ts, status);
-                            }
-                            needsSleep = false;
-                            limit--;
+            } // FOR
+            int deleted = this.drain(this.requeues[this.requeue_ctr]);
+            for (Collection<Long> requeue[] : this.requeues) {
+                for (Collection<Long> r : requeue) requeued += r.size();
+            } // FOR
+            this.requeue_ctr = swap_index;
+
+            // If we deleted something or there is more work waiting, then go
+            // right back around. Otherwise we'll block until somebody gives us
+            // something to do. If there are still txns that weren't ready to be
+            // deleted, then we'll only wait a little bit before we check them again.
+            if (deleted > 0 || this.pending.get() > 0) {
+                continue;
+            }
+            this.idle = true;
+            if (this.pending.get() == 0 && this.shutdown == false) {
+                if (requeued > 0) {
+                    LockSupport.parkNanos(this, requeueDelay);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+            this.idle = false;
+        } // WHILE
+    }
+
+    /**
+     * Delete as many queued txns as we can in this round. Any txn that is not
+     * ready to be deleted yet will be added to the given requeue lists.
+     * @param requeue
+     * @return The number of txns that were deleted
+     */
+    private int drain(Collection<Long> requeue[]) {
+        Long txn_id = null;
+        int limit = LIMIT_PER_ROUND;
+        for (int i = 0; i < this.statuses.length && limit > 0; i++) {
+            Status status = this.statuses[i];
+            Queue<Long> queue = this.deletables[i];
+            while (limit > 0 && (txn_id = queue.poll()) != null) {
+                this.pending.decrementAndGet();
+
+                // It's ok for us to not have a transaction handle, because it could be
+                // for a remote transaction that told us that they were going to need one
+                // of our partitions but then they never actually sent work to us
+                AbstractTransaction ts = this.inflight_txns.get(txn_id.longValue());
+                if (ts != null) {
+                    assert(txn_id.equals(ts.getTransactionId())) :
+                        String.format("Mismatched %s - Expected[%d] != Actual[%s]",
+                                      ts, txn_id, ts.getTransactionId());
+                    // We need to check whether a txn is ready to be deleted
+                    if (ts.isDeletable()) {
+                        // We have to grab the timestamp before the handle gets recycled
+                        long queued = ts.getDeletableQueuedTime();
+                        if (ts instanceof RemoteTransaction) {
+                            this.hstore_site.deleteRemoteTransaction((RemoteTransaction)ts, status);
                         }
-                        // We can't delete this yet, so we'll just stop checking
                         else {
-                            if (trace.val)
-                                LOG.trace(String.format("%s - Cannot delete %s at this point [status=%s]\n%s",
-                                          ts, ts.getClass().getSimpleName(), status, ts.debug()));
-                            requeue.add(txn_id);
+                            this.hstore_site.deleteLocalTransaction((LocalTransaction)ts, status);
+                        }
+                        if (queued != -1) {
+                            long elapsed = System.nanoTime() - queued;
+                            this.lag.record(elapsed);
+                            this.lagTotal += elapsed;
                         }
-                    } else if (debug.val) {
-                        LOG.warn(String.format("Ignoring clean-up request for txn #%d because we do not have a handle " +
-                                 "[status=%s]", txn_id, status));
+                        limit--;
                     }
-                    if (limit <= 0) break;
-                } // WHILE
-            } // FOR
-            if (needsSleep) ThreadUtil.sleep(10);
-            cur_index = swap_index;
-            // if (hstore_conf.site.profiling) this.profiler.cleanup.stop();
-        } // WHILE
+                    // We can't delete this yet, so we'll just stop checking
+                    else {
+                        if (trace.val)
+                            LOG.trace(String.format("%s - Cannot delete %s at this point [status=%s]\n%s",
+                                      ts, ts.getClass().getSimpleName(), status, ts.debug()));
+                        requeue[i].add(txn_id);
+                    }
+                } else if (debug.val) {
+                    LOG.warn(String.format("Ignoring clean-up request for txn #%d because we do not have a handle " +
+                             "[status=%s]", txn_id, status));
+                }
+            } // WHILE
+        } // FOR
+        int ret = LIMIT_PER_ROUND - limit;
+        if (ret > 0) this.deleted += ret;
+        return (ret);
+    }
+
+    // ----------------------------------------------------------------------------
+    // UTILITY METHODS
+    // ----------------------------------------------------------------------------
+
+    public int getId() {
+        return (this.id);
     }
-    
+    /**
+     * Return the number of txns that are waiting to be deleted by this cleaner.
+     * This does not include txns that were not ready to be deleted the last time
+     * that we checked them.
+     */
+    public int getPendingCount() {
+        return (this.pending.get());
+    }
+    /**
+     * Return the total number of txns that this cleaner has deleted
+     */
+    public long getDeletedCount() {
+        return (this.deleted);
+    }
+    /**
+     * Return the histogram of the time (in nanoseconds) between when a txn
+     * was queued for deletion and when this cleaner deleted it.
+     */
+    public LatencyHistogram getLagHistogram() {
+        return (this.lag);
+    }
+    /**
+     * Return the sum of the time (in nanoseconds) between when each txn
+     * was queued for deletion and when this cleaner deleted it.
+     */
+    public long getLagTotal() {
+        return (this.lagTotal);
+    }
+
     @Override
     public boolean isShuttingDown() {
         return (this.shutdown == true);
     }
-    
+
     @Override
     public void shutdown() {
         this.shutdown = true;
+        Thread t = this.self;
+        if (t != null) LockSupport.unpark(t);
     }
 
     @Override
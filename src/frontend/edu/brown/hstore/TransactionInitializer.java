@@ -54,8 +54,11 @@ import edu.brown.hstore.txns.TransactionUtil;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.markov.EstimationThresholds;
+import edu.brown.pools.TypedObjectPool;
+import edu.brown.pools.TypedPoolableObjectFactory;
 import edu.brown.profilers.ProfileMeasurement;
 import edu.brown.profilers.TransactionProfiler;
+import edu.brown.utils.ConcurrentLongHashMap;
 import edu.brown.utils.EventObservable;
 import edu.brown.utils.PartitionEstimator;
 import edu.brown.utils.PartitionSet;
@@ -97,7 +100,7 @@ public class TransactionInitializer {
      * HACK: This is the internal map used to keep track of TxnId->TxnHandles
      * inside of the HStoreSite.
      */
-    private final Map<Long, AbstractTransaction> inflight_txns;
+    private final ConcurrentLongHashMap<AbstractTransaction> inflight_txns;
     
     /**
      * This is fired whenever we create a new txn handle is initialized.
@@ -105,6 +108,13 @@ public class TransactionInitializer {
      */
     private EventObservable<LocalTransaction> newTxnObservable; 
     
+    /**
+     * Object pools for recycling txn handles. LocalTransactions are pooled
+     * by their base partition. These will be null if pooling is disabled.
+     */
+    private final TypedObjectPool<LocalTransaction> localTxnPools[];
+    private final TypedObjectPool<RemoteTransaction> remoteTxnPool;
+    
     // Local Catalog Cache
     private final boolean isMapReduce[];
     private final boolean isSysProc[];
@@ -115,6 +125,7 @@ public class TransactionInitializer {
     // INITIALIZATION
     // ----------------------------------------------------------------------------
     
+    @SuppressWarnings("unchecked")
     public TransactionInitializer(HStoreSite hstore_site) {
         this.hstore_site = hstore_site;
         this.hstore_conf = hstore_site.getHStoreConf();
@@ -143,6 +154,33 @@ public class TransactionInitializer {
         for (int partition : this.local_partitions.values()) {
             this.txnIdManagers[partition] = hstore_site.getTransactionIdManager(partition);
         } // FOR
+        
+        // Transaction Handle Pools
+        if (hstore_conf.site.pool_txn_enable) {
+            int num_idle = (int)(hstore_conf.site.pool_txn_idle * hstore_conf.site.pool_scale_factor);
+            this.localTxnPools = (TypedObjectPool<LocalTransaction>[])new TypedObjectPool<?>[this.catalogContext.numberOfPartitions];
+            for (int partition : this.local_partitions.values()) {
+                TypedPoolableObjectFactory<LocalTransaction> factory =
+                        new TypedPoolableObjectFactory<LocalTransaction>(hstore_conf.site.pool_profiling) {
+                    @Override
+                    public LocalTransaction makeObjectImpl() throws Exception {
+                        return (new LocalTransaction(TransactionInitializer.this.hstore_site));
+                    }
+                };
+                this.localTxnPools[partition] = new TypedObjectPool<LocalTransaction>(factory, num_idle);
+            } // FOR
+            TypedPoolableObjectFactory<RemoteTransaction> factory =
+                    new TypedPoolableObjectFactory<RemoteTransaction>(hstore_conf.site.pool_profiling) {
+                @Override
+                public RemoteTransaction makeObjectImpl() throws Exception {
+                    return (new RemoteTransaction(TransactionInitializer.this.hstore_site));
+                }
+            };
+            this.remoteTxnPool = new TypedObjectPool<RemoteTransaction>(factory, num_idle);
+        } else {
+            this.localTxnPools = null;
+            this.remoteTxnPool = null;
+        }
     }
     
     public synchronized EventObservable<LocalTransaction> getNewTxnObservable() {
@@ -286,7 +324,7 @@ public class TransactionInitializer {
             if (this.isMapReduce[procId]) {
                 ts = new MapReduceTransaction(this.hstore_site);
             } else {
-                ts = new LocalTransaction(this.hstore_site);
+                ts = this.newLocalTransaction(base_partition);
             }
             assert(ts.isInitialized() == false);
         } catch (Throwable ex) {
@@ -335,7 +373,7 @@ public class TransactionInitializer {
                                                    boolean predict_readOnly,
                                                    boolean predict_abortable) {
         
-        LocalTransaction new_ts = new LocalTransaction(hstore_site);
+        LocalTransaction new_ts = this.newLocalTransaction(base_partition);
         
         // Setup TransactionProfiler
         if (hstore_conf.site.txn_profiling) {
@@ -395,7 +433,7 @@ public class TransactionInitializer {
         RemoteTransaction ts = null;
         Procedure catalog_proc = this.catalogContext.getProcedureById(proc_id);
         try {
-            ts = new RemoteTransaction(this.hstore_site);
+            ts = (this.remoteTxnPool != null ? this.remoteTxnPool.borrowObject() : new RemoteTransaction(this.hstore_site));
             assert(ts.isInitialized() == false);
             ts.init(txn_id, base_partition, procParams, catalog_proc, partitions, true);
             if (debug.val)
@@ -457,6 +495,45 @@ public class TransactionInitializer {
         return (ts);
     }
    
+    /**
+     * Get a new LocalTransaction handle for the given base partition.
+     * This will come from the partition's object pool if pooling is enabled.
+     * @param base_partition
+     * @return
+     */
+    private LocalTransaction newLocalTransaction(int base_partition) {
+        if (this.localTxnPools != null && this.localTxnPools[base_partition] != null) {
+            try {
+                return (this.localTxnPools[base_partition].borrowObject());
+            } catch (Exception ex) {
+                throw new RuntimeException("Failed to get LocalTransaction handle from pool for partition " + base_partition, ex);
+            }
+        }
+        return (new LocalTransaction(this.hstore_site));
+    }
+    
+    /**
+     * Return a deleted txn handle back to its object pool so that it can be reused.
+     * This will call finish() on the handle. If pooling is disabled, then this does nothing.
+     * <B>Note:</B> This should only be called by the HStoreSite after it is
+     * completely finished with the handle.
+     * @param ts
+     */
+    public void recycleTransaction(AbstractTransaction ts) {
+        if (this.localTxnPools == null) return;
+        // Only plain handles are pooled. MapReduceTransactions and any other
+        // subclasses are always thrown away
+        Class<?> clazz = ts.getClass();
+        if (clazz == LocalTransaction.class) {
+            int base_partition = ts.getBasePartition();
+            if (this.localTxnPools[base_partition] != null) {
+                this.localTxnPools[base_partition].returnObject((LocalTransaction)ts);
+            }
+        } else if (clazz == RemoteTransaction.class) {
+            this.remoteTxnPool.returnObject((RemoteTransaction)ts);
+        }
+    }
+    
     // ----------------------------------------------------------------------------
     // TRANSACTION HANDLE INITIALIZATION METHODS
     // These don't normally need to be invoked from outside of this class
@@ -496,10 +573,8 @@ public class TransactionInitializer {
         
         // For some odd reason we sometimes get duplicate transaction ids from the VoltDB id generator
         // So we'll just double check to make sure that it's unique, and if not, we'll just ask for a new one
-        AbstractTransaction dupe = this.inflight_txns.put(txn_id, ts);
+        AbstractTransaction dupe = this.inflight_txns.putIfAbsent(txn_id, ts);
         if (dupe != null) {
-            // HACK!
-            this.inflight_txns.put(txn_id, dupe);
             Long new_txn_id = idManager.getNextUniqueTransactionId();
             if (new_txn_id.equals(txn_id)) {
                 String msg = "Duplicate transaction id #" + txn_id;
@@ -142,6 +142,7 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
                                                               hstore_conf.site.txn_incoming_delay,
                                                               this.initThrottleThreshold,
                                                               this.initThrottleRelease);
+            queue.setAdmissionController(hstore_site.getAdmissionController());
             this.lockQueues[partition] = queue;
             this.lockQueueBarriers[partition] = new ReentrantLock(true);
             this.profilers[partition] = new TransactionQueueManagerProfiler();
@@ -156,6 +157,8 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
         // to increase their limits if they're empty
         hstore_site.getStartWorkloadObservable().addObserver(new EventObserver<HStoreSite>() {
             public void update(EventObservable<HStoreSite> o, HStoreSite arg) {
+                // The AdmissionController is in charge of the thresholds if it's enabled
+                if (hstore_conf.site.admission_enable) return;
                 for (PartitionLockQueue queue : lockQueues) {
                     if (queue != null) queue.setAllowIncrease(true);
                 } // FOR
@@ -176,8 +179,10 @@ public class TransactionQueueManager extends ExceptionHandlingRunnable implement
             if (queue != null) {
                 queue.setThrottleThreshold(this.initThrottleThreshold);
                 queue.setThrottleReleaseFactor(this.initThrottleRelease);
-                queue.setAllowDecrease(hstore_conf.site.queue_allow_decrease);
-                queue.setAllowIncrease(hstore_conf.site.queue_allow_increase);
+                // Don't let the queue autoscale its threshold if the
+                // AdmissionController is going to be changing it for us
+                queue.setAllowDecrease(hstore_conf.site.queue_allow_decrease && hstore_conf.site.admission_enable == false);
+                queue.setAllowIncrease(hstore_conf.site.queue_allow_increase && hstore_conf.site.admission_enable == false);
                 queue.setThrottleThresholdMinSize((int)(this.initThrottleThreshold * hstore_conf.site.queue_min_factor));
                 queue.setThrottleThresholdMaxSize((int)(this.initThrottleThreshold * hstore_conf.site.queue_max_factor));
                 queue.setThrottleThresholdAutoDelta(hstore_conf.site.queue_autoscale_delta);
@@ -0,0 +1,284 @@
+/***************************************************************************
+ *   Copyright (C) 2012 by H-Store Project                                 *
+ *   Brown University                                                      *
+ *   Massachusetts Institute of Technology                                 *
+ *   Yale University                                                       *
+ *                                                                         *
+ *   Permission is hereby granted, free of charge, to any person obtaining *
+ *   a copy of this software and associated documentation files (the       *
+ *   "Software"), to deal in the Software without restriction, including   *
+ *   without limitation the rights to use, copy, modify, merge, publish,   *
+ *   distribute, sublicense, and/or sell copies of the Software, and to    *
+ *   permit persons to whom the Software is furnished to do so, subject to *
+ *   the following conditions:                                             *
+ *                                                                         *
+ *   The above copyright notice and this permission notice shall be        *
+ *   included in all copies or substantial portions of the Software.       *
+ *                                                                         *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,       *
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF    *
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.*
+ *   IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR     *
+ *   OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, *
+ *   ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR *
+ *   OTHER DEALINGS IN THE SOFTWARE.                                       *
+ ***************************************************************************/
+package edu.brown.hstore.cmdlog;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.utils.FileUtil;
+
+/**
+ * Command Log Manifest
+ * The manifest keeps track of the segment files that make up a command log
+ * and the id of the last transaction that is covered by a durable snapshot.
+ * Anything at or before that transaction does not need to be replayed.
+ */
+public class CommandLogManifest {
+    private static final Logger LOG = Logger.getLogger(CommandLogManifest.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    private static final LoggerBoolean trace = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * The file extension that we append to the log's base file for the manifest
+     */
+    public static final String MANIFEST_EXT = ".manifest";
+
+    private static final String KEY_SNAPSHOT = "snapshot";
+    private static final String KEY_SEGMENT = "segment";
+
+    /**
+     * A single command log segment file
+     */
+    public static class Segment implements Comparable<Segment> {
+        public final int id;
+        public final File file;
+        // Only the writer thread updates these, but anybody can read them
+        private volatile long firstTxnId = -1;
+        private volatile long lastTxnId = -1;
+        private volatile boolean closed = false;
+
+        private Segment(int id, File file) {
+            this.id = id;
+            this.file = file;
+        }
+
+        /**
+         * Update the range of txnIds that are stored in this segment
+         * @param minTxnId
+         * @param maxTxnId
+         */
+        protected void update(long minTxnId, long maxTxnId) {
+            if (this.firstTxnId == -1 || minTxnId < this.firstTxnId) this.firstTxnId = minTxnId;
+            if (maxTxnId > this.lastTxnId) this.lastTxnId = maxTxnId;
+        }
+        protected void close() {
+            this.closed = true;
+        }
+        public long getFirstTransactionId() {
+            return (this.firstTxnId);
+        }
+        public long getLastTransactionId() {
+            return (this.lastTxnId);
+        }
+        /**
+         * Returns true if the writer will not append any more entries to this segment
+         */
+        public boolean isClosed() {
+            return (this.closed);
+        }
+        /**
+         * Returns true if every entry in this segment is covered by the
+         * snapshot for the given txnId. Segments that are still being written to
+         * are never covered.
+         * @param snapshotTxnId
+         */
+        public boolean isCoveredBy(long snapshotTxnId) {
+            return (this.closed && snapshotTxnId >= 0 && this.lastTxnId <= snapshotTxnId);
+        }
+        @Override
+        public int compareTo(Segment o) {
+            return (this.id - o.id);
+        }
+        @Override
+        public String toString() {
+            return String.format("%s[id=%d, txns=%d-%d, closed=%s]",
+                                 this.file.getName(), this.id, this.firstTxnId, this.lastTxnId, this.closed);
+        }
+    } // CLASS
+
+    private final File baseFile;
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private long snapshotTxnId = -1;
+
+    /**
+     * Constructor
+     * @param baseFile The base file name that all of the segments are derived from
+     */
+    public CommandLogManifest(File baseFile) {
+        this.baseFile = baseFile;
+    }
+
+    // ----------------------------------------------------------------------------
+    // FILE NAMES
+    // ----------------------------------------------------------------------------
+
+    public static File getManifestFile(File baseFile) {
+        return new File(baseFile.getPath() + MANIFEST_EXT);
+    }
+
+    public static File getSegmentFile(File baseFile, int segmentId) {
+        return new File(String.format("%s.%05d", baseFile.getPath(), segmentId));
+    }
+
+    // ----------------------------------------------------------------------------
+    // ACCESS METHODS
+    // ----------------------------------------------------------------------------
+
+    public File getBaseFile() {
+        return (this.baseFile);
+    }
+    public long getSnapshotTransactionId() {
+        return (this.snapshotTxnId);
+    }
+    protected void setSnapshotTransactionId(long txnId) {
+        this.snapshotTxnId = txnId;
+    }
+    public List<Segment> getSegments() {
+        return (Collections.unmodifiableList(this.segments));
+    }
+    public Segment getLastSegment() {
+        return (this.segments.isEmpty() ? null : this.segments.get(this.segments.size()-1));
+    }
+
+    /**
+     * Create a new segment at the end of the log
+     */
+    protected Segment addSegment() {
+        Segment last = this.getLastSegment();
+        int id = (last != null ? last.id + 1 : 0);
+        if (last != null) last.close();
+        Segment s = new Segment(id, getSegmentFile(this.baseFile, id));
+        this.segments.add(s);
+        return (s);
+    }
+
+    /**
+     * Remove all of the closed segments that are covered by the last durable
+     * snapshot and delete their files. Returns the number of segments removed.
+     */
+    protected int truncate() {
+        int ctr = 0;
+        while (this.segments.isEmpty() == false) {
+            Segment s = this.segments.get(0);
+            if (s.isCoveredBy(this.snapshotTxnId) == false) break;
+            if (s.file.exists() && s.file.delete() == false) {
+                LOG.warn("Failed to delete command log segment " + s.file.getAbsolutePath());
+                break;
+            }
+            if (debug.val)
+                LOG.debug(String.format("Deleted command log segment %s [snapshotTxnId=%d]", s, this.snapshotTxnId));
+            this.segments.remove(0);
+            ctr++;
+        } // WHILE
+        return (ctr);
+    }
+
+    // ----------------------------------------------------------------------------
+    // SERIALIZATION
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Durably write this manifest out to disk. We write to a temporary
+     * file first and then rename it so that a crash never leaves behind
+     * a half-written manifest.
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(KEY_SNAPSHOT).append("=").append(this.snapshotTxnId).append("\n");
+        for (Segment s : this.segments) {
+            sb.append(KEY_SEGMENT).append("=")
+              .append(s.id).append(",")
+              .append(s.firstTxnId).append(",")
+              .append(s.lastTxnId).append(",")
+              .append(s.closed).append("\n");
+        } // FOR
+
+        File manifestFile = getManifestFile(this.baseFile);
+        File tempFile = new File(manifestFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tempFile, false);
+        try {
+            out.write(sb.toString().getBytes());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (tempFile.renameTo(manifestFile) == false) {
+            throw new IOException("Failed to rename " + tempFile + " to " + manifestFile);
+        }
+        if (trace.val)
+            LOG.trace("Wrote command log manifest " + manifestFile + "\n" + sb);
+    }
+
+    /**
+     * Load the manifest for the given base file. Returns null if
+     * the manifest file does not exist.
+     * @param baseFile
+     * @throws IOException
+     */
+    public static CommandLogManifest load(File baseFile) throws IOException {
+        File manifestFile = getManifestFile(baseFile);
+        if (manifestFile.exists() == false) return (null);
+
+        CommandLogManifest manifest = new CommandLogManifest(baseFile);
+        BufferedReader in = FileUtil.getReader(manifestFile);
+        try {
+            String line = null;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                String kv[] = line.split("=", 2);
+                if (kv.length != 2) {
+                    throw new IOException("Invalid command log manifest line '" + line + "'");
+                }
+                if (kv[0].equals(KEY_SNAPSHOT)) {
+                    manifest.snapshotTxnId = Long.parseLong(kv[1]);
+                }
+                else if (kv[0].equals(KEY_SEGMENT)) {
+                    String vals[] = kv[1].split(",");
+                    int id = Integer.parseInt(vals[0]);
+                    Segment s = new Segment(id, getSegmentFile(baseFile, id));
+                    s.firstTxnId = Long.parseLong(vals[1]);
+                    s.lastTxnId = Long.parseLong(vals[2]);
+                    s.closed = Boolean.parseBoolean(vals[3]);
+                    manifest.segments.add(s);
+                }
+            } // WHILE
+        } finally {
+            in.close();
+        }
+        Collections.sort(manifest.segments);
+        return (manifest);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[snapshotTxnId=%d, segments=%s]",
+                             this.baseFile.getName(), this.snapshotTxnId, this.segments);
+    }
+}
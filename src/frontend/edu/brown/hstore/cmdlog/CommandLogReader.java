@@ -32,8 +32,11 @@ import java.io.RandomAccessFile;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
@@ -66,15 +69,74 @@ public class CommandLogReader implements Iterable<LogEntry> {
         LoggerUtil.attachObserver(LOG, debug, trace);
     }
     
-    final FastDeserializer fd;
-    final Map<Integer, String> procedures;
+    final List<File> files = new ArrayList<File>();
+    final long snapshotTxnId;
+    FastDeserializer fd;
+    Map<Integer, String> procedures;
     boolean groupCommit;
+    byte version;
     
+    /**
+     * Constructor
+     * If the given path has a manifest, then we will read all of the segments
+     * for that log in order. Any segment that is entirely covered by the
+     * last durable snapshot is skipped, as are any entries whose txnId is
+     * not greater than the snapshot's txnId. Otherwise we will treat the path
+     * as a single command log file.
+     * @param path
+     */
     public CommandLogReader(String path) {
+        File baseFile = new File(path);
+        CommandLogManifest manifest = null;
+        try {
+            manifest = CommandLogManifest.load(baseFile);
+        } catch (IOException ex) {
+            throw new RuntimeException("Failed to read command log manifest for " + baseFile, ex);
+        }
+        if (manifest != null) {
+            this.snapshotTxnId = manifest.getSnapshotTransactionId();
+            for (CommandLogManifest.Segment segment : manifest.getSegments()) {
+                if (segment.isCoveredBy(this.snapshotTxnId)) {
+                    if (debug.val) LOG.debug("Skipping command log segment " + segment);
+                    continue;
+                }
+                if (segment.file.exists() == false) {
+                    LOG.warn("Missing command log segment " + segment.file.getAbsolutePath());
+                    continue;
+                }
+                this.files.add(segment.file);
+            } // FOR
+            if (debug.val)
+                LOG.debug(String.format("Replaying %d command log segments after snapshot txn #%d",
+                          this.files.size(), this.snapshotTxnId));
+        } else {
+            this.snapshotTxnId = -1;
+            this.files.add(baseFile);
+        }
+        
+        if (this.files.isEmpty() == false) {
+            this.openFile(this.files.remove(0));
+        } else {
+            this.fd = new FastDeserializer(ByteBuffer.allocate(0));
+            this.procedures = new HashMap<Integer, String>();
+        }
+    }
+    
+    /**
+     * Returns the txnId of the last durable snapshot for this log.
+     * Replay should start after this transaction.
+     */
+    public long getSnapshotTransactionId() {
+        return (this.snapshotTxnId);
+    }
+    
+    /**
+     * Map in the given log file and read its header
+     * @param f
+     */
+    private void openFile(File f) {
         FileChannel roChannel = null;
         ByteBuffer readonlybuffer = null;
-        
-        File f = new File(path);
         try {
             roChannel = new RandomAccessFile(f, "r").getChannel();
             LOG.trace("File Size :"+roChannel.size());            
@@ -94,56 +156,110 @@ public class CommandLogReader implements Iterable<LogEntry> {
         this.procedures = this.readHeader();        
     }
     
+    /**
+     * Move on to the next segment file. Returns false if there are no more
+     */
+    private boolean nextFile() {
+        if (this.files.isEmpty()) return (false);
+        this.openFile(this.files.remove(0));
+        return (true);
+    }
+    
+    /**
+     * Read the next group commit block out of the log and return it decompressed.
+     * We will automatically move on to the next segment when we reach the end of
+     * the current one. Returns null when there is nothing left to read.
+     * <B>Note:</B> This is not thread-safe.
+     */
+    public ByteBuffer readBlock() {
+        while (true) {
+            ByteBuffer buffer = this.fd.buffer();
+            if (this.groupCommit == false) {
+                // Without group commit, the rest of the file is one big block
+                if (buffer.hasRemaining()) {
+                    ByteBuffer block = buffer.slice();
+                    buffer.position(buffer.limit());
+                    return (block);
+                }
+            }
+            else if (buffer.remaining() >= 4) {
+                try {
+                    int size = this.fd.readInt();
+                    // A negative size means that the block was written out
+                    // without being compressed, so we can just use it as-is
+                    if (size < 0) {
+                        if (this.version < 2) {
+                            throw new IOException("Invalid block size " + size + " in version " +
+                                                  this.version + " command log segment");
+                        }
+                        if (buffer.remaining() < -size) throw new BufferUnderflowException();
+                        ByteBuffer block = buffer.slice();
+                        block.limit(-size);
+                        buffer.position(buffer.position() - size);
+                        return (block);
+                    }
+                    byte[] b = new byte[size];
+                    this.fd.readFully(b);
+                    return (ByteBuffer.wrap(CompressionService.decompressBytes(b)));
+                } catch (IOException ex) {
+                    throw new RuntimeException("Failed to decompress data from the WAL file!", ex);
+                } catch (BufferUnderflowException ex) {
+                    // The last block in the file was only partially written out
+                    if (debug.val) LOG.debug("Skipping incomplete group commit block at end of log file");
+                }
+            }
+            if (this.nextFile() == false) return (null);
+        } // WHILE
+    }
+    
+    /**
+     * Deserialize all of the LogEntries in the given block. Any entry that is
+     * already covered by the last snapshot is skipped. This method is thread-safe
+     * and can be called on blocks returned by readBlock() in parallel.
+     * @param block
+     */
+    public List<LogEntry> deserializeBlock(ByteBuffer block) {
+        FastDeserializer in = new FastDeserializer(block);
+        List<LogEntry> entries = new ArrayList<LogEntry>();
+        while (block.hasRemaining()) {
+            LogEntry entry = null;
+            try {
+                entry = in.readObject(LogEntry.class);
+            } catch (IOException ex) {
+                throw new RuntimeException("Failed to deserialize LogEntry!", ex);
+            } catch (BufferUnderflowException ex) {
+                break;
+            }
+            if (entry.getTransactionId().longValue() > this.snapshotTxnId) {
+                entries.add(entry);
+            }
+        } // WHILE
+        return (entries);
+    }
+    
     @Override
     public Iterator<LogEntry> iterator() {
         Iterator<LogEntry> it = new Iterator<LogEntry>() {
-            FastDeserializer decompressedFd;
+            private Iterator<LogEntry> block = Collections.<LogEntry>emptyList().iterator();
             private LogEntry _next;
             {
-                decompressedFd = new FastDeserializer(ByteBuffer.allocate(0));
-                
                 this.next();
             }
             @Override
             public boolean hasNext() {
                 return _next != null;
-                //return fd.buffer().hasRemaining();
             }
 
             @Override
             public LogEntry next() {
                 LogEntry ret = _next;
                 _next = null;
-                
-                //Fill the decompressed buffer if it is empty
-                if (groupCommit && !decompressedFd.buffer().hasRemaining()) {                    
-                    int sizeCompressed = 0;
-                    try {
-                        sizeCompressed = fd.readInt();
-                        byte[] b = new byte[sizeCompressed];
-                        fd.readFully(b);
-                        byte[] decompressed = CompressionService.decompressBytes(b);
-                        this.decompressedFd.setBuffer(ByteBuffer.wrap(decompressed));
-                    } catch (IOException ex) {
-                        //ex.printStackTrace();
-                        throw new RuntimeException("Failed to decompress data from the WAL file!", ex);
-                    } catch (BufferUnderflowException ex) {
-                        //ex.printStackTrace();
-                        this.decompressedFd.setBuffer(ByteBuffer.allocate(0));
-                    }
-                }
-                
-                try {
-                    if (groupCommit)
-                        _next = decompressedFd.readObject(LogEntry.class);
-                    else
-                        _next = fd.readObject(LogEntry.class);
-                } catch (IOException ex) {
-                    throw new RuntimeException("Failed to deserialize LogEntry!", ex);
-                } catch (BufferUnderflowException ex) {                    
-                    _next = null;
-                }
-                
+                while (this.block.hasNext() == false) {
+                    ByteBuffer b = readBlock();
+                    if (b == null) return (ret);
+                    this.block = deserializeBlock(b).iterator();
+                } // WHILE
+                _next = this.block.next();
                 return (ret);
             }
 
@@ -153,14 +269,6 @@ public class CommandLogReader implements Iterable<LogEntry> {
             }
         };
         return (it);
-        
-        // TODO: We need to figure out how we want to read these entries
-        // back in. I suppose we could just make a new LocalTransaction
-        // entry each time. What we really should do is recreate
-        // the StoredProcedureInvocation and then pass that into
-        // the HStoreSite so that we can replay the transaction
-        // 
-        // So maybe we want to make this a StoredProcedure Invocation iterator?
     }
     
     /**
@@ -171,7 +279,18 @@ public class CommandLogReader implements Iterable<LogEntry> {
         Map<Integer, String> procedures = new HashMap<Integer, String>();
         
         try {
-            this.groupCommit = fd.readBoolean();
+            // Segments from before we had a format version
+            // start with the group commit flag instead
+            byte first = fd.readByte();
+            if (first == 0 || first == 1) {
+                this.version = 1;
+                this.groupCommit = (first == 1);
+            } else if (first <= CommandLogWriter.LOG_FORMAT_VERSION) {
+                this.version = first;
+                this.groupCommit = fd.readBoolean();
+            } else {
+                throw new IOException("Unsupported command log format version " + first);
+            }
             int num_procs = fd.readInt();
             for (int i = 0; i < num_procs; i++){
                 Integer proc_id = fd.readInt();
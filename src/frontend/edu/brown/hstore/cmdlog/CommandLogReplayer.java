@@ -0,0 +1,357 @@
+/***************************************************************************
+ *   Copyright (C) 2012 by H-Store Project                                 *
+ *   Brown University                                                      *
+ *   Massachusetts Institute of Technology                                 *
+ *   Yale University                                                       *
+ *                                                                         *
+ *   Permission is hereby granted, free of charge, to any person obtaining *
+ *   a copy of this software and associated documentation files (the       *
+ *   "Software"), to deal in the Software without restriction, including   *
+ *   without limitation the rights to use, copy, modify, merge, publish,   *
+ *   distribute, sublicense, and/or sell copies of the Software, and to    *
+ *   permit persons to whom the Software is furnished to do so, subject to *
+ *   the following conditions:                                             *
+ *                                                                         *
+ *   The above copyright notice and this permission notice shall be        *
+ *   included in all copies or substantial portions of the Software.       *
+ *                                                                         *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,       *
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF    *
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.*
+ *   IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR     *
+ *   OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, *
+ *   ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR *
+ *   OTHER DEALINGS IN THE SOFTWARE.                                       *
+ ***************************************************************************/
+package edu.brown.hstore.cmdlog;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+import org.voltdb.CatalogContext;
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.ParameterSet;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.exceptions.ServerFaultException;
+import org.voltdb.utils.EstTime;
+
+import com.google.protobuf.RpcCallback;
+
+import edu.brown.hstore.HStoreConstants;
+import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.HStoreThreadManager;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.TransactionInitializer;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.utils.ThreadUtil;
+
+/**
+ * Command Log Replayer
+ * Replays the transactions from a CommandLogReader using a three stage pipeline:
+ * <ol>
+ *  <li>A reader thread that reads and decompresses group commit blocks
+ *      ahead of the dispatcher.</li>
+ *  <li>A thread pool that deserializes the LogEntries in each block.</li>
+ *  <li>A dispatcher (the caller's thread) that queues single-partition txns
+ *      at their base partition without waiting for them to finish, and only
+ *      serializes the distributed txns against everything else.</li>
+ * </ol>
+ * Single-partition txns for the same partition are queued in the same order that
+ * they appear in the log, and their new txnIds are handed out in that order, so
+ * each partition's lock queue will execute them in their original order.
+ */
+public class CommandLogReplayer {
+    private static final Logger LOG = Logger.getLogger(CommandLogReplayer.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    private static final LoggerBoolean trace = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * Special marker that the reader thread puts in the queue when it
+     * has reached the end of the log
+     */
+    private static final Future<List<LogEntry>> END_OF_LOG = new FutureTask<List<LogEntry>>(new Callable<List<LogEntry>>() {
+        @Override
+        public List<LogEntry> call() throws Exception {
+            return (null);
+        }
+    });
+
+    private static final Comparator<LogEntry> TXNID_COMPARATOR = new Comparator<LogEntry>() {
+        @Override
+        public int compare(LogEntry o1, LogEntry o2) {
+            return (o1.getTransactionId().compareTo(o2.getTransactionId()));
+        }
+    };
+
+    private final HStoreSite hstore_site;
+    private final HStoreConf hstore_conf;
+    private final CatalogContext catalogContext;
+    private final TransactionInitializer txnInitializer;
+    private final CommandLogReader reader;
+
+    /**
+     * Deserialized blocks in the order that they were read from the log
+     */
+    private final BlockingQueue<Future<List<LogEntry>>> blocks;
+
+    /**
+     * Throttles the number of queued single-partition txns per partition.
+     * This is indexed by the offset of the partition at this site.
+     */
+    private final Semaphore partitionPermits[];
+    private final int partitionOffsets[];
+    private final int maxInflight;
+
+    /**
+     * Released when the current distributed txn finishes
+     */
+    private final Semaphore distributedPermit = new Semaphore(1);
+
+    private final AtomicReference<Throwable> readerError = new AtomicReference<Throwable>();
+
+    private final AtomicInteger singlePartitionCtr = new AtomicInteger(0);
+    private final AtomicInteger distributedCtr = new AtomicInteger(0);
+    private final AtomicInteger failedCtr = new AtomicInteger(0);
+    private final AtomicInteger skippedCtr = new AtomicInteger(0);
+
+    /**
+     * Constructor
+     * @param hstore_site
+     * @param reader
+     */
+    public CommandLogReplayer(HStoreSite hstore_site, CommandLogReader reader) {
+        this.hstore_site = hstore_site;
+        this.hstore_conf = hstore_site.getHStoreConf();
+        this.catalogContext = hstore_site.getCatalogContext();
+        this.txnInitializer = hstore_site.getTransactionInitializer();
+        this.reader = reader;
+        this.blocks = new ArrayBlockingQueue<Future<List<LogEntry>>>(Math.max(1, hstore_conf.site.commandlog_replay_readahead));
+
+        this.maxInflight = Math.max(1, hstore_conf.site.commandlog_replay_inflight);
+        this.partitionOffsets = hstore_site.getLocalPartitionOffsets();
+        this.partitionPermits = new Semaphore[hstore_site.getLocalPartitionIds().size()];
+        for (int i = 0; i < this.partitionPermits.length; i++) {
+            this.partitionPermits[i] = new Semaphore(this.maxInflight);
+        } // FOR
+    }
+
+    // ----------------------------------------------------------------------------
+    // PIPELINE STAGES
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Reader Stage
+     * Decompresses blocks from the log and hands them off to be deserialized
+     */
+    private class ReaderThread implements Runnable {
+        private final ExecutorService deserializers;
+
+        private ReaderThread(ExecutorService deserializers) {
+            this.deserializers = deserializers;
+        }
+
+        @Override
+        public void run() {
+            try {
+                ByteBuffer block = null;
+                while ((block = reader.readBlock()) != null) {
+                    final ByteBuffer b = block;
+                    Future<List<LogEntry>> future = this.deserializers.submit(new Callable<List<LogEntry>>() {
+                        @Override
+                        public List<LogEntry> call() throws Exception {
+                            return (reader.deserializeBlock(b));
+                        }
+                    });
+                    blocks.put(future);
+                } // WHILE
+            } catch (Throwable ex) {
+                readerError.set(ex);
+            } finally {
+                try {
+                    blocks.put(END_OF_LOG);
+                } catch (InterruptedException ex) {
+                    // Nothing we can do...
+                }
+            }
+        }
+    } // CLASS
+
+    /**
+     * Callback for a replayed txn. We don't send anything back to anybody,
+     * we just need to give back the permits that the dispatcher took out.
+     */
+    private class ReplayCallback implements RpcCallback<ClientResponseImpl> {
+        private final LogEntry entry;
+        private Semaphore permit;
+
+        private ReplayCallback(LogEntry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public void run(ClientResponseImpl cresponse) {
+            Status status = cresponse.getStatus();
+            if (status != Status.OK && status != Status.ABORT_USER) {
+                LOG.warn(String.format("Failed to replay %s [status=%s]\n%s",
+                         this.entry, status, cresponse.getStatusString()));
+                failedCtr.incrementAndGet();
+            }
+            else if (trace.val) {
+                LOG.trace(String.format("Replayed %s [status=%s]", this.entry, status));
+            }
+            this.permit.release();
+        }
+    } // CLASS
+
+    // ----------------------------------------------------------------------------
+    // DISPATCHER
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Replay all of the txns in the log. This blocks until every txn
+     * that we queued has completed.
+     * @return The number of txns that were replayed
+     */
+    public int replay() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        int num_threads = Math.max(1, hstore_conf.site.commandlog_replay_threads);
+        String name = HStoreThreadManager.getThreadName(hstore_site, HStoreConstants.THREAD_NAME_COMMANDLOGGER);
+        ExecutorService deserializers = Executors.newFixedThreadPool(num_threads,
+                                            ThreadUtil.getThreadFactory(name + "-replay", null));
+        Thread readerThread = new Thread(new ReaderThread(deserializers), name + "-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+
+        try {
+            while (true) {
+                Future<List<LogEntry>> future = this.blocks.take();
+                if (future == END_OF_LOG) break;
+
+                List<LogEntry> entries = null;
+                try {
+                    entries = future.get();
+                } catch (ExecutionException ex) {
+                    throw new ServerFaultException("Failed to deserialize command log block", ex.getCause());
+                }
+
+                // The entries in a block are grouped by their base partition,
+                // so we have to put them back in their original order
+                Collections.sort(entries, TXNID_COMPARATOR);
+                for (LogEntry entry : entries) {
+                    this.dispatch(entry);
+                } // FOR
+            } // WHILE
+            if (this.readerError.get() != null) {
+                throw new ServerFaultException("Failed to read command log", this.readerError.get());
+            }
+
+            // Wait for everything that we queued to finish
+            this.drain();
+        } finally {
+            readerThread.interrupt();
+            deserializers.shutdownNow();
+        }
+
+        int total = this.singlePartitionCtr.get() + this.distributedCtr.get();
+        LOG.info(String.format("Replayed %d txns from command log in %.2f sec " +
+                               "[singlePartition=%d, distributed=%d, failed=%d, skipped=%d]",
+                               total, (System.currentTimeMillis() - start) / 1000d,
+                               this.singlePartitionCtr.get(), this.distributedCtr.get(),
+                               this.failedCtr.get(), this.skippedCtr.get()));
+        return (total);
+    }
+
+    /**
+     * Create a new txn handle for the given LogEntry and queue it for execution.
+     * Single-partition txns are queued right away at their base partition.
+     * Distributed txns will wait for all of the outstanding txns to finish,
+     * and then the next entry will not be dispatched until the distributed txn
+     * finishes too.
+     * @param entry
+     */
+    private void dispatch(LogEntry entry) throws InterruptedException {
+        Procedure catalog_proc = this.catalogContext.getProcedureById(entry.getProcedureId());
+        if (catalog_proc == null) {
+            throw new ServerFaultException("Unknown procedure id " + entry.getProcedureId() + " for " + entry,
+                                           entry.getTransactionId());
+        }
+        ParameterSet params = entry.getProcedureParams();
+        long client_handle = entry.getTransactionId().longValue();
+        int base_partition = this.txnInitializer.calculateBasePartition(client_handle,
+                                                                        catalog_proc,
+                                                                        params,
+                                                                        HStoreConstants.NULL_PARTITION_ID);
+        // Every txn in this site's log was started at one of its partitions, but the
+        // estimator can pick a different base partition than it did the first time.
+        // We don't have anywhere to queue the txn if that partition isn't ours.
+        if (this.hstore_site.isLocalPartition(base_partition) == false) {
+            LOG.warn(String.format("Skipping %s because its base partition %d is not at %s",
+                     entry, base_partition, this.hstore_site.getSiteName()));
+            this.skippedCtr.incrementAndGet();
+            return;
+        }
+
+        // We need to create the txn handle before we can know whether it is
+        // single-partitioned, so we only set the permit that the callback
+        // needs to release once we know that
+        ReplayCallback callback = new ReplayCallback(entry);
+        LocalTransaction ts = this.txnInitializer.createLocalTransaction(null,
+                                                                         EstTime.currentTimeMillis(),
+                                                                         client_handle,
+                                                                         base_partition,
+                                                                         catalog_proc,
+                                                                         params,
+                                                                         callback);
+        if (ts.isPredictSinglePartition()) {
+            callback.permit = this.partitionPermits[this.partitionOffsets[ts.getBasePartition()]];
+            callback.permit.acquire();
+            if (trace.val)
+                LOG.trace(String.format("Dispatching single-partition %s for %s", ts, entry));
+            this.singlePartitionCtr.incrementAndGet();
+            this.hstore_site.transactionQueue(ts);
+        }
+        else {
+            this.drain();
+            callback.permit = this.distributedPermit;
+            callback.permit.acquire();
+            if (debug.val)
+                LOG.debug(String.format("Dispatching distributed %s for %s", ts, entry));
+            this.distributedCtr.incrementAndGet();
+            this.hstore_site.transactionQueue(ts);
+
+            // Block until it's done
+            this.distributedPermit.acquire();
+            this.distributedPermit.release();
+        }
+    }
+
+    /**
+     * Block until all of the single-partition txns that we queued have finished
+     */
+    private void drain() throws InterruptedException {
+        for (Semaphore s : this.partitionPermits) {
+            s.acquire(this.maxInflight);
+            s.release(this.maxInflight);
+        } // FOR
+    }
+}
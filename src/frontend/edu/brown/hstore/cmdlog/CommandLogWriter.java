@@ -30,10 +30,19 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 import org.voltdb.CatalogContext;
@@ -42,6 +51,7 @@ import org.voltdb.catalog.Procedure;
 import org.voltdb.exceptions.ServerFaultException;
 import org.voltdb.messaging.FastSerializer;
 import org.voltdb.utils.CompressionService;
+import org.voltdb.utils.DBBPool;
 import org.voltdb.utils.DBBPool.BBContainer;
 
 import com.google.protobuf.RpcCallback;
@@ -49,6 +59,7 @@ import com.google.protobuf.RpcCallback;
 import edu.brown.hstore.HStoreConstants;
 import edu.brown.hstore.HStoreSite;
 import edu.brown.hstore.HStoreThreadManager;
+import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.txns.AbstractTransaction;
 import edu.brown.hstore.txns.LocalTransaction;
@@ -56,7 +67,6 @@ import edu.brown.interfaces.Shutdownable;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.profilers.CommandLogWriterProfiler;
-import edu.brown.profilers.ProfileMeasurementUtil;
 import edu.brown.utils.ExceptionHandlingRunnable;
 import edu.brown.utils.StringUtil;
 
@@ -80,6 +90,21 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
      */
     public static final String LOG_OUTPUT_EXT = ".cmdlog"; 
     
+    /**
+     * The version of the segment format that we write out. This is the first
+     * byte of every segment header. Segments written before we had versions
+     * start with the group commit flag instead (0 or 1), and every block in them
+     * is prefixed by its compressed length. Starting with version 2, a block
+     * prefixed by a negative length holds that many bytes of uncompressed entries.
+     */
+    public static final byte LOG_FORMAT_VERSION = 2;
+    
+    /**
+     * The number of sets of per-partition log entry buffers that we will
+     * rotate through for group commit
+     */
+    private static final int NUM_BUFFER_SETS = 3;
+    
     /**
      * Special LogEntry that holds additional data that we need in order to send
      * back a ClientResponse
@@ -110,11 +135,17 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
 
     /**
      * Circular Buffer of Log Entries
+     * Each buffer also has its own direct ByteBuffer that the entries are serialized
+     * into as soon as they are added. This is done by the partition's thread, so the
+     * WriterThread only needs to gather these ByteBuffers up when it flushes.
      */
     protected class CircularLogEntryBuffer {
         private final WriterLogEntry buffer[];
         private int startPos;
         private int nextPos;
+        private final FastSerializer serializer = new FastSerializer(true, true);
+        private long minTxnId = Long.MAX_VALUE;
+        private long maxTxnId = -1;
 
         public CircularLogEntryBuffer(int size) {
             size += 1; // hack to make wrapping around work
@@ -147,11 +178,52 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             ;
             return ret;
         }
+        
+        /**
+         * Serialize the given entry at the end of this buffer's ByteBuffer.
+         * Returns the number of bytes that were added. The entry must be the
+         * last one that was added to this buffer. If it can't be serialized, then it
+         * is removed from the buffer so that it never gets acknowledged as durable.
+         * @param entry
+         * @throws IOException
+         */
+        public int serialize(LogEntry entry) throws IOException {
+            ByteBuffer b = this.serializer.getContainerNoFlip().b;
+            int position = b.position();
+            try {
+                this.serializer.writeObject(entry);
+            } catch (Throwable ex) {
+                // Roll back whatever was written so that the next entry
+                // doesn't end up after garbage
+                this.serializer.getContainerNoFlip().b.position(position);
+                this.nextPos = this.previous();
+                entry.finish();
+                if (ex instanceof IOException) throw (IOException)ex;
+                throw new IOException("Failed to serialize " + entry, ex);
+            }
+            long txnId = entry.getTransactionId().longValue();
+            if (txnId < this.minTxnId) this.minTxnId = txnId;
+            if (txnId > this.maxTxnId) this.maxTxnId = txnId;
+            // The serializer may have switched to a bigger buffer
+            return (this.serializer.getContainerNoFlip().b.position() - position);
+        }
+        
+        /**
+         * Flip the serialized entries in this buffer so that they
+         * can be written out. Returns null if there is nothing to write.
+         */
+        public ByteBuffer getSerializedEntries() {
+            if (this.serializer.size() == 0) return (null);
+            return (this.serializer.getBBContainer().b);
+        }
 
         public void flushCleanup() {
             // for (int i = 0; i < this.getSize(); i++)
             // this.buffer[(this.startPos + i) % this.buffer.length].finish();
             this.startPos = this.nextPos;
+            this.serializer.clear();
+            this.minTxnId = Long.MAX_VALUE;
+            this.maxTxnId = -1;
         }
 
         public int getStart() {
@@ -176,7 +248,27 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
     private final HStoreConf hstore_conf;
     private final CatalogContext catalogContext;
     private final File outputFile;
-    private final FileChannel fstream;
+    private FileChannel fstream;
+
+    /**
+     * Maps each partition id to its offset in the list of local partitions
+     */
+    private final int partitionOffsets[];
+
+    /**
+     * The manifest keeps track of all of the segments for this log 
+     */
+    private final CommandLogManifest manifest;
+    private CommandLogManifest.Segment segment;
+    private final long segmentSize;
+
+    /**
+     * The txnId of the last snapshot that completed at each local partition.
+     * Once every partition has reported in, we can truncate the segments
+     * that are covered by the oldest one.
+     */
+    private final long snapshotTxnIds[];
+    private volatile long pendingSnapshotTxnId = -1;
 
     private final Semaphore writingEntry;
     private final int numWritingLocks;
@@ -188,34 +280,92 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
     private final LogEntry singletonLogEntry;
 
     private int commitBatchCounter = 0;
-    private boolean stop = false;
-    private Thread self;
+    private volatile boolean stop = false;
+    private volatile Thread self;
 
     /**
-     * If set to true, then the WriterThread is in the middle of writing out
-     * data to the log file.
+     * The number of rounds where the WriterThread has started to swap out the
+     * buffers and the number of rounds that have been completed. A round is the
+     * buffer swap and serialization on the WriterThread followed by the write,
+     * the fsync, and any segment maintenance on the SyncThread.
      */
-    private final AtomicBoolean flushInProgress = new AtomicBoolean(false);
+    private final AtomicLong swappedRounds = new AtomicLong(0);
+    private final AtomicLong flushRounds = new AtomicLong(0);
 
+    // ----------------------------------------------------------------------------
+    // GROUP COMMIT SCHEDULING
+    // ----------------------------------------------------------------------------
+    
     /**
-     * The log entry buffers (one per partition)
+     * The WriterThread will flush the buffers once this many txns or bytes 
+     * are queued or once the group commit timeout expires, whichever comes first.
+     */
+    private final int batchSize;
+    private final long batchBytes;
+    private final long batchTimeout;
+    private final boolean compress;
+    
+    /**
+     * The number of txns and serialized bytes that have been added to the 
+     * current buffers since the last time that they were swapped. 
+     */
+    private final AtomicInteger pendingTxns = new AtomicInteger(0);
+    private final AtomicLong pendingBytes = new AtomicLong(0);
+    
+    /**
+     * When the first txn in the current buffers was queued (only when profiling)
+     */
+    private volatile long pendingStart = -1;
+    
+    private final ReentrantLock flushLock = new ReentrantLock();
+    
+    /**
+     * Signaled when the WriterThread should stop waiting for the timeout
+     */
+    private final Condition flushReady = this.flushLock.newCondition();
+    
+    /**
+     * Signaled by the SyncThread every time that it completes a round
+     */
+    private final Condition flushDone = this.flushLock.newCondition();
+    private boolean forceFlush = false;
+
+    /**
+     * The log entry buffers (one per partition) that the partitions are
+     * currently adding entries to
      */
     private CircularLogEntryBuffer entries[];
-    private CircularLogEntryBuffer entriesFlushing[];
+    
+    /**
+     * The buffer sets that are not being filled by the partitions. While the SyncThread
+     * waits for one batch to be fsynced, the WriterThread can already swap in a free set
+     * and serialize the next batch.
+     */
+    private final BlockingQueue<CircularLogEntryBuffer[]> freeEntries;
+    private final List<CircularLogEntryBuffer[]> allEntries = new ArrayList<CircularLogEntryBuffer[]>();
+    
+    /**
+     * Serialized batches that are waiting to be written out by the SyncThread
+     */
+    private final BlockingQueue<GroupCommitBatch> syncQueue;
+    private final GroupCommitBatch stopBatch = new GroupCommitBatch(null, null, 0, -1, -1);
+    private volatile Thread syncThread;
 
     private CommandLogWriterProfiler profiler;
 
     /**
      * Constructor
      * 
-     * @param catalog_db
-     * @param path
+     * @param hstore_site
+     * @param outputFile The base file for the log. Each segment will be written
+     *                   to a separate file that uses this file's name as its prefix.
      */
     public CommandLogWriter(HStoreSite hstore_site, File outputFile) {
         this.hstore_site = hstore_site;
         this.hstore_conf = hstore_site.getHStoreConf();
         this.catalogContext = hstore_site.getCatalogContext();
         this.outputFile = outputFile;
+        this.partitionOffsets = hstore_site.getLocalPartitionOffsets();
         this.singletonSerializer = new FastSerializer(true, true);
         // this.group_commit_size = Math.max(1,
         // hstore_conf.site.exec_command_logging_group_commit); //Group commit
@@ -224,6 +374,13 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
         // Number of local partitions
         int num_partitions = hstore_site.getLocalPartitionIds().size();
         this.numWritingLocks = num_partitions;
+        this.snapshotTxnIds = new long[num_partitions];
+        Arrays.fill(this.snapshotTxnIds, -1);
+        this.segmentSize = hstore_conf.site.commandlog_segment_size * 1048576l;
+        this.batchSize = hstore_conf.site.commandlog_batch_size;
+        this.batchBytes = hstore_conf.site.commandlog_batch_bytes;
+        this.compress = hstore_conf.site.commandlog_compress;
+        this.batchTimeout = TimeUnit.MILLISECONDS.toNanos(hstore_conf.site.commandlog_timeout);
 
         // Number of log entries per partition
         // hack, set arbitrarily high to avoid contention for log buffer
@@ -235,6 +392,8 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
         if (debug.val) {
             LOG.debug("group_commit_size: " + this.group_commit_size);
             LOG.debug("group_commit_timeout: " + hstore_conf.site.commandlog_timeout);
+            LOG.debug("group_commit_batch: " + this.batchSize);
+            LOG.debug("group_commit_bytes: " + this.batchBytes);
         }
 
         // Configure group commit parameters
@@ -244,32 +403,34 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
             // Make one entry buffer per partition SO THAT SYNCHRONIZATION ON
             // EACH BUFFER IS NOT REQUIRED
             this.writingEntry = new Semaphore(this.numWritingLocks, false);
-            this.entries = new CircularLogEntryBuffer[num_partitions];
-            this.entriesFlushing = new CircularLogEntryBuffer[num_partitions];
-            for (int partition = 0; partition < num_partitions; partition++) {
-                this.entries[partition] = new CircularLogEntryBuffer(num_entries);
-                this.entriesFlushing[partition] = new CircularLogEntryBuffer(num_entries);
+            
+            // We need one set of buffers that the partitions are filling, one
+            // that is being serialized, and one that is waiting for its fsync
+            this.freeEntries = new ArrayBlockingQueue<CircularLogEntryBuffer[]>(NUM_BUFFER_SETS);
+            for (int i = 0; i < NUM_BUFFER_SETS; i++) {
+                CircularLogEntryBuffer set[] = new CircularLogEntryBuffer[num_partitions];
+                for (int partition = 0; partition < num_partitions; partition++) {
+                    set[partition] = new CircularLogEntryBuffer(num_entries);
+                } // FOR
+                this.allEntries.add(set);
+                if (i == 0) this.entries = set;
+                else this.freeEntries.add(set);
             } // FOR
+            this.syncQueue = new ArrayBlockingQueue<GroupCommitBatch>(NUM_BUFFER_SETS);
             this.singletonLogEntry = null;
         } else {
             this.useGroupCommit = false;
             this.writingEntry = null;
+            this.freeEntries = null;
+            this.syncQueue = null;
             this.singletonLogEntry = new LogEntry();
         }
 
-        FileOutputStream f = null;
-        try {
-            this.outputFile.getParentFile().mkdirs();
-            LOG.info("Command Log File: " + this.outputFile.getAbsolutePath());
-            this.outputFile.createNewFile();
-            f = new FileOutputStream(this.outputFile, false);
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
-        }
-        this.fstream = f.getChannel();
-
-        // Write out a header to the file
-        this.writeHeader();
+        // Open up our first segment. This will also write out the header
+        this.outputFile.getParentFile().mkdirs();
+        LOG.info("Command Log File: " + this.outputFile.getAbsolutePath());
+        this.manifest = new CommandLogManifest(this.outputFile);
+        this.openSegment();
 
         // Writer Profiling
         if (hstore_conf.site.commandlog_profiling) {
@@ -287,70 +448,328 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
         this.hstore_site.getThreadManager().registerProcessingThread();
 
         this.usePostProcessor = hstore_site.hasTransactionPostProcessors();
+        
+        // We may have been shut down before we even got started
+        if (this.stop) return;
+        
+        // Without group commit every entry is written out by the thread
+        // that appended it, so there is nothing for us to do
+        if (this.useGroupCommit == false) return;
 
-        CircularLogEntryBuffer temp[] = null;
-        long next = System.currentTimeMillis() + hstore_conf.site.commandlog_timeout;
+        // The SyncThread is the only one that touches the segment files
+        // once we get going. It inherits whatever exception handler we were given.
+        this.syncThread = new Thread(new SyncThread());
+        this.syncThread.setDaemon(true);
+        this.syncThread.setUncaughtExceptionHandler(this.self.getUncaughtExceptionHandler());
+        this.syncThread.start();
+
+        long deadline = System.nanoTime() + this.batchTimeout;
         while (this.stop == false) {
-            // Sleep until our timeout period, at which point a
-            // flush will be initiated
+            // Block until either enough txns have been queued or the 
+            // group commit deadline passes, at which point a flush will
+            // be initiated.
+            this.flushLock.lock();
             try {
-                long sleep = Math.max(0, System.currentTimeMillis() - next);
-                Thread.sleep(sleep);
+                while (this.stop == false && this.forceFlush == false && this.isBatchFull() == false) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    this.flushReady.awaitNanos(remaining);
+                } // WHILE
+                this.forceFlush = false;
             } catch (InterruptedException e) {
                 if (this.stop)
                     break;
             } finally {
-                next = System.currentTimeMillis() + hstore_conf.site.commandlog_timeout;
-                // if (debug.val)
-                // LOG.debug("Group commit timeout occurred, writing buffer to disk.");
+                this.flushLock.unlock();
             }
+            deadline = System.nanoTime() + this.batchTimeout;
 
-            // Take all of the writing permits. This will stop any other
-            // thread from appending to the buffer that we're about to swap
-            int free_permits = this.numWritingLocks - this.writingEntry.drainPermits();
-            if (free_permits > 0) {
-                if (trace.val)
-                    LOG.trace("Acquiring " + free_permits + " this.writeEntry permits");
-                do {
+            // This round has to be counted before we look at the buffers.
+            // Otherwise flush() could miss a txn that gets added after we check them.
+            this.swappedRounds.incrementAndGet();
+
+            // Don't bother taking the permits away from the partitions
+            // if nobody has added anything to the buffers. We still send an
+            // empty batch so that the SyncThread can check the segments.
+            GroupCommitBatch batch = null;
+            if (this.pendingTxns.get() > 0) {
+                // Grab the next free set of buffers. If the SyncThread is still
+                // busy with the earlier batches, then we'll block here.
+                CircularLogEntryBuffer next[] = null;
+                while (next == null) {
                     try {
-                        writingEntry.acquire(free_permits);
+                        next = this.freeEntries.take();
                     } catch (InterruptedException ex) {
-                        continue;
+                        // Keep waiting. Every round has to send a batch
+                        // to the SyncThread, otherwise flush() will hang.
                     }
-                    break;
-                } while (this.stop == false);
+                } // WHILE
+                CircularLogEntryBuffer flushing[] = this.swapBuffers(next);
+                batch = this.prepareBatch(flushing);
+            } else {
+                batch = new GroupCommitBatch(null, null, 0, -1, -1);
             }
-
-            // At this point we know that nobody else could be writing to the
-            // current buffer for the threads, so it's safe for us to swap it
-            // with the one that we just wrote out to disk
-            // SYNC POINT: a synchronization point between the thread
-            // filling the buffer and the writing thread where a full
-            // buffer is exchanged for an empty one and the full
-            // buffer is written out to disk.
-            temp = this.entries;
-            this.entries = this.entriesFlushing;
-            this.entriesFlushing = temp;
-            assert (this.entries != this.entriesFlushing);
-
-            // Release our entry permits so that other threads can
-            // start filling up their Entry buffers
-            // if (trace.val) LOG.trace("Releasing writingEntry permits");
-            this.writingEntry.release(this.group_commit_size);
-
-            // Write the entries out to disk
-            // if (debug.val) LOG.debug("Executing group commit");
-            this.flushInProgress.set(true);
-            if (this.groupCommit(this.entriesFlushing) == 0) {
-                next = System.currentTimeMillis() + hstore_conf.site.commandlog_timeout;
+            
+            // Hand off the batch to the SyncThread
+            try {
+                this.syncQueue.put(batch);
+            } catch (InterruptedException ex) {
+                String message = "Unexpected interruption while queuing group commit batch";
+                throw new ServerFaultException(message, ex);
+            }
+        } // WHILE
+        
+        // Let the SyncThread finish whatever it has left and then shut down
+        while (true) {
+            try {
+                this.syncQueue.put(this.stopBatch);
+            } catch (InterruptedException ex) {
+                continue;
             }
-            this.flushInProgress.lazySet(false);
+            break;
         } // WHILE
     }
+    
+    /**
+     * Returns true if enough txns or bytes are queued that the WriterThread
+     * should not wait for the group commit timeout.
+     */
+    private boolean isBatchFull() {
+        return ((this.batchSize > 0 && this.pendingTxns.get() >= this.batchSize) ||
+                (this.batchBytes > 0 && this.pendingBytes.get() >= this.batchBytes));
+    }
+    
+    /**
+     * Swap the buffers that the partitions are filling with the given set.
+     * Returns the set of buffers that need to be written out.
+     * @param next
+     */
+    private CircularLogEntryBuffer[] swapBuffers(CircularLogEntryBuffer next[]) {
+        // Take all of the writing permits. This will stop any other
+        // thread from appending to the buffer that we're about to swap
+        int free_permits = this.numWritingLocks - this.writingEntry.drainPermits();
+        if (free_permits > 0) {
+            if (trace.val)
+                LOG.trace("Acquiring " + free_permits + " this.writeEntry permits");
+            do {
+                try {
+                    writingEntry.acquire(free_permits);
+                } catch (InterruptedException ex) {
+                    continue;
+                }
+                break;
+            } while (this.stop == false);
+        }
 
+        // At this point we know that nobody else could be writing to the
+        // current buffer for the threads, so it's safe for us to swap it
+        // with one that has already been written out to disk
+        // SYNC POINT: a synchronization point between the thread
+        // filling the buffer and the writing thread where a full
+        // buffer is exchanged for an empty one and the full
+        // buffer is written out to disk.
+        CircularLogEntryBuffer flushing[] = this.entries;
+        this.entries = next;
+        assert (this.entries != flushing);
+        this.pendingTxns.set(0);
+        this.pendingBytes.set(0);
+        long batchStart = this.pendingStart;
+        this.pendingStart = -1;
+
+        // Release our entry permits so that other threads can
+        // start filling up their Entry buffers
+        this.writingEntry.release(this.numWritingLocks);
+        
+        if (this.profiler != null && batchStart != -1) {
+            long wait = System.nanoTime() - batchStart;
+            this.profiler.batchWait.put((int)TimeUnit.NANOSECONDS.toMillis(wait));
+        }
+        return (flushing);
+    }
+    
+    /**
+     * Separate thread that writes out the batches that were serialized by the
+     * WriterThread, forces them to disk, and then releases the responses
+     * for the txns in each batch. This is also where all of the segment
+     * maintenance happens, since this is the only thread writing to the file.
+     */
+    private class SyncThread extends ExceptionHandlingRunnable {
+        @Override
+        public void runImpl() {
+            Thread.currentThread().setName(HStoreThreadManager.getThreadName(hstore_site, HStoreConstants.THREAD_NAME_COMMANDLOGGER, "sync"));
+            hstore_site.getThreadManager().registerProcessingThread();
+            
+            while (true) {
+                GroupCommitBatch batch = null;
+                try {
+                    batch = syncQueue.take();
+                } catch (InterruptedException ex) {
+                    if (stop) break;
+                    continue;
+                }
+                if (batch == stopBatch) break;
+                
+                if (batch.data != null) {
+                    sync(batch);
+                }
+                if (batch.buffers != null) {
+                    batch.complete();
+                }
+                
+                // Roll over to a new segment and throw away the old ones
+                // if we need to. This is always done by this thread so that
+                // we never swap the file out from underneath a group commit
+                checkSegments();
+                
+                // Let anybody waiting in flush() know that we finished a round
+                flushLock.lock();
+                try {
+                    flushRounds.incrementAndGet();
+                    flushDone.signalAll();
+                } finally {
+                    flushLock.unlock();
+                }
+            } // WHILE
+            
+            // Make sure that nobody is left waiting on us
+            flushLock.lock();
+            try {
+                flushDone.signalAll();
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    } // CLASS
+
+    /**
+     * Wake up the WriterThread so that it starts a new round right away
+     * without waiting for the group commit timeout.
+     */
+    private void wakeWriter(boolean force) {
+        this.flushLock.lock();
+        try {
+            if (force) this.forceFlush = true;
+            this.flushReady.signal();
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // SEGMENT MANAGEMENT
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Close the current segment (if there is one) and start writing
+     * to a new segment file. The new segment is registered in the manifest
+     * before we write anything into it.
+     */
+    private void openSegment() {
+        if (this.fstream != null) {
+            try {
+                this.fstream.force(true);
+                this.fstream.close();
+            } catch (IOException ex) {
+                String message = "Failed to close command log segment " + this.segment.file;
+                throw new ServerFaultException(message, ex);
+            }
+        }
+        
+        this.segment = this.manifest.addSegment();
+        FileOutputStream f = null;
+        try {
+            this.segment.file.createNewFile();
+            f = new FileOutputStream(this.segment.file, false);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        this.fstream = f.getChannel();
+        
+        // Every segment gets its own header so that they can be read back
+        // in without needing anything from the earlier segments
+        this.writeHeader();
+        this.saveManifest();
+        if (debug.val)
+            LOG.debug("Opened new command log segment " + this.segment);
+    }
+    
+    private void saveManifest() {
+        try {
+            this.manifest.save();
+        } catch (IOException ex) {
+            String message = "Failed to write command log manifest for " + this.outputFile;
+            throw new ServerFaultException(message, ex);
+        }
+    }
+    
+    /**
+     * Check whether we need to roll over to a new segment, either because
+     * the current one is full or because a snapshot completed. If a snapshot did
+     * complete, then we will delete all of the segments that it covers.
+     */
+    private void checkSegments() {
+        boolean rollover = false;
+        boolean updated = false;
+        
+        long snapshotTxnId = this.pendingSnapshotTxnId;
+        if (snapshotTxnId > this.manifest.getSnapshotTransactionId()) {
+            this.manifest.setSnapshotTransactionId(snapshotTxnId);
+            // Start a new segment so that the one that we were writing to
+            // before the snapshot can be deleted the next time around
+            rollover = (this.segment.getLastTransactionId() != -1);
+            updated = true;
+        }
+        if (this.segmentSize > 0) {
+            try {
+                rollover = rollover || (this.fstream.size() >= this.segmentSize);
+            } catch (IOException ex) {
+                String message = "Failed to get size of command log segment " + this.segment.file;
+                throw new ServerFaultException(message, ex);
+            }
+        }
+        
+        if (rollover) {
+            this.openSegment();
+            updated = false;
+        }
+        if (hstore_conf.site.commandlog_truncate && this.manifest.truncate() > 0) {
+            updated = true;
+        }
+        if (updated) this.saveManifest();
+    }
+    
+    /**
+     * Notify this CommandLogWriter that a snapshot completed at the given
+     * local partition. Once all of the local partitions have finished the 
+     * snapshot, the writer thread will be able to remove any log segments 
+     * that are no longer needed.
+     * @param partition
+     * @param txnId The txnId of the @SnapshotSave transaction
+     */
+    public synchronized void notifySnapshotCompleted(int partition, long txnId) {
+        int offset = this.partitionOffsets[partition];
+        this.snapshotTxnIds[offset] = Math.max(this.snapshotTxnIds[offset], txnId);
+        
+        long minTxnId = Long.MAX_VALUE;
+        for (long t : this.snapshotTxnIds) {
+            minTxnId = Math.min(minTxnId, t);
+        } // FOR
+        if (minTxnId > this.pendingSnapshotTxnId) {
+            if (debug.val)
+                LOG.debug(String.format("Snapshot #%d completed on all local partitions. " +
+                          "Command log segments before this txn can be removed", minTxnId));
+            this.pendingSnapshotTxnId = minTxnId;
+        }
+    }
+    
+    public CommandLogManifest getManifest() {
+        return (this.manifest);
+    }
+    
     @Override
     public void prepareShutdown(boolean error) {
         this.stop = true;
+        this.wakeWriter(false);
     }
 
     /**
@@ -358,16 +777,22 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
      * Multiple invocations of this will not be queued
      */
     protected void flush() throws InterruptedException {
-        // Wait until it starts running
-        while (this.flushInProgress.get() == false) {
-            // this.flushThread.interrupt();
-            Thread.yield();
-        } // WHILE
-
-        // Then wait until it's done running
-        while (this.flushInProgress.get()) {
-            Thread.yield();
-        } // WHILE
+        // Everything is already on disk if we're not using group commit
+        if (this.useGroupCommit == false) return;
+        
+        // Anything that was appended before now is either in a round that
+        // has already swapped its buffers or in the next one to do so
+        this.flushLock.lock();
+        try {
+            long round = this.swappedRounds.get() + 1;
+            this.forceFlush = true;
+            this.flushReady.signal();
+            while (this.flushRounds.get() < round && this.stop == false) {
+                this.flushDone.await();
+            } // WHILE
+        } finally {
+            this.flushLock.unlock();
+        }
     }
 
     /**
@@ -379,28 +804,33 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
      */
     public int getTotalTxnCount() {
         int total = 0;
-        for (CircularLogEntryBuffer c : this.entries) {
-            total += c.size();
-        } // FOR
-        for (CircularLogEntryBuffer c : this.entriesFlushing) {
-            total += c.size();
+        for (CircularLogEntryBuffer set[] : this.allEntries) {
+            for (CircularLogEntryBuffer c : set) {
+                total += c.size();
+            } // FOR
         } // FOR
         return (total);
     }
 
     @Override
     public void shutdown() {
+        // This has to be set before we check whether the WriterThread
+        // has started so that it knows not to bother if it hasn't 
+        this.stop = true;
         if (this.self != null) {
-            this.stop = true;
-            while (this.self.isAlive()) {
+            this.wakeWriter(false);
+            while (this.self.isAlive() || (this.syncThread != null && this.syncThread.isAlive())) {
                 Thread.yield();
             } // WHILE
 
             if (debug.val) {
                 Map<String, Object> m = new LinkedHashMap<String, Object>();
                 m.put("Current Buffer", StringUtil.join("\n", this.entries));
-                m.put("Flushing Buffer", StringUtil.join("\n", this.entriesFlushing));
-                LOG.debug("Closing WAL file\n" + StringUtil.formatMaps(m).trim() + " File :" + this.outputFile.getAbsolutePath());
+                for (CircularLogEntryBuffer set[] : this.allEntries) {
+                    if (set == this.entries) continue;
+                    m.put("Flushing Buffer@" + set.hashCode(), StringUtil.join("\n", set));
+                } // FOR
+                LOG.debug("Closing WAL file\n" + StringUtil.formatMaps(m).trim() + " File :" + this.segment.file.getAbsolutePath());
             }
         }
         try {
@@ -424,20 +854,20 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
     }
 
     public boolean writeHeader() {
-        assert (this.singletonSerializer != null);
+        // This is invoked by the SyncThread whenever we roll over to a new
+        // segment, so we can't share the singletonSerializer
+        FastSerializer fs = new FastSerializer(true, true);
         try {
-            this.singletonSerializer.clear();
-            this.singletonSerializer.writeBoolean(this.group_commit_size > 0);// Using
-                                                                              // group
-                                                                              // commit
-            this.singletonSerializer.writeInt(this.catalogContext.procedures.size());
+            fs.writeByte(LOG_FORMAT_VERSION);
+            fs.writeBoolean(this.group_commit_size > 0); // Using group commit
+            fs.writeInt(this.catalogContext.procedures.size());
             for (Procedure catalog_proc : this.catalogContext.procedures.values()) {
                 int procId = catalog_proc.getId();
-                this.singletonSerializer.writeInt(procId);
-                this.singletonSerializer.writeString(catalog_proc.getName());
+                fs.writeInt(procId);
+                fs.writeString(catalog_proc.getName());
             } // FOR
 
-            BBContainer b = this.singletonSerializer.getBBContainer();
+            BBContainer b = fs.getBBContainer();
             this.fstream.write(b.b.asReadOnlyBuffer());
             this.fstream.force(true);
         } catch (Exception e) {
@@ -449,96 +879,191 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
     }
     
     /**
-     * GroupCommits the given buffer set all at once
-     * 
+     * A group commit batch that was serialized by the WriterThread and is
+     * waiting for the SyncThread to make it durable. The responses for the
+     * txns in the batch are only released once the batch is completed.
+     */
+    private class GroupCommitBatch {
+        private final CircularLogEntryBuffer buffers[];
+        private final ByteBuffer data[];
+        private final int txnCount;
+        private final long minTxnId;
+        private final long maxTxnId;
+        
+        /**
+         * The pooled buffer that holds the compressed batch (if any)
+         */
+        private BBContainer compressed;
+        
+        private GroupCommitBatch(CircularLogEntryBuffer buffers[], ByteBuffer data[], int txnCount, long minTxnId, long maxTxnId) {
+            this.buffers = buffers;
+            this.data = data;
+            this.txnCount = txnCount;
+            this.minTxnId = minTxnId;
+            this.maxTxnId = maxTxnId;
+        }
+        
+        /**
+         * Completion callback for when this batch is durable. Sends out the
+         * responses for all of the txns in the batch and then hands the
+         * buffers back to the WriterThread so that they can be reused.
+         */
+        private void complete() {
+            if (hstore_conf.site.commandlog_profiling && profiler != null)
+                profiler.networkTime.start();
+            try {
+                // Send responses
+                for (int i = 0; i < this.buffers.length; i++) {
+                    CircularLogEntryBuffer buffer = this.buffers[i];
+                    int start = buffer.getStart();
+                    for (int j = 0, size = buffer.size(); j < size; j++) {
+                        WriterLogEntry entry = buffer.buffer[(start + j) % buffer.buffer.length];
+                        if (entry.isInitialized()) {
+                            if (usePostProcessor) {
+                                hstore_site.responseQueue(entry.cresponse, entry.clientCallback, entry.initiateTime, entry.restartCounter);
+                            } else {
+                                hstore_site.responseSend(entry.cresponse, entry.clientCallback, entry.initiateTime, entry.restartCounter);
+                            }
+                        } else {
+                            LOG.warn("Unexpected unintialized " + entry.getClass().getSimpleName());
+                        }
+                    } // FOR
+                    buffer.flushCleanup();
+                } // FOR
+            } finally {
+                if (hstore_conf.site.commandlog_profiling && profiler != null)
+                    profiler.networkTime.stop();
+            }
+            freeEntries.add(this.buffers);
+        }
+    } // CLASS
+    
+    /**
+     * Gather up the serialized entries in the given buffer set into a single 
+     * group commit batch. This is always invoked by the WriterThread.
+     * <B>Note:</B> Every batch starts with the length of its block. A negative 
+     * length means that the block was not compressed (see LOG_FORMAT_VERSION).
      * @param eb
      */
-    public int groupCommit(CircularLogEntryBuffer[] eb) {
+    private GroupCommitBatch prepareBatch(CircularLogEntryBuffer[] eb) {
         if (hstore_conf.site.commandlog_profiling) {
             if (this.profiler == null)
                 this.profiler = new CommandLogWriterProfiler();
             this.profiler.writingTime.start();
         }
 
-        // Write all to a single FastSerializer buffer
-        this.singletonSerializer.clear();
         int txnCounter = 0;
-        for (int i = 0; i < eb.length; i++) {
+        long minTxnId = Long.MAX_VALUE;
+        long maxTxnId = -1;
+        int total = 0;
+        ByteBuffer data[] = new ByteBuffer[eb.length + 1];
+        int num_data = 1;
+        try {
+            for (int i = 0; i < eb.length; i++) {
+                ByteBuffer b = eb[i].getSerializedEntries();
+                if (b == null) continue;
+                data[num_data++] = b;
+                total += b.remaining();
+                txnCounter += eb[i].size();
+                if (eb[i].minTxnId < minTxnId) minTxnId = eb[i].minTxnId;
+                if (eb[i].maxTxnId > maxTxnId) maxTxnId = eb[i].maxTxnId;
+            } // FOR
+            if (total == 0) {
+                return new GroupCommitBatch(eb, null, 0, -1, -1);
+            }
+            if (debug.val)
+                LOG.debug(String.format("Prepared %d txns for group commit batch #%d [bytes=%d]",
+                          txnCounter, this.commitBatchCounter, total));
+            this.commitBatchCounter++;
+            
+            ByteBuffer header = ByteBuffer.allocate(4);
+            if (this.compress == false) {
+                header.putInt(-total);
+                header.flip();
+                data[0] = header;
+                if (num_data < data.length) data = Arrays.copyOf(data, num_data);
+                return new GroupCommitBatch(eb, data, txnCounter, minTxnId, maxTxnId);
+            }
+            
+            // Snappy needs all of the entries in one contiguous buffer. The buffers
+            // that we get back from the DBBPool are recycled once we discard them
+            BBContainer input = DBBPool.allocateDirect(poolCapacity(total));
+            BBContainer output = DBBPool.allocateDirect(poolCapacity(CompressionService.maxCompressedLength(total)));
             try {
-                assert (this.singletonSerializer != null);
-                int size = eb[i].buffer.length;
-                int position = eb[i].startPos;
-                while (position != eb[i].nextPos) {
-                    WriterLogEntry entry = eb[i].buffer[position++];
-                    try {
-                        this.singletonSerializer.writeObject(entry);
-                        txnCounter++;
-                    } catch (Throwable ex) {
-                        LOG.warn("Failed to write log entry", ex);
-                    }
-                    if (debug.val)
-                        LOG.debug(String.format("Prepared txn #%d for group commit batch #%d", entry.getTransactionId(), this.commitBatchCounter));
-                    if (position >= size)
-                        position = 0;
-                } // WHILE
-            } catch (Exception e) {
-                String message = "Failed to serialize buffer during group commit";
-                throw new ServerFaultException(message, e);
+                for (int i = 1; i < num_data; i++) {
+                    input.b.put(data[i]);
+                } // FOR
+                input.b.flip();
+                int size = CompressionService.compressBuffer(input.b, output.b);
+                output.b.position(0);
+                output.b.limit(size);
+            } catch (IOException ex) {
+                output.discard();
+                throw new ServerFaultException("Failed to compress WAL buffer", ex);
+            } finally {
+                input.discard();
             }
-        } // FOR
-        if (txnCounter == 0) {
-            // if (debug.val)
-            // LOG.debug("No transactions are in the current buffers. Not writing anything to disk");
-            return (txnCounter);
+            header.putInt(output.b.remaining());
+            header.flip();
+            GroupCommitBatch batch = new GroupCommitBatch(eb, new ByteBuffer[]{ header, output.b }, txnCounter, minTxnId, maxTxnId);
+            batch.compressed = output;
+            return (batch);
+        } finally {
+            if (hstore_conf.site.commandlog_profiling && profiler != null)
+                profiler.writingTime.stopIfStarted();
         }
-        
-        // Compress and force out to disk
-        ByteBuffer compressed;
-        try {
-            compressed = CompressionService.compressBufferForMessaging(this.singletonSerializer.getBBContainer().b);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to compress WAL buffer");
+    }
+    
+    /**
+     * Round the given size up to the next power of two so that the DBBPool
+     * can reuse the buffers for batches of a similar size. Sizes that can't be
+     * rounded up without overflowing are returned as-is.
+     * @param size
+     */
+    protected static int poolCapacity(int size) {
+        int ret = Integer.highestOneBit(Math.max(1, size));
+        if (ret < size) {
+            if (ret >= (1 << 30)) return (size);
+            ret <<= 1;
         }
-        
+        return (ret);
+    }
+    
+    /**
+     * Write the given batch out to the current segment and force it to disk.
+     * This is always invoked by the SyncThread.
+     * @param batch
+     */
+    private void sync(GroupCommitBatch batch) {
+        long bytes = 0;
+        for (ByteBuffer b : batch.data) {
+            bytes += b.remaining();
+        } // FOR
         if (debug.val)
-            LOG.debug(String.format("Writing out %d bytes for %d txns [batchCtr=%d]", compressed.limit(), txnCounter, this.commitBatchCounter));
+            LOG.debug(String.format("Writing out %d bytes for %d txns", bytes, batch.txnCount));
         try {
-            this.fstream.write(compressed);
+            // Gather all of the buffers into a single write
+            long written = 0;
+            while (written < bytes) {
+                written += this.fstream.write(batch.data);
+            } // WHILE
+            if (batch.compressed != null) {
+                batch.compressed.discard();
+                batch.compressed = null;
+            }
+            long fsyncStart = (this.profiler != null ? System.nanoTime() : -1);
             this.fstream.force(true);
+            if (this.profiler != null) {
+                long fsyncTime = System.nanoTime() - fsyncStart;
+                this.profiler.fsyncLatency.put((int)TimeUnit.NANOSECONDS.toMillis(fsyncTime));
+                this.profiler.flushTxns.put(batch.txnCount);
+                this.profiler.flushBytes.put((int)(bytes / 1024));
+            }
         } catch (IOException ex) {
-            ex.printStackTrace();
             String message = "Failed to group commit for buffer";
             throw new ServerFaultException(message, ex);
         }
-        if (hstore_conf.site.commandlog_profiling && profiler != null)
-            ProfileMeasurementUtil.swap(profiler.writingTime, profiler.networkTime);
-        try {
-            // Send responses
-            for (int i = 0; i < eb.length; i++) {
-                CircularLogEntryBuffer buffer = eb[i];
-                int start = buffer.getStart();
-                for (int j = 0, size = buffer.size(); j < size; j++) {
-                    WriterLogEntry entry = buffer.buffer[(start + j) % buffer.buffer.length];
-                    if (entry.isInitialized()) {
-                        if (this.usePostProcessor) {
-                            hstore_site.responseQueue(entry.cresponse, entry.clientCallback, entry.initiateTime, entry.restartCounter);
-                        } else {
-                            hstore_site.responseSend(entry.cresponse, entry.clientCallback, entry.initiateTime, entry.restartCounter);
-                        }
-                    } else {
-                        LOG.warn("Unexpected unintialized " + entry.getClass().getSimpleName());
-                    }
-
-                } // FOR
-                buffer.flushCleanup();
-            } // FOR
-        } finally {
-            if (hstore_conf.site.commandlog_profiling && profiler != null)
-                profiler.networkTime.stop();
-        }
-
-        this.commitBatchCounter++;
-        return (txnCounter);
+        this.segment.update(batch.minTxnId, batch.maxTxnId);
     }
     
     /**
@@ -560,15 +1085,24 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
         
             int basePartition = ts.getBasePartition();
             assert(this.hstore_site.isLocalPartition(basePartition));
-            int offset = this.hstore_site.getLocalPartitionOffset(basePartition);
+            int offset = this.partitionOffsets[basePartition];
+            int pending = 0;
+            long pendingBytes = 0;
+            boolean crossedBytes = false;
 
-            // get the buffer for the partition of the current transaction
-            CircularLogEntryBuffer buffer = this.entries[offset];
-            assert(buffer != null) : "Missing log entry buffer for partition " + basePartition;
             try {
                 // acquire semaphore permit to write a transaction to the log
                 // buffer will wait if buffer is currently being swapped
                 this.writingEntry.acquire();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Unexpected interruption while waiting for WriterThread to finish");
+            }
+            try {
+                // get the buffer for the partition of the current transaction
+                // this has to come after we get the permit, otherwise we may get
+                // the buffer that the writer thread is about to flush
+                CircularLogEntryBuffer buffer = this.entries[offset];
+                assert(buffer != null) : "Missing log entry buffer for partition " + basePartition;
 
                 // create an entry for this transaction in the buffer for this partition
                 // NOTE: this is guaranteed to be thread-safe because there is
@@ -577,17 +1111,45 @@ public class CommandLogWriter extends ExceptionHandlingRunnable implements Shutd
                 assert(entry != null);
                 if (trace.val)
                     LOG.trace(String.format("New %s %s from %s for partition %d", entry.getClass().getSimpleName(), entry, buffer, basePartition));
-
-                this.writingEntry.release();
-            } catch (InterruptedException e) {
-                throw new RuntimeException("Unexpected interruption while waiting for WriterThread to finish");
+                
+                // Serialize the entry now while we're still on the partition's thread
+                // so that the WriterThread can just write the buffer out as-is
+                long bytes = 0;
+                try {
+                    bytes = buffer.serialize(entry);
+                } catch (IOException ex) {
+                    // The entry is no longer in the buffer, so we have to tell the
+                    // client ourselves that its txn never made it into the log
+                    String message = "Failed to write log entry for " + ts.toString();
+                    LOG.error(message, ex);
+                    cresponse.init(ts, Status.ABORT_UNEXPECTED, Byte.MIN_VALUE, null,
+                                   HStoreConstants.EMPTY_RESULT, message,
+                                   new ServerFaultException(message, ex, ts.getTransactionId()));
+                    return (true);
+                }
+                
+                // This has to be counted while we still hold the permit so that
+                // the WriterThread can't swap the buffers out from under us
+                pendingBytes = this.pendingBytes.addAndGet(bytes);
+                crossedBytes = (this.batchBytes > 0 && pendingBytes >= this.batchBytes && pendingBytes - bytes < this.batchBytes);
+                pending = this.pendingTxns.incrementAndGet();
+                if (pending == 1 && this.profiler != null) this.pendingStart = System.nanoTime();
             } finally {
+                this.writingEntry.release();
                 if (hstore_conf.site.commandlog_profiling && profiler != null) profiler.blockedTime.stopIfStarted();
             }
 
             if (trace.val)
                 LOG.trace(ts + " - Finished queuing txn to write out to command log");
             
+            // Only the txn that fills up the batch needs to wake up the WriterThread
+            if (pending == this.batchSize || crossedBytes) {
+                if (trace.val)
+                    LOG.trace(String.format("%s - Group commit batch is full [pending=%d / bytes=%d]",
+                              ts, pending, pendingBytes));
+                this.wakeWriter(false);
+            }
+            
             // We always want to set this to false because our flush thread will
             // be the one that actually sends out the network messages
             sendResponse = false;
@@ -109,7 +109,9 @@ public final class HStoreConf {
         public String hasher_class;
         
         @ConfigProperty(
-            description="The path to a more fine-grained partitioning plan for the database.",
+            description="The path to a more fine-grained partitioning plan for the database. This is loaded " +
+                        "by the hasher defined in ${global.hasher_class} when it is created. For example, the " +
+                        "edu.brown.hashing.ElasticHasher uses it for the token table that maps values to partitions.",
             defaultNull=true,
             experimental=true
         )
@@ -318,6 +320,17 @@ public final class HStoreConf {
         )
         public boolean exec_force_allpartitions;
         
+        @ConfigProperty(
+            description="The maximum number of ready single-partition transactions that a PartitionExecutor " +
+                        "will take from its lock queue and execute back-to-back in a single pass. " +
+                        "The transactions in a batch are committed in the EE together and their " +
+                        "ClientResponses are released together once the last one finishes. " +
+                        "Set this to one to disable batching.",
+            defaultInt=1,
+            experimental=true
+        )
+        public int exec_batch_size;
+        
         @ConfigProperty(
             description="Use the VoltDB @ProcInfo annotations for stored procedures to determine whether " +
                         "a new request will be executed as a single-partitioned or distributed transaction. " +
@@ -418,7 +431,27 @@ public final class HStoreConf {
             experimental=false
         )
         public boolean exec_adhoc_sql;
-        
+
+        @ConfigProperty(
+            description="The maximum number of plans that the @AdHoc planner will cache. Literals in each " +
+                        "ad hoc query are pulled out as parameters before it is planned, so queries that " +
+                        "only differ in their constants share the same cached plan. The cache is cleared " +
+                        "whenever the catalog is updated. Set this to zero to disable the cache.",
+            defaultInt=1000,
+            experimental=true
+        )
+        public int exec_adhoc_plan_cache_size;
+
+        @ConfigProperty(
+            description="If this parameter is enabled, then the @AdHoc planner will run inside of the " +
+                        "HStoreSite's JVM instead of in a separate child process. This avoids an IPC " +
+                        "round-trip for each query that is not in ${site.exec_adhoc_plan_cache_size}, " +
+                        "but the planner can no longer be killed if it hangs.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean exec_adhoc_inprocess_planner;
+
         @ConfigProperty(
             description="If this parameter is enabled, then the DBMS will attempt to prefetch commutative " +
                         "queries on remote partitions for distributed transactions.",
@@ -601,6 +634,88 @@ public final class HStoreConf {
         )
         public int commandlog_timeout;
         
+        @ConfigProperty(
+            description="The number of transactions that need to be queued in the CommandLogWriter's " +
+                        "group commit buffers before it flushes them out to disk without waiting for " +
+                        "${site.commandlog_timeout} to expire. If this is set to zero, then the " +
+                        "buffers will only be flushed when the timeout expires.",
+            defaultInt=1000,
+            experimental=true
+        )
+        public int commandlog_batch_size;
+        
+        @ConfigProperty(
+            description="The number of bytes of serialized log entries that need to be queued in the " +
+                        "CommandLogWriter's group commit buffers before it flushes them out to disk without " +
+                        "waiting for ${site.commandlog_timeout} to expire. If this is set to zero, then " +
+                        "the size of the entries is ignored.",
+            defaultInt=1048576,
+            experimental=true
+        )
+        public int commandlog_batch_bytes;
+        
+        @ConfigProperty(
+            description="If enabled, then the CommandLogWriter will compress each group commit batch " +
+                        "before writing it out. Otherwise the serialized entries from each partition's " +
+                        "buffer are written directly to the log without being copied. Uncompressed " +
+                        "logs can only be read by versions that understand format version 2.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean commandlog_compress;
+        
+        @ConfigProperty(
+            description="The maximum size in megabytes of a single command log segment file. " +
+                        "Once the current segment reaches this size, the CommandLogWriter will " +
+                        "close it and start writing to a new segment. If this is set to zero, " +
+                        "then the command log will be written to a single segment.",
+            defaultInt=128,
+            experimental=true
+        )
+        public int commandlog_segment_size;
+        
+        @ConfigProperty(
+            description="If enabled, then the CommandLogWriter will delete any command log segments " +
+                        "that only contain transactions that are already covered by the last " +
+                        "durable snapshot taken by @SnapshotSave.",
+            defaultBoolean=true,
+            experimental=true
+        )
+        public boolean commandlog_truncate;
+        
+        @ConfigProperty(
+            description="The base file of a command log from an earlier run that the HStoreSite " +
+                        "will replay when it starts up. The log's manifest is used to skip over " +
+                        "anything that is already covered by the last snapshot.",
+            defaultNull=true,
+            experimental=true
+        )
+        public String commandlog_replay_file;
+        
+        @ConfigProperty(
+            description="The number of threads that the command log replayer will use to " +
+                        "deserialize group commit blocks.",
+            defaultInt=2,
+            experimental=true
+        )
+        public int commandlog_replay_threads;
+        
+        @ConfigProperty(
+            description="The number of decompressed group commit blocks that the command log " +
+                        "replayer will read ahead of the transactions that it is dispatching.",
+            defaultInt=16,
+            experimental=true
+        )
+        public int commandlog_replay_readahead;
+        
+        @ConfigProperty(
+            description="The maximum number of single-partition transactions per partition that " +
+                        "the command log replayer will have queued at the same time.",
+            defaultInt=1000,
+            experimental=true
+        )
+        public int commandlog_replay_inflight;
+        
         @ConfigProperty(
             description="If enabled, then the CommandLogWriter will keep track of various internal " +
                         "profile statistics.",
@@ -943,6 +1058,36 @@ public final class HStoreConf {
                 experimental=true
         )
         public boolean mr_reduce_blocking;
+        
+        @ConfigProperty(
+                description="The max number of rows that a MapReduce procedure's MAP phase will buffer " +
+                            "before it passes them through the procedure's combine() method. This only " +
+                            "applies to procedures that implement combine(); all other procedures write " +
+                            "their MAP output directly into the table that gets sent to the reducers.",
+                defaultInt=10000,
+                experimental=true
+        )
+        public int mr_map_combine_buffer_size;
+        
+        @ConfigProperty(
+                description="The max number of rows in a partition's REDUCE input that will be grouped " +
+                            "together by key using a hash table as they arrive from the other partitions. " +
+                            "If a partition gets more rows than this, then its REDUCE input will be " +
+                            "sorted by key instead.",
+                defaultInt=1000000,
+                experimental=true
+        )
+        public int mr_reduce_hash_max_rows;
+        
+        @ConfigProperty(
+                description="The number of threads that the MapReduceHelperThread will use to invoke " +
+                            "reduce() for different keys at the same time. This only applies to " +
+                            "MapReduce procedures where supportsParallelReduce() returns true. " +
+                            "If set to one, then reduce() is always invoked serially.",
+                defaultInt=1,
+                experimental=true
+        )
+        public int mr_reduce_parallelism;
 
         // ----------------------------------------------------------------------------
         // Networking Options
@@ -1090,7 +1235,26 @@ public final class HStoreConf {
             experimental=true
         )
         public boolean txn_partition_id_managers;
-        
+
+        @ConfigProperty(
+            description="The number of TransactionCleaner threads that the HStoreSite will use to delete " +
+                        "finished transaction handles. Each local partition is assigned to one of these " +
+                        "threads based on the base partition of its transactions. If this is set to a " +
+                        "negative value, then the HStoreSite will use one thread for every eight partitions.",
+            defaultInt=-1,
+            experimental=true
+        )
+        public int txn_cleaner_threads;
+
+        @ConfigProperty(
+            description="The amount of time in microseconds that a TransactionCleaner will wait " +
+                        "before it checks again whether a transaction that was not ready to be deleted " +
+                        "can now be deleted.",
+            defaultInt=1000,
+            experimental=true
+        )
+        public int txn_cleaner_requeue_delay;
+
         // ----------------------------------------------------------------------------
         // Transaction Queue Options
         // ----------------------------------------------------------------------------
@@ -1157,6 +1321,48 @@ public final class HStoreConf {
         )
         public double queue_release_factor;
         
+        @ConfigProperty(
+            description="Enable the adaptive admission controller at each HStoreSite. This will adjust " +
+                        "the throttling thresholds of the PartitionLockQueues and the max number of pending " +
+                        "txns in the ClientInterface based on how long work waits in the partitions' queues. " +
+                        "When this is enabled, the PartitionLockQueues will not autoscale their thresholds.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean admission_enable;
+        
+        @ConfigProperty(
+            description="The max amount of time (in milliseconds) that the admission controller will " +
+                        "allow txns to wait in a partition's queues. If the smallest wait time in an interval " +
+                        "is greater than this target, then the partition's admission limit will be decreased.",
+            defaultDouble=5.0,
+            experimental=true
+        )
+        public double admission_target;
+        
+        @ConfigProperty(
+            description="How often (in milliseconds) the admission controller will adjust the admission limits.",
+            defaultInt=100,
+            experimental=true
+        )
+        public int admission_interval;
+        
+        @ConfigProperty(
+            description="How much the admission controller will increase a partition's admission limit " +
+                        "after an interval where the partition's queues were not backed up.",
+            defaultInt=10,
+            experimental=true
+        )
+        public int admission_increase_delta;
+        
+        @ConfigProperty(
+            description="How much the admission controller will multiply a partition's admission limit by " +
+                        "after an interval where the partition's queues were backed up.",
+            defaultDouble=0.75,
+            experimental=true
+        )
+        public double admission_decrease_factor;
+        
         // ----------------------------------------------------------------------------
         // Parameter Mapping Options
         // ----------------------------------------------------------------------------
@@ -1378,6 +1584,29 @@ public final class HStoreConf {
             experimental=false
         )
         public boolean coordinator_sync_time;
+        
+        @ConfigProperty(
+            description="The max number of bytes of outgoing messages that HStoreCoordinator will buffer for " +
+                        "each remote HStoreSite before it writes them out to the network. Messages that are " +
+                        "sent to the same site at about the same time are written out together in a single batch " +
+                        "envelope that the remote site unpacks, which reduces the number of system calls and " +
+                        "frames for distributed transactions. The buffered messages are " +
+                        "always written out as soon as the HStoreCoordinator's event loop is idle, so this " +
+                        "does not delay a single message. Set this to zero to write out every message immediately.",
+            defaultInt=32768,
+            experimental=false
+        )
+        public int coordinator_coalesce_bytes;
+        
+        @ConfigProperty(
+            description="The number of event loop threads that HStoreCoordinator will use to process network " +
+                        "messages from other HStoreSites. Every connection to a remote site is always handled " +
+                        "by the same thread, so messages from that site are still processed in the order " +
+                        "that they were sent.",
+            defaultInt=1,
+            experimental=true
+        )
+        public int coordinator_event_loops;
 
         // ----------------------------------------------------------------------------
         // Output Tracing
@@ -1453,6 +1682,28 @@ public final class HStoreConf {
         )
         public boolean status_thread_info;
         
+        // ----------------------------------------------------------------------------
+        // METRICS LISTENER
+        // ----------------------------------------------------------------------------
+        
+        @ConfigProperty(
+            description="Start an HTTP listener at each HStoreSite that returns a snapshot of its internal " +
+                        "counters, queue sizes, and profiling information in a plain-text format that can be " +
+                        "scraped by monitoring tools. Unlike the @Statistics sysproc, this does not execute " +
+                        "any transactions, so it can be polled without interfering with the running workload.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean metrics_enable;
+        
+        @ConfigProperty(
+            description="The base port number for the HStoreSite metrics listener. Each HStoreSite will listen on " +
+                        "this port number plus its site id. (${site.metrics_enable} must be set to true)",
+            defaultInt=9200,
+            experimental=true
+        )
+        public int metrics_port;
+        
         // ----------------------------------------------------------------------------
         // OBJECT POOLS
         // ----------------------------------------------------------------------------
@@ -1472,14 +1723,23 @@ public final class HStoreConf {
         )
         public boolean pool_profiling;
         
-//        @ConfigProperty(
-//            description="Whether to enable object pooling for AbstractTransaction handles. This includes" +
-//                        "all local transactions, remote transactions, and MapReduce transactions.",
-//            defaultBoolean=false,
-//            experimental=false
-//        )
-//        public boolean pool_txn_enable;
-//        
+        @ConfigProperty(
+            description="Whether to enable object pooling for AbstractTransaction handles. This includes " +
+                        "all local transactions and remote transactions. MapReduce transactions are not pooled.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean pool_txn_enable;
+        
+        @ConfigProperty(
+            description="The max number of idle LocalTransaction handles to keep in the pool per partition. " +
+                        "The HStoreSite will also keep this many idle RemoteTransaction handles. " +
+                        "(${site.pool_txn_enable} must be set to true)",
+            defaultInt=500,
+            experimental=true
+        )
+        public int pool_txn_idle;
+        
 //        @ConfigProperty(
 //            description="The max number of MapReduceTransactionStates to keep in the pool per partition.",
 //            defaultInt=10,
@@ -1686,6 +1946,46 @@ public final class HStoreConf {
         )
         public boolean blocking_loader;
 
+        @ConfigProperty(
+            description="When this parameter is enabled, the benchmark's loaders will split the tuples for " +
+                        "non-replicated tables into per-partition chunks on the client side and then send each " +
+                        "chunk directly to the partition that owns it as a single-partition txn. Otherwise all " +
+                        "tables are loaded with distributed txns using @LoadMultipartitionTable.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean loader_direct;
+
+        @ConfigProperty(
+            description="When ${client.loader_direct} is enabled, this is the number of tuples that the " +
+                        "loader will buffer for each partition before it sends them to the cluster.",
+            defaultInt=10000,
+            experimental=true
+        )
+        public int loader_direct_chunk_size;
+
+        @ConfigProperty(
+            description="When ${client.loader_direct} is enabled, this is the maximum number of chunks " +
+                        "that each loader can have outstanding at the cluster at the same time. The loader " +
+                        "will block until one of them finishes before it sends the next one.",
+            defaultInt=16,
+            experimental=true
+        )
+        public int loader_direct_concurrent;
+
+        @ConfigProperty(
+            description="Run each client thread as an open-loop load generator. Instead of only submitting " +
+                        "new requests when the cluster is not applying backpressure, each client thread " +
+                        "schedules its requests at fixed intervals to meet ${client.txnrate} and measures " +
+                        "each txn's latency from the time that it was supposed to be sent. This means that " +
+                        "any time a request spends waiting because the cluster is overloaded is included " +
+                        "in its latency. The percentiles of these latencies are included in the JSON and " +
+                        "CSV results. Enabling this option disables ${client.blocking}.",
+            defaultBoolean=false,
+            experimental=true
+        )
+        public boolean open_loop;
+
         @ConfigProperty(
             description="The scaling factor determines how large to make the target benchmark's data set. " +
                         "A scalefactor greater than one makes the data set larger, while less than one " +
@@ -1776,6 +2076,17 @@ public final class HStoreConf {
         )
         public boolean txn_hints;
         
+        @ConfigProperty(
+            description="If ${client.txn_hints} is enabled and the client was not given a catalog when it was " +
+                        "created, then it will retrieve the catalog and the name of the hasher class from the " +
+                        "cluster after it makes its first connection. This allows the client to send each request " +
+                        "directly to the HStoreSite that has its base partition instead of having the " +
+                        "HStoreSite that it connected to redirect it.",
+            defaultBoolean=true,
+            experimental=false
+        )
+        public boolean txn_hints_fetch_catalog;
+        
         @ConfigProperty(
             description="If a node is executing multiple client processes, then the node may become overloaded if " +
                         "all the clients are started at the same time. This parameter defines the threshold for when " +
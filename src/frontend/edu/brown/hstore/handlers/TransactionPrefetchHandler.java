@@ -1,11 +1,9 @@
 package edu.brown.hstore.handlers;
 
-import java.io.IOException;
-
 import org.apache.log4j.Logger;
 import org.voltdb.VoltTable;
 import org.voltdb.exceptions.ServerFaultException;
-import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.utils.VoltTableUtil;
 
 import com.google.protobuf.RpcCallback;
 import com.google.protobuf.RpcController;
@@ -36,8 +34,6 @@ public class TransactionPrefetchHandler extends AbstractTransactionHandler<Trans
         LoggerUtil.attachObserver(LOG, debug, trace);
     }
     
-    private final FastDeserializer fds = new FastDeserializer();
-    
     public TransactionPrefetchHandler(HStoreSite hstore_site, HStoreCoordinator hstore_coord) {
         super(hstore_site, hstore_coord);
     }
@@ -88,13 +84,7 @@ public class TransactionPrefetchHandler extends AbstractTransactionHandler<Trans
                 int stmtCounter = request.getStmtCounter(i);
                 int paramsHash = request.getParamHash(i);
                 
-                VoltTable vt = null;
-                try {
-                    this.fds.setBuffer(result.getDepData(i).asReadOnlyByteBuffer());
-                    vt = this.fds.readObject(VoltTable.class);
-                } catch (IOException ex) {
-                    throw new RuntimeException(ex);
-                }
+                VoltTable vt = VoltTableUtil.fromByteString(result.getDepData(i));
         
                 executor.addPrefetchResult(ts, stmtCounter, fragmentId,
                                            request.getSourcePartition(),
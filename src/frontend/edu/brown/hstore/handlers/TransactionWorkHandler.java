@@ -1,12 +1,7 @@
 package edu.brown.hstore.handlers;
 
 import org.apache.log4j.Logger;
-import org.voltdb.ParameterSet;
-import org.voltdb.VoltTable;
-import org.voltdb.exceptions.ServerFaultException;
-import org.voltdb.messaging.FastDeserializer;
 
-import com.google.protobuf.ByteString;
 import com.google.protobuf.RpcCallback;
 import com.google.protobuf.RpcController;
 
@@ -67,55 +62,10 @@ public class TransactionWorkHandler extends AbstractTransactionHandler<Transacti
         assert(txn_id.equals(ts.getTransactionId())) :
             String.format("Mismatched %s - Expected[%d] != Actual[%s]", ts, txn_id, ts.getTransactionId());
         
-        // Deserialize embedded ParameterSets and store it in the RemoteTransaction handle
-        // This way we only do it once per HStoreSite. This will also force us to avoid having
-        // to do it for local work
-        ParameterSet parameterSets[] = new ParameterSet[request.getParamsCount()]; // TODO: Cache!
-        for (int i = 0; i < parameterSets.length; i++) {
-            ByteString paramData = request.getParams(i);
-            if (paramData != null && paramData.isEmpty() == false) {
-                final FastDeserializer fds = new FastDeserializer(paramData.asReadOnlyByteBuffer());
-                if (trace.val)
-                    LOG.trace(String.format("Txn #%d paramData[%d] => %s",
-                              txn_id, i, fds.buffer()));
-                try {
-                    parameterSets[i] = fds.readObject(ParameterSet.class);
-                } catch (Exception ex) {
-                    String msg = String.format("Failed to deserialize ParameterSet[%d] for txn #%d TransactionRequest", i, txn_id);
-                    throw new ServerFaultException(msg, ex, txn_id);
-                }
-                // LOG.info("PARAMETER[" + i + "]: " + parameterSets[i]);
-            } else {
-                parameterSets[i] = ParameterSet.EMPTY;
-            }
-        } // FOR
-        ts.attachParameterSets(parameterSets);
-        
-        // Deserialize attached VoltTable input dependencies
-        FastDeserializer fds = null;
-        VoltTable vt = null;
-        for (int i = 0, cnt = request.getAttachedDataCount(); i < cnt; i++) {
-            int input_dep_id = request.getAttachedDepId(i);
-            ByteString data = request.getAttachedData(i);
-            if (data.isEmpty()) {
-                String msg = String.format("%s input dependency %d is empty", ts, input_dep_id); 
-                LOG.warn(msg + "\n" + request);
-                throw new ServerFaultException(msg, txn_id);
-            }
-            
-            if (fds == null) fds = new FastDeserializer(data.asReadOnlyByteBuffer());
-            else fds.setBuffer(data.asReadOnlyByteBuffer());
-
-            vt = null;
-            try {
-                vt = fds.readObject(VoltTable.class);
-            } catch (Exception ex) {
-                String msg = String.format("Failed to deserialize VoltTable[%d] for txn #%d", input_dep_id, txn_id); 
-                throw new ServerFaultException(msg, ex, txn_id);
-            }
-            assert(vt != null);
-            ts.attachInputDependency(input_dep_id, vt);
-        } // FOR
+        // Attach the request to the RemoteTransaction handle without deserializing its embedded
+        // ParameterSets and input dependencies. The PartitionExecutor will do that for us so
+        // that we don't hold up any of the other messages that are waiting on this thread.
+        ts.attachWorkRequest(request);
         
         // This is work from a transaction executing at another node
         // Any other message can just be sent along to the ExecutionSite without sending
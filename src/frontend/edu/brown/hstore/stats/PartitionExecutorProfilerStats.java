@@ -1,7 +1,9 @@
 package edu.brown.hstore.stats;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.voltdb.StatsSource;
@@ -14,6 +16,7 @@ import edu.brown.hstore.HStoreSite;
 import edu.brown.hstore.PartitionExecutor;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.profilers.LatencyHistogram;
 import edu.brown.profilers.PartitionExecutorProfiler;
 import edu.brown.profilers.ProfileMeasurement;
 
@@ -26,6 +29,13 @@ public class PartitionExecutorProfilerStats extends StatsSource {
     }
 
     private final HStoreSite hstore_site;
+    
+    /**
+     * What each partition's latency histograms looked like the last time that
+     * we were called. The histograms are shared with the metrics endpoint, so we
+     * can't drain them and instead only report what changed since then.
+     */
+    private final Map<Integer, LatencyHistogram[]> lastLatencies = new HashMap<Integer, LatencyHistogram[]>();
 
     public PartitionExecutorProfilerStats(HStoreSite hstore_site) {
         super(SysProcSelector.EXECPROFILER.name(), false);
@@ -71,6 +81,18 @@ public class PartitionExecutorProfilerStats extends StatsSource {
             columns.add(new VoltTable.ColumnInfo(name, VoltType.BIGINT));
             columns.add(new VoltTable.ColumnInfo(name+"_CNT", VoltType.BIGINT));
         } // FOR
+        
+        // For the ProfileMeasurements that have a LatencyHistogram, we will include
+        // the percentiles along with the histogram itself so that the client can
+        // merge them together for all of the partitions
+        for (ProfileMeasurement pm : profiler.getProfileMeasurements()) {
+            if (pm.getLatencyHistogram() == null) continue;
+            String name = pm.getName().toUpperCase();
+            for (String suffix : LatencyHistogram.PERCENTILE_SUFFIXES) {
+                columns.add(new VoltTable.ColumnInfo(name+suffix, VoltType.BIGINT));
+            } // FOR
+            columns.add(new VoltTable.ColumnInfo(name+LatencyHistogram.HISTOGRAM_SUFFIX, VoltType.STRING));
+        } // FOR
     }
 
     @Override
@@ -95,6 +117,25 @@ public class PartitionExecutorProfilerStats extends StatsSource {
             rowValues[offset++] = pm.getTotalThinkTime();
             rowValues[offset++] = pm.getInvocations();
         } // FOR
+        // Like TransactionProfilerStats, we only want the latencies for
+        // the invocations that happened since the last time we were called
+        ProfileMeasurement pms[] = profiler.getProfileMeasurements();
+        LatencyHistogram last[] = this.lastLatencies.get(partition);
+        if (last == null) {
+            last = new LatencyHistogram[pms.length];
+            this.lastLatencies.put(partition, last);
+        }
+        for (int i = 0; i < pms.length; i++) {
+            LatencyHistogram latencies = pms[i].getLatencyHistogram();
+            if (latencies == null) continue;
+            if (last[i] == null) last[i] = new LatencyHistogram();
+            LatencyHistogram h = new LatencyHistogram();
+            latencies.deltaTo(last[i], h);
+            for (double percentile : LatencyHistogram.PERCENTILES) {
+                rowValues[offset++] = h.getValueAtPercentile(percentile);
+            } // FOR
+            rowValues[offset++] = h.toCompactString();
+        } // FOR
         super.updateStatsRow(rowKey, rowValues);
     }
 }
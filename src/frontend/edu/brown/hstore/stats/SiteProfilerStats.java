@@ -12,6 +12,7 @@ import org.voltdb.VoltTable.ColumnInfo;
 import org.voltdb.VoltType;
 
 import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.profilers.HStoreSiteProfiler;
@@ -69,6 +70,12 @@ public class SiteProfilerStats extends StatsSource {
             columns.add(new VoltTable.ColumnInfo(name, VoltType.BIGINT));
             columns.add(new VoltTable.ColumnInfo(name+"_CNT", VoltType.BIGINT));
         } // FOR
+        
+        // One column for the utilization of each of the HStoreCoordinator's event loops
+        HStoreConf hstore_conf = HStoreConf.singleton(true);
+        for (int i = 0; i < hstore_conf.site.coordinator_event_loops; i++) {
+            columns.add(new VoltTable.ColumnInfo("COORDINATOR_UTIL_" + i, VoltType.FLOAT));
+        } // FOR
     }
 
     @Override
@@ -79,6 +86,9 @@ public class SiteProfilerStats extends StatsSource {
             rowValues[offset++] = pm.getTotalThinkTime();
             rowValues[offset++] = pm.getInvocations();
         } // FOR
+        for (int i = 0; offset < rowValues.length; i++) {
+            rowValues[offset++] = (i < profiler.coordinator_busy.length ? profiler.getCoordinatorUtilization(i) : 0d);
+        } // FOR
         super.updateStatsRow(rowKey, rowValues);
     }
 }
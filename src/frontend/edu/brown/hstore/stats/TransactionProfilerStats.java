@@ -21,6 +21,7 @@ import org.voltdb.catalog.Procedure;
 
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.profilers.LatencyHistogram;
 import edu.brown.profilers.ProfileMeasurement;
 import edu.brown.profilers.TransactionProfiler;
 import edu.brown.statistics.FastIntHistogram;
@@ -36,11 +37,24 @@ public class TransactionProfilerStats extends StatsSource {
         LoggerUtil.attachObserver(LOG, debug, trace);
     }
     
+    /**
+     * The TransactionProfiler measurements that we will keep
+     * a LatencyHistogram for in each procedure
+     */
+    private static final String LATENCY_MEASUREMENTS[] = {
+        "TOTAL",
+        "INIT_QUEUE",
+        "EXEC_TOTAL",
+    };
+    
     @SuppressWarnings("unused")
     private final CatalogContext catalogContext;
     private int proc_offset;
     private int stdev_offset;
     private int num_rows;
+    private int latency_offset;
+    /** The offsets in the TransactionProfiler tuple for each LATENCY_MEASUREMENTS entry */
+    private int latency_tuple_offsets[];
     
     private class ProcedureStats {
         /** Maintain a set of tuples for the transaction profile times **/
@@ -51,6 +65,12 @@ public class TransactionProfilerStats extends StatsSource {
         final FastIntHistogram num_prefetch = new FastIntHistogram();
         final FastIntHistogram num_prefetch_unused = new FastIntHistogram();
 //        final FastIntHistogram num_speculative = new FastIntHistogram();
+        final LatencyHistogram latencies[] = new LatencyHistogram[LATENCY_MEASUREMENTS.length];
+        {
+            for (int i = 0; i < this.latencies.length; i++) {
+                this.latencies[i] = new LatencyHistogram();
+            } // FOR
+        }
     }
 
     private final Map<Procedure, ProcedureStats> procStats = Collections.synchronizedSortedMap(new TreeMap<Procedure, ProcedureStats>());
@@ -85,6 +105,10 @@ public class TransactionProfilerStats extends StatsSource {
         if (trace.val)
             LOG.trace(String.format("Appending TransactionProfile: %s", Arrays.toString(tuple)));
         stats.queue.offer(tuple);
+        for (int i = 0; i < this.latency_tuple_offsets.length; i++) {
+            int offset = this.latency_tuple_offsets[i];
+            if (tuple[offset+1] > 0) stats.latencies[i].record(tuple[offset]);
+        } // FOR
         synchronized (stats) {
             stats.num_batches.put(tp.getBatchCount());
             stats.num_queries.put(tp.getQueryCount());
@@ -239,6 +263,28 @@ public class TransactionProfilerStats extends StatsSource {
         assert(this.proc_offset >= 0);
         assert(this.stdev_offset >= 0);
         this.num_rows = columns.size() - this.proc_offset;
+        
+        // Latency percentiles
+        // We include the encoded histogram so that the client can merge
+        // them together from all of the sites
+        this.latency_offset = columns.size();
+        this.latency_tuple_offsets = new int[LATENCY_MEASUREMENTS.length];
+        ProfileMeasurement pms[] = profiler.getProfileMeasurements();
+        for (int i = 0; i < LATENCY_MEASUREMENTS.length; i++) {
+            this.latency_tuple_offsets[i] = -1;
+            for (int j = 0; j < pms.length; j++) {
+                if (pms[j].getName().equals(LATENCY_MEASUREMENTS[i])) {
+                    this.latency_tuple_offsets[i] = j * 2;
+                    break;
+                }
+            } // FOR
+            assert(this.latency_tuple_offsets[i] >= 0) :
+                "Missing TransactionProfiler measurement " + LATENCY_MEASUREMENTS[i];
+            for (String suffix : LatencyHistogram.PERCENTILE_SUFFIXES) {
+                columns.add(new VoltTable.ColumnInfo(LATENCY_MEASUREMENTS[i]+suffix, VoltType.BIGINT));
+            } // FOR
+            columns.add(new VoltTable.ColumnInfo(LATENCY_MEASUREMENTS[i]+LatencyHistogram.HISTOGRAM_SUFFIX, VoltType.STRING));
+        } // FOR
     }
 
     @Override
@@ -251,6 +297,19 @@ public class TransactionProfilerStats extends StatsSource {
         for (int i = 0; i < row.length; i++) {
             rowValues[this.proc_offset + i + 1] = row[i];    
         } // FOR
+        
+        // Like the tuples in the queue, we only want the latencies for
+        // the txns that completed since the last time we were called
+        ProcedureStats stats = this.procStats.get(proc);
+        int offset = this.latency_offset;
+        for (int i = 0; i < stats.latencies.length; i++) {
+            LatencyHistogram h = new LatencyHistogram();
+            stats.latencies[i].drainTo(h);
+            for (double percentile : LatencyHistogram.PERCENTILES) {
+                rowValues[offset++] = h.getValueAtPercentile(percentile);
+            } // FOR
+            rowValues[offset++] = h.toCompactString();
+        } // FOR
         super.updateStatsRow(rowKey, rowValues);
     }
 }
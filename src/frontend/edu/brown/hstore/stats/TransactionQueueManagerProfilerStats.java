@@ -79,6 +79,9 @@ public class TransactionQueueManagerProfilerStats extends StatsSource {
         // Add in PartitionLockQueueProfiler stats
         PartitionLockQueueProfiler initProfiler = new PartitionLockQueueProfiler();
         columns.add(new VoltTable.ColumnInfo("AVG_TXN_WAIT", VoltType.FLOAT));
+        columns.add(new VoltTable.ColumnInfo("LOCK_CONTENTION", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("LOCK_WAIT", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("DEFERRED_CHECKS", VoltType.BIGINT));
         for (ProfileMeasurement pm : initProfiler.queueStates.values()) {
             String name = pm.getName().toUpperCase();
             columns.add(new VoltTable.ColumnInfo(name, VoltType.BIGINT));
@@ -110,6 +113,9 @@ public class TransactionQueueManagerProfilerStats extends StatsSource {
         
         // PartitionLockQueue
         rowValues[offset++] = MathUtil.weightedMean(initProfiler.waitTimes);
+        rowValues[offset++] = initProfiler.lockContention.get();
+        rowValues[offset++] = initProfiler.lockWaitTime.get();
+        rowValues[offset++] = initProfiler.deferredChecks.get();
         for (ProfileMeasurement pm : initProfiler.queueStates.values()) {
             rowValues[offset++] = pm.getTotalThinkTime();
             rowValues[offset++] = pm.getInvocations();
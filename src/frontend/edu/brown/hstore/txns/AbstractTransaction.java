@@ -27,10 +27,11 @@ package edu.brown.hstore.txns;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
@@ -116,6 +117,13 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      */
     private AtomicBoolean deletable = new AtomicBoolean(false);
     
+    /**
+     * The System.nanoTime() of when this transaction was first queued
+     * for deletion at the HStoreSite. This is used by the TransactionCleaner
+     * to measure how long it takes for handles to get cleaned up.
+     */
+    private long deletable_queued = -1;
+    
     // ----------------------------------------------------------------------------
     // ATTACHED DATA STRUCTURES
     // ----------------------------------------------------------------------------
@@ -124,14 +132,17 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * Attached inputs for the current execution round.
      * This cannot be in the ExecutionState because we may have attached inputs for 
      * transactions that aren't running yet.
+     * RemoteTransactions attach these from whichever PartitionExecutor unpacks the
+     * txn's work requests first while the other partitions may be reading them,
+     * so the map is concurrent and each list is replaced rather than modified.
      */
-    private Map<Integer, List<VoltTable>> attached_inputs;
+    private final Map<Integer, List<VoltTable>> attached_inputs = new ConcurrentHashMap<Integer, List<VoltTable>>();
     
     /**
      * Attached ParameterSets for the current execution round
      * This is so that we don't have to marshal them over to different partitions on the same HStoreSite  
      */
-    private ParameterSet attached_parameterSets[];
+    private volatile ParameterSet attached_parameterSets[];
     
     /**
      * Internal state information for txns that request prefetch queries
@@ -180,8 +191,16 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
     
     // ----------------------------------------------------------------------------
     // PER PARTITION EXECUTION FLAGS
+    // These arrays only have an entry for each of the partitions at our HStoreSite.
+    // Use offset() to get the position of a local partition in them.
     // ----------------------------------------------------------------------------
     
+    /**
+     * PartitionId -> Offset in the per-partition arrays
+     * This is shared by all of the txn handles at the HStoreSite
+     */
+    private final int partitionOffsets[];
+    
     private final boolean released[];
     private final boolean prepared[];
     private final boolean finished[];
@@ -263,7 +282,8 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      */
     public AbstractTransaction(HStoreSite hstore_site) {
         this.hstore_site = hstore_site;
-        int numPartitions = hstore_site.getCatalogContext().numberOfPartitions;
+        this.partitionOffsets = hstore_site.getLocalPartitionOffsets();
+        int numPartitions = hstore_site.getLocalPartitionIds().size();
         
         this.released = new boolean[numPartitions];
         this.prepared = new boolean[numPartitions];
@@ -319,6 +339,7 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
         this.client_handle = client_handle;
         this.base_partition = base_partition;
         this.parameters = parameters;
+        this.deletable_queued = -1;
         
         this.catalog_proc = catalog_proc;
         this.sysproc = this.catalog_proc.getSystemproc();
@@ -368,24 +389,30 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
         this.pending_error = null;
         this.status = null;
         this.parameters = null;
-        if (this.attached_inputs != null) this.attached_inputs.clear();
+        this.attached_inputs.clear();
         this.attached_parameterSets = null;
+        if (this.prefetch != null) {
+            this.prefetch.finish();
+            this.prefetch = null;
+        }
+        this.anticache_table = null;
+        this.exec_specExecType = SpeculationType.NULL;
+        this.restart_ctr = 0;
 
-        for (int partition : this.hstore_site.getLocalPartitionIds().values()) {
-            this.released[partition] = false;
-            this.prepared[partition] = false;
-            this.finished[partition] = false;
-            this.round_state[partition] = null;
-            this.round_ctr[partition] = 0;
-            this.exec_readOnly[partition] = true;
-            this.exec_queueWork[partition] = false;
-            this.exec_eeWork[partition] = false;
-            this.exec_firstUndoToken[partition] = HStoreConstants.NULL_UNDO_LOGGING_TOKEN;
-            this.exec_lastUndoToken[partition] = HStoreConstants.NULL_UNDO_LOGGING_TOKEN;
-            this.exec_noUndoBuffer[partition] = false;
-            
-            if (this.readTables[partition] != null) Arrays.fill(this.readTables[partition], false);
-            if (this.writeTables[partition] != null) Arrays.fill(this.writeTables[partition], false);
+        Arrays.fill(this.released, false);
+        Arrays.fill(this.prepared, false);
+        Arrays.fill(this.finished, false);
+        Arrays.fill(this.round_state, null);
+        Arrays.fill(this.round_ctr, 0);
+        Arrays.fill(this.exec_readOnly, true);
+        Arrays.fill(this.exec_queueWork, false);
+        Arrays.fill(this.exec_eeWork, false);
+        Arrays.fill(this.exec_firstUndoToken, HStoreConstants.NULL_UNDO_LOGGING_TOKEN);
+        Arrays.fill(this.exec_lastUndoToken, HStoreConstants.NULL_UNDO_LOGGING_TOKEN);
+        Arrays.fill(this.exec_noUndoBuffer, false);
+        for (int offset = 0; offset < this.readTables.length; offset++) {
+            if (this.readTables[offset] != null) Arrays.fill(this.readTables[offset], false);
+            if (this.writeTables[offset] != null) Arrays.fill(this.writeTables[offset], false);
         } // FOR
 
         if (debug.val)
@@ -393,6 +420,7 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
                       this.txn_id, this.hashCode(), Arrays.toString(this.finished)));
         
         this.deletable.lazySet(false);
+        this.deletable_queued = -1;
         this.catalog_proc = null;
         this.sysproc = false;
         this.readonly = false;
@@ -427,6 +455,18 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
         throw new NotImplementedException("Not able to store data for non-MapReduce transactions");
     }
     
+    /**
+     * Return the position of the given local partition in the per-partition arrays
+     * @param partition
+     * @return
+     */
+    protected final int offset(int partition) {
+        int offset = this.partitionOffsets[partition];
+        assert(offset != HStoreConstants.NULL_PARTITION_ID) :
+            String.format("Trying to access state for %s at non-local partition %d", this, partition);
+        return (offset);
+    }
+    
     // ----------------------------------------------------------------------------
     // ROUND METHODS
     // ----------------------------------------------------------------------------
@@ -437,37 +477,38 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * @param undoToken
      */
     public void initRound(int partition, long undoToken) {
-        assert(this.round_state[partition] == null || this.round_state[partition] == RoundState.FINISHED) : 
+        int offset = this.offset(partition);
+        assert(this.round_state[offset] == null || this.round_state[offset] == RoundState.FINISHED) : 
             String.format("Invalid state %s for ROUND #%s on partition %d for %s [hashCode=%d]",
-                          this.round_state[partition], this.round_ctr[partition],
+                          this.round_state[offset], this.round_ctr[offset],
                           partition, this, this.hashCode());
         
         // If we get to this point, then we know that nobody cares about any 
         // errors from the previous round, therefore we can just clear it out
         this.pending_error = null;
         
-        if (this.exec_lastUndoToken[partition] == HStoreConstants.NULL_UNDO_LOGGING_TOKEN || 
+        if (this.exec_lastUndoToken[offset] == HStoreConstants.NULL_UNDO_LOGGING_TOKEN || 
             undoToken != HStoreConstants.DISABLE_UNDO_LOGGING_TOKEN) {
             // LAST UNDO TOKEN
-            this.exec_lastUndoToken[partition] = undoToken;
+            this.exec_lastUndoToken[offset] = undoToken;
             
             // FIRST UNDO TOKEN
-            if (this.exec_firstUndoToken[partition] == HStoreConstants.NULL_UNDO_LOGGING_TOKEN ||
-                this.exec_firstUndoToken[partition] == HStoreConstants.DISABLE_UNDO_LOGGING_TOKEN) {
-                this.exec_firstUndoToken[partition] = undoToken;
+            if (this.exec_firstUndoToken[offset] == HStoreConstants.NULL_UNDO_LOGGING_TOKEN ||
+                this.exec_firstUndoToken[offset] == HStoreConstants.DISABLE_UNDO_LOGGING_TOKEN) {
+                this.exec_firstUndoToken[offset] = undoToken;
             }
         }
         // NO UNDO LOGGING
         if (undoToken == HStoreConstants.DISABLE_UNDO_LOGGING_TOKEN) {
-            this.exec_noUndoBuffer[partition] = true;
+            this.exec_noUndoBuffer[offset] = true;
         }
-        this.round_state[partition] = RoundState.INITIALIZED;
+        this.round_state[offset] = RoundState.INITIALIZED;
         
         if (debug.val)
             LOG.debug(String.format("%s - Initializing ROUND %d at partition %d [undoToken=%d / first=%d / last=%d]",
-                      this, this.round_ctr[partition], partition,
-                      undoToken, this.exec_firstUndoToken[partition], 
-                      this.exec_lastUndoToken[partition]));
+                      this, this.round_ctr[offset], partition,
+                      undoToken, this.exec_firstUndoToken[offset], 
+                      this.exec_lastUndoToken[offset]));
     }
     
     /**
@@ -475,15 +516,16 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * @return
      */
     public void startRound(int partition) {
-        assert(this.round_state[partition] == RoundState.INITIALIZED) :
+        int offset = this.offset(partition);
+        assert(this.round_state[offset] == RoundState.INITIALIZED) :
             String.format("Invalid state %s for ROUND #%s on partition %d for %s [hashCode=%d]",
-                          this.round_state[partition], this.round_ctr[partition],
+                          this.round_state[offset], this.round_ctr[offset],
                           partition, this, this.hashCode());
         
-        this.round_state[partition] = RoundState.STARTED;
+        this.round_state[offset] = RoundState.STARTED;
         if (debug.val)
             LOG.debug(String.format("%s - Starting batch ROUND #%d on partition %d",
-                      this, this.round_ctr[partition], partition));
+                      this, this.round_ctr[offset], partition));
     }
     
     /**
@@ -491,15 +533,16 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * dependency tracking information that we have
      */
     public void finishRound(int partition) {
-        assert(this.round_state[partition] == RoundState.STARTED) :
+        int offset = this.offset(partition);
+        assert(this.round_state[offset] == RoundState.STARTED) :
             String.format("Invalid batch round state %s for %s at partition %d",
-                          this.round_state[partition], this, partition);
+                          this.round_state[offset], this, partition);
         
         if (debug.val)
             LOG.debug(String.format("%s - Finishing batch ROUND #%d on partition %d",
-                      this, this.round_ctr[partition], partition));
-        this.round_state[partition] = RoundState.FINISHED;
-        this.round_ctr[partition]++;
+                      this, this.round_ctr[offset], partition));
+        this.round_state[offset] = RoundState.FINISHED;
+        this.round_ctr[offset]++;
     }
     
     // ----------------------------------------------------------------------------
@@ -578,23 +621,26 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * Mark this transaction as have performed some modification on this partition
      */
     public final void markExecNotReadOnly(int partition) {
+        int offset = this.offset(partition);
         assert(this.sysproc == true || this.readonly == false);
-        this.exec_readOnly[partition] = false;
+        this.exec_readOnly[offset] = false;
     }
 
     /**
      * Returns true if this transaction has not executed any modifying work at this partition
      */
     public final boolean isExecReadOnly(int partition) {
+        int offset = this.offset(partition);
         if (this.readonly) return (true);
-        return (this.exec_readOnly[partition]);
+        return (this.exec_readOnly[offset]);
     }
     
     /**
      * Returns true if this transaction executed without undo buffers at some point
      */
     public final boolean isExecNoUndoBuffer(int partition) {
-        return (this.exec_noUndoBuffer[partition]);
+        int offset = this.offset(partition);
+        return (this.exec_noUndoBuffer[offset]);
     }
     /**
      * Mark that the transaction executed queries without using undo logging
@@ -602,7 +648,8 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * @param partition
      */
     public final void markExecNoUndoBuffer(int partition) {
-        this.exec_noUndoBuffer[partition] = true;
+        int offset = this.offset(partition);
+        this.exec_noUndoBuffer[offset] = true;
     }
     /**
      * Returns true if this transaction's control code running at this partition 
@@ -617,10 +664,11 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * This could be either executing a query or executing the transaction's control code
      */
     public final boolean needsFinish(int partition) {
-        boolean ret = (this.exec_readOnly[partition] == false &&
-                        (this.round_state[partition] != null || 
-                         this.exec_eeWork[partition] ||
-                         this.exec_queueWork[partition])
+        int offset = this.offset(partition);
+        boolean ret = (this.exec_readOnly[offset] == false &&
+                        (this.round_state[offset] != null || 
+                         this.exec_eeWork[offset] ||
+                         this.exec_queueWork[offset])
         );
         
 //        if (this.isSpeculative()) {
@@ -667,6 +715,23 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
     public final boolean checkDeletableFlag() {
         return (this.deletable.get());
     }
+    
+    /**
+     * Record the time that this txn was queued for deletion. Only the first
+     * call for each transaction invocation is kept.
+     * @param timestamp The current System.nanoTime()
+     */
+    public final void markDeletableQueued(long timestamp) {
+        if (this.deletable_queued == -1) this.deletable_queued = timestamp;
+    }
+    
+    /**
+     * Returns the System.nanoTime() of when this txn was first queued for deletion.
+     * Will be -1 if the txn has not been queued yet.
+     */
+    public final long getDeletableQueuedTime() {
+        return (this.deletable_queued);
+    }
 
     
     // ----------------------------------------------------------------------------
@@ -823,15 +888,15 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
     }
     public final WorkFragmentMessage getWorkFragmentMessage(WorkFragment fragment) {
         if (this.work_task == null) {
-            this.work_task = new WorkFragmentMessage[hstore_site.getCatalogContext().numberOfPartitions];
+            this.work_task = new WorkFragmentMessage[this.released.length];
         }
-        int partition = fragment.getPartitionId();
-        if (this.work_task[partition] == null) {
-            this.work_task[partition] = new WorkFragmentMessage(this, fragment);
+        int offset = this.offset(fragment.getPartitionId());
+        if (this.work_task[offset] == null) {
+            this.work_task[offset] = new WorkFragmentMessage(this, fragment);
         } else {
-            this.work_task[partition].setFragment(fragment);
+            this.work_task[offset].setFragment(fragment);
         }
-        return (this.work_task[partition]);
+        return (this.work_task[offset]);
     }
     
     /**
@@ -882,19 +947,21 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * @param partition - The partition to mark this txn as "released"
      */
     public final void markReleased(int partition) {
+        int offset = this.offset(partition);
         if (debug.val)
             LOG.debug(String.format("%s - Marking as released on partition %d %s [hashCode=%d]",
                       this, partition, Arrays.toString(this.released), this.hashCode()));
-//        assert(this.released[partition] == false) :
+//        assert(this.released[offset] == false) :
 //            String.format("Trying to mark %s as released to partition %d twice", this, partition);
-        this.released[partition] = true;
+        this.released[offset] = true;
     }
     /**
      * Is this TransactionState marked as released at the given partition
      * @return
      */
     public final boolean isMarkedReleased(int partition) {
-        return (this.released[partition]);
+        int offset = this.offset(partition);
+        return (this.released[offset]);
     }
     
     /**
@@ -903,14 +970,15 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * @param partition - The partition to mark this txn as "prepared"
      */
     public final boolean markPrepared(int partition) {
+        int offset = this.offset(partition);
         if (debug.val)
             LOG.debug(String.format("%s - Marking as prepared on partition %d %s [hashCode=%d, offset=%d]",
                       this, partition, Arrays.toString(this.prepared),
                       this.hashCode(), partition));
         boolean orig = false;
         synchronized (this.prepared) {
-            orig = this.prepared[partition];
-            this.prepared[partition] = true;
+            orig = this.prepared[offset];
+            this.prepared[offset] = true;
         } // SYNCH
         return (orig == false);
     }
@@ -919,35 +987,39 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * @return
      */
     public final boolean isMarkedPrepared(int partition) {
-        return (this.prepared[partition]);
+        int offset = this.offset(partition);
+        return (this.prepared[offset]);
     }
     
     /**
      * Mark this txn as finished (and thus ready for clean-up)
      */
     public final void markFinished(int partition) {
+        int offset = this.offset(partition);
         if (debug.val)
             LOG.debug(String.format("%s - Marking as finished on partition %d " +
                       "[finished=%s / hashCode=%d / offset=%d]",
                       this, partition, Arrays.toString(this.finished),
                       this.hashCode(), partition));
-        this.finished[partition] = true;
+        this.finished[offset] = true;
     }
     /**
      * Is this TransactionState marked as finished
      * @return
      */
     public final boolean isMarkedFinished(int partition) {
-        return (this.finished[partition]);
+        int offset = this.offset(partition);
+        return (this.finished[offset]);
     }
     
     /**
      * Should be called whenever the txn submits work to the EE 
      */
     public final void markQueuedWork(int partition) {
+        int offset = this.offset(partition);
         if (debug.val) LOG.debug(String.format("%s - Marking as having queued work on partition %d [exec_queueWork=%s]",
                                  this, partition, Arrays.toString(this.exec_queueWork)));
-        this.exec_queueWork[partition] = true;
+        this.exec_queueWork[offset] = true;
     }
     
     /**
@@ -955,16 +1027,18 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * @return
      */
     public final boolean hasQueuedWork(int partition) {
-        return (this.exec_queueWork[partition]);
+        int offset = this.offset(partition);
+        return (this.exec_queueWork[offset]);
     }
     
     /**
      * Should be called whenever the txn submits work to the EE 
      */
     public final void markExecutedWork(int partition) {
+        int offset = this.offset(partition);
         if (debug.val) LOG.debug(String.format("%s - Marking as having submitted to the EE on partition %d [exec_eeWork=%s]",
                                  this, partition, Arrays.toString(this.exec_eeWork)));
-        this.exec_eeWork[partition] = true;
+        this.exec_eeWork[offset] = true;
     }
     
     /**
@@ -972,7 +1046,8 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * @return
      */
     public final boolean hasExecutedWork(int partition) {
-        return (this.exec_eeWork[partition]);
+        int offset = this.offset(partition);
+        return (this.exec_eeWork[offset]);
     }
     
     // ----------------------------------------------------------------------------
@@ -1005,7 +1080,8 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * @return
      */
     public final int[] getTableIdsMarkedRead(int partition) {
-        return (this.getMarkedTableIds(this.readTables[partition]));
+        int offset = this.offset(partition);
+        return (this.getMarkedTableIds(this.readTables[offset]));
     }
     /**
      * Mark that this txn read from the Table at the given partition 
@@ -1013,10 +1089,11 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * @param catalog_tbl
      */
     public final void markTableRead(int partition, Table catalog_tbl) {
-        if (this.readTables[partition] == null) {
-            this.readTables[partition] = new boolean[hstore_site.getCatalogContext().numberOfTables + 1];
+        int offset = this.offset(partition);
+        if (this.readTables[offset] == null) {
+            this.readTables[offset] = new boolean[hstore_site.getCatalogContext().numberOfTables + 1];
         }
-        this.readTables[partition][catalog_tbl.getRelativeIndex()] = true;
+        this.readTables[offset][catalog_tbl.getRelativeIndex()] = true;
     }
     /**
      * Mark that this txn read from the tableIds at the given partition
@@ -1024,11 +1101,12 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * @param tableIds
      */
     public final void markTableIdsRead(int partition, int...tableIds) {
-        if (this.readTables[partition] == null) {
-            this.readTables[partition] = new boolean[hstore_site.getCatalogContext().numberOfTables + 1];
+        int offset = this.offset(partition);
+        if (this.readTables[offset] == null) {
+            this.readTables[offset] = new boolean[hstore_site.getCatalogContext().numberOfTables + 1];
         }
         for (int id : tableIds) {
-            this.readTables[partition][id] = true;
+            this.readTables[offset][id] = true;
         } // FOR
     }
     /**
@@ -1039,8 +1117,9 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * @return
      */
     public final boolean isTableRead(int partition, Table catalog_tbl) {
-        if (this.readTables[partition] != null) {
-            return (this.readTables[partition][catalog_tbl.getRelativeIndex()]);
+        int offset = this.offset(partition);
+        if (this.readTables[offset] != null) {
+            return (this.readTables[offset][catalog_tbl.getRelativeIndex()]);
         }
         return (false);
     }
@@ -1052,7 +1131,8 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * @return
      */
     public final int[] getTableIdsMarkedWritten(int partition) {
-        return (this.getMarkedTableIds(this.writeTables[partition]));
+        int offset = this.offset(partition);
+        return (this.getMarkedTableIds(this.writeTables[offset]));
     }
     /**
      * Mark that this txn has executed a modifying query for the Table at the given partition.
@@ -1062,10 +1142,11 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * @param catalog_tbl
      */
     public final void markTableWritten(int partition, Table catalog_tbl) {
-        if (this.writeTables[partition] == null) {
-            this.writeTables[partition] = new boolean[hstore_site.getCatalogContext().numberOfTables + 1];
+        int offset = this.offset(partition);
+        if (this.writeTables[offset] == null) {
+            this.writeTables[offset] = new boolean[hstore_site.getCatalogContext().numberOfTables + 1];
         }
-        this.writeTables[partition][catalog_tbl.getRelativeIndex()] = true;
+        this.writeTables[offset][catalog_tbl.getRelativeIndex()] = true;
     }
     /**
      * Mark that this txn has executed a modifying query for the tableIds at the given partition.
@@ -1075,11 +1156,12 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * @param tableIds
      */
     public final void markTableIdsWritten(int partition, int...tableIds) {
-        if (this.writeTables[partition] == null) {
-            this.writeTables[partition] = new boolean[hstore_site.getCatalogContext().numberOfTables + 1];
+        int offset = this.offset(partition);
+        if (this.writeTables[offset] == null) {
+            this.writeTables[offset] = new boolean[hstore_site.getCatalogContext().numberOfTables + 1];
         }
         for (int id : tableIds) {
-            this.writeTables[partition][id] = true;
+            this.writeTables[offset][id] = true;
         } // FOR
     }
     /**
@@ -1090,8 +1172,9 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * @return
      */
     public final boolean isTableWritten(int partition, Table catalog_tbl) {
-        if (this.writeTables[partition] != null) {
-            return (this.writeTables[partition][catalog_tbl.getRelativeIndex()]);
+        int offset = this.offset(partition);
+        if (this.writeTables[offset] != null) {
+            return (this.writeTables[offset][catalog_tbl.getRelativeIndex()]);
         }
         return (false);
     }
@@ -1104,11 +1187,12 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * @return
      */
     public final boolean isTableReadOrWritten(int partition, Table catalog_tbl) {
+        int offset = this.offset(partition);
         int tableId = catalog_tbl.getRelativeIndex();
-        if (this.readTables[partition] != null && this.readTables[partition][tableId]) {
+        if (this.readTables[offset] != null && this.readTables[offset][tableId]) {
             return (true);
         }
-        if (this.writeTables[partition] != null && this.writeTables[partition][tableId]) {
+        if (this.writeTables[offset] != null && this.writeTables[offset][tableId]) {
             return (true);
         }
         return (false);
@@ -1124,7 +1208,8 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * Used only for testing  
      */
     protected RoundState getCurrentRoundState(int partition) {
-        return (this.round_state[partition]);
+        int offset = this.offset(partition);
+        return (this.round_state[offset]);
     }
     
     /**
@@ -1132,14 +1217,16 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * When we ABORT a txn we will need to give the EE this value
      */
     public long getFirstUndoToken(int partition) {
-        return this.exec_firstUndoToken[partition];
+        int offset = this.offset(partition);
+        return this.exec_firstUndoToken[offset];
     }
     /**
      * Get the last undo token used for this transaction
      * When we COMMIT a txn we will need to give the EE this value
      */
     public long getLastUndoToken(int partition) {
-        return this.exec_lastUndoToken[partition];
+        int offset = this.offset(partition);
+        return this.exec_lastUndoToken[offset];
     }
     
     // ----------------------------------------------------------------------------
@@ -1157,22 +1244,21 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
         return (this.attached_parameterSets);
     }
     
+    /**
+     * Attach an input dependency for this txn. Only one thread can be attaching
+     * inputs at a time, but other threads are allowed to read them while it does.
+     * @param input_dep_id
+     * @param vt
+     */
     public final void attachInputDependency(int input_dep_id, VoltTable vt) {
-        if (this.attached_inputs == null) {
-            this.attached_inputs = new HashMap<Integer, List<VoltTable>>();
-        }
-        List<VoltTable> l = this.attached_inputs.get(input_dep_id);
-        if (l == null) {
-            l = new ArrayList<VoltTable>();
-            this.attached_inputs.put(input_dep_id, l);
-        }
+        List<VoltTable> orig = this.attached_inputs.get(input_dep_id);
+        List<VoltTable> l = new ArrayList<VoltTable>(orig != null ? orig.size() + 1 : 1);
+        if (orig != null) l.addAll(orig);
         l.add(vt);
+        this.attached_inputs.put(input_dep_id, Collections.unmodifiableList(l));
     }
     
     public final Map<Integer, List<VoltTable>> getAttachedInputDependencies() {
-        if (this.attached_inputs == null) {
-            this.attached_inputs = new HashMap<Integer, List<VoltTable>>();
-        }
         return (this.attached_inputs);
     }
     
@@ -1278,7 +1364,8 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
      * up into separate execution "rounds" in the PartitionExecutor.
      */
     protected int getCurrentRound(int partition) {
-        return (this.round_ctr[partition]);
+        int offset = this.offset(partition);
+        return (this.round_ctr[offset]);
     }
     
     @Override
@@ -1298,6 +1385,18 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
     public abstract String toStringImpl();
     public abstract String debug();
     
+    /**
+     * Convert one of the per-partition flag arrays back into partition ids
+     */
+    private String toPartitionSet(boolean flags[]) {
+        int partitions[] = this.hstore_site.getLocalPartitionIds().values();
+        PartitionSet ps = new PartitionSet();
+        for (int offset = 0; offset < flags.length; offset++) {
+            if (flags[offset]) ps.add(partitions[offset]);
+        } // FOR
+        return (ps.toString());
+    }
+    
     @SuppressWarnings("unchecked")
     protected Map<String, Object>[] getDebugMaps() {
         List<Map<String, Object>> maps = new ArrayList<Map<String,Object>>();
@@ -1322,9 +1421,9 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
         
         // Global State
         m = new LinkedHashMap<String, Object>();
-        m.put("Marked Released", PartitionSet.toString(this.released));
-        m.put("Marked Prepared", PartitionSet.toString(this.prepared));
-        m.put("Marked Finished", PartitionSet.toString(this.finished));
+        m.put("Marked Released", this.toPartitionSet(this.released));
+        m.put("Marked Prepared", this.toPartitionSet(this.prepared));
+        m.put("Marked Finished", this.toPartitionSet(this.finished));
         m.put("Marked Deletable", this.checkDeletableFlag());
         maps.add(m);
         
@@ -1341,12 +1440,12 @@ public abstract class AbstractTransaction implements Poolable, Comparable<Abstra
         // Partition Execution State
         m = new LinkedHashMap<String, Object>();
         m.put("Current Round State", Arrays.toString(this.round_state));
-        m.put("Exec Read-Only", PartitionSet.toString(this.exec_readOnly));
+        m.put("Exec Read-Only", this.toPartitionSet(this.exec_readOnly));
         m.put("First UndoToken", Arrays.toString(this.exec_firstUndoToken));
         m.put("Last UndoToken", Arrays.toString(this.exec_lastUndoToken));
-        m.put("No Undo Buffer", PartitionSet.toString(this.exec_noUndoBuffer));
+        m.put("No Undo Buffer", this.toPartitionSet(this.exec_noUndoBuffer));
         m.put("# of Rounds", Arrays.toString(this.round_ctr));
-        m.put("Executed Work", PartitionSet.toString(this.exec_eeWork));
+        m.put("Executed Work", this.toPartitionSet(this.exec_eeWork));
         maps.add(m);
         
         return ((Map<String, Object>[])maps.toArray(new Map[0]));
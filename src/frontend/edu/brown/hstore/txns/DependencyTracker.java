@@ -12,7 +12,6 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.locks.ReentrantLock;
@@ -36,6 +35,7 @@ import edu.brown.hstore.txns.AbstractTransaction.RoundState;
 import edu.brown.interfaces.DebugContext;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.utils.ConcurrentLongHashMap;
 import edu.brown.utils.StringUtil;
 
 /**
@@ -231,7 +231,7 @@ public class DependencyTracker {
     
     private final PartitionExecutor executor;
     private final CatalogContext catalogContext;
-    private final Map<Long, TransactionState> txnStates = new ConcurrentHashMap<Long, TransactionState>();
+    private final ConcurrentLongHashMap<TransactionState> txnStates = new ConcurrentLongHashMap<TransactionState>();
     
     // ----------------------------------------------------------------------------
     // INITIALIZATION
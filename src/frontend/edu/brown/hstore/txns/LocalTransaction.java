@@ -330,16 +330,16 @@ public class LocalTransaction extends AbstractTransaction {
         if (debug.val)
             LOG.debug(String.format("%s - Invoking finish() cleanup", this));
         
-        // Return our DistributedState
-//        if (this.dtxnState != null && hstore_site.getHStoreConf().site.pool_txn_enable) {
-//            hstore_site.getObjectPools()
-//                       .getDistributedStatePool(this.base_partition)
-//                       .returnObject(this.dtxnState);
-//            this.dtxnState = null;
-//        }
+        // We don't reuse DistributedStates, but we have to make sure that
+        // the next txn that gets this handle doesn't see this one's
+        this.dtxnState = null;
+        this.depTracker = null;
         
         super.finish();
         
+        this.batch_size = 0;
+        this.mapreduce = false;
+        this.old_transaction_id = null;
         this.client_callback = null;
         this.init_callback.finish();
         this.initiateTime = 0;
@@ -399,7 +399,7 @@ public class LocalTransaction extends AbstractTransaction {
     public void initFirstRound(long undoToken, int batchSize) {
         if (debug.val)
             LOG.debug(String.format("%s - Initializing ROUND #%d on partition %d [undoToken=%d]", 
-                      this, this.round_ctr[this.base_partition], this.base_partition, undoToken));
+                      this, this.getCurrentRound(this.base_partition), this.base_partition, undoToken));
         
         this.batch_size = batchSize;
         if (this.depTracker != null) {
@@ -415,7 +415,7 @@ public class LocalTransaction extends AbstractTransaction {
                           ClassUtil.getCurrentMethodName(), this);
         if (debug.val)
             LOG.debug(String.format("%s - Initializing ROUND #%d on partition %d [undoToken=%d]", 
-                      this, this.round_ctr[partition], partition, undoToken));
+                      this, this.getCurrentRound(partition), partition, undoToken));
         
         super.initRound(partition, undoToken);
     }
@@ -432,7 +432,7 @@ public class LocalTransaction extends AbstractTransaction {
         assert(this.batch_size > 0);
         if (debug.val)
             LOG.debug(String.format("%s - Starting ROUND #%d on partition %d with %d queued Statements", 
-                      this, this.round_ctr[partition],
+                      this, this.getCurrentRound(partition),
                       partition, this.batch_size));
    
         if (this.predict_singlePartition == false) this.lock.lock();
@@ -457,7 +457,7 @@ public class LocalTransaction extends AbstractTransaction {
     public void finishRound(int partition) {
         if (debug.val)
             LOG.debug(String.format("%s - Finishing ROUND #%d on partition %d", 
-                      this, this.round_ctr[partition], partition));
+                      this, this.getCurrentRound(partition), partition));
         
         // SAME SITE, DIFFERENT PARTITION
         if (this.base_partition != partition) {
@@ -491,7 +491,7 @@ public class LocalTransaction extends AbstractTransaction {
      * @param partition The partition to finish this txn on
      */
     public void fastFinishRound(int partition) {
-        this.round_state[partition] = RoundState.STARTED;
+        this.round_state[this.offset(partition)] = RoundState.STARTED;
         super.finishRound(partition);
         if (this.base_partition == partition) {
             if (this.depTracker != null) this.depTracker.finishRound(this);
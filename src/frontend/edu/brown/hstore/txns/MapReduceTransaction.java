@@ -4,9 +4,9 @@ import org.apache.log4j.Logger;
 import org.voltdb.ClientResponseImpl;
 import org.voltdb.ParameterSet;
 import org.voltdb.VoltTable;
-import org.voltdb.VoltTableRow;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Table;
+import org.voltdb.utils.ReduceInputGroups;
 
 import com.google.protobuf.RpcCallback;
 
@@ -43,6 +43,7 @@ public class MapReduceTransaction extends LocalTransaction {
     
     private VoltTable mapOutput[];
     private VoltTable reduceInput[];
+    private ReduceInputGroups<?> reduceInputGroups[];
     private VoltTable reduceOutput[];
 
     public enum State {
@@ -106,6 +107,7 @@ public class MapReduceTransaction extends LocalTransaction {
         // new mapout and reduce output talbes for each partition it wants to touch
         this.mapOutput = new VoltTable[this.partitions_size];
         this.reduceInput = new VoltTable[this.partitions_size];
+        this.reduceInputGroups = new ReduceInputGroups<?>[this.partitions_size];
         this.reduceOutput = new VoltTable[this.partitions_size];
                 
         this.map_callback = new TransactionMapCallback(hstore_site);
@@ -174,6 +176,13 @@ public class MapReduceTransaction extends LocalTransaction {
             this.reduceInput[partition] = CatalogUtil.getVoltTable(this.mapEmit);
             this.reduceOutput[partition] = CatalogUtil.getVoltTable(this.reduceEmit);
             
+            // Group the REDUCE input by key as it arrives so that we don't
+            // have to sort it when we get to the REDUCE phase
+            int maxRows = hstore_site.getHStoreConf().site.mr_reduce_hash_max_rows;
+            if (maxRows > 0) {
+                this.reduceInputGroups[partition] = new ReduceInputGroups<Object>(this.reduceInput[partition], 0, maxRows);
+            }
+            
         } // FOR
         
         this.setMapPhase();
@@ -243,6 +252,7 @@ public class MapReduceTransaction extends LocalTransaction {
         this.reduceEmit = null;
         this.mapOutput = null;
         this.reduceInput = null;
+        this.reduceInputGroups = null;
         this.reduceOutput = null;
     }
     /**
@@ -261,13 +271,16 @@ public class MapReduceTransaction extends LocalTransaction {
         
         if (debug.val)
             LOG.debug(String.format("<StoreData, change to ReduceInputTable> to Partition:%d>\n %s",partition,vt));
+        // Add the active row directly rather than using fetchRow(), since that
+        // has to scan through all of the rows in front of it
         while (vt.advanceRow()) {
-            VoltTableRow row = vt.fetchRow(vt.getActiveRowIndex());
-            assert(row != null);
-            input.add(row);
+            input.add(vt);
         }
         vt.resetRowPosition();
         
+        ReduceInputGroups<?> groups = this.reduceInputGroups[partition];
+        if (groups != null) groups.update();
+        
         return Status.OK;
     }
     
@@ -461,6 +474,16 @@ public class MapReduceTransaction extends LocalTransaction {
         //return this.reduceInput[partition];
     }
     
+    /**
+     * Returns the index that groups the given partition's ReduceInput table by key.
+     * This will be null if hash grouping is disabled. 
+     * @param partition
+     * @return
+     */
+    public ReduceInputGroups<?> getReduceInputGroupsByPartition(int partition) {
+        return this.reduceInputGroups[partition];
+    }
+    
     public VoltTable getReduceOutputByPartition ( int partition ) {
         if (debug.val) LOG.debug("Trying to getReduceOutputByPartition: [ " + partition + " ]");
         return this.reduceOutput[partition];
@@ -34,12 +34,17 @@ import org.apache.log4j.Logger;
 import org.voltdb.CatalogContext;
 import org.voltdb.ParameterSet;
 import org.voltdb.catalog.Procedure;
+import org.voltdb.exceptions.ServerFaultException;
+import org.voltdb.messaging.FastDeserializer;
+import org.voltdb.utils.VoltTableUtil;
 
+import com.google.protobuf.ByteString;
 import com.google.protobuf.RpcCallback;
 
 import edu.brown.hstore.HStoreSite;
 import edu.brown.hstore.HStoreThreadManager;
 import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.Hstoreservice.TransactionWorkRequest;
 import edu.brown.hstore.Hstoreservice.UnevictDataResponse;
 import edu.brown.hstore.callbacks.RemoteInitQueueCallback;
 import edu.brown.hstore.callbacks.RemotePrepareCallback;
@@ -74,6 +79,18 @@ public class RemoteTransaction extends AbstractTransaction {
     private final RemoteFinishCallback finish_callback;
     private RpcCallback<UnevictDataResponse> unevict_callback;
     
+    /**
+     * TransactionWorkRequests whose ParameterSets and input dependencies
+     * have not been deserialized yet
+     */
+    private final List<TransactionWorkRequest> pending_requests = new ArrayList<TransactionWorkRequest>();
+    
+    /**
+     * The error from the first work request that failed to deserialize.
+     * Protected by the pending_requests lock.
+     */
+    private ServerFaultException unpack_error;
+    
     // ----------------------------------------------------------------------------
     // PREFETCH
     // ----------------------------------------------------------------------------
@@ -136,7 +153,22 @@ public class RemoteTransaction extends AbstractTransaction {
     
     @Override
     public void finish() {
+        // We need to check the prefetch partitions before our parent clears them
+        if (this.prefetch != null) {
+            for (int i = 0; i < this.rpc_transactionPrefetch.length; i++) {
+                // Tell the PretchQuery ProtoRpcControllers to cancel themselves
+                // if we actually tried used them for this txn
+                if (this.rpc_transactionPrefetch[i] != null && this.prefetch.partitions.contains(i)) {
+                    this.rpc_transactionPrefetch[i].startCancel();
+                }
+            } // FOR
+        }
         super.finish();
+        this.unevict_callback = null;
+        synchronized (this.pending_requests) {
+            this.pending_requests.clear();
+            this.unpack_error = null;
+        } // SYNCH
         
         // Callbacks
         this.init_callback.finish();
@@ -145,15 +177,7 @@ public class RemoteTransaction extends AbstractTransaction {
         for (RemotePrepareCallback callback : this.prepare_callbacks) {
             callback.finish();
         } // FOR
-        
-        // ProtoRpcControllers
-        for (int i = 0; i < this.rpc_transactionPrefetch.length; i++) {
-            // Tell the PretchQuery ProtoRpcControllers to cancel themselves
-            // if we actually tried used them for this txn
-            if (this.rpc_transactionPrefetch[i] != null && this.prefetch.partitions.contains(i)) {
-                this.rpc_transactionPrefetch[i].startCancel();
-            }
-        } // FOR
+        this.prepare_callbacks.clear();
     }
     
     @Override
@@ -242,6 +266,84 @@ public class RemoteTransaction extends AbstractTransaction {
 		return this.unevict_callback;
 	}
 
+    // ----------------------------------------------------------------------------
+    // WORK REQUESTS
+    // ----------------------------------------------------------------------------
+    
+    /**
+     * Attach a TransactionWorkRequest that arrived for this txn without deserializing it.
+     * This lets the HStoreCoordinator's event loop threads get back to the network right away.
+     * The embedded ParameterSets and input dependencies will be deserialized by the
+     * first PartitionExecutor that needs them.
+     * @param request
+     */
+    public void attachWorkRequest(TransactionWorkRequest request) {
+        synchronized (this.pending_requests) {
+            this.pending_requests.add(request);
+        } // SYNCH
+    }
+    
+    /**
+     * Deserialize the ParameterSets and input dependencies for all of the
+     * TransactionWorkRequests that were attached to this txn, in the order
+     * that they arrived. This must be called before the PartitionExecutor
+     * retrieves the attached ParameterSets or input dependencies.
+     * If a request fails to deserialize, then every partition that tries to
+     * unpack this txn's requests after that will get back the same error.
+     * @throws ServerFaultException If one of the requests could not be deserialized
+     */
+    public void unpackWorkRequests() {
+        synchronized (this.pending_requests) {
+            if (this.unpack_error != null) throw this.unpack_error;
+            try {
+                for (TransactionWorkRequest request : this.pending_requests) {
+                    this.unpackWorkRequest(request);
+                } // FOR
+            } catch (ServerFaultException ex) {
+                this.unpack_error = ex;
+                throw ex;
+            } finally {
+                this.pending_requests.clear();
+            }
+        } // SYNCH
+    }
+    
+    private void unpackWorkRequest(TransactionWorkRequest request) {
+        // Deserialize embedded ParameterSets and store it in this handle
+        // This way we only do it once per HStoreSite. This will also force us to avoid having
+        // to do it for local work
+        ParameterSet parameterSets[] = new ParameterSet[request.getParamsCount()]; // TODO: Cache!
+        for (int i = 0; i < parameterSets.length; i++) {
+            ByteString paramData = request.getParams(i);
+            if (paramData != null && paramData.isEmpty() == false) {
+                final FastDeserializer fds = new FastDeserializer(paramData.asReadOnlyByteBuffer());
+                if (trace.val)
+                    LOG.trace(String.format("%s paramData[%d] => %s", this, i, fds.buffer()));
+                try {
+                    parameterSets[i] = fds.readObject(ParameterSet.class);
+                } catch (Exception ex) {
+                    String msg = String.format("Failed to deserialize ParameterSet[%d] for %s TransactionRequest", i, this);
+                    throw new ServerFaultException(msg, ex, this.txn_id);
+                }
+            } else {
+                parameterSets[i] = ParameterSet.EMPTY;
+            }
+        } // FOR
+        this.attachParameterSets(parameterSets);
+        
+        // Attached VoltTable input dependencies
+        for (int i = 0, cnt = request.getAttachedDataCount(); i < cnt; i++) {
+            int input_dep_id = request.getAttachedDepId(i);
+            ByteString data = request.getAttachedData(i);
+            if (data.isEmpty()) {
+                String msg = String.format("%s input dependency %d is empty", this, input_dep_id); 
+                LOG.warn(msg + "\n" + request);
+                throw new ServerFaultException(msg, this.txn_id);
+            }
+            this.attachInputDependency(input_dep_id, VoltTableUtil.fromByteString(data));
+        } // FOR
+    }
+
     // ----------------------------------------------------------------------------
     // DEBUG STUFF
     // ----------------------------------------------------------------------------
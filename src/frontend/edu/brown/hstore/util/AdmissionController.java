@@ -0,0 +1,242 @@
+package edu.brown.hstore.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * Adjusts how many txns each partition at a site is allowed to have queued up
+ * based on how long work actually waits in its queues.
+ * <p>
+ * The queues report the sojourn time of everything that they hand out (i.e., how
+ * long it was sitting in the queue). At the end of each interval, we look at the
+ * smallest sojourn time that each partition saw. Like CoDel, if even the fastest
+ * item had to wait longer than the target, then the partition has a standing queue
+ * and its admission limit is cut by a multiplicative factor. Otherwise the limit
+ * grows back by a fixed delta (AIMD). The site's limit is the sum of its
+ * partitions' limits.
+ * <p>
+ * The queues can call {@link #recordSojourn(QueueType, int, long)} from any thread.
+ * Only one thread at a time should call {@link #update(long)}.
+ */
+public class AdmissionController {
+    private static final Logger LOG = Logger.getLogger(AdmissionController.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    private static final LoggerBoolean trace = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * The queues that we get sojourn times from
+     */
+    public enum QueueType {
+        LOCK_QUEUE,
+        WORK_QUEUE;
+    }
+    private static final int NUM_QUEUE_TYPES = QueueType.values().length;
+
+    /**
+     * Marker for when a queue did not hand out anything during an interval
+     */
+    private static final long NO_SAMPLES = Long.MAX_VALUE;
+
+    // ----------------------------------------------------------------------------
+    // CONFIGURATION
+    // ----------------------------------------------------------------------------
+
+    private final int partitions[];
+    private final long targetNanos;
+    private final long intervalNanos;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int increaseDelta;
+    private final double decreaseFactor;
+
+    // ----------------------------------------------------------------------------
+    // STATE
+    // ----------------------------------------------------------------------------
+
+    /**
+     * The smallest sojourn time that each partition's queues have reported in
+     * the current interval. Offset is (partition * NUM_QUEUE_TYPES) + QueueType
+     */
+    private final AtomicLongArray minSojourn;
+
+    /**
+     * The smallest sojourn time (across all of its queues) that each partition had
+     * in the last interval. This is -1 if the partition did not have any samples.
+     */
+    private final AtomicLongArray lastSojourn;
+
+    private final AtomicIntegerArray limits;
+    private final AtomicLongArray increases;
+    private final AtomicLongArray decreases;
+    private volatile int siteLimit;
+    private long lastUpdate = -1;
+
+    /**
+     * Constructor
+     * @param partitions The local partition ids at this site
+     * @param numPartitions The total number of partitions in the cluster
+     * @param targetMs The max sojourn time that we will tolerate (milliseconds)
+     * @param intervalMs How often we will adjust the limits (milliseconds)
+     * @param initialLimit The initial admission limit for each partition
+     * @param minLimit The smallest admission limit for each partition
+     * @param maxLimit The largest admission limit for each partition
+     * @param increaseDelta How much to increase a partition's limit when its queue is not standing
+     * @param decreaseFactor How much to multiply a partition's limit by when its queue is standing
+     */
+    public AdmissionController(int partitions[], int numPartitions,
+                               double targetMs, int intervalMs,
+                               int initialLimit, int minLimit, int maxLimit,
+                               int increaseDelta, double decreaseFactor) {
+        assert(minLimit > 0);
+        assert(minLimit <= maxLimit);
+        assert(decreaseFactor > 0 && decreaseFactor < 1);
+        this.partitions = partitions;
+        this.targetNanos = (long)(targetMs * 1000000d);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.increaseDelta = increaseDelta;
+        this.decreaseFactor = decreaseFactor;
+
+        this.minSojourn = new AtomicLongArray(numPartitions * NUM_QUEUE_TYPES);
+        this.lastSojourn = new AtomicLongArray(numPartitions);
+        this.limits = new AtomicIntegerArray(numPartitions);
+        this.increases = new AtomicLongArray(numPartitions);
+        this.decreases = new AtomicLongArray(numPartitions);
+
+        int limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        int total = 0;
+        for (int partition : partitions) {
+            for (int i = 0; i < NUM_QUEUE_TYPES; i++) {
+                this.minSojourn.set(partition * NUM_QUEUE_TYPES + i, NO_SAMPLES);
+            } // FOR
+            this.lastSojourn.set(partition, -1);
+            this.limits.set(partition, limit);
+            total += limit;
+        } // FOR
+        this.siteLimit = total;
+    }
+
+    /**
+     * Record how long something waited in one of the given partition's queues
+     * @param type
+     * @param partition
+     * @param nanos
+     */
+    public void recordSojourn(QueueType type, int partition, long nanos) {
+        int offset = partition * NUM_QUEUE_TYPES + type.ordinal();
+        long current;
+        do {
+            current = this.minSojourn.get(offset);
+            if (nanos >= current) return;
+        } while (this.minSojourn.compareAndSet(offset, current, nanos) == false);
+    }
+
+    /**
+     * Adjust the admission limits if at least one interval has passed since the
+     * last time that they were adjusted. Returns true if the limits were updated.
+     * @param now The current time from System.nanoTime()
+     * @return
+     */
+    public boolean update(long now) {
+        if (this.lastUpdate != -1 && (now - this.lastUpdate) < this.intervalNanos) {
+            return (false);
+        }
+        this.lastUpdate = now;
+
+        int total = 0;
+        for (int partition : this.partitions) {
+            long sojourn = -1;
+            for (int i = 0; i < NUM_QUEUE_TYPES; i++) {
+                long val = this.minSojourn.getAndSet(partition * NUM_QUEUE_TYPES + i, NO_SAMPLES);
+                if (val != NO_SAMPLES) sojourn = Math.max(sojourn, val);
+            } // FOR
+            this.lastSojourn.set(partition, sojourn);
+
+            int limit = this.limits.get(partition);
+            int newLimit = limit;
+            if (sojourn > this.targetNanos) {
+                newLimit = Math.max(this.minLimit, (int)(limit * this.decreaseFactor));
+                if (newLimit != limit) this.decreases.incrementAndGet(partition);
+            }
+            // If nothing came out of the queues, then we don't know whether
+            // that's because they're idle or because they're stuck. So we
+            // will just leave the limit alone.
+            else if (sojourn >= 0) {
+                newLimit = Math.min(this.maxLimit, limit + this.increaseDelta);
+                if (newLimit != limit) this.increases.incrementAndGet(partition);
+            }
+            if (newLimit != limit) {
+                this.limits.set(partition, newLimit);
+                if (debug.val)
+                    LOG.debug(String.format("Partition %d :: Changed admission limit %d -> %d [sojourn=%.2fms]",
+                              partition, limit, newLimit, sojourn / 1000000d));
+            }
+            total += newLimit;
+        } // FOR
+        this.siteLimit = total;
+        return (true);
+    }
+
+    // ----------------------------------------------------------------------------
+    // ACCESS METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns the max number of txns that the given partition should have queued
+     * @param partition
+     * @return
+     */
+    public int getPartitionLimit(int partition) {
+        return (this.limits.get(partition));
+    }
+
+    /**
+     * Returns the max number of txns that this site should have queued
+     * @return
+     */
+    public int getSiteLimit() {
+        return (this.siteLimit);
+    }
+
+    /**
+     * Returns the smallest sojourn time (in nanoseconds) that the given partition
+     * had in the last interval, or -1 if nothing came out of its queues.
+     * @param partition
+     * @return
+     */
+    public long getLastSojourn(int partition) {
+        return (this.lastSojourn.get(partition));
+    }
+
+    /**
+     * Returns the number of times that the given partition's limit was increased
+     * @param partition
+     * @return
+     */
+    public long getIncreaseCount(int partition) {
+        return (this.increases.get(partition));
+    }
+
+    /**
+     * Returns the number of times that the given partition's limit was decreased
+     * @param partition
+     * @return
+     */
+    public long getDecreaseCount(int partition) {
+        return (this.decreases.get(partition));
+    }
+
+    public long getTargetNanos() {
+        return (this.targetNanos);
+    }
+}
@@ -3,6 +3,7 @@ package edu.brown.hstore.util;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingDeque;
 
 import org.apache.log4j.Logger;
@@ -40,6 +41,12 @@ public class MapReduceHelperThread extends AbstractProcessingRunnable<MapReduceT
     }
 
     private final PartitionEstimator p_estimator;
+    
+    /**
+     * Thread pool for invoking reduce() on different keys in parallel.
+     * This will be null if mr_reduce_parallelism is less than two.
+     */
+    private final ForkJoinPool reducePool;
 
     public MapReduceHelperThread(HStoreSite hstore_site) {
         super(hstore_site,
@@ -47,6 +54,24 @@ public class MapReduceHelperThread extends AbstractProcessingRunnable<MapReduceT
               new LinkedBlockingDeque<MapReduceTransaction>(),
               false);
         this.p_estimator = hstore_site.getPartitionEstimator();
+        
+        int parallelism = hstore_conf.site.mr_reduce_parallelism;
+        if (parallelism > 1) {
+            if (debug.val)
+                LOG.debug(String.format("Creating REDUCE thread pool with %d threads", parallelism));
+            this.reducePool = new ForkJoinPool(parallelism);
+        } else {
+            this.reducePool = null;
+        }
+    }
+    
+    /**
+     * Returns the thread pool that can be used to invoke reduce() on
+     * multiple keys at the same time. May be null if it is disabled.
+     * @return
+     */
+    public ForkJoinPool getReducePool() {
+        return (this.reducePool);
     }
 
     public void queue(MapReduceTransaction ts) {
@@ -2,7 +2,6 @@ package edu.brown.hstore.util;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,6 +15,7 @@ import org.voltdb.utils.EstTime;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 import edu.brown.pools.FastObjectPool;
+import edu.brown.utils.ConcurrentLongHashMap;
 import edu.brown.utils.StringUtil;
 
 public class QueryCache {
@@ -38,13 +38,18 @@ public class QueryCache {
      */
     private static final int TXNCACHE_POOL_MAXIDLE = 200;
     
+    /**
+     * Marker for a CacheEntry that has never been used
+     */
+    private static final long NULL_TXN_ID = -1;
+    
     // ----------------------------------------------------------------------------
     // INTERNAL CACHE MEMBERS
     // ----------------------------------------------------------------------------
     
     private static class CacheEntry {
         final Integer idx;
-        Long txnId;
+        long txnId = NULL_TXN_ID;
         int fragmentId;
         int partitionId;
         int paramsHash;
@@ -99,7 +104,7 @@ public class QueryCache {
             }
         }
         
-        public CacheEntry getNext(Long txnId) {
+        public CacheEntry getNext(long txnId) {
             if (this.current == this.buffer.length) {
                 this.current = 0;
             }
@@ -141,7 +146,7 @@ public class QueryCache {
     /**
      * TransactionId -> List of CacheEntry Offsets
      */
-    private final Map<Long, List<Integer>> txnCacheXref = new HashMap<Long, List<Integer>>();
+    private final ConcurrentLongHashMap<List<Integer>> txnCacheXref = new ConcurrentLongHashMap<List<Integer>>();
     
     /**
      * Constructor
@@ -169,7 +174,7 @@ public class QueryCache {
      * @param params
      * @param result
      */
-    public void addResult(Long txnId, int fragmentId, int partitionId, ParameterSet params, VoltTable result) {
+    public void addResult(long txnId, int fragmentId, int partitionId, ParameterSet params, VoltTable result) {
         if (debug.val)
             LOG.debug(String.format("#%d - Storing query result for FragmentId %d - %s",
                                     txnId, fragmentId, params));
@@ -185,24 +190,29 @@ public class QueryCache {
      * @param paramsHash
      * @param result
      */
-    public void addResult(Long txnId, int fragmentId, int partitionId, int paramsHash, VoltTable result) {
+    public void addResult(long txnId, int fragmentId, int partitionId, int paramsHash, VoltTable result) {
         if (debug.val)
             LOG.debug(String.format("#%d - Storing query result for FragmentId %d / paramsHash:%d",
                                     txnId, fragmentId, paramsHash));
         
         List<Integer> entries = this.txnCacheXref.get(txnId);
         if (entries == null) {
-            synchronized (this) {
-                entries = this.txnCacheXref.get(txnId);
-                if (entries == null) {
-                    try {
-                        entries = this.listPool.borrowObject();
-                    } catch (Exception ex) {
-                        throw new RuntimeException("Failed to initialize list from object pool", ex);
-                    }
-                    this.txnCacheXref.put(txnId, entries);
+            List<Integer> newEntries = null;
+            try {
+                newEntries = this.listPool.borrowObject();
+            } catch (Exception ex) {
+                throw new RuntimeException("Failed to initialize list from object pool", ex);
+            }
+            entries = this.txnCacheXref.putIfAbsent(txnId, newEntries);
+            if (entries == null) {
+                entries = newEntries;
+            } else {
+                try {
+                    this.listPool.returnObject(newEntries);
+                } catch (Exception ex) {
+                    throw new RuntimeException("Failed to return list to object pool", ex);
                 }
-            } // SYNCH
+            }
         }
         
         CacheEntry entry = this.txnCache.getNext(txnId);
@@ -219,7 +229,7 @@ public class QueryCache {
      * @param params
      * @return
      */
-    public VoltTable getResult(Long txnId, int fragmentId, int partitionId, ParameterSet params) {
+    public VoltTable getResult(long txnId, int fragmentId, int partitionId, ParameterSet params) {
         
         if (debug.val) LOG.debug(String.format("#%d - Retrieving query cache for FragmentId %d - %s",
                                                  txnId, fragmentId, params));
@@ -234,7 +244,7 @@ public class QueryCache {
                 
                 // Check whether somebody took our place in the cache or that
                 // we don't even have the same fragmentId or partitionId
-                if (entry.txnId.equals(txnId) == false ||
+                if (entry.txnId != txnId ||
                     entry.fragmentId != fragmentId ||
                     entry.partitionId != partitionId) {
                     continue;
@@ -261,8 +271,8 @@ public class QueryCache {
      * Remove all the cached query results that are specific for this transaction
      * @param txn_id
      */
-    public void purgeTransaction(Long txnId) {
-        List<Integer> entries = this.txnCacheXref.get(txnId);
+    public void purgeTransaction(long txnId) {
+        List<Integer> entries = this.txnCacheXref.remove(txnId);
         if (entries != null) {
             try {
                 this.listPool.returnObject(entries);
@@ -291,7 +301,7 @@ public class QueryCache {
         m[++idx] = new LinkedHashMap<String, Object>();
         List<CacheEntry> entries = new ArrayList<CacheEntry>();
         for (CacheEntry entry : this.txnCache.buffer) {
-            if (entry.txnId != null) entries.add(entry);
+            if (entry.txnId != NULL_TXN_ID) entries.add(entry);
         } // FOR
         m[idx].put(String.format("TxnCache[%d]", entries.size()),
                    StringUtil.join("\n", entries).trim());
@@ -6,6 +6,7 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import org.apache.log4j.Logger;
 
@@ -31,6 +32,13 @@ public class ThrottlingQueue<E> implements Queue<E> {
         LoggerUtil.attachObserver(LOG, debug, trace);
     }
     
+    /**
+     * Lets us adjust the throttleThreshold in place without having to lock
+     */
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<ThrottlingQueue> THRESHOLD_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ThrottlingQueue.class, "throttleThreshold");
+    
     // ----------------------------------------------------------------------------
     // INTERNAL DATA MEMBERS
     // ----------------------------------------------------------------------------
@@ -52,10 +60,10 @@ public class ThrottlingQueue<E> implements Queue<E> {
      * It will not be allowed to take in new elements until the size goes
      * below the throttleRelease,
      */
-    private boolean throttled;
+    private volatile boolean throttled;
     private int origThrottleThreshold;
-    private int throttleThreshold;
-    private int throttleRelease;
+    private volatile int throttleThreshold;
+    private volatile int throttleRelease;
     private double throttleReleaseFactor;
     
     private int autoDelta;
@@ -132,6 +140,18 @@ public class ThrottlingQueue<E> implements Queue<E> {
         this.throttleRelease = Math.max((int)(this.throttleThreshold * this.throttleReleaseFactor), 1);
     }
     
+    /**
+     * Change the throttleThreshold to the new value, but only if
+     * nobody else has changed it since we last looked at it.
+     * @param expected
+     * @param threshold
+     */
+    private void adjustThrottleThreshold(int expected, int threshold) {
+        if (THRESHOLD_UPDATER.compareAndSet(this, expected, threshold)) {
+            this.computeReleaseThreshold();
+        }
+    }
+    
     /**
      * Check whether the size of this queue is greater than our max limit.
      * We don't need to worry if this is 100% accurate, so we won't block here
@@ -143,19 +163,18 @@ public class ThrottlingQueue<E> implements Queue<E> {
         // If they're not throttled, then we should check whether
         // we need to throttle them
         if (this.throttled == false) {
+            int last_threshold = this.throttleThreshold;
+            
             // If they've gone above the current queue max size, then
             // they are throtttled!
-            if (last_size >= this.throttleThreshold) {
+            if (last_size >= last_threshold) {
                 if (this.throttle_time_enabled) this.throttle_time.start();
                 if (can_change && this.allowDecreaseOnThrottle) {
                     if (trace.val) LOG.trace("throttleThreshold=>"+this.throttleThreshold);
-                    synchronized (this.size) {
-                        if (this.throttled == false) {
-                            this.throttleThreshold = Math.max(this.autoMinSize, (this.throttleThreshold - this.autoDelta));
-                            this.computeReleaseThreshold();
-                        }
-                        this.throttled = true;
-                    } // SYNCH
+                    // If another thread beat us to it, then it has already
+                    // decreased the threshold for this throttling
+                    this.adjustThrottleThreshold(last_threshold, Math.max(this.autoMinSize, (last_threshold - this.autoDelta)));
+                    this.throttled = true;
                 } else {
                     this.throttled = true;
                 }
@@ -165,10 +184,7 @@ public class ThrottlingQueue<E> implements Queue<E> {
             // the max limit, then we'll go ahead and do that for them here
             else if (can_change && last_size == 0 && this.allowIncreaseOnZero) {
                 if (trace.val) LOG.trace("throttleThreshold=>"+this.throttleThreshold);
-                synchronized (this.size) {
-                    this.throttleThreshold = Math.min(this.autoMaxSize, (this.throttleThreshold + this.autoDelta));
-                    this.computeReleaseThreshold();
-                } // SYNCH
+                this.adjustThrottleThreshold(last_threshold, Math.min(this.autoMaxSize, (last_threshold + this.autoDelta)));
             }
         }
         // If we're throttled and we've gone below our release
@@ -154,6 +154,7 @@ public class FastObjectPool<T> extends BaseObjectPool {
             if (poolSize >= maxSleeping) {
                 shouldDestroy = true;
                 toBeDestroyed = this.pool.poll(); // remove the stalest object
+                if (toBeDestroyed != null) this.numInactive.decrementAndGet();
             }
             if (debug.val)
                 LOG.debug(String.format("Returning %s back to ObjectPool [hashCode=%d]",
@@ -1,9 +1,40 @@
 package edu.brown.profilers;
 
+import edu.brown.statistics.FastIntHistogram;
+
 public class CommandLogWriterProfiler extends AbstractProfiler {
 
     public final ProfileMeasurement writingTime = new ProfileMeasurement("WRITING");
     public final ProfileMeasurement blockedTime = new ProfileMeasurement("BLOCKED");
     public final ProfileMeasurement networkTime = new ProfileMeasurement("NETWORK");
-    
+
+    /**
+     * The number of txns that were written out in each group commit
+     */
+    public final FastIntHistogram flushTxns = new FastIntHistogram();
+
+    /**
+     * The number of kilobytes that were written out in each group commit
+     */
+    public final FastIntHistogram flushBytes = new FastIntHistogram();
+
+    /**
+     * How long (in ms) it took to force each group commit out to disk
+     */
+    public final FastIntHistogram fsyncLatency = new FastIntHistogram();
+
+    /**
+     * How long (in ms) the oldest txn in each group commit was waiting
+     * in the buffers before the writer thread started to flush them
+     */
+    public final FastIntHistogram batchWait = new FastIntHistogram();
+
+    @Override
+    public void reset() {
+        super.reset();
+        this.flushTxns.clear();
+        this.flushBytes.clear();
+        this.fsyncLatency.clear();
+        this.batchWait.clear();
+    }
 }
@@ -35,9 +35,53 @@ public class HStoreSiteProfiler extends AbstractProfiler {
      */
     public final FastIntHistogram network_incoming_partitions = new FastIntHistogram();
     
+    /**
+     * How much time each of the HStoreCoordinator's event loop threads spent
+     * blocked waiting for new network events. Indexed by the event loop's id.
+     */
+    public ProfileMeasurement coordinator_idle[] = new ProfileMeasurement[0];
+    
+    /**
+     * How much time each of the HStoreCoordinator's event loop threads spent
+     * processing network events. Indexed by the event loop's id.
+     */
+    public ProfileMeasurement coordinator_busy[] = new ProfileMeasurement[0];
+    
+    /**
+     * Allocate the ProfileMeasurements for the given number of
+     * HStoreCoordinator event loop threads.
+     * @param num_loops
+     */
+    public synchronized void initCoordinatorLoops(int num_loops) {
+        ProfileMeasurement idle[] = new ProfileMeasurement[num_loops];
+        ProfileMeasurement busy[] = new ProfileMeasurement[num_loops];
+        for (int i = 0; i < num_loops; i++) {
+            idle[i] = new ConcurrentProfileMeasurement("COORDINATOR_IDLE-" + i);
+            busy[i] = new ConcurrentProfileMeasurement("COORDINATOR_BUSY-" + i);
+        } // FOR
+        this.coordinator_idle = idle;
+        this.coordinator_busy = busy;
+    }
+    
+    /**
+     * Return the fraction of time [0.0, 1.0] that the given
+     * HStoreCoordinator event loop thread has spent processing events.
+     * @param loop
+     * @return
+     */
+    public double getCoordinatorUtilization(int loop) {
+        long busy = this.coordinator_busy[loop].getTotalThinkTime();
+        long total = busy + this.coordinator_idle[loop].getTotalThinkTime();
+        return (total > 0 ? busy / (double)total : 0d);
+    }
+    
     @Override
     public void reset() {
         super.reset();
         this.network_incoming_partitions.clear();
+        for (int i = 0; i < this.coordinator_idle.length; i++) {
+            this.coordinator_idle[i].reset();
+            this.coordinator_busy[i].reset();
+        } // FOR
     }
 }
@@ -0,0 +1,305 @@
+package edu.brown.profilers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.voltdb.VoltTable;
+import org.voltdb.utils.VoltTableUtil;
+
+/**
+ * Fixed-size, log-bucketed histogram of latencies in nanoseconds.
+ * <p>
+ * Every power of two is split into {@link #SUB_BUCKET_COUNT} linear sub-buckets, so
+ * any value that we hand back is within about 3% of the value that was recorded.
+ * Values less than {@link #SUB_BUCKET_COUNT} * 2 are recorded exactly and anything
+ * larger than {@link #MAX_VALUE} is recorded as {@link #MAX_VALUE}.
+ * <p>
+ * All of the buckets are allocated up front, so recording a value never allocates
+ * and is only a single atomic increment. That means any number of threads can record
+ * into the same histogram while another thread reads or drains it. Histograms can be
+ * merged, which is what lets us combine them from different partitions and sites
+ * before we compute percentiles.
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of linear sub-buckets for each power of two
+     */
+    public static final int SUB_BUCKET_BITS = 5;
+    public static final int SUB_BUCKET_COUNT = (1 << SUB_BUCKET_BITS);
+
+    /**
+     * The largest value that we can record (~36 minutes)
+     */
+    public static final long MAX_VALUE = (1l << 41) - 1;
+
+    private static final int MAX_SHIFT = 63 - Long.numberOfLeadingZeros(MAX_VALUE) - SUB_BUCKET_BITS;
+    private static final int NUM_BUCKETS = (MAX_SHIFT + 2) << SUB_BUCKET_BITS;
+
+    /**
+     * The percentiles that we report in the @Statistics output for each histogram
+     */
+    public static final double PERCENTILES[] = { 50d, 95d, 99d, 99.9d };
+    public static final String PERCENTILE_SUFFIXES[] = { "_P50", "_P95", "_P99", "_P999" };
+
+    /**
+     * The suffix for the column that holds the encoded histogram itself
+     */
+    public static final String HISTOGRAM_SUFFIX = "_HISTOGRAM";
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+
+    // ----------------------------------------------------------------------------
+    // BUCKETS
+    // ----------------------------------------------------------------------------
+
+    protected static int getBucketIndex(long value) {
+        if (value > MAX_VALUE) value = MAX_VALUE;
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        if (shift < 0) shift = 0;
+        return ((shift << SUB_BUCKET_BITS) + (int)(value >>> shift));
+    }
+
+    /**
+     * Return the largest value that maps to the given bucket
+     * @param idx
+     * @return
+     */
+    protected static long getBucketValue(int idx) {
+        int shift = (idx >> SUB_BUCKET_BITS) - 1;
+        if (shift < 0) shift = 0;
+        long mantissa = idx - (shift << SUB_BUCKET_BITS);
+        return (((mantissa + 1) << shift) - 1);
+    }
+
+    // ----------------------------------------------------------------------------
+    // RECORDING
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Record a single latency measurement (in nanoseconds).
+     * Negative values are ignored.
+     * @param value
+     */
+    public void record(long value) {
+        if (value < 0) return;
+        this.buckets.getAndIncrement(getBucketIndex(value));
+    }
+
+    /**
+     * Add all of the values recorded in the other histogram into this one
+     * @param other
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            long cnt = other.buckets.get(i);
+            if (cnt != 0) this.buckets.getAndAdd(i, cnt);
+        } // FOR
+    }
+
+    /**
+     * Move all of the values recorded in this histogram into the other one.
+     * Nothing that is recorded while this is running will be lost.
+     * @param other
+     */
+    public void drainTo(LatencyHistogram other) {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            if (this.buckets.get(i) == 0) continue;
+            long cnt = this.buckets.getAndSet(i, 0);
+            if (cnt != 0) other.buckets.getAndAdd(i, cnt);
+        } // FOR
+    }
+
+    /**
+     * Add everything that has been recorded in this histogram since the given
+     * snapshot was last updated into the other histogram, and then update the
+     * snapshot to match this histogram. This histogram is not modified, so
+     * other readers will still see all of its values. If this histogram was
+     * cleared since the last snapshot, then its buckets are counted from zero.
+     * @param snapshot
+     * @param other
+     */
+    public void deltaTo(LatencyHistogram snapshot, LatencyHistogram other) {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            long cnt = this.buckets.get(i);
+            long last = snapshot.buckets.get(i);
+            if (cnt == last) continue;
+            other.buckets.getAndAdd(i, (cnt > last ? cnt - last : cnt));
+            snapshot.buckets.set(i, cnt);
+        } // FOR
+    }
+
+    public void clear() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            this.buckets.set(i, 0);
+        } // FOR
+    }
+
+    // ----------------------------------------------------------------------------
+    // QUERYING
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Return the total number of values recorded in this histogram
+     */
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            total += this.buckets.get(i);
+        } // FOR
+        return (total);
+    }
+
+    public boolean isEmpty() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            if (this.buckets.get(i) != 0) return (false);
+        } // FOR
+        return (true);
+    }
+
+    /**
+     * Return the value that the given percentage of the recorded values are less
+     * than or equal to. Returns zero if the histogram is empty.
+     * @param percentile A number between 0 and 100
+     * @return
+     */
+    public long getValueAtPercentile(double percentile) {
+        long counts[] = new long[NUM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = this.buckets.get(i);
+            total += counts[i];
+        } // FOR
+        if (total == 0) return (0);
+
+        double p = Math.min(100d, Math.max(0d, percentile));
+        long target = Math.max(1, (long)Math.ceil((p / 100d) * total));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) return (getBucketValue(i));
+        } // FOR
+        return (MAX_VALUE);
+    }
+
+    // ----------------------------------------------------------------------------
+    // SERIALIZATION
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Encode the non-empty buckets of this histogram as a string
+     * of comma-separated "bucket:count" pairs.
+     */
+    public String toCompactString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            long cnt = this.buckets.get(i);
+            if (cnt == 0) continue;
+            if (sb.length() > 0) sb.append(',');
+            sb.append(i).append(':').append(cnt);
+        } // FOR
+        return (sb.toString());
+    }
+
+    /**
+     * Add the values from a histogram that was encoded with
+     * {@link #toCompactString()} into this one
+     * @param str
+     */
+    public void addCompactString(String str) {
+        if (str == null || str.isEmpty()) return;
+        for (String pair : str.split(",")) {
+            int pos = pair.indexOf(':');
+            if (pos <= 0) {
+                throw new IllegalArgumentException("Invalid histogram entry '" + pair + "'");
+            }
+            int idx = Integer.parseInt(pair.substring(0, pos));
+            if (idx < 0 || idx >= NUM_BUCKETS) {
+                throw new IllegalArgumentException("Invalid histogram bucket " + idx);
+            }
+            this.buckets.getAndAdd(idx, Long.parseLong(pair.substring(pos+1)));
+        } // FOR
+    }
+
+    // ----------------------------------------------------------------------------
+    // STATISTICS TABLES
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Merge the histogram columns of all of the rows in the given stats table that
+     * have the same value in the key column, and then recompute each row's percentile
+     * columns from the merged histogram. This is what lets the percentiles for a
+     * procedure cover every site instead of just the one that produced the row.
+     * The histogram columns themselves are left alone so that the rows can still be
+     * combined again later without counting anything twice.
+     * @param vt The table to merge. It is not modified.
+     * @param keyColumn The name of the column that identifies which rows describe the same thing
+     * @return A new table with the same schema and rows, in the same order
+     */
+    public static VoltTable mergeColumns(VoltTable vt, String keyColumn) {
+        // Find the percentile columns for each histogram column
+        List<Integer> histogramCols = new ArrayList<Integer>();
+        List<int[]> percentileCols = new ArrayList<int[]>();
+        for (int i = 0, cnt = vt.getColumnCount(); i < cnt; i++) {
+            String colName = vt.getColumnName(i);
+            if (colName.endsWith(HISTOGRAM_SUFFIX) == false) continue;
+            String prefix = colName.substring(0, colName.length() - HISTOGRAM_SUFFIX.length());
+            int idxs[] = new int[PERCENTILE_SUFFIXES.length];
+            for (int j = 0; j < idxs.length; j++) {
+                idxs[j] = vt.getColumnIndex(prefix + PERCENTILE_SUFFIXES[j]);
+            } // FOR
+            histogramCols.add(i);
+            percentileCols.add(idxs);
+        } // FOR
+        if (histogramCols.isEmpty()) return (vt);
+        int keyIdx = vt.getColumnIndex(keyColumn);
+
+        // Merge the histograms for each key
+        List<Object[]> rows = new ArrayList<Object[]>();
+        Map<Object, LatencyHistogram[]> merged = new HashMap<Object, LatencyHistogram[]>();
+        vt.resetRowPosition();
+        while (vt.advanceRow()) {
+            Object row[] = vt.getRowArray();
+            rows.add(row);
+            LatencyHistogram histograms[] = merged.get(row[keyIdx]);
+            if (histograms == null) {
+                histograms = new LatencyHistogram[histogramCols.size()];
+                for (int i = 0; i < histograms.length; i++) {
+                    histograms[i] = new LatencyHistogram();
+                } // FOR
+                merged.put(row[keyIdx], histograms);
+            }
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i].addCompactString((String)row[histogramCols.get(i)]);
+            } // FOR
+        } // WHILE
+        vt.resetRowPosition();
+
+        VoltTable result = new VoltTable(VoltTableUtil.extractColumnInfo(vt));
+        for (Object row[] : rows) {
+            LatencyHistogram histograms[] = merged.get(row[keyIdx]);
+            for (int i = 0; i < histograms.length; i++) {
+                int idxs[] = percentileCols.get(i);
+                for (int j = 0; j < idxs.length; j++) {
+                    row[idxs[j]] = histograms[i].getValueAtPercentile(PERCENTILES[j]);
+                } // FOR
+            } // FOR
+            result.addRow(row);
+        } // FOR
+        return (result);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("LatencyHistogram[count=").append(this.getCount());
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            sb.append(", ").append(PERCENTILE_SUFFIXES[i].substring(1).toLowerCase())
+              .append('=').append(this.getValueAtPercentile(PERCENTILES[i]));
+        } // FOR
+        return (sb.append(']').toString());
+    }
+}
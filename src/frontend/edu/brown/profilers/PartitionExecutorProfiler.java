@@ -1,5 +1,6 @@
 package edu.brown.profilers;
 
+import edu.brown.statistics.FastIntHistogram;
 import edu.brown.statistics.Histogram;
 import edu.brown.statistics.ObjectHistogram;
 
@@ -18,6 +19,12 @@ public class PartitionExecutorProfiler extends AbstractProfiler {
      */
     public Histogram<String> numMessages = new ObjectHistogram<String>();
     
+    /**
+     * The number of single-partition txns that were executed
+     * together in each batch at this partition
+     */
+    public final FastIntHistogram batchSizes = new FastIntHistogram();
+    
     /**
      * The timestamp of when this PartitionExecutor came on-line (in ms)
      */
@@ -103,10 +110,23 @@ public class PartitionExecutorProfiler extends AbstractProfiler {
      */
     public final ProfileMeasurement sp3_remote_time = new ProfileMeasurement("SP3_REMOTE");
     
+    public PartitionExecutorProfiler() {
+        // Keep latency histograms for the measurements where we care
+        // about the tail and not just the average
+        for (ProfileMeasurement pm : new ProfileMeasurement[]{ this.txn_time,
+                                                               this.sp1_time,
+                                                               this.sp2_time,
+                                                               this.sp3_local_time,
+                                                               this.sp3_remote_time }) {
+            pm.enableLatencyHistogram();
+        } // FOR
+    }
+    
     @Override
     public void reset() {
         super.reset();
         this.start_time = System.currentTimeMillis();
         this.numTransactions = 0;
+        this.batchSizes.clear();
     }
 }
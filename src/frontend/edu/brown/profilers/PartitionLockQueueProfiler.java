@@ -2,6 +2,7 @@ package edu.brown.profilers;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import edu.brown.hstore.PartitionLockQueue.QueueState;
 import edu.brown.statistics.FastIntHistogram;
@@ -13,6 +14,23 @@ public class PartitionLockQueueProfiler extends AbstractProfiler {
      */
     public final FastIntHistogram waitTimes = new FastIntHistogram();
     
+    /**
+     * The number of times that a thread had to block to acquire the queue's lock
+     */
+    public final AtomicLong lockContention = new AtomicLong(0);
+    
+    /**
+     * The total amount of time in nanoseconds that threads spent blocked
+     * on the queue's lock
+     */
+    public final AtomicLong lockWaitTime = new AtomicLong(0);
+    
+    /**
+     * The number of times that an offer() found the lock already taken
+     * and left it to the lock holder to update the queue state
+     */
+    public final AtomicLong deferredChecks = new AtomicLong(0);
+    
     /**
      * The number of times that we spent in the different
      * states in our queue
@@ -29,6 +47,9 @@ public class PartitionLockQueueProfiler extends AbstractProfiler {
     public void reset() {
         super.reset();
         this.waitTimes.clear();
+        this.lockContention.set(0);
+        this.lockWaitTime.set(0);
+        this.deferredChecks.set(0);
         for (ProfileMeasurement pm : this.queueStates.values()) {
             pm.reset();
         } // FOR
@@ -69,6 +69,13 @@ public class ProfileMeasurement implements JSONSerializable {
 
     private Buffer<Long> history = null;
     
+    /**
+     * Optional histogram of the think time for each invocation.
+     * This is volatile because enableLatencyHistogram() may be called
+     * while another thread is already recording into this measurement.
+     */
+    private transient volatile LatencyHistogram latencies = null;
+    
     /**
      * This marker is used to set when the boundary area of the code we are
      * trying to profile starts and stops. When it is zero, the system is
@@ -118,6 +125,10 @@ public class ProfileMeasurement implements JSONSerializable {
         if (this.history != null) {
             this.history.addAll(orig.history);
         }
+        if (orig.latencies != null) {
+            this.enableLatencyHistogram();
+            this.latencies.add(orig.latencies);
+        }
         this.appendTime(orig);
     }
 
@@ -137,6 +148,22 @@ public class ProfileMeasurement implements JSONSerializable {
         }
     }
     
+    /**
+     * Keep a LatencyHistogram of the think time of every invocation
+     * so that we can compute percentiles and not just the average.
+     */
+    public void enableLatencyHistogram() {
+        if (this.latencies == null) {
+            synchronized (this) {
+                if (this.latencies == null) {
+                    this.latencies = new LatencyHistogram();
+                }
+            } // SYNCH
+            if (debug.val)
+                LOG.debug("Enabled latency histogram in " + this);
+        }
+    }
+    
     public void reset() {
         if (this.marker != NULL_MARKER) {
             this.reset = true;
@@ -144,6 +171,7 @@ public class ProfileMeasurement implements JSONSerializable {
         this.total_time = 0;
         this.invocations = 0;
         if (this.history != null) this.history.clear();
+        if (this.latencies != null) this.latencies.clear();
     }
 
     public void clear() {
@@ -151,6 +179,7 @@ public class ProfileMeasurement implements JSONSerializable {
         this.invocations = 0;
         this.total_time = 0;
         if (this.history != null) this.history.clear();
+        if (this.latencies != null) this.latencies.clear();
     }
 
     /**
@@ -232,6 +261,15 @@ public class ProfileMeasurement implements JSONSerializable {
         return (to_fill);
     }
     
+    /**
+     * Return the LatencyHistogram for this ProfileMeasurement.
+     * This will be null unless {@link #enableLatencyHistogram()} was called.
+     * @return
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return (this.latencies);
+    }
+    
     // ----------------------------------------------------------------------------
     // START METHODS
     // ----------------------------------------------------------------------------
@@ -300,6 +338,7 @@ public class ProfileMeasurement implements JSONSerializable {
         } else {
             this.total_time += added;
             if (this.history != null) this.history.add(added);
+            if (this.latencies != null) this.latencies.record(added);
         }
         this.marker = NULL_MARKER;
         if (this.stop_observable != null)
@@ -376,6 +415,7 @@ public class ProfileMeasurement implements JSONSerializable {
         assert(stop >= 0);
         this.total_time += (stop - start);
         this.invocations += invocations;
+        if (this.latencies != null && invocations == 1) this.latencies.record(stop - start);
     }
 
     /**
@@ -13,6 +13,7 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.log4j.Logger;
 
+import edu.brown.profilers.ProfileMeasurement;
 import sun.misc.Signal;
 import sun.misc.SignalHandler;
 
@@ -154,10 +155,22 @@ public class NIOEventLoop implements EventLoop {
             runOnce();
         }
         exitLoop = false;
+        eventThread = null;
         if (LOG.isDebugEnabled()) LOG.debug("Completed run() loop");
     }
 
+    /**
+     * Keep track of how much time this loop spends waiting in select() versus how much
+     * time it spends handling events. Either measurement can be null to disable profiling.
+     * This should only be called before the loop is started.
+     */
+    public void setProfilers(ProfileMeasurement idleTime, ProfileMeasurement busyTime) {
+        this.idleTime = idleTime;
+        this.busyTime = busyTime;
+    }
+
     public void runOnce() {
+        eventThread = Thread.currentThread();
         long timeoutMs = 0;
         if (!timers.isEmpty()) {
             long now = System.currentTimeMillis();
@@ -165,7 +178,19 @@ public class NIOEventLoop implements EventLoop {
         }
 
         try {
-            int readyCount = selector.select(timeoutMs);
+            final boolean profile = (idleTime != null && busyTime != null);
+            if (profile) {
+                long timestamp = ProfileMeasurement.getTime();
+                busyTime.stopIfStarted(timestamp);
+                idleTime.start(timestamp);
+            }
+            // Don't block if one of the timers queued up an event for us
+            int readyCount = (threadEvents.isEmpty() ? selector.select(timeoutMs) : selector.selectNow());
+            if (profile) {
+                long timestamp = ProfileMeasurement.getTime();
+                idleTime.stopIfStarted(timestamp);
+                busyTime.start(timestamp);
+            }
             handleSelectedKeys();
             if (readyCount == 0) {
                 // TODO: Avoid checking this at both the top and the bottom of the loop.
@@ -257,7 +282,11 @@ public class NIOEventLoop implements EventLoop {
 
     public void runInEventThread(Runnable callback) {
         threadEvents.add(callback);
-        selector.wakeup();
+        // The event thread will always drain the queue before it selects again,
+        // so we only need to wake it up if somebody else is adding to it
+        if (Thread.currentThread() != eventThread) {
+            selector.wakeup();
+        }
     }
 
     public void exitLoop() {
@@ -270,6 +299,9 @@ public class NIOEventLoop implements EventLoop {
     private SigintHandler sigintHandler;
     // volatile because signal handlers run in other threads
     private volatile boolean exitLoop = false;
+    private volatile Thread eventThread = null;
+    private ProfileMeasurement idleTime = null;
+    private ProfileMeasurement busyTime = null;
     private final ConcurrentLinkedQueue<Runnable> threadEvents =
             new ConcurrentLinkedQueue<Runnable>();
 
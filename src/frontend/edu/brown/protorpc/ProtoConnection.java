@@ -84,18 +84,69 @@ public class ProtoConnection {
     }
 
     public boolean tryWrite(MessageLite message) {
+        bufferWrite(message);
+        return connection.tryFlush();
+    }
+
+    /** Serializes the message into the connection's outgoing buffer without writing it out
+     * to the underlying channel. This allows multiple messages to be sent with a single write.
+     * {@link #tryFlush()} must be called at some point afterwards to actually send them.
+     * 
+     * @return the number of bytes that were added to the buffer
+     */
+    public int bufferWrite(MessageLite message) {
         try {
-            codedOutput.writeRawLittleEndian32(message.getSerializedSize());
+            int size = message.getSerializedSize();
+            codedOutput.writeRawLittleEndian32(size);
             message.writeTo(codedOutput);
             // writes to the underlying output stream 
-            codedOutput.flush();  
+            codedOutput.flush();
+            return (size + 4);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** A message that writes out its own wire format. This lets callers frame a message
+     * around a large payload and write the payload straight into the outgoing buffer,
+     * instead of having to copy it into a ByteString first.
+     */
+    public interface RawMessage {
+        public int getSerializedSize();
+        public void writeTo(CodedOutputStream output) throws IOException;
+    }
 
-            return connection.tryFlush();
+    /** Same as {@link #bufferWrite(MessageLite)}, but for a {@link RawMessage}.
+     * 
+     * @return the number of bytes that were added to the buffer
+     */
+    public int bufferWrite(RawMessage message) {
+        try {
+            int size = message.getSerializedSize();
+            codedOutput.writeRawLittleEndian32(size);
+            message.writeTo(codedOutput);
+            // writes to the underlying output stream 
+            codedOutput.flush();
+            return (size + 4);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /** See {@link #tryWrite(MessageLite)}. */
+    public boolean tryWrite(RawMessage message) {
+        bufferWrite(message);
+        return connection.tryFlush();
+    }
+
+    /** Attempts to write out all of the buffered messages.
+     * @see NonBlockingConnection#tryFlush()
+     * @return true if this connection blocked and now needs a write callback.
+     */
+    public boolean tryFlush() {
+        return connection.tryFlush();
+    }
+
     // TODO: Only keep one of getConnection and getChannel?
     public NonBlockingConnection getConnection() {
         return connection;
@@ -5,7 +5,9 @@ import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
@@ -13,8 +15,11 @@ import ca.evanjones.protorpc.Protocol;
 import ca.evanjones.protorpc.Protocol.RpcRequest;
 import ca.evanjones.protorpc.Protocol.RpcResponse;
 
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.Descriptors;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
+import com.google.protobuf.MessageLite;
 import com.google.protobuf.RpcCallback;
 import com.google.protobuf.RpcChannel;
 import com.google.protobuf.RpcController;
@@ -32,6 +37,21 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
             new HashMap<Integer, ProtoRpcController>();
     private int reconnectIntervalSeconds;
 
+    /** Outgoing RPCs are coalesced into a single write until this many bytes are buffered. */
+    private int coalesceLimit = 0;
+    private int bufferedBytes = 0;
+    private final List<ProtoConnection.RawMessage> bufferedFrames = new ArrayList<ProtoConnection.RawMessage>();
+    private boolean flushPending = false;
+    private final Runnable flushCallback = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ProtoRpcChannel.this) {
+                flushPending = false;
+                flushBuffered();
+            }
+        }
+    };
+
     /** A factory interface for connecting to an RPC server. */
     public interface ConnectFactory {
         /** Creates a new connection that is connecting. */
@@ -112,6 +132,23 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
         reconnectIntervalSeconds = reconnectSeconds;
     }
 
+    /**
+     * Sets the number of bytes of outgoing RPCs that can be buffered before they are
+     * written out to the connection. Until then, the buffered RPCs are written out together
+     * the next time that the event loop runs its queued events, which happens as soon as it
+     * is done with whatever it is doing now. This means that a single RPC is never delayed
+     * for very long, but a burst of them will be sent with a single write. When more than
+     * one RPC is buffered, they are sent in a single {@link RpcBatch} envelope that the
+     * {@link ProtoServer} on the other side unpacks again.
+     *
+     * @param limit the max number of bytes to buffer. 0 disables coalescing (default).
+     */
+    public synchronized void setCoalesceLimit(int limit) {
+        assert limit >= 0;
+        coalesceLimit = limit;
+        if (limit == 0 && bufferedBytes > 0) flushBuffered();
+    }
+
     public void callMethod(Descriptors.MethodDescriptor method,
             RpcController controller, Message request,
             Message responsePrototype, RpcCallback<Message> done) {
@@ -128,8 +165,20 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
         synchronized (this) {
             pendingRpcs.put(sequence, rpc);
             // System.err.println("Sending RPC sequence " + sequence);
-            RpcRequest rpcRequest = makeRpcRequest(sequence, method, request);
+            RequestFrame rpcRequest = new RequestFrame(sequence, method.getFullName(), request);
             sequence += 1;
+            if (coalesceLimit > 0) {
+                bufferedFrames.add(rpcRequest);
+                bufferedBytes += rpcRequest.getSerializedSize();
+                if (bufferedBytes >= coalesceLimit) {
+                    flushBuffered();
+                } else if (!flushPending) {
+                    flushPending = true;
+                    eventLoop.runInEventThread(flushCallback);
+                }
+                if (debug) LOG.debug(String.format("%d: Buffered RPC %s sequence %d [bufferedBytes=%d]", hashCode(), method.getFullName(), sequence, bufferedBytes));
+                return;
+            }
             boolean blocked = connection.tryWrite(rpcRequest);
             if (blocked) {
                 // the write blocked: wait for write callbacks
@@ -140,6 +189,28 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
         }
     }
 
+    /** Writes out all of the RPCs that have been buffered. Must hold the lock on this. */
+    private void flushBuffered() {
+        bufferedBytes = 0;
+        if (bufferedFrames.isEmpty()) return;
+        if (connection == null) {
+            // close() has already failed the RPCs
+            bufferedFrames.clear();
+            return;
+        }
+        if (bufferedFrames.size() == 1) {
+            connection.bufferWrite(bufferedFrames.get(0));
+        } else {
+            connection.bufferWrite(RpcBatch.requests(new ArrayList<ProtoConnection.RawMessage>(bufferedFrames)));
+        }
+        bufferedFrames.clear();
+        boolean blocked = connection.tryFlush();
+        if (blocked) {
+            // the write blocked: wait for write callbacks
+            eventLoop.registerWrite(connection.getChannel(), this);
+        }
+    }
+
     public static RpcRequest makeRpcRequest(
             int sequence, Descriptors.MethodDescriptor method, Message request) {
         RpcRequest.Builder requestBuilder = RpcRequest.newBuilder();
@@ -149,6 +220,42 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
         return requestBuilder.build();
     }
 
+    /**
+     * Writes out exactly the same bytes as the RpcRequest from {@link #makeRpcRequest},
+     * but the request is serialized straight into the connection's buffer instead of
+     * first being copied into a ByteString. This matters for requests that carry a
+     * lot of data.
+     */
+    static final class RequestFrame implements ProtoConnection.RawMessage {
+        private final int sequence;
+        private final String methodName;
+        private final MessageLite request;
+        private int size = -1;
+
+        RequestFrame(int sequence, String methodName, MessageLite request) {
+            this.sequence = sequence;
+            this.methodName = methodName;
+            this.request = request;
+        }
+
+        @Override
+        public int getSerializedSize() {
+            if (size == -1) {
+                size = CodedOutputStream.computeInt32Size(RpcRequest.SEQUENCE_NUMBER_FIELD_NUMBER, sequence) +
+                       CodedOutputStream.computeStringSize(RpcRequest.METHOD_NAME_FIELD_NUMBER, methodName) +
+                       CodedOutputStream.computeMessageSize(RpcRequest.REQUEST_FIELD_NUMBER, request);
+            }
+            return size;
+        }
+
+        @Override
+        public void writeTo(CodedOutputStream output) throws IOException {
+            output.writeInt32(RpcRequest.SEQUENCE_NUMBER_FIELD_NUMBER, sequence);
+            output.writeString(RpcRequest.METHOD_NAME_FIELD_NUMBER, methodName);
+            output.writeMessage(RpcRequest.REQUEST_FIELD_NUMBER, request);
+        }
+    }
+
     @Override
     public void readCallback(SelectableChannel channel) {
         boolean isOpen = connection.readAllAvailable();
@@ -168,17 +275,31 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
             // Set the appropriate flags on the RPC object
             // TODO: Handle bad sequence number by ignoring/logging?
             RpcResponse response = builder.build();
-            ProtoRpcController rpc = null;
-            synchronized (this) {
-                rpc = pendingRpcs.remove(response.getSequenceNumber());
-                assert response.getStatus() == Protocol.Status.OK;
-                assert rpc != null :
-                        "No ProtoRpcController for Sequence# " + response.getSequenceNumber();
+            if (RpcBatch.isBatch(response)) {
+                try {
+                    for (RpcResponse batched : RpcBatch.unpackResponses(response)) {
+                        finishResponse(batched);
+                    } // FOR
+                } catch (InvalidProtocolBufferException e) {
+                    throw new RuntimeException(e);
+                }
+            } else {
+                finishResponse(response);
             }
-            rpc.finishRpcSuccess(response.getResponse());
         }
     }
 
+    private void finishResponse(RpcResponse response) {
+        ProtoRpcController rpc = null;
+        synchronized (this) {
+            rpc = pendingRpcs.remove(response.getSequenceNumber());
+            assert response.getStatus() == Protocol.Status.OK;
+            assert rpc != null :
+                    "No ProtoRpcController for Sequence# " + response.getSequenceNumber();
+        }
+        rpc.finishRpcSuccess(response.getResponse());
+    }
+
     @Override
     public void connectCallback(SocketChannel channel) {
         assert channel == connection.getChannel();
@@ -229,6 +350,8 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
         if (connection == null) throw new IllegalStateException("connection closed");
         connection.close();
         connection = null;
+        bufferedFrames.clear();
+        bufferedBytes = 0;
 
         // Fail all pending RPCs
         for (ProtoRpcController rpc : pendingRpcs.values()) {
@@ -245,6 +368,17 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
     }
     
     public static ProtoRpcChannel[] connectParallel(final EventLoop eventLoop, final InetSocketAddress[] addresses, final int total_time) {
+        return connectParallel(eventLoop, new EventLoop[]{ eventLoop }, addresses, total_time);
+    }
+
+    /**
+     * Connects to all of the addresses using the given event loop and then assigns each of
+     * the new channels to one of the channelLoops in round-robin order. All of the RPCs for
+     * a channel are then handled by its loop. None of the channelLoops can be running yet.
+     */
+    public static ProtoRpcChannel[] connectParallel(final EventLoop eventLoop, final EventLoop[] channelLoops,
+                                                    final InetSocketAddress[] addresses, final int total_time) {
+        assert channelLoops.length > 0;
         class ExitLoopHandler extends AbstractEventHandler {
             @Override
             public void timerCallback() {
@@ -326,7 +460,7 @@ public class ProtoRpcChannel extends AbstractEventHandler implements RpcChannel
         if (exitLoopHandler.barrierCount == 0) {
             ProtoRpcChannel[] rpcChannels = new ProtoRpcChannel[addresses.length];
             for (int i = 0; i < channels.length; ++i) {
-                rpcChannels[i] = new ProtoRpcChannel(eventLoop,
+                rpcChannels[i] = new ProtoRpcChannel(channelLoops[i % channelLoops.length],
                         new StaticConnectFactory(new NonBlockingConnection(channels[i].channel)));
             }
             return rpcChannels;
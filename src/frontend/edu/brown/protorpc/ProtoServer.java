@@ -5,6 +5,8 @@ import java.net.InetSocketAddress;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
@@ -12,6 +14,7 @@ import ca.evanjones.protorpc.Protocol;
 import ca.evanjones.protorpc.Protocol.RpcRequest;
 import ca.evanjones.protorpc.Protocol.RpcResponse;
 
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
 import com.google.protobuf.RpcCallback;
@@ -25,6 +28,19 @@ public class ProtoServer extends AbstractEventHandler {
     
     public ProtoServer(EventLoop eventLoop) {
         this.eventLoop = eventLoop;
+        this.connectionLoops = new EventLoop[]{ eventLoop };
+    }
+
+    /**
+     * Spread the connections that this server accepts over the given event loops.
+     * Each connection is assigned to one of them in round-robin order and then all of
+     * the reads and writes for that connection are always handled by that loop.
+     * New connections are still accepted by the loop that was passed into the constructor.
+     * This must be called before the server is bound.
+     */
+    public void setConnectionEventLoops(EventLoop... loops) {
+        assert loops.length > 0;
+        connectionLoops = loops;
     }
 
     @Override
@@ -41,16 +57,46 @@ public class ProtoServer extends AbstractEventHandler {
 
         // wrap it in a message connection and register with event loop
         ProtoConnection connection = new ProtoConnection(new NonBlockingConnection(client));
-
-        eventLoop.registerRead(client, new EventCallbackWrapper(connection));
+        final EventLoop loop = connectionLoops[nextConnectionLoop++ % connectionLoops.length];
+        final EventCallbackWrapper wrapper = new EventCallbackWrapper(connection, loop);
+
+        if (loop == eventLoop) {
+            loop.registerRead(client, wrapper);
+        } else {
+            // Registering a channel blocks while the other selector is inside select(),
+            // so we have to let the other loop's thread do it for us
+            final SocketChannel c = client;
+            loop.runInEventThread(new Runnable() {
+                @Override
+                public void run() {
+                    loop.registerRead(c, wrapper);
+                }
+            });
+        }
 //        SelectionKey clientKey = connection.register(selector);
 //        clientKey.attach(connection);
 //        eventQueue.add(new Event(connection, null));
     }
 
+    /**
+     * Sets the number of bytes of responses that can be buffered for each connection
+     * before they are written out. See {@link ProtoRpcChannel#setCoalesceLimit(int)}.
+     * When more than one response is buffered, they are sent back in a single
+     * {@link RpcBatch} envelope.
+     * This only applies to connections that are accepted after it is called.
+     *
+     * @param limit the max number of bytes to buffer. 0 disables coalescing (default).
+     */
+    public void setCoalesceLimit(int limit) {
+        assert limit >= 0;
+        coalesceLimit = limit;
+    }
+
     private class EventCallbackWrapper extends AbstractEventHandler {
-        public EventCallbackWrapper(ProtoConnection connection) {
+        public EventCallbackWrapper(ProtoConnection connection, EventLoop eventLoop) {
             this.connection = connection;
+            this.eventLoop = eventLoop;
+            this.coalesceLimit = ProtoServer.this.coalesceLimit;
         }
 
         @Override
@@ -64,14 +110,55 @@ public class ProtoServer extends AbstractEventHandler {
         }
 
         private final ProtoConnection connection;
-
-        public synchronized void writeResponse(RpcResponse output) {
+        private final EventLoop eventLoop;
+        private final int coalesceLimit;
+        private int bufferedBytes = 0;
+        private final List<ProtoConnection.RawMessage> bufferedFrames = new ArrayList<ProtoConnection.RawMessage>();
+        private boolean flushPending = false;
+        private final Runnable flushCallback = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (EventCallbackWrapper.this) {
+                    flushPending = false;
+                    flush();
+                }
+            }
+        };
+
+        public synchronized void writeResponse(ProtoConnection.RawMessage output) {
+            if (coalesceLimit > 0) {
+                bufferedFrames.add(output);
+                bufferedBytes += output.getSerializedSize();
+                if (bufferedBytes >= coalesceLimit) {
+                    flush();
+                } else if (!flushPending) {
+                    flushPending = true;
+                    eventLoop.runInEventThread(flushCallback);
+                }
+                return;
+            }
             boolean blocked = connection.tryWrite(output);
             if (blocked) {
                 // write blocked: wait for the write callback
                 eventLoop.registerWrite(connection.getChannel(), this);
             }
         }
+
+        private void flush() {
+            bufferedBytes = 0;
+            if (bufferedFrames.isEmpty()) return;
+            if (bufferedFrames.size() == 1) {
+                connection.bufferWrite(bufferedFrames.get(0));
+            } else {
+                connection.bufferWrite(RpcBatch.responses(new ArrayList<ProtoConnection.RawMessage>(bufferedFrames)));
+            }
+            bufferedFrames.clear();
+            boolean blocked = connection.tryFlush();
+            if (blocked) {
+                // write blocked: wait for the write callback
+                eventLoop.registerWrite(connection.getChannel(), this);
+            }
+        }
     }
 
     private void read(EventCallbackWrapper eventLoopCallback) {
@@ -92,20 +179,31 @@ public class ProtoServer extends AbstractEventHandler {
 
             RpcRequest request = requestBuilder.build();
     //        System.out.println(request.getMethodName() + " " + request.getRequest().size());
-
-            // Handle the request
-            ProtoMethodInvoker invoker = serviceRegistry.getInvoker(request.getMethodName());
-            // TODO: Reuse callback objects?
-            ProtoServerCallback callback =
-                    new ProtoServerCallback(eventLoopCallback, request.getSequenceNumber());
             try {
-                invoker.invoke(callback.controller, request.getRequest(), callback);
+                if (RpcBatch.isBatch(request)) {
+                    // Demultiplex the envelope and handle each request as if it came on its own
+                    for (RpcRequest batched : RpcBatch.unpackRequests(request)) {
+                        invoke(eventLoopCallback, batched);
+                    } // FOR
+                } else {
+                    invoke(eventLoopCallback, request);
+                }
             } catch (InvalidProtocolBufferException e) {
                 throw new RuntimeException(e);
             }
         }
     }
 
+    private void invoke(EventCallbackWrapper eventLoopCallback, RpcRequest request)
+            throws InvalidProtocolBufferException {
+        // Handle the request
+        ProtoMethodInvoker invoker = serviceRegistry.getInvoker(request.getMethodName());
+        // TODO: Reuse callback objects?
+        ProtoServerCallback callback =
+                new ProtoServerCallback(eventLoopCallback, request.getSequenceNumber());
+        invoker.invoke(callback.controller, request.getRequest(), callback);
+    }
+
     private static final class ProtoServerController implements RpcController {
         @Override
         public String errorText() {
@@ -172,26 +270,68 @@ public class ProtoServer extends AbstractEventHandler {
                 throw new IllegalStateException("response callback must only be called once");
             }
 
-            RpcResponse.Builder responseMessage = RpcResponse.newBuilder();
-            responseMessage.setSequenceNumber(sequence);
             assert controller.status != Protocol.Status.INVALID;
-            responseMessage.setStatus(controller.status);
-            if (response != null) {
-                responseMessage.setResponse(response.toByteString());
-            } else {
+            if (response == null) {
                 // No message: we must have failed
                 assert controller.status != Protocol.Status.OK;
             }
             if (controller.errorReason != null) {
                 assert controller.status != Protocol.Status.OK;
-                responseMessage.setErrorReason(controller.errorReason);
             }
 
-            eventLoopCallback.writeResponse(responseMessage.build());
+            eventLoopCallback.writeResponse(
+                    new ResponseFrame(sequence, controller.status, response, controller.errorReason));
             eventLoopCallback = null;
         }
     }
 
+    /**
+     * Writes out exactly the same bytes as an RpcResponse, but the response is serialized
+     * straight into the connection's buffer instead of first being copied into a ByteString.
+     */
+    static final class ResponseFrame implements ProtoConnection.RawMessage {
+        private final int sequence;
+        private final Protocol.Status status;
+        private final Message response;
+        private final String errorReason;
+        private int size = -1;
+
+        ResponseFrame(int sequence, Protocol.Status status, Message response, String errorReason) {
+            this.sequence = sequence;
+            this.status = status;
+            this.response = response;
+            this.errorReason = errorReason;
+        }
+
+        @Override
+        public int getSerializedSize() {
+            if (size == -1) {
+                int total = CodedOutputStream.computeInt32Size(RpcResponse.SEQUENCE_NUMBER_FIELD_NUMBER, sequence) +
+                            CodedOutputStream.computeEnumSize(RpcResponse.STATUS_FIELD_NUMBER, status.getNumber());
+                if (response != null) {
+                    total += CodedOutputStream.computeMessageSize(RpcResponse.RESPONSE_FIELD_NUMBER, response);
+                }
+                if (errorReason != null) {
+                    total += CodedOutputStream.computeStringSize(RpcResponse.ERROR_REASON_FIELD_NUMBER, errorReason);
+                }
+                size = total;
+            }
+            return size;
+        }
+
+        @Override
+        public void writeTo(CodedOutputStream output) throws IOException {
+            output.writeInt32(RpcResponse.SEQUENCE_NUMBER_FIELD_NUMBER, sequence);
+            output.writeEnum(RpcResponse.STATUS_FIELD_NUMBER, status.getNumber());
+            if (response != null) {
+                output.writeMessage(RpcResponse.RESPONSE_FIELD_NUMBER, response);
+            }
+            if (errorReason != null) {
+                output.writeString(RpcResponse.ERROR_REASON_FIELD_NUMBER, errorReason);
+            }
+        }
+    }
+
     public void bind(int port) {
         try {
             serverSocket = ServerSocketChannel.open();
@@ -218,6 +358,9 @@ public class ProtoServer extends AbstractEventHandler {
     }
 
     private EventLoop eventLoop;
+    private EventLoop[] connectionLoops;
+    private int nextConnectionLoop = 0;
     private ServerSocketChannel serverSocket;
+    private int coalesceLimit = 0;
     private final ServiceRegistry serviceRegistry = new ServiceRegistry();
 }
@@ -0,0 +1,169 @@
+package edu.brown.protorpc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import ca.evanjones.protorpc.Protocol;
+import ca.evanjones.protorpc.Protocol.RpcRequest;
+import ca.evanjones.protorpc.Protocol.RpcResponse;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+
+/**
+ * An envelope that carries several RPC frames for the same connection as a single frame.
+ * <p>
+ * A batch is just a regular RpcRequest (or RpcResponse) with the special sequence number
+ * {@link #SEQUENCE_NUMBER}. Its request (or response) bytes are the original frames packed
+ * back to back, each one prefixed with its length as a varint. The receiver sees the special
+ * sequence number, unpacks the original frames, and then handles each of them exactly as if
+ * it had been sent on its own. Real RPCs always have a sequence number of zero or more, so
+ * they can never be mistaken for a batch.
+ * <p>
+ * The frames are serialized straight into the connection's buffer, so wrapping them in the
+ * envelope does not copy the messages that they carry.
+ */
+final class RpcBatch implements ProtoConnection.RawMessage {
+
+    /** The sequence number used by every batch envelope. */
+    static final int SEQUENCE_NUMBER = -1;
+
+    /** The method name of a batch of requests. This is never registered as a real service. */
+    static final String METHOD_NAME = "protorpc.Batch";
+
+    // WireFormat.WIRETYPE_LENGTH_DELIMITED is not public
+    private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+    private final boolean isRequest;
+    private final List<ProtoConnection.RawMessage> frames;
+    private int payloadSize = -1;
+    private int size = -1;
+
+    private RpcBatch(boolean isRequest, List<ProtoConnection.RawMessage> frames) {
+        assert frames.size() > 1 : "Unexpected batch of " + frames.size() + " frames";
+        this.isRequest = isRequest;
+        this.frames = frames;
+    }
+
+    /** Wrap the given request frames into a single RpcRequest envelope. */
+    static RpcBatch requests(List<ProtoConnection.RawMessage> frames) {
+        return new RpcBatch(true, frames);
+    }
+
+    /** Wrap the given response frames into a single RpcResponse envelope. */
+    static RpcBatch responses(List<ProtoConnection.RawMessage> frames) {
+        return new RpcBatch(false, frames);
+    }
+
+    int getFrameCount() {
+        return frames.size();
+    }
+
+    private int getPayloadSize() {
+        if (payloadSize == -1) {
+            int total = 0;
+            for (ProtoConnection.RawMessage frame : frames) {
+                int frameSize = frame.getSerializedSize();
+                total += CodedOutputStream.computeRawVarint32Size(frameSize) + frameSize;
+            } // FOR
+            payloadSize = total;
+        }
+        return payloadSize;
+    }
+
+    @Override
+    public int getSerializedSize() {
+        if (size == -1) {
+            int total = CodedOutputStream.computeInt32Size(RpcRequest.SEQUENCE_NUMBER_FIELD_NUMBER, SEQUENCE_NUMBER);
+            if (isRequest) {
+                total += CodedOutputStream.computeStringSize(RpcRequest.METHOD_NAME_FIELD_NUMBER, METHOD_NAME);
+            } else {
+                total += CodedOutputStream.computeEnumSize(RpcResponse.STATUS_FIELD_NUMBER,
+                                                           Protocol.Status.OK.getNumber());
+            }
+            int payload = getPayloadSize();
+            total += CodedOutputStream.computeTagSize(RpcRequest.REQUEST_FIELD_NUMBER) +
+                     CodedOutputStream.computeRawVarint32Size(payload) + payload;
+            size = total;
+        }
+        return size;
+    }
+
+    @Override
+    public void writeTo(CodedOutputStream output) throws IOException {
+        output.writeInt32(RpcRequest.SEQUENCE_NUMBER_FIELD_NUMBER, SEQUENCE_NUMBER);
+        if (isRequest) {
+            output.writeString(RpcRequest.METHOD_NAME_FIELD_NUMBER, METHOD_NAME);
+        } else {
+            output.writeEnum(RpcResponse.STATUS_FIELD_NUMBER, Protocol.Status.OK.getNumber());
+        }
+        // RpcRequest.request and RpcResponse.response are both field #3
+        assert RpcRequest.REQUEST_FIELD_NUMBER == RpcResponse.RESPONSE_FIELD_NUMBER;
+        output.writeTag(RpcRequest.REQUEST_FIELD_NUMBER, WIRETYPE_LENGTH_DELIMITED);
+        output.writeRawVarint32(getPayloadSize());
+        for (ProtoConnection.RawMessage frame : frames) {
+            output.writeRawVarint32(frame.getSerializedSize());
+            frame.writeTo(output);
+        } // FOR
+    }
+
+    // ----------------------------------------------------------------------------
+    // DEMULTIPLEXING
+    // ----------------------------------------------------------------------------
+
+    static boolean isBatch(RpcRequest request) {
+        return (request.getSequenceNumber() == SEQUENCE_NUMBER);
+    }
+
+    static boolean isBatch(RpcResponse response) {
+        return (response.getSequenceNumber() == SEQUENCE_NUMBER);
+    }
+
+    /** Unpack the original requests from a batch envelope, in the order that they were sent. */
+    static List<RpcRequest> unpackRequests(RpcRequest batch) throws InvalidProtocolBufferException {
+        assert isBatch(batch);
+        if (METHOD_NAME.equals(batch.getMethodName()) == false) {
+            throw new InvalidProtocolBufferException("Unexpected batch method name '" + batch.getMethodName() + "'");
+        }
+        List<RpcRequest> requests = new ArrayList<RpcRequest>();
+        CodedInputStream input = batch.getRequest().newCodedInput();
+        while (true) {
+            RpcRequest.Builder builder = RpcRequest.newBuilder();
+            if (readFrame(input, builder) == false) break;
+            requests.add(builder.build());
+        } // WHILE
+        return requests;
+    }
+
+    /** Unpack the original responses from a batch envelope, in the order that they were sent. */
+    static List<RpcResponse> unpackResponses(RpcResponse batch) throws InvalidProtocolBufferException {
+        assert isBatch(batch);
+        List<RpcResponse> responses = new ArrayList<RpcResponse>();
+        CodedInputStream input = batch.getResponse().newCodedInput();
+        while (true) {
+            RpcResponse.Builder builder = RpcResponse.newBuilder();
+            if (readFrame(input, builder) == false) break;
+            responses.add(builder.build());
+        } // WHILE
+        return responses;
+    }
+
+    private static boolean readFrame(CodedInputStream input, MessageLite.Builder builder)
+            throws InvalidProtocolBufferException {
+        try {
+            if (input.isAtEnd()) return false;
+            int length = input.readRawVarint32();
+            int oldLimit = input.pushLimit(length);
+            builder.mergeFrom(input);
+            input.popLimit(oldLimit);
+        } catch (InvalidProtocolBufferException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            throw new InvalidProtocolBufferException("Failed to read batched frame: " + ex.getMessage());
+        }
+        return true;
+    }
+}
@@ -0,0 +1,463 @@
+package edu.brown.utils;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A concurrent hash map from primitive longs to objects. This is meant for
+ * looking up in-flight txns by their id without boxing the key or allocating
+ * an entry object for every put.
+ * <p>
+ * The map is split into segments, and each segment is an open-addressing table
+ * with linear probing. Updates lock the segment that the key belongs to, but
+ * lookups never take a lock. Removing a key shifts the entries after it back
+ * into the hole instead of leaving a tombstone behind. Txn ids only ever go up,
+ * so with tombstones a table would fill up with dead slots and have to be
+ * rebuilt over and over again even though the number of in-flight txns stays
+ * the same. Each segment has a sequence number that is odd while entries are
+ * being moved around. A lookup reads it before and after it probes the table
+ * and retries if anything got moved in between (like a seqlock).
+ * <p>
+ * Iterators are weakly consistent (like ConcurrentHashMap). They will never throw
+ * ConcurrentModificationException, and they may or may not reflect the changes
+ * that were made after they were created.
+ * <p>
+ * Null values are not allowed.
+ * @param <V>
+ */
+public class ConcurrentLongHashMap<V> {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 256;
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+
+    /**
+     * The minimum number of slots that a table has for each entry in it
+     */
+    private static final int SLOTS_PER_ENTRY = 4;
+
+    /**
+     * How many times a lookup will retry without the lock before
+     * it gives up and waits for the writer to finish
+     */
+    private static final int MAX_OPTIMISTIC_READS = 2;
+
+    // ----------------------------------------------------------------------------
+    // INTERNAL TABLES
+    // ----------------------------------------------------------------------------
+
+    /**
+     * An open-addressing table. A slot is empty if its value is null.
+     * Everything is read with volatile semantics so that the reads cannot
+     * be reordered around the segment's sequence number. Writers use lazySet,
+     * which is enough to keep their stores in order.
+     */
+    private static final class Table {
+        final AtomicLongArray keys;
+        final AtomicReferenceArray<Object> values;
+        final int mask;
+
+        Table(int capacity) {
+            assert(Integer.bitCount(capacity) == 1) : "Invalid capacity " + capacity;
+            this.keys = new AtomicLongArray(capacity);
+            this.values = new AtomicReferenceArray<Object>(capacity);
+            this.mask = capacity - 1;
+        }
+        int capacity() {
+            return (this.mask + 1);
+        }
+        /**
+         * Returns the slot for the given key or -1 if it does not exist
+         */
+        int find(long key, int hash) {
+            int slot = hash & this.mask;
+            for (int i = 0; i <= this.mask; i++) {
+                if (this.values.get(slot) == null) break;
+                if (this.keys.get(slot) == key) return (slot);
+                slot = (slot + 1) & this.mask;
+            } // FOR
+            return (-1);
+        }
+    } // CLASS
+
+    /**
+     * Only the thread holding a segment's lock changes its counters, so we can
+     * use lazySet instead of paying for a full fence on every update.
+     */
+    private static final class Segment {
+        private static final AtomicIntegerFieldUpdater<Segment> SEQUENCE =
+                AtomicIntegerFieldUpdater.newUpdater(Segment.class, "sequence");
+        private static final AtomicIntegerFieldUpdater<Segment> SIZE =
+                AtomicIntegerFieldUpdater.newUpdater(Segment.class, "size");
+
+        volatile Table table;
+        /** Odd while a writer is moving entries in the table */
+        volatile int sequence = 0;
+        volatile int size = 0;
+
+        Segment(int capacity) {
+            this.table = new Table(capacity);
+        }
+        void incrementSequence() {
+            SEQUENCE.lazySet(this, this.sequence + 1);
+        }
+        void setSize(int size) {
+            SIZE.lazySet(this, size);
+        }
+    } // CLASS
+
+    private final Segment segments[];
+    private final int segmentShift;
+
+    // ----------------------------------------------------------------------------
+    // INITIALIZATION
+    // ----------------------------------------------------------------------------
+
+    public ConcurrentLongHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Constructor
+     * @param initialCapacity The number of entries that we expect to have at once
+     * @param concurrencyLevel The number of threads that we expect to be updating the map at once
+     */
+    public ConcurrentLongHashMap(int initialCapacity, int concurrencyLevel) {
+        if (initialCapacity < 0 || concurrencyLevel <= 0) {
+            throw new IllegalArgumentException();
+        }
+        int numSegments = nextPowerOfTwo(concurrencyLevel);
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(numSegments);
+        this.segments = new Segment[numSegments];
+
+        // Keep the tables at most a quarter full so that the probe
+        // sequences (and the shifts when we remove keys) stay short
+        int capacity = nextPowerOfTwo(Math.max(MIN_SEGMENT_CAPACITY, (initialCapacity * SLOTS_PER_ENTRY) / numSegments));
+        for (int i = 0; i < numSegments; i++) {
+            this.segments[i] = new Segment(capacity);
+        } // FOR
+    }
+
+    private static int nextPowerOfTwo(int val) {
+        int ret = Integer.highestOneBit(Math.max(1, val));
+        return (ret < val ? ret << 1 : ret);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15l;
+        return ((int)(h ^ (h >>> 32)));
+    }
+
+    /**
+     * The segment is picked from the high bits of the hash while the slots
+     * inside of a table are picked from the low bits.
+     */
+    private Segment segmentFor(int hash) {
+        // With a single segment the shift is 32, which Java treats as zero
+        return (this.segments.length == 1 ? this.segments[0] : this.segments[hash >>> this.segmentShift]);
+    }
+
+    // ----------------------------------------------------------------------------
+    // LOOKUP METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Return the value for the given key or null if it does not exist
+     * @param key
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int hash = hash(key);
+        Segment s = this.segmentFor(hash);
+        for (int i = 0; i < MAX_OPTIMISTIC_READS; i++) {
+            int sequence = s.sequence;
+            if ((sequence & 1) != 0) continue;
+            Table t = s.table;
+            int slot = t.find(key, hash);
+            Object val = (slot == -1 ? null : t.values.get(slot));
+            if (s.sequence == sequence) return ((V)val);
+        } // FOR
+
+        // Somebody keeps moving things around on us
+        synchronized (s) {
+            Table t = s.table;
+            int slot = t.find(key, hash);
+            return (slot == -1 ? null : (V)t.values.get(slot));
+        } // SYNCH
+    }
+
+    public boolean containsKey(long key) {
+        return (this.get(key) != null);
+    }
+
+    /**
+     * Return the number of entries in the map. This is only an estimate
+     * if there are other threads updating the map at the same time.
+     * @return
+     */
+    public int size() {
+        long total = 0;
+        for (Segment s : this.segments) {
+            total += s.size;
+        } // FOR
+        return ((int)Math.min(Integer.MAX_VALUE, total));
+    }
+
+    public boolean isEmpty() {
+        for (Segment s : this.segments) {
+            if (s.size != 0) return (false);
+        } // FOR
+        return (true);
+    }
+
+    // ----------------------------------------------------------------------------
+    // UPDATE METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Associate the given value with the given key.
+     * Returns the previous value for the key or null if there wasn't one.
+     * @param key
+     * @param value
+     * @return
+     */
+    public V put(long key, V value) {
+        return (this.put(key, value, false));
+    }
+
+    /**
+     * Associate the given value with the given key only if the key
+     * does not already exist in the map. Returns the current value for
+     * the key if it does exist, otherwise null.
+     * @param key
+     * @param value
+     * @return
+     */
+    public V putIfAbsent(long key, V value) {
+        return (this.put(key, value, true));
+    }
+
+    @SuppressWarnings("unchecked")
+    private V put(long key, V value, boolean onlyIfAbsent) {
+        if (value == null) throw new NullPointerException("Null value for key " + key);
+        int hash = hash(key);
+        Segment s = this.segmentFor(hash);
+        synchronized (s) {
+            Table t = s.table;
+            int slot = hash & t.mask;
+            while (true) {
+                Object val = t.values.get(slot);
+                if (val == null) {
+                    break;
+                }
+                else if (t.keys.get(slot) == key) {
+                    if (onlyIfAbsent == false) t.values.lazySet(slot, value);
+                    return ((V)val);
+                }
+                slot = (slot + 1) & t.mask;
+            } // WHILE
+
+            // The tables are never full, so there is always an empty slot.
+            // Readers will not look at the key until they see the value.
+            t.keys.lazySet(slot, key);
+            t.values.lazySet(slot, value);
+            int size = s.size + 1;
+            s.setSize(size);
+            if (size * SLOTS_PER_ENTRY > t.capacity()) {
+                s.table = this.resize(t, t.capacity() * 2);
+            }
+        } // SYNCH
+        return (null);
+    }
+
+    /**
+     * Remove the given key from the map. Returns the value that
+     * was associated with the key or null if it did not exist.
+     * @param key
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int hash = hash(key);
+        Segment s = this.segmentFor(hash);
+        synchronized (s) {
+            Table t = s.table;
+            int hole = t.find(key, hash);
+            if (hole == -1) return (null);
+            Object ret = t.values.get(hole);
+
+            // Move any entries that probed past this slot back into the hole
+            // so that their probe sequences don't have a gap in them
+            s.incrementSequence();
+            int slot = hole;
+            while (true) {
+                slot = (slot + 1) & t.mask;
+                Object val = t.values.get(slot);
+                if (val == null) break;
+                long k = t.keys.get(slot);
+                int home = hash(k) & t.mask;
+                // Leave the entry alone if its home slot is cyclically within (hole, slot]
+                if (hole <= slot ? (hole < home && home <= slot) : (hole < home || home <= slot)) {
+                    continue;
+                }
+                t.keys.lazySet(hole, k);
+                t.values.lazySet(hole, val);
+                hole = slot;
+            } // WHILE
+            t.values.lazySet(hole, null);
+            s.incrementSequence();
+            s.setSize(s.size - 1);
+            return ((V)ret);
+        } // SYNCH
+    }
+
+    /**
+     * Remove all of the entries in the map. Entries that are added
+     * while this is running may or may not be removed.
+     */
+    public void clear() {
+        for (Segment s : this.segments) {
+            synchronized (s) {
+                s.incrementSequence();
+                s.table = new Table(MIN_SEGMENT_CAPACITY);
+                s.setSize(0);
+                s.incrementSequence();
+            } // SYNCH
+        } // FOR
+    }
+
+    /**
+     * Copy all of the entries in the given table into a new table.
+     * Readers that already have the old table can keep using it
+     * because we never change it after this.
+     */
+    private Table resize(Table oldTable, int capacity) {
+        Table newTable = new Table(capacity);
+        for (int i = 0, cnt = oldTable.capacity(); i < cnt; i++) {
+            Object val = oldTable.values.get(i);
+            if (val == null) continue;
+            long key = oldTable.keys.get(i);
+            int slot = hash(key) & newTable.mask;
+            while (newTable.values.get(slot) != null) {
+                slot = (slot + 1) & newTable.mask;
+            } // WHILE
+            newTable.keys.lazySet(slot, key);
+            newTable.values.lazySet(slot, val);
+        } // FOR
+        return (newTable);
+    }
+
+    // ----------------------------------------------------------------------------
+    // ITERATION
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Copy the values in the given segment into the given list
+     */
+    private void snapshot(Segment s, List<Object> values) {
+        int start = values.size();
+        for (int attempt = 0; attempt < MAX_OPTIMISTIC_READS; attempt++) {
+            int sequence = s.sequence;
+            if ((sequence & 1) != 0) continue;
+            Table t = s.table;
+            for (int i = 0, cnt = t.capacity(); i < cnt; i++) {
+                Object val = t.values.get(i);
+                if (val != null) values.add(val);
+            } // FOR
+            if (s.sequence == sequence) return;
+            while (values.size() > start) {
+                values.remove(values.size() - 1);
+            } // WHILE
+        } // FOR
+        synchronized (s) {
+            Table t = s.table;
+            for (int i = 0, cnt = t.capacity(); i < cnt; i++) {
+                Object val = t.values.get(i);
+                if (val != null) values.add(val);
+            } // FOR
+        } // SYNCH
+    }
+
+    /**
+     * Returns a weakly consistent view of the values in the map.
+     * The view does not support removing values.
+     * @return
+     */
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new ValueIterator();
+            }
+            @Override
+            public int size() {
+                return (ConcurrentLongHashMap.this.size());
+            }
+            @Override
+            public boolean isEmpty() {
+                return (ConcurrentLongHashMap.this.isEmpty());
+            }
+        };
+    }
+
+    /**
+     * Grabs a copy of each segment's values when the iterator gets to it.
+     * Every value that is in the map for the entire time that we are iterating
+     * will be returned exactly once.
+     */
+    private class ValueIterator implements Iterator<V> {
+        private final List<Object> buffer = new ArrayList<Object>();
+        private int segment = 0;
+        private int offset = 0;
+
+        @Override
+        public boolean hasNext() {
+            while (this.offset == this.buffer.size()) {
+                if (this.segment == segments.length) return (false);
+                this.buffer.clear();
+                this.offset = 0;
+                snapshot(segments[this.segment++], this.buffer);
+            } // WHILE
+            return (true);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public V next() {
+            if (this.hasNext() == false) throw new NoSuchElementException();
+            return ((V)this.buffer.get(this.offset++));
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    } // CLASS
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        boolean first = true;
+        for (Segment s : this.segments) {
+            synchronized (s) {
+                Table t = s.table;
+                for (int i = 0, cnt = t.capacity(); i < cnt; i++) {
+                    Object val = t.values.get(i);
+                    if (val == null) continue;
+                    if (first == false) sb.append(", ");
+                    sb.append(t.keys.get(i)).append("=").append(val);
+                    first = false;
+                } // FOR
+            } // SYNCH
+        } // FOR
+        return (sb.append("}").toString());
+    }
+}
@@ -39,6 +39,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.pool.BasePoolableObjectFactory;
 import org.apache.log4j.Logger;
@@ -151,7 +152,6 @@ public class PartitionEstimator {
          * Whether the table in the tables array is replicated
          */
         private transient boolean is_replicated[];
-        private transient boolean is_array[]; // parameters
         private transient boolean is_valid = true;
         private transient boolean cache_valid = false;
 
@@ -257,6 +257,111 @@ public class PartitionEstimator {
         }
     }; // END CLASS
 
+    // ----------------------------------------------------------------------------
+    // COMPILED ROUTING
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Flattened version of the base partition calculation for a single Procedure.
+     * These are compiled for every Procedure in initCatalog() so that we don't have
+     * to look at the ProcParameter catalog objects for every new txn request.
+     */
+    private static final class ProcedureRoute {
+        private final Procedure catalog_proc;
+        /** ProcParameter offsets. Null if there is no partitioning parameter */
+        private final int param_idxs[];
+        private final boolean is_array;
+        private final boolean is_multi;
+        private final boolean is_random;
+
+        private ProcedureRoute(Procedure catalog_proc, int param_idxs[], boolean is_array, boolean is_multi, boolean is_random) {
+            this.catalog_proc = catalog_proc;
+            this.param_idxs = param_idxs;
+            this.is_array = is_array;
+            this.is_multi = is_multi;
+            this.is_random = is_random;
+        }
+    }
+
+    /**
+     * Flattened version of a PlanFragment's CacheEntry. Instead of walking through the
+     * tables and predicate lists for every invocation, we only keep the StmtParameter offsets
+     * (and the partitioning Column to hash them with) along with the ConstantValues that
+     * determine where the PlanFragment needs to go.
+     * If a PlanFragment references a table that uses a MultiColumn partitioning attribute,
+     * then we can't flatten it and will just use the original CacheEntry.
+     */
+    private static final class FragmentRoute {
+        private final PlanFragment catalog_frag;
+        /** Only set if this PlanFragment could not be compiled */
+        private final CacheEntry cache_entry;
+        /** This PlanFragment always has to go to all partitions */
+        private final boolean broadcast;
+        /** This PlanFragment reads from a replicated table at the base partition */
+        private final boolean base_partition;
+        private final int param_idxs[];
+        private final Column param_cols[];
+        private final Object const_values[];
+
+        private FragmentRoute(PlanFragment catalog_frag, CacheEntry cache_entry) {
+            this(catalog_frag, cache_entry, false, false, new int[0], new Column[0], new Object[0]);
+        }
+
+        private FragmentRoute(PlanFragment catalog_frag,
+                              CacheEntry cache_entry,
+                              boolean broadcast,
+                              boolean base_partition,
+                              int param_idxs[],
+                              Column param_cols[],
+                              Object const_values[]) {
+            this.catalog_frag = catalog_frag;
+            this.cache_entry = cache_entry;
+            this.broadcast = broadcast;
+            this.base_partition = base_partition;
+            this.param_idxs = param_idxs;
+            this.param_cols = param_cols;
+            this.const_values = const_values;
+        }
+
+        @Override
+        public String toString() {
+            if (this.cache_entry != null) return ("INTERPRETED" + this.cache_entry);
+            return (String.format("[Broadcast=%s, BasePartition=%s, Params=%s, Columns=%s, Constants=%s]",
+                                  this.broadcast, this.base_partition,
+                                  Arrays.toString(this.param_idxs), Arrays.toString(this.param_cols),
+                                  Arrays.toString(this.const_values)));
+        }
+    }
+
+    /**
+     * The compiled FragmentRoutes for a Statement's single-partition
+     * and multi-partition PlanFragments.
+     */
+    private static final class StatementRoute {
+        private final FragmentRoute sp_fragments[];
+        private final FragmentRoute mp_fragments[];
+
+        private StatementRoute(FragmentRoute sp_fragments[], FragmentRoute mp_fragments[]) {
+            this.sp_fragments = sp_fragments;
+            this.mp_fragments = mp_fragments;
+        }
+    }
+
+    /**
+     * Procedure Id -> ProcedureRoute
+     */
+    private ProcedureRoute compiled_procedures[] = new ProcedureRoute[0];
+
+    /**
+     * Statement -> StatementRoute
+     */
+    private final Map<Statement, StatementRoute> compiled_statements = new ConcurrentHashMap<Statement, StatementRoute>();
+
+    /**
+     * PlanFragment -> FragmentRoute
+     */
+    private final Map<PlanFragment, FragmentRoute> compiled_fragments = new ConcurrentHashMap<PlanFragment, FragmentRoute>();
+
     /**
      * PartitionSet pool used by calculatePartitionsForCache
      */
@@ -368,6 +473,7 @@ public class PartitionEstimator {
                     LOG.debug(catalog_proc + " ProcParameter Cache: " + (catalog_param != null ? catalog_param.fullName() : catalog_param));
             }
         } // FOR
+        this.compileProcedures();
 
         for (Table catalog_tbl : this.catalogContext.database.getTables()) {
             if (catalog_tbl.getSystable())
@@ -415,6 +521,9 @@ public class PartitionEstimator {
         this.cache_fragmentEntries.clear();
         this.cache_statementEntries.clear();
         this.cache_stmtPartitionParameters.clear();
+        this.compiled_procedures = new ProcedureRoute[0];
+        this.compiled_statements.clear();
+        this.compiled_fragments.clear();
     }
     
     // ----------------------------------------------------------------------------
@@ -696,6 +805,12 @@ public class PartitionEstimator {
                 // Store the Fragment cache and update the Table xref mapping
                 this.cache_fragmentEntries.put(frag_key, frag_cache);
                 this.addTableCacheXref(frag_cache, frag_tables);
+                
+                // And then flatten it out so that we don't have to look at it at runtime
+                FragmentRoute frag_route = this.compileFragment(catalog_frag, frag_cache);
+                if (trace.val)
+                    LOG.trace(String.format("Compiled %s: %s", catalog_frag.fullName(), frag_route));
+                this.compiled_fragments.put(catalog_frag, frag_route);
             } // FOR (fragment)
 
             // Then for updates we need to look to see whether they are updating an attribute 
@@ -763,6 +878,173 @@ public class PartitionEstimator {
         } // FOR
     }
 
+    // ----------------------------------------------------------------------------
+    // COMPILATION METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Flatten out the base partition calculation for every Procedure in the catalog.
+     * This must be called after cache_procPartitionParameters has been populated.
+     */
+    private void compileProcedures() {
+        int max_id = -1;
+        for (Procedure catalog_proc : this.catalogContext.database.getProcedures()) {
+            max_id = Math.max(max_id, catalog_proc.getId());
+        } // FOR
+        ProcedureRoute routes[] = new ProcedureRoute[max_id + 1];
+        for (Procedure catalog_proc : this.catalogContext.database.getProcedures()) {
+            if (catalog_proc.getId() < 0) continue;
+            ProcParameter catalog_param = this.cache_procPartitionParameters.get(catalog_proc);
+            int param_idxs[] = null;
+            boolean is_multi = false;
+            boolean is_random = false;
+            if (catalog_param instanceof RandomProcParameter) {
+                is_random = true;
+            }
+            else if (catalog_param instanceof MultiProcParameter) {
+                MultiProcParameter mpp = (MultiProcParameter)catalog_param;
+                param_idxs = new int[mpp.size()];
+                for (int i = 0; i < param_idxs.length; i++) {
+                    param_idxs[i] = mpp.get(i).getIndex();
+                } // FOR
+                is_multi = true;
+            }
+            else if (catalog_param != null && (catalog_param instanceof NullProcParameter) == false) {
+                param_idxs = new int[]{ catalog_param.getIndex() };
+            }
+            routes[catalog_proc.getId()] = new ProcedureRoute(catalog_proc, param_idxs,
+                                                              (catalog_param != null && catalog_param.getIsarray()),
+                                                              is_multi, is_random);
+        } // FOR
+        this.compiled_procedures = routes;
+    }
+
+    /**
+     * Flatten out the given PlanFragment's CacheEntry into a FragmentRoute.
+     * The tables' partitioning columns must already be in cache_tablePartitionColumns.
+     * @param catalog_frag
+     * @param cache_entry
+     * @return
+     * @throws Exception
+     */
+    private FragmentRoute compileFragment(final PlanFragment catalog_frag, final CacheEntry cache_entry) throws Exception {
+        boolean broadcast = false;
+        boolean base_partition = false;
+        List<Integer> param_idxs = new ArrayList<Integer>();
+        List<Column> param_cols = new ArrayList<Column>();
+        List<Object> const_values = new ArrayList<Object>();
+
+        for (Table catalog_tbl : cache_entry.getTables()) {
+            // REPLICATED TABLE
+            if (catalog_tbl.getIsreplicated()) {
+                switch (cache_entry.query_type) {
+                    case SELECT:
+                        base_partition = true;
+                        break;
+                    case INSERT:
+                    case UPDATE:
+                    case DELETE:
+                        broadcast = true;
+                        break;
+                    default:
+                        return (new FragmentRoute(catalog_frag, cache_entry));
+                } // SWITCH
+                continue;
+            }
+
+            // MULTI-COLUMN PARTITIONING
+            // We need to take the cross product of the partitions for each column, 
+            // so we'll just let calculatePartitionsForCache() deal with it
+            Column catalog_col = this.cache_tablePartitionColumns.get(catalog_tbl);
+            if (catalog_col instanceof MultiColumn) {
+                return (new FragmentRoute(catalog_frag, cache_entry));
+            }
+
+            // SINGLE COLUMN PARTITIONING
+            List<Pair<ExpressionType, CatalogType>> predicates = cache_entry.predicates.get(catalog_col);
+            if (predicates == null || predicates.isEmpty()) {
+                broadcast = true;
+                continue;
+            }
+            for (Pair<ExpressionType, CatalogType> pair : predicates) {
+                // See calculatePartitions() for why this has to be a broadcast
+                if (pair.getFirst() != ExpressionType.COMPARE_EQUAL) {
+                    broadcast = true;
+                    break;
+                }
+                CatalogType param = pair.getSecond();
+                if (param instanceof StmtParameter) {
+                    param_idxs.add(((StmtParameter)param).getIndex());
+                    param_cols.add(catalog_col);
+                }
+                else if (param instanceof ConstantValue) {
+                    ConstantValue const_param = (ConstantValue)param;
+                    VoltType vtype = VoltType.get(const_param.getType());
+                    const_values.add(VoltTypeUtil.getObjectFromString(vtype, const_param.getValue()));
+                }
+                else {
+                    throw new RuntimeException("Unexpected parameter type: " + param.fullName());
+                }
+            } // FOR
+        } // FOR
+
+        if (broadcast) {
+            return (new FragmentRoute(catalog_frag, null, true, false, new int[0], new Column[0], new Object[0]));
+        }
+        return (new FragmentRoute(catalog_frag, null, false, base_partition,
+                                  CollectionUtil.toIntArray(param_idxs),
+                                  param_cols.toArray(new Column[param_cols.size()]),
+                                  const_values.toArray()));
+    }
+
+    /**
+     * Return the compiled FragmentRoute for the given PlanFragment. This will generate
+     * the cache entries for the PlanFragment's Statement if we don't have them already.
+     * @param catalog_frag
+     * @return
+     * @throws Exception
+     */
+    private FragmentRoute getFragmentRoute(final PlanFragment catalog_frag) throws Exception {
+        FragmentRoute route = this.compiled_fragments.get(catalog_frag);
+        if (route == null) {
+            CacheEntry cache_entry = this.getFragmentCacheEntry(catalog_frag);
+            route = this.compiled_fragments.get(catalog_frag);
+            if (route == null) {
+                // This PlanFragment handle is not the same one that we compiled, so
+                // we'll just use the CacheEntry for it from now on
+                route = new FragmentRoute(catalog_frag, cache_entry);
+                this.compiled_fragments.put(catalog_frag, route);
+            }
+        }
+        return (route);
+    }
+
+    /**
+     * Return the compiled FragmentRoutes for both of the given Statement's PlanFragment sets
+     * @param catalog_stmt
+     * @return
+     * @throws Exception
+     */
+    private StatementRoute getStatementRoute(final Statement catalog_stmt) throws Exception {
+        StatementRoute route = this.compiled_statements.get(catalog_stmt);
+        if (route == null) {
+            route = new StatementRoute(this.getFragmentRoutes(catalog_stmt.getFragments()),
+                                       this.getFragmentRoutes(catalog_stmt.getMs_fragments()));
+            this.compiled_statements.put(catalog_stmt, route);
+        }
+        return (route);
+    }
+
+    private FragmentRoute[] getFragmentRoutes(final CatalogMap<PlanFragment> fragments) throws Exception {
+        if (fragments == null) return (new FragmentRoute[0]);
+        FragmentRoute routes[] = new FragmentRoute[fragments.size()];
+        int i = 0;
+        for (PlanFragment catalog_frag : fragments) {
+            routes[i++] = this.getFragmentRoute(catalog_frag);
+        } // FOR
+        return (routes);
+    }
+
     // ----------------------------------------------------------------------------
     // TABLE ROW METHODS
     // ----------------------------------------------------------------------------
@@ -866,6 +1148,17 @@ public class PartitionEstimator {
     public int getBasePartition(final Procedure catalog_proc, final Object params[], boolean force) throws Exception {
         assert(catalog_proc != null);
         assert(params != null);
+        
+        // OPTIMIZATION: Use the compiled ProcedureRoute if we have one for this handle
+        if (force == false) {
+            int proc_id = catalog_proc.getId();
+            ProcedureRoute routes[] = this.compiled_procedures;
+            if (proc_id >= 0 && proc_id < routes.length &&
+                routes[proc_id] != null && routes[proc_id].catalog_proc == catalog_proc) {
+                return (this.calculateBasePartition(routes[proc_id], params));
+            }
+        }
+        
 //        assert(catalog_proc.getParameters().size() == params.length) :
 //            String.format("Invalid number of ProcParameters for %s: %d != %d",
 //                          catalog_proc, catalog_proc.getParameters().size(), params.length);
@@ -989,10 +1282,8 @@ public class PartitionEstimator {
     public void getAllPartitions(final PartitionSet all_partitions, final Statement catalog_stmt, final Object params[], final int base_partition) throws Exception {
         // Note that we will use the single-sited fragments (if available) since they will be
         // faster for us to figure out what partitions has the data that this statement needs
-        CatalogMap<PlanFragment> fragments = (catalog_stmt.getHas_singlesited() ? 
-                                                    catalog_stmt.getFragments() :
-                                                    catalog_stmt.getMs_fragments());
-        this.getAllFragmentPartitions(null, all_partitions, fragments.values(), params, base_partition);
+        this.getAllFragmentPartitions(null, all_partitions, catalog_stmt,
+                                      catalog_stmt.getHas_singlesited(), params, base_partition);
     }
 
     // ----------------------------------------------------------------------------
@@ -1158,40 +1449,87 @@ public class PartitionEstimator {
                                          final int base_partition) throws Exception {
         // Loop through this Statement's plan fragments and get the partitions
         for (PlanFragment catalog_frag : fragments) {
-            PartitionSet partitions = null;
-
-            // If we have a FragPartion map, then use an entry from that
-            if (frag_partitions != null) {
-                partitions = frag_partitions.get(catalog_frag);
-                if (partitions == null) {
-                    partitions = new PartitionSet();
-                    frag_partitions.put(catalog_frag, partitions);
-                } else {
-                    partitions.clear();
-                }
-            // Otherwise use our AllPartitions set
+            this.populateFragmentPartitions(frag_partitions,
+                                            frag_all_partitions,
+                                            this.getFragmentRoute(catalog_frag),
+                                            params,
+                                            base_partition);
+        } // FOR
+    }
+    
+    /**
+     * Populate a mapping from PlanFragments to PartitionSets for either the given Statement's
+     * single-partition or multi-partition PlanFragments. This uses the Statement's compiled
+     * routing functions and is what the BatchPlanner uses at runtime.
+     * @param frag_partitions
+     * @param frag_all_partitions
+     * @param catalog_stmt
+     * @param singlePartition
+     * @param params
+     * @param base_partition
+     * @throws Exception
+     */
+    public void getAllFragmentPartitions(final Map<PlanFragment, PartitionSet> frag_partitions,
+                                         final PartitionSet frag_all_partitions,
+                                         final Statement catalog_stmt,
+                                         final boolean singlePartition,
+                                         final Object params[],
+                                         final int base_partition) throws Exception {
+        StatementRoute stmt_route = this.getStatementRoute(catalog_stmt);
+        FragmentRoute routes[] = (singlePartition ? stmt_route.sp_fragments : stmt_route.mp_fragments);
+        for (int i = 0; i < routes.length; i++) {
+            this.populateFragmentPartitions(frag_partitions,
+                                            frag_all_partitions,
+                                            routes[i],
+                                            params,
+                                            base_partition);
+        } // FOR
+    }
+    
+    /**
+     * Compute the partitions for a single PlanFragment and add them to its entry in the
+     * frag_partitions map and/or the frag_all_partitions set. 
+     * @param frag_partitions
+     * @param frag_all_partitions
+     * @param route
+     * @param params
+     * @param base_partition
+     * @throws Exception
+     */
+    private void populateFragmentPartitions(final Map<PlanFragment, PartitionSet> frag_partitions,
+                                            final PartitionSet frag_all_partitions,
+                                            final FragmentRoute route,
+                                            final Object params[],
+                                            final int base_partition) throws Exception {
+        PartitionSet partitions = null;
+
+        // If we have a FragPartion map, then use an entry from that
+        if (frag_partitions != null) {
+            partitions = frag_partitions.get(route.catalog_frag);
+            if (partitions == null) {
+                partitions = new PartitionSet();
+                frag_partitions.put(route.catalog_frag, partitions);
             } else {
-                partitions = frag_all_partitions;
+                partitions.clear();
             }
-            assert(partitions != null);
-
-            this.calculatePartitionsForFragment(null,
-                                                partitions,
-                                                catalog_frag,
-                                                params,
-                                                base_partition);
-
-            // If there were no partitions, then the PlanFragment needs to be
-            // execute on the base partition
-            // Because these are the PlanFragments that aggregate the results together
-            // XXX: Not sure if this is right, but it's 5:30pm on a snowy night
-            // so it's good enough for me...
-            if (partitions.isEmpty())
-                partitions.add(base_partition);
-
-            if (frag_partitions != null && frag_all_partitions != null)
-                frag_all_partitions.addAll(partitions);
-        } // FOR
+        // Otherwise use our AllPartitions set
+        } else {
+            partitions = frag_all_partitions;
+        }
+        assert(partitions != null);
+
+        this.calculatePartitionsForRoute(route, params, base_partition, partitions);
+
+        // If there were no partitions, then the PlanFragment needs to be
+        // execute on the base partition
+        // Because these are the PlanFragments that aggregate the results together
+        // XXX: Not sure if this is right, but it's 5:30pm on a snowy night
+        // so it's good enough for me...
+        if (partitions.isEmpty())
+            partitions.add(base_partition);
+
+        if (frag_partitions != null && frag_all_partitions != null)
+            frag_all_partitions.addAll(partitions);
     }
 
     /**
@@ -1230,12 +1568,20 @@ public class PartitionEstimator {
                                                 final int base_partition) throws Exception {
         if (trace.val)
             LOG.trace("Estimating partitions for PlanFragment #" + catalog_frag.fullName());
-        PartitionEstimator.CacheEntry cache_entry = this.getFragmentCacheEntry(catalog_frag);
-        this.calculatePartitionsForCache(cache_entry,
-                                         params,
-                                         base_partition,
-                                         entry_partitions,
-                                         all_partitions);
+        // We only need the CacheEntry if we have to calculate the partitions for each table
+        if (entry_partitions == null) {
+            this.calculatePartitionsForRoute(this.getFragmentRoute(catalog_frag),
+                                             params,
+                                             base_partition,
+                                             all_partitions);
+        } else {
+            PartitionEstimator.CacheEntry cache_entry = this.getFragmentCacheEntry(catalog_frag);
+            this.calculatePartitionsForCache(cache_entry,
+                                             params,
+                                             base_partition,
+                                             entry_partitions,
+                                             all_partitions);
+        }
         if (debug.val) {
             if (entry_partitions != null)
                 LOG.debug(String.format("%s Table Partitions: %s", catalog_frag.fullName(), entry_partitions));
@@ -1265,6 +1611,49 @@ public class PartitionEstimator {
         return (cache_entry);
     }
 
+    /**
+     * Add the partitions that the given compiled FragmentRoute will touch to the given set.
+     * If the PlanFragment could not be compiled, then we will fall back to its CacheEntry.
+     * @param route
+     * @param params
+     * @param base_partition
+     * @param partitions
+     * @throws Exception
+     */
+    private void calculatePartitionsForRoute(final FragmentRoute route,
+                                             final Object params[],
+                                             final int base_partition,
+                                             final PartitionSet partitions) throws Exception {
+        if (route.cache_entry != null) {
+            this.calculatePartitionsForCache(route.cache_entry, params, base_partition, null, partitions);
+            return;
+        }
+        if (route.broadcast) {
+            partitions.addAll(this.all_partitions);
+            return;
+        }
+        if (route.base_partition && base_partition != HStoreConstants.NULL_PARTITION_ID) {
+            partitions.add(base_partition);
+        }
+        for (int i = 0; i < route.param_idxs.length; i++) {
+            Object value = params[route.param_idxs[i]];
+            // IMPORTANT: Check if the parameter is an array. If it is, then we 
+            // have to loop through and get the hash of all of the values
+            if (ClassUtil.isArray(value)) {
+                for (int j = 0, cnt = Array.getLength(value); j < cnt; j++) {
+                    partitions.add(this.hasher.hash(Array.get(value, j), route.param_cols[i]));
+                } // FOR
+            } else {
+                partitions.add(this.hasher.hash(value, route.param_cols[i]));
+            }
+        } // FOR
+        for (int i = 0; i < route.const_values.length; i++) {
+            partitions.add(this.hasher.hash(route.const_values[i]));
+        } // FOR
+        if (trace.val)
+            LOG.trace(String.format("%s Partitions: %s", route.catalog_frag.fullName(), partitions));
+    }
+
     /**
      * This is the most important method here! This is where we actually calculate what
      * partitions the given element is going to touch. Given a target CacheEntry, we'll
@@ -1290,14 +1679,6 @@ public class PartitionEstimator {
         // Hash the input parameters to determine what partitions we're headed to
         QueryType stmt_type = target.query_type;
 
-        // Update cache
-        if (target.is_array == null) {
-            target.is_array = new boolean[params.length];
-            for (int i = 0; i < target.is_array.length; i++) {
-                target.is_array[i] = ClassUtil.isArray(params[i]);
-            } // FOR
-        }
-
         final PartitionSet table_partitions = this.partitionSetPool.borrowObject();
         assert(table_partitions != null);
 
@@ -1375,7 +1756,6 @@ public class PartitionEstimator {
                             if (target.predicates.containsKey(mc_column)) {
                                 this.calculatePartitions(mc_partitions[i],
                                                          params,
-                                                         target.is_array,
                                                          target.predicates.get(mc_column),
                                                          mc_column);
                             }
@@ -1432,7 +1812,7 @@ public class PartitionEstimator {
                     } else {
                         if (trace.val)
                             LOG.trace("Calculating partitions normally for " + target);
-                        this.calculatePartitions(table_partitions, params, target.is_array, predicates, catalog_col);
+                        this.calculatePartitions(table_partitions, params, predicates, catalog_col);
                     }
                 }
             } // ELSE
@@ -1472,7 +1852,6 @@ public class PartitionEstimator {
      */
     private void calculatePartitions(final PartitionSet partitions,
                                      final Object params[],
-                                     final boolean is_array[],
                                      final List<Pair<ExpressionType, CatalogType>> predicates,
                                      final Column catalog_col) throws Exception {
         // Note that we have to go through all of the mappings from the partitioning column
@@ -1499,7 +1878,7 @@ public class PartitionEstimator {
                 
                 // IMPORTANT: Check if the parameter is an array. If it is, then we 
                 // have to loop through and get the hash of all of the values
-                if (is_array[param_idx]) {
+                if (ClassUtil.isArray(params[param_idx])) {
                     int num_elements = Array.getLength(params[param_idx]);
                     if (trace.val)
                         LOG.trace(String.format("%s is an array. Calculating multiple partitions", param));
@@ -1539,6 +1918,31 @@ public class PartitionEstimator {
         return;
     }
 
+    /**
+     * Return the base partition for a Procedure using its compiled ProcedureRoute
+     * @param route
+     * @param params
+     * @return
+     * @throws Exception
+     */
+    private int calculateBasePartition(final ProcedureRoute route, final Object params[]) throws Exception {
+        if (route.is_random) {
+            return (RandomProcParameter.rand.nextInt(this.num_partitions));
+        }
+        else if (route.param_idxs == null) {
+            return (HStoreConstants.NULL_PARTITION_ID);
+        }
+        else if (route.is_multi) {
+            int hashes[] = new int[route.param_idxs.length];
+            for (int i = 0; i < hashes.length; i++) {
+                int hash = this.calculatePartition(route.catalog_proc, params[route.param_idxs[i]], route.is_array);
+                hashes[i] = (hash == HStoreConstants.NULL_PARTITION_ID ? 0 : hash);
+            } // FOR
+            return (this.hasher.multiValueHash(hashes));
+        }
+        return (this.calculatePartition(route.catalog_proc, params[route.param_idxs[0]], route.is_array));
+    }
+
     /**
      * Return the partition touched for a given procedure's parameter value.
      * If the given parameter is an array, then we will just use the first element.
@@ -1648,6 +2052,7 @@ public class PartitionEstimator {
                 try {
                     this.generateCache(catalog_stmt);
                     this.getStatementEstimationParameters(catalog_stmt);
+                    this.getStatementRoute(catalog_stmt);
                 } catch (Exception ex) {
                     LOG.fatal("Failed to generate cache for " + catalog_stmt.fullName(), ex);
                     System.exit(1);
@@ -35,6 +35,7 @@ import org.voltdb.sysprocs.saverestore.SnapshotUtil;
 
 import edu.brown.catalog.CatalogUtil;
 import edu.brown.hstore.PartitionExecutor.SystemProcedureExecutionContext;
+import edu.brown.hstore.cmdlog.CommandLogWriter;
 import edu.brown.utils.CollectionUtil;
 
 /**
@@ -53,6 +54,7 @@ public class SnapshotSaveAPI
      * be accomplished, that the caller knows this is a consistent or useful
      * transaction point at which to snapshot.
      *
+     * @param txn_id
      * @param file_path
      * @param file_nonce
      * @param block
@@ -61,14 +63,14 @@ public class SnapshotSaveAPI
      * @param hostname
      * @return VoltTable describing the results of the snapshot attempt
      */
-    public VoltTable startSnapshotting(String file_path, String file_nonce, byte block,
+    public VoltTable startSnapshotting(Long txn_id, String file_path, String file_nonce, byte block,
             long startTime, SystemProcedureExecutionContext context, String hostname)
     {
         //LOG.trace("Creating snapshot target and handing to EEs");
         final VoltTable result = SnapshotSave.constructNodeResultsTable();
 
         // Each partition does this to accumulate tasks for it
-        createSetup(file_path, file_nonce, startTime, context, hostname, result);
+        createSetup(txn_id, file_path, file_nonce, startTime, context, hostname, result);
         
         //LOG.trace("Stage 0 : at partition : "+context.getPartitionExecutor().getPartitionId());
         
@@ -158,12 +160,13 @@ public class SnapshotSaveAPI
     }
 
 
-    private void createSetup(String file_path, String file_nonce,
-            long startTime, SystemProcedureExecutionContext context,
+    private void createSetup(final Long txn_id, String file_path, String file_nonce,
+            long startTime, final SystemProcedureExecutionContext context,
             String hostname, final VoltTable result) {
         {            
             Site site = context.getSite();
             int numLocalPartitions  = site.getPartitions().size();
+            final int partitionId = context.getPartitionExecutor().getPartitionId();
                         
             LOG.trace("createSetup at : partition "+context.getPartitionExecutor().getPartitionId());
             
@@ -249,6 +252,13 @@ public class SnapshotSaveAPI
                                             "Snapshot " + snapshotRecord.nonce + " finished at " +
                                              completed.timeFinished + " and took " + duration
                                              + " seconds ");
+                                    
+                                    // Let the command log know that it no longer needs
+                                    // anything before this txn for this partition
+                                    CommandLogWriter commandLog = context.getHStoreSite().getCommandLogWriter();
+                                    if (completed.result && commandLog != null) {
+                                        commandLog.notifySnapshotCompleted(partitionId, txn_id.longValue());
+                                    }
                                 }
                             }
                         };
@@ -1,13 +1,19 @@
 package org.voltdb;
 
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.log4j.Logger;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.messaging.FastSerializer;
 import org.voltdb.types.SortDirectionType;
 import org.voltdb.utils.Pair;
+import org.voltdb.utils.ReduceInputGroups;
 import org.voltdb.utils.ReduceInputIterator;
 import org.voltdb.utils.VoltTableUtil;
 
@@ -19,6 +25,7 @@ import edu.brown.hstore.PartitionExecutor;
 import edu.brown.hstore.callbacks.TransactionMapWrapperCallback;
 import edu.brown.hstore.callbacks.TransactionReduceWrapperCallback;
 import edu.brown.hstore.txns.MapReduceTransaction;
+import edu.brown.hstore.util.MapReduceHelperThread;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
 
@@ -35,13 +42,34 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
     // This reduceInputQuery is prepared to executed REDUCE by internal system instead of Java code
     private SQLStmt reduceInputQuery;
 
+    /**
+     * Whether this procedure has its own combine() implementation
+     */
+    private final boolean has_combiner = hasCombiner(this.getClass());
+    
     // Thread-local data
     private MapReduceTransaction mr_ts;
     private VoltTable map_output;
     
+    /**
+     * When we have a combiner, mapEmit() writes into this buffer
+     * instead of map_output. It gets combined into map_output
+     * every time it gets full. 
+     */
+    private VoltTable map_buffer;
+    private int map_buffer_size;
+    private VoltTable map_emit_table;
+    
     private VoltTable reduce_input;
     private VoltTable reduce_output;
     
+    /**
+     * When reduce() is being invoked by multiple threads at the same time,
+     * each thread emits into its own table.
+     */
+    private boolean parallel_reduce = false;
+    private final ThreadLocal<VoltTable> parallel_reduce_output = new ThreadLocal<VoltTable>();
+    
     // -----------------------------------------------------------------
     // MAP REDUCE API
     // -----------------------------------------------------------------
@@ -67,6 +95,33 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
      */
     public abstract void reduce(K key, Iterator<VoltTableRow> rows);
     
+    /**
+     * Optional map-side combiner. Procedures can override this to merge all of the
+     * rows for the same key that were emitted by map() on this partition before they
+     * are sent to the reducers. The combiner should call mapEmit() for its merged rows.
+     * Note that the combiner may be invoked multiple times for the same key, so it
+     * must only do things that reduce() can be applied to again (e.g., sums or counts).
+     * The default implementation passes the rows through unchanged.
+     * @param key
+     * @param rows
+     */
+    public void combine(K key, Iterator<VoltTableRow> rows) {
+        while (rows.hasNext()) {
+            this.map_emit_table.add(rows.next());
+        } // WHILE
+    }
+    
+    /**
+     * Procedures should override this to return true if their reduce() method can be
+     * invoked by multiple threads at the same time for different keys. This is only
+     * safe if reduce() does not execute any queries and only writes its output
+     * through reduceEmit().
+     * @return
+     */
+    public boolean supportsParallelReduce() {
+        return (false);
+    }
+    
     // -----------------------------------------------------------------
     // INTERNAL METHODS
     // -----------------------------------------------------------------
@@ -81,6 +136,20 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
         this.reduceInputQuery = this.getSQLStmt(catalogProc.getReduceinputquery());
     }
     
+    /**
+     * Returns true if the given procedure class overrides combine()
+     * @param procClass
+     * @return
+     */
+    protected static boolean hasCombiner(Class<?> procClass) {
+        try {
+            Method m = procClass.getMethod("combine", Object.class, Iterator.class);
+            return (m.getDeclaringClass().equals(VoltMapReduceProcedure.class) == false);
+        } catch (NoSuchMethodException ex) {
+            throw new RuntimeException("Unexpected missing combine() method in " + procClass.getName(), ex);
+        }
+    }
+    
     /**
      * 
      * @return
@@ -114,8 +183,8 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
                 hstore_site.getCoordinator().transactionMap(mr_ts, mr_ts.getTransactionMapCallback());
             }
             
-            this.map_output = this.mr_ts.getMapOutputByPartition(this.partitionId);
-            assert(this.map_output != null);
+            this.startMap(this.mr_ts.getMapOutputByPartition(this.partitionId),
+                          this.hstore_conf.site.mr_map_combine_buffer_size);
 
             if (debug.val)
                 LOG.debug("<VoltMapReduceProcedure.run> is executing ..<MAP>..\n");
@@ -141,6 +210,7 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
             while (mapResult[0].advanceRow()) {
                 this.map(mapResult[0].getRow());
             } // WHILE
+            this.finishMap();
             
             if (debug.val)
                 LOG.debug(String.format("MAP: %s generated %d results on partition %d",
@@ -177,30 +247,24 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
             if (debug.val)
                 LOG.debug(String.format("<ReduceInputTable> Partition:%d\n %s", this.partitionId,this.reduce_input));
             
+            VoltTable output = mr_ts.getReduceOutputByPartition(this.partitionId);
+            assert(output != null);
             
-            // Sort the the MAP_OUTPUT table
-            // Build an "smart" iterator that loops through the MAP_OUTPUT table key-by-key
+            // If the input rows were already grouped together by key as they arrived,
+            // then we can just loop through the groups. Otherwise we'll have to sort
+            // the input table so that rows with the same key are next to each other.
             @SuppressWarnings("unchecked")
-            VoltTable sorted = VoltTableUtil.sort(this.reduce_input, Pair.of(0, SortDirectionType.ASC));
-            //VoltTable sorted = VoltTableUtil.sort(mr_ts.getReduceInputByPartition(this.partitionId), Pair.of(0, SortDirectionType.ASC));
-            assert(sorted != null);
-            if (debug.val)
-                LOG.debug(String.format("<Sorted_ReduceInputTable> Partition:%d\n %s", this.partitionId,sorted));
-            
-            this.reduce_output = mr_ts.getReduceOutputByPartition(this.partitionId);
-            assert(this.reduce_output != null);
-  
-            // Make a Hstore.PartitionResult
-            ReduceInputIterator<K> rows = new ReduceInputIterator<K>(sorted);
-
-            // Loop over that iterator and call runReduce
-            if (debug.val)
-                LOG.debug(String.format("REDUCE: About to process %d records for %s on partition %d",
-                          sorted.getRowCount(), this.mr_ts, this.partitionId));
-            
-            while (rows.hasNext()) {
-                K key = rows.getKey();
-                this.reduce(key, rows); 
+            ReduceInputGroups<K> groups = (ReduceInputGroups<K>)mr_ts.getReduceInputGroupsByPartition(this.partitionId);
+            if (groups != null) groups.update();
+            if (groups != null && groups.isOverflow() == false) {
+                MapReduceHelperThread mr_helper = hstore_site.getMapReduceHelper();
+                ForkJoinPool pool = null;
+                if (mr_helper != null && this.supportsParallelReduce()) {
+                    pool = mr_helper.getReducePool();
+                }
+                this.reduceGroups(groups, output, pool);
+            } else {
+                this.reduceSorted(this.reduce_input, output);
             }
             
             if (debug.val)
@@ -232,6 +296,60 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
         return (result);
     }
     
+    /**
+     * Prepare to process the MAP phase into the given output table. If this procedure
+     * has a combiner, then mapEmit() will buffer up to the given number of rows
+     * before they are combined into the output table.
+     * @param output
+     * @param bufferSize
+     */
+    protected final void startMap(VoltTable output, int bufferSize) {
+        assert(output != null);
+        this.map_output = output;
+        if (this.has_combiner && bufferSize > 0) {
+            if (this.map_buffer == null) {
+                this.map_buffer = new VoltTable(output);
+            }
+            this.map_buffer.clearRowData();
+            this.map_buffer_size = bufferSize;
+            this.map_emit_table = this.map_buffer;
+        } else {
+            this.map_buffer = null;
+            this.map_emit_table = output;
+        }
+    }
+    
+    /**
+     * Combine whatever is left in the MAP buffer into the output table
+     */
+    protected final void finishMap() {
+        if (this.map_buffer != null && this.map_buffer.getRowCount() > 0) {
+            this.combineMapBuffer();
+        }
+        this.map_emit_table = this.map_output;
+    }
+    
+    /**
+     * Sort the rows in the MAP buffer by their key and then pass each key's rows
+     * to combine(). Anything that the combiner emits goes into the output table.
+     */
+    private void combineMapBuffer() {
+        if (trace.val)
+            LOG.trace(String.format("MAP: Combining %d buffered records for %s on partition %d",
+                      this.map_buffer.getRowCount(), this.mr_ts, this.partitionId));
+        @SuppressWarnings("unchecked")
+        VoltTable sorted = VoltTableUtil.sort(this.map_buffer, Pair.of(0, SortDirectionType.ASC));
+        this.map_buffer.clearRowData();
+        
+        this.map_emit_table = this.map_output;
+        ReduceInputIterator<K> rows = new ReduceInputIterator<K>(sorted);
+        while (rows.hasNext()) {
+            K key = rows.getKey();
+            this.combine(key, rows);
+        } // WHILE
+        this.map_emit_table = this.map_buffer;
+    }
+    
     /**
      * 
      * @param key
@@ -239,7 +357,126 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
      */
     public final void mapEmit(K key, Object row[]) {
         assert(key == row[0]);
-        this.map_output.addRow(row);       
+        this.map_emit_table.addRow(row);
+        if (this.map_emit_table == this.map_buffer && this.map_buffer.getRowCount() >= this.map_buffer_size) {
+            this.combineMapBuffer();
+        }
+    }
+
+    /**
+     * Sort the given REDUCE input table by key and invoke reduce()
+     * for each key. All of the output goes into the given table.
+     * @param input
+     * @param output
+     */
+    protected final void reduceSorted(VoltTable input, VoltTable output) {
+        this.reduce_output = output;
+        
+        // Sort the the MAP_OUTPUT table
+        // Build an "smart" iterator that loops through the MAP_OUTPUT table key-by-key
+        @SuppressWarnings("unchecked")
+        VoltTable sorted = VoltTableUtil.sort(input, Pair.of(0, SortDirectionType.ASC));
+        assert(sorted != null);
+        if (debug.val)
+            LOG.debug(String.format("<Sorted_ReduceInputTable> Partition:%d\n %s", this.partitionId,sorted));
+        
+        // Make a Hstore.PartitionResult
+        ReduceInputIterator<K> rows = new ReduceInputIterator<K>(sorted);
+
+        // Loop over that iterator and call runReduce
+        if (debug.val)
+            LOG.debug(String.format("REDUCE: About to process %d records for %s on partition %d",
+                      sorted.getRowCount(), this.mr_ts, this.partitionId));
+        
+        while (rows.hasNext()) {
+            K key = rows.getKey();
+            this.reduce(key, rows); 
+        }
+    }
+    
+    /**
+     * Invoke reduce() for each of the key groups in the given REDUCE input.
+     * If a thread pool is given, then different groups will be reduced at
+     * the same time by the pool's threads. All of the output goes into
+     * the given table.
+     * @param groups
+     * @param output
+     * @param pool
+     */
+    protected final void reduceGroups(ReduceInputGroups<K> groups, VoltTable output, ForkJoinPool pool) {
+        this.reduce_output = output;
+        int numGroups = groups.getGroupCount();
+        if (debug.val)
+            LOG.debug(String.format("REDUCE: About to process %d records in %d groups for %s on partition %d [parallel=%s]",
+                      groups.getRowCount(), numGroups, this.mr_ts, this.partitionId, (pool != null)));
+        
+        if (pool == null || numGroups < 2) {
+            for (int group = 0; group < numGroups; group++) {
+                this.reduce(groups.getKey(group), groups.getRows(group));
+            } // FOR
+            return;
+        }
+        
+        // Split the groups into a few chunks per thread so that the pool
+        // can balance things out if some keys have more rows than others
+        int threshold = Math.max(1, numGroups / (pool.getParallelism() * 4));
+        Queue<VoltTable> outputs = new ConcurrentLinkedQueue<VoltTable>();
+        this.parallel_reduce = true;
+        try {
+            pool.invoke(new ReduceTask(groups, 0, numGroups, threshold, outputs));
+        } finally {
+            this.parallel_reduce = false;
+        }
+        for (VoltTable partial : outputs) {
+            partial.resetRowPosition();
+            while (partial.advanceRow()) {
+                output.add(partial);
+            } // WHILE
+        } // FOR
+    }
+    
+    /**
+     * Invokes reduce() for a range of key groups. Each leaf task
+     * emits its rows into its own output table.
+     */
+    private class ReduceTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final ReduceInputGroups<K> groups;
+        private final int start;
+        private final int stop;
+        private final int threshold;
+        private final Queue<VoltTable> outputs;
+        
+        ReduceTask(ReduceInputGroups<K> groups, int start, int stop, int threshold, Queue<VoltTable> outputs) {
+            this.groups = groups;
+            this.start = start;
+            this.stop = stop;
+            this.threshold = threshold;
+            this.outputs = outputs;
+        }
+        
+        @Override
+        protected void compute() {
+            if (this.stop - this.start > this.threshold) {
+                int middle = (this.start + this.stop) >>> 1;
+                invokeAll(new ReduceTask(this.groups, this.start, middle, this.threshold, this.outputs),
+                          new ReduceTask(this.groups, middle, this.stop, this.threshold, this.outputs));
+                return;
+            }
+            VoltTable output = new VoltTable(reduce_output);
+            // Reading the rows moves the buffer's position, so each
+            // task needs its own view of the input table's buffer
+            ByteBuffer view = this.groups.newBufferView();
+            parallel_reduce_output.set(output);
+            try {
+                for (int group = this.start; group < this.stop; group++) {
+                    reduce(this.groups.getKey(group), this.groups.getRows(group, view));
+                } // FOR
+            } finally {
+                parallel_reduce_output.remove();
+            }
+            this.outputs.add(output);
+        }
     }
 
     /**
@@ -247,7 +484,11 @@ public abstract class VoltMapReduceProcedure<K> extends VoltProcedure {
      * @param row
      */
     public final void reduceEmit(Object row[]) {
-        this.reduce_output.addRow(row);
+        if (this.parallel_reduce) {
+            this.parallel_reduce_output.get().addRow(row);
+        } else {
+            this.reduce_output.addRow(row);
+        }
     }
     
     @Override
@@ -377,7 +377,15 @@ public class VoltTable extends VoltTableRow implements FastSerializable {
          * can create a row without an iterator.
          */
         Row(int position) {
-            m_buffer = VoltTable.this.m_buffer;
+            this(position, VoltTable.this.m_buffer);
+        }
+
+        /**
+         * Same as {@link #Row(int)}, but the row reads its data through the given
+         * view of the table's buffer instead of through the table's own buffer.
+         */
+        Row(int position, ByteBuffer buffer) {
+            m_buffer = buffer;
             assert (position < m_buffer.limit());
             m_position = position;
             m_offsets = new int[m_colCount];
@@ -497,6 +505,40 @@ public class VoltTable extends VoltTableRow implements FastSerializable {
         return false;
     }
 
+    /**
+     * Return a {@link VoltTableRow} instance for the row with the specified index
+     * that starts at the given position in this table's buffer. Unlike
+     * {@link #fetchRow(int)}, this does not need to scan through all of the rows
+     * in front of it, so it can be used for random access into large tables.
+     * @param index Index of the row
+     * @param position The row's position from {@link VoltTableRow#getActiveRowPosition()}
+     * @return The requested {@link VoltTableRow Row}.
+     */
+    public VoltTableRow fetchRowAtPosition(int index, int position) {
+        return fetchRowAtPosition(index, position, m_buffer);
+    }
+
+    /**
+     * Same as {@link #fetchRowAtPosition(int, int)}, but the row reads its data
+     * through the given view from {@link #getTableDataReference()}. Reading some
+     * columns (e.g., strings) moves the buffer's position, so every thread that
+     * reads rows from the same table at the same time needs its own view.
+     * @param index Index of the row
+     * @param position The row's position from {@link VoltTableRow#getActiveRowPosition()}
+     * @param buffer A view of this table's buffer
+     * @return The requested {@link VoltTableRow Row}.
+     */
+    public VoltTableRow fetchRowAtPosition(int index, int position, ByteBuffer buffer) {
+        assert(verifyTableInvariants());
+        assert(buffer.limit() == m_buffer.limit()) : "Buffer is not a view of this table";
+        if ((index < 0) || (index >= m_rowCount)) {
+            throw new IndexOutOfBoundsException("index = " + index + "; rows = " + m_rowCount);
+        }
+        Row retval = new Row(position, buffer);
+        retval.m_activeRowIndex = index;
+        return retval;
+    }
+    
     /**
      * Return a {@link VoltTableRow} instance with the specified index.
      * @param index Index of the row
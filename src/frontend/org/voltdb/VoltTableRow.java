@@ -177,6 +177,15 @@ public abstract class VoltTableRow {
         return m_activeRowIndex;
     }
 
+    /**
+     * Get the offset in the table's buffer of the active row. This can be passed
+     * to {@link VoltTable#fetchRowAtPosition(int, int)} to get back to this row later.
+     * @return The position of the active row's data.
+     */
+    public int getActiveRowPosition() {
+        return m_position;
+    }
+
     /**
      * Makes the next row active so calls to getXXX() will return
      * values from the current record. At initialization time, the
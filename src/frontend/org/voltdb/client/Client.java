@@ -22,6 +22,7 @@ import java.net.UnknownHostException;
 
 import org.voltdb.StoredProcedureInvocationHints;
 import org.voltdb.VoltTable;
+import org.voltdb.catalog.Catalog;
 
 import edu.brown.profilers.ProfileMeasurement;
 
@@ -258,6 +259,17 @@ public interface Client {
      * @return Volt server build string
      */
     public String getBuildString();
+    
+    /**
+     * Replace the catalog that the client uses to figure out the base partition
+     * of each request so that it can send it directly to the site with that partition.
+     * This should be invoked whenever the catalog changes in the cluster.
+     * @param catalog The new catalog. If this is null, then the client will retrieve
+     * the current catalog from the cluster.
+     * @throws IOException
+     * @throws ProcCallException
+     */
+    public void updateCatalog(Catalog catalog) throws IOException, ProcCallException;
 
     /**
      * The default behavior for queuing of asynchronous procedure invocations is to block until
@@ -33,6 +33,7 @@ import org.voltdb.messaging.FastSerializer;
 import org.voltdb.utils.DBBPool.BBContainer;
 
 import edu.brown.catalog.CatalogUtil;
+import edu.brown.hashing.AbstractHasher;
 import edu.brown.hstore.HStoreConstants;
 import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.hstore.conf.HStoreConf;
@@ -69,13 +70,28 @@ final class ClientImpl implements Client {
     private static final int m_defaultMaxArenaSize = 134217728;
     private volatile boolean m_isShutdown = false;
 
+    /**
+     * Everything that we need to figure out what site to send a request to.
+     * This is never modified after it is created, so when the catalog changes
+     * we just swap in a new one.
+     */
+    private static final class PartitionRouting {
+        private final CatalogContext catalogContext;
+        private final PartitionEstimator p_estimator;
+        private final int partitionSiteXref[];
+        
+        private PartitionRouting(Catalog catalog, String hasherClass, String hasherPlan) throws IOException {
+            this.catalogContext = new CatalogContext(catalog);
+            AbstractHasher hasher = AbstractHasher.newInstance(hasherClass, hasherPlan, this.catalogContext);
+            this.p_estimator = new PartitionEstimator(this.catalogContext, hasher);
+            this.partitionSiteXref = CatalogUtil.getPartitionSiteXrefArray(catalog);
+        }
+    } // CLASS
+    
     /**
      * If we have a catalog, then we'll enable client-side hints
      */
-    private Catalog m_catalog;
-    private CatalogContext m_catalogContext;
-    private PartitionEstimator m_pEstimator;
-    private int m_partitionSiteXref[];
+    private volatile PartitionRouting m_routing;
     private final HStoreConf m_hstoreConf;
     private final ProfileMeasurement m_queueTime = new ProfileMeasurement("queue");
 
@@ -123,11 +139,12 @@ final class ClientImpl implements Client {
         m_hstoreConf = HStoreConf.singleton(true);
 
         if (catalog != null && m_hstoreConf.client.txn_hints) {
-            m_catalog = catalog;
-            m_catalogContext = new CatalogContext(m_catalog);
-            m_pEstimator = new PartitionEstimator(m_catalogContext);
-            m_partitionSiteXref = CatalogUtil.getPartitionSiteXrefArray(m_catalog);
-    }
+            try {
+                m_routing = new PartitionRouting(catalog, m_hstoreConf.global.hasher_class, m_hstoreConf.global.hasher_plan);
+            } catch (IOException ex) {
+                LOG.warn("Failed to load hasher plan. Requests will not be routed to their base partition's site", ex);
+            }
+        }
 
         m_distributer = new Distributer(
                 expectedOutgoingMessageSize,
@@ -153,6 +170,7 @@ final class ClientImpl implements Client {
         String subProgram = "default";
         String subPassword = "password";
         m_distributer.createConnection(null, host, port, subProgram, subPassword);
+        this.initializeRouting();
     }
     
     /**
@@ -172,6 +190,126 @@ final class ClientImpl implements Client {
         final String subProgram = (program == null) ? "" : program;
         final String subPassword = (password == null) ? "" : password;
         m_distributer.createConnection(site_id, host, port, subProgram, subPassword);
+        this.initializeRouting();
+    }
+    
+    /**
+     * If we weren't given a catalog, then grab it from the cluster so that we
+     * can start routing requests directly to the site with their base partition.
+     * If this fails, then we'll keep going and just let the cluster redirect them.
+     */
+    private void initializeRouting() {
+        if (m_routing != null ||
+            m_hstoreConf.client.txn_hints == false ||
+            m_hstoreConf.client.txn_hints_fetch_catalog == false) {
+            return;
+        }
+        synchronized (this) {
+            if (m_routing != null) return;
+            try {
+                m_routing = this.fetchRouting();
+            } catch (Exception ex) {
+                LOG.warn("Failed to retrieve catalog from the cluster. " +
+                         "Requests will not be routed to their base partition's site", ex);
+                return;
+            }
+        } // SYNCH
+        if (debug.val)
+            LOG.debug(String.format("Retrieved catalog from the cluster [numPartitions=%d]",
+                      m_routing.catalogContext.numberOfPartitions));
+    }
+    
+    /**
+     * Retrieve the current catalog and the name of the hasher that
+     * the cluster is using to partition its data.
+     * @throws IOException
+     * @throws ProcCallException
+     */
+    private PartitionRouting fetchRouting() throws IOException, ProcCallException {
+        ClientResponse cresponse = this.callProcedure("@GetCatalog");
+        VoltTable vt = cresponse.getResults()[0];
+        boolean adv = vt.advanceRow();
+        assert(adv) : "Unexpected empty result from @GetCatalog";
+        Catalog catalog = new Catalog();
+        catalog.execute(vt.getString(0));
+        
+        // The cluster could be using a different hasher than us, so we'll ask it
+        // what it's using. If that doesn't work, then we'll just use our own.
+        String hasherClass = m_hstoreConf.global.hasher_class;
+        try {
+            cresponse = this.callProcedure("@GetConfiguration", (Object)new String[]{ "global.hasher_class" });
+            vt = cresponse.getResults()[0];
+            if (vt.advanceRow()) hasherClass = vt.getString("VALUE");
+        } catch (ProcCallException ex) {
+            LOG.warn("Failed to retrieve hasher class from the cluster. Using " + hasherClass, ex);
+        }
+        return (new PartitionRouting(catalog, hasherClass, m_hstoreConf.global.hasher_plan));
+    }
+    
+    @Override
+    public void updateCatalog(Catalog catalog) throws IOException, ProcCallException {
+        if (m_hstoreConf.client.txn_hints == false) {
+            if (debug.val) LOG.debug("Ignoring catalog update because client-side hints are disabled");
+            return;
+        }
+        PartitionRouting routing = null;
+        if (catalog != null) {
+            routing = new PartitionRouting(catalog, m_hstoreConf.global.hasher_class, m_hstoreConf.global.hasher_plan);
+        } else {
+            routing = this.fetchRouting();
+        }
+        m_routing = routing;
+        if (debug.val)
+            LOG.debug(String.format("Updated catalog [numPartitions=%d]",
+                      routing.catalogContext.numberOfPartitions));
+    }
+    
+    /**
+     * Figure out what site we should send the given invocation to. If we have a
+     * catalog, then this will also embed the base partition and procedure id in
+     * the invocation so that the HStoreSite does not have to figure them out.
+     * Returns null if the request can go to any site.
+     * @param invocation
+     * @param hints
+     */
+    private Integer routeInvocation(StoredProcedureInvocation invocation, StoredProcedureInvocationHints hints) {
+        // Grab a local handle so that the catalog can't change underneath us
+        final PartitionRouting routing = m_routing;
+        int partition = HStoreConstants.NULL_PARTITION_ID;
+        
+        if (hints != null && hints.basePartition != HStoreConstants.NULL_PARTITION_ID) {
+            partition = hints.basePartition;
+        }
+        if (routing != null) {
+            Procedure catalog_proc = routing.catalogContext.procedures.getIgnoreCase(invocation.getProcName());
+            if (catalog_proc != null) {
+                // OPTIMIZATION: If we have the the catalog, then we'll send just 
+                // the procId. This reduces the number of strings that we need to 
+                // allocate on the server side.
+                invocation.setProcedureId(catalog_proc.getId());
+                
+                // OPTIMIZATION: If this isn't a sysproc, then we can tell them
+                // what the base partition for this request will be
+                if (partition == HStoreConstants.NULL_PARTITION_ID && catalog_proc.getSystemproc() == false) {
+                    try {
+                        partition = routing.p_estimator.getBasePartition(invocation);
+                    } catch (Exception ex) {
+                        // Let the cluster figure out what is wrong with it
+                        if (debug.val)
+                            LOG.debug(String.format("Failed to estimate base partition for new invocation of '%s'",
+                                     invocation.getProcName()), ex);
+                    }
+                }
+            }
+        }
+        if (partition == HStoreConstants.NULL_PARTITION_ID) {
+            return (null);
+        }
+        invocation.setBasePartition(partition);
+        if (routing != null && partition >= 0 && partition < routing.partitionSiteXref.length) {
+            return (routing.partitionSiteXref[partition]);
+        }
+        return (null);
     }
 
     /**
@@ -208,24 +346,7 @@ final class ClientImpl implements Client {
         final StoredProcedureInvocation invocation =
               new StoredProcedureInvocation(m_handle.getAndIncrement(), procName, parameters);
 
-        Integer site_id = null;
-        if (hints != null && hints.basePartition != HStoreConstants.NULL_PARTITION_ID) {
-            invocation.setBasePartition(hints.basePartition);
-            if (m_partitionSiteXref != null) {
-                site_id = m_partitionSiteXref[hints.basePartition];
-            }
-        }
-        else if (m_catalog != null && procName.startsWith("@") == false) {
-            try {
-                int partition = m_pEstimator.getBasePartition(invocation);
-                if (partition != HStoreConstants.NULL_PARTITION_ID) {
-                    site_id = m_partitionSiteXref[partition];
-                    invocation.setBasePartition(partition);
-                }
-            } catch (Exception ex) {
-                throw new RuntimeException("Failed to estimate base partition for new invocation of '" + procName + "'", ex);
-            }
-        }
+        Integer site_id = this.routeInvocation(invocation, hints);
 
         long start = ProfileMeasurement.getTime();
         m_distributer.queue(
@@ -311,34 +432,7 @@ final class ClientImpl implements Client {
         StoredProcedureInvocation invocation =
             new StoredProcedureInvocation(m_handle.getAndIncrement(), procName, parameters);
 
-        Integer site_id = null;
-        if (m_catalog != null) {
-            Procedure catalog_proc = m_catalogContext.procedures.getIgnoreCase(procName);
-            if (catalog_proc != null) {
-                // OPTIMIZATION: If we have the the catalog, then we'll send just 
-                // the procId. This reduces the number of strings that we need to 
-                // allocate on the server side.
-                invocation.setProcedureId(catalog_proc.getId());
-                
-                // OPTIMIZATION: If this isn't a sysproc, then we can tell them
-                // what the base partition for this request will be
-                if ((hints == null || hints.basePartition == HStoreConstants.NULL_PARTITION_ID) &&
-                    catalog_proc.getSystemproc() == false) {
-                    try {
-                        int partition = m_pEstimator.getBasePartition(invocation);
-                        if (partition != HStoreConstants.NULL_PARTITION_ID) {
-                            site_id = m_partitionSiteXref[partition];
-                            invocation.setBasePartition(partition);
-                        }
-                    } catch (Exception ex) {
-                        throw new RuntimeException("Failed to estimate base partition for new invocation of '" + procName + "'", ex);
-                    }
-                }
-            }
-        }
-        if (hints != null && hints.basePartition != HStoreConstants.NULL_PARTITION_ID) {
-            invocation.setBasePartition(hints.basePartition);
-        }
+        Integer site_id = this.routeInvocation(invocation, hints);
 
         if (m_blockingQueue) {
             long start = ProfileMeasurement.getTime();
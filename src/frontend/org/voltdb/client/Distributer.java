@@ -22,10 +22,12 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -50,7 +52,6 @@ import edu.brown.hstore.HStoreThreadManager;
 import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
-import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.StringUtil;
 
 /**
@@ -71,7 +72,8 @@ class Distributer {
     private final ArrayList<NodeConnection> m_connections = new ArrayList<NodeConnection>();
     
     /** SiteId -> NodeConnection */
-    private final Map<Integer, Collection<NodeConnection>> m_connectionSiteXref = new HashMap<Integer, Collection<NodeConnection>>();
+    private final Map<Integer, NodeConnection[]> m_connectionSiteXref = new ConcurrentHashMap<Integer, NodeConnection[]>();
+    private final Random m_rand = new Random();
 
     private final ArrayList<ClientStatusListener> m_listeners = new ArrayList<ClientStatusListener>();
 
@@ -199,6 +201,7 @@ class Distributer {
         private Connection m_connection;
         private String m_hostname;
         private int m_port;
+        private Integer m_siteId;
         private boolean m_isConnected = true;
 
         private long m_invocationsCompleted = 0;
@@ -374,6 +377,8 @@ class Distributer {
                 //Prevent queueing of new work to this connection
                 synchronized (Distributer.this) {
                     m_connections.remove(this);
+                    // Make sure that nobody tries to route requests directly to us anymore
+                    removeSiteConnection(m_siteId, this);
                     //Notify listeners that a connection has been lost
                     for (ClientStatusListener s : m_listeners) {
                         s.connectionLost(m_hostname, m_connections.size());
@@ -558,6 +563,43 @@ class Distributer {
 //        }.start();
     }
 
+    /**
+     * Register the given connection as a direct route to the given site.
+     * The array for each site is replaced instead of modified so that
+     * queue() can read it without any locks.
+     */
+    private void addSiteConnection(Integer site_id, NodeConnection cxn) {
+        synchronized (m_connectionSiteXref) {
+            NodeConnection prev[] = m_connectionSiteXref.get(site_id);
+            NodeConnection next[] = null;
+            if (prev == null) {
+                next = new NodeConnection[]{ cxn };
+            } else {
+                next = Arrays.copyOf(prev, prev.length + 1);
+                next[prev.length] = cxn;
+            }
+            m_connectionSiteXref.put(site_id, next);
+        } // SYNCH
+    }
+    
+    /**
+     * Remove the given connection as a direct route to the given site.
+     */
+    private void removeSiteConnection(Integer site_id, NodeConnection cxn) {
+        if (site_id == null) return;
+        synchronized (m_connectionSiteXref) {
+            NodeConnection prev[] = m_connectionSiteXref.get(site_id);
+            if (prev == null) return;
+            List<NodeConnection> next = new ArrayList<NodeConnection>(Arrays.asList(prev));
+            next.remove(cxn);
+            if (next.isEmpty()) {
+                m_connectionSiteXref.remove(site_id);
+            } else {
+                m_connectionSiteXref.put(site_id, next.toArray(new NodeConnection[next.size()]));
+            }
+        } // SYNCH
+    }
+
 //    void createConnection(String host, String program, String password) throws UnknownHostException, IOException {
 //        LOG.info(String.format("Creating a new connection [host=%s, program=%s]", host, program));
 //        
@@ -614,18 +656,16 @@ class Distributer {
         m_buildString = (String)connectionStuff[2];
         NodeConnection cxn = new NodeConnection(numbers);
         m_connections.add(cxn);
-        if (site_id != null) {
-            if (debug.val)
-                LOG.debug(String.format("Created connection for Site %s: %s", HStoreThreadManager.formatSiteName(site_id), cxn));
-            synchronized (m_connectionSiteXref) {
-                Collection<NodeConnection> nc = m_connectionSiteXref.get(site_id);
-                if (nc == null) {
-                    nc = new ArrayList<NodeConnection>();
-                    m_connectionSiteXref.put(site_id, nc);
-                }
-                nc.add(cxn);    
-            } // SYNCH
+        // If they didn't tell us what site this connection is for, then we'll
+        // use the site id that the server sent back in the login response so
+        // that we can still route requests directly to it.
+        if (site_id == null) {
+            site_id = Integer.valueOf((int)numbers[0]);
         }
+        if (debug.val)
+            LOG.debug(String.format("Created connection for Site %s: %s", HStoreThreadManager.formatSiteName(site_id), cxn));
+        cxn.m_siteId = site_id;
+        addSiteConnection(site_id, cxn);
         
         Connection c = m_network.registerChannel(aChannel, cxn);
         cxn.m_hostname = c.getHostname();
@@ -677,8 +717,9 @@ class Distributer {
         // random Connection to that site. This is so that we can send the
         // txn request directly to the site that presumably has all of the
         // data that the txn will need
-        if (site_id != null && m_connectionSiteXref.containsKey(site_id)) {
-            cxn = CollectionUtil.random(m_connectionSiteXref.get(site_id));
+        final NodeConnection siteCxns[] = (site_id != null ? m_connectionSiteXref.get(site_id) : null);
+        if (siteCxns != null) {
+            cxn = (siteCxns.length == 1 ? siteCxns[0] : siteCxns[m_rand.nextInt(siteCxns.length)]);
             if (cxn == null) {
                 LOG.warn("No direct connection to " + HStoreThreadManager.formatSiteName(site_id));
             }
@@ -0,0 +1,320 @@
+package org.voltdb.client;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+import org.voltdb.CatalogContext;
+import org.voltdb.StoredProcedureInvocationHints;
+import org.voltdb.VoltSystemProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.catalog.Table;
+import org.voltdb.sysprocs.LoadSinglepartitionTable;
+
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.utils.PartitionEstimator;
+
+/**
+ * Client-side bulk loader for non-replicated tables. Incoming tuples are split
+ * into a buffer for each partition, and every time that a buffer fills up it is
+ * sent directly to the partition that owns it using @LoadSinglepartitionTable.
+ * That means that each chunk is its own single-partition txn and we never have to
+ * lock the entire cluster like @LoadMultipartitionTable does.
+ * <p>
+ * The loader will only allow a fixed number of chunks to be outstanding at the
+ * cluster at the same time. Any thread that tries to send more will block until
+ * one of the earlier chunks comes back. Chunks that get rejected by the HStoreSite
+ * are resent the next time that the loader sends something.
+ * <p>
+ * The loader is thread-safe. You have to call drain() when you are done so that
+ * the partially filled buffers get sent and to wait for everything to finish.
+ */
+public class PartitionedTableLoader {
+    private static final Logger LOG = Logger.getLogger(PartitionedTableLoader.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    private static final LoggerBoolean trace = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    /**
+     * How many times we will send a chunk before we give up on it.
+     */
+    private static final int MAX_TRIES = 3;
+
+    private static final String PROC_NAME = VoltSystemProcedure.procCallName(LoadSinglepartitionTable.class);
+
+    /**
+     * A group of tuples for a single table that all belong to the same partition.
+     */
+    private static class Chunk {
+        private final String tableName;
+        private final int partition;
+        private final VoltTable vt;
+        private int tries = 0;
+
+        private Chunk(String tableName, int partition, VoltTable vt) {
+            this.tableName = tableName;
+            this.partition = partition;
+            this.vt = vt;
+        }
+    } // CLASS
+
+    /**
+     * The per-partition buffers for a single table.
+     */
+    private static class TableBuffers {
+        private final Table catalog_tbl;
+        private final VoltTable partitions[];
+
+        private TableBuffers(Table catalog_tbl, int numPartitions) {
+            this.catalog_tbl = catalog_tbl;
+            this.partitions = new VoltTable[numPartitions];
+        }
+    } // CLASS
+
+    private final Client client;
+    private final CatalogContext catalogContext;
+    private final PartitionEstimator p_estimator;
+    private final int chunkSize;
+    private final int maxOutstanding;
+    private final Semaphore outstanding;
+    private final ConcurrentHashMap<String, TableBuffers> buffers = new ConcurrentHashMap<String, TableBuffers>();
+
+    /**
+     * Chunks that were rejected and need to get sent again.
+     */
+    private final Queue<Chunk> retries = new ConcurrentLinkedQueue<Chunk>();
+
+    /**
+     * The first chunk that failed for some reason other than being rejected.
+     */
+    private final AtomicReference<ProcCallException> error = new AtomicReference<ProcCallException>();
+
+    private final AtomicLong sentChunks = new AtomicLong(0);
+    private final AtomicLong sentTuples = new AtomicLong(0);
+    private final AtomicLong rejectedChunks = new AtomicLong(0);
+
+    /**
+     * Constructor
+     * @param client
+     * @param catalogContext
+     * @param p_estimator Must use the same hasher as the cluster
+     * @param chunkSize The number of tuples to buffer per partition before sending
+     * @param maxOutstanding The maximum number of chunks that can be in flight at the same time
+     */
+    public PartitionedTableLoader(Client client,
+                                  CatalogContext catalogContext,
+                                  PartitionEstimator p_estimator,
+                                  int chunkSize,
+                                  int maxOutstanding) {
+        assert(chunkSize > 0) : "Invalid chunk size " + chunkSize;
+        assert(maxOutstanding > 0) : "Invalid max outstanding " + maxOutstanding;
+        this.client = client;
+        this.catalogContext = catalogContext;
+        this.p_estimator = p_estimator;
+        this.chunkSize = chunkSize;
+        this.maxOutstanding = maxOutstanding;
+        this.outstanding = new Semaphore(maxOutstanding);
+    }
+
+    /**
+     * Returns true if the given table can be loaded with this loader.
+     * Replicated tables and tables with a vertical partition need to update every
+     * partition, so they still have to go through @LoadMultipartitionTable.
+     * @param catalog_tbl
+     */
+    public static boolean canLoad(Table catalog_tbl) {
+        return (catalog_tbl.getIsreplicated() == false &&
+                CatalogUtil.getVerticalPartition(catalog_tbl) == null);
+    }
+
+    /**
+     * Queue up all of the tuples in the given VoltTable to be loaded into the table.
+     * This will only block if we have to send out a chunk and there are already
+     * too many of them outstanding.
+     * @param tableName
+     * @param vt
+     * @throws ProcCallException If an earlier chunk failed to load
+     */
+    public void load(String tableName, VoltTable vt) throws IOException, InterruptedException, ProcCallException {
+        this.checkError();
+        this.sendRetries();
+
+        TableBuffers tb = this.getTableBuffers(tableName);
+        synchronized (tb) {
+            vt.resetRowPosition();
+            while (vt.advanceRow()) {
+                int partition;
+                try {
+                    partition = this.p_estimator.getTableRowPartition(tb.catalog_tbl, vt);
+                } catch (Exception ex) {
+                    throw new RuntimeException("Failed to calculate partition for " + tb.catalog_tbl.getName(), ex);
+                }
+                VoltTable buffer = tb.partitions[partition];
+                if (buffer == null) {
+                    buffer = vt.clone(1024 * 1024);
+                    tb.partitions[partition] = buffer;
+                }
+                buffer.add(vt);
+                if (buffer.getRowCount() >= this.chunkSize) {
+                    tb.partitions[partition] = null;
+                    this.send(new Chunk(tb.catalog_tbl.getName(), partition, buffer));
+                }
+            } // WHILE
+        } // SYNCH
+    }
+
+    /**
+     * Send out all of the partially filled buffers.
+     */
+    public void flush() throws IOException, InterruptedException {
+        for (TableBuffers tb : this.buffers.values()) {
+            synchronized (tb) {
+                for (int partition = 0; partition < tb.partitions.length; partition++) {
+                    VoltTable buffer = tb.partitions[partition];
+                    if (buffer == null) continue;
+                    tb.partitions[partition] = null;
+                    this.send(new Chunk(tb.catalog_tbl.getName(), partition, buffer));
+                } // FOR
+            } // SYNCH
+        } // FOR
+    }
+
+    /**
+     * Send out all of the partially filled buffers and then block until every
+     * chunk that we have sent out has been loaded.
+     * @throws ProcCallException If any of the chunks failed to load
+     */
+    public void drain() throws IOException, InterruptedException, ProcCallException {
+        this.flush();
+        while (true) {
+            // Once we can grab all of the permits, then we know that
+            // there is nothing else out there
+            this.outstanding.acquire(this.maxOutstanding);
+            this.outstanding.release(this.maxOutstanding);
+            if (this.retries.isEmpty()) break;
+            this.sendRetries();
+        } // WHILE
+        this.checkError();
+        if (debug.val)
+            LOG.debug(String.format("Finished loading %d tuples in %d chunks [rejected=%d]",
+                      this.sentTuples.get(), this.sentChunks.get(), this.rejectedChunks.get()));
+    }
+
+    // ----------------------------------------------------------------------------
+    // INTERNAL METHODS
+    // ----------------------------------------------------------------------------
+
+    private TableBuffers getTableBuffers(String tableName) {
+        TableBuffers tb = this.buffers.get(tableName);
+        if (tb == null) {
+            Table catalog_tbl = this.catalogContext.getTableByName(tableName);
+            if (catalog_tbl == null) {
+                throw new RuntimeException("Invalid table name '" + tableName + "'");
+            }
+            else if (canLoad(catalog_tbl) == false) {
+                throw new RuntimeException(String.format("Table '%s' cannot be loaded with %s",
+                                           tableName, this.getClass().getSimpleName()));
+            }
+            tb = new TableBuffers(catalog_tbl, this.catalogContext.numberOfPartitions);
+            TableBuffers existing = this.buffers.putIfAbsent(tableName, tb);
+            if (existing != null) tb = existing;
+        }
+        return (tb);
+    }
+
+    private void sendRetries() throws IOException, InterruptedException {
+        Chunk chunk = null;
+        while ((chunk = this.retries.poll()) != null) {
+            this.send(chunk);
+        } // WHILE
+    }
+
+    private void checkError() throws ProcCallException {
+        ProcCallException ex = this.error.get();
+        if (ex != null) throw ex;
+    }
+
+    private void send(final Chunk chunk) throws IOException, InterruptedException {
+        this.outstanding.acquire();
+        chunk.tries++;
+        if (trace.val)
+            LOG.trace(String.format("Sending %d tuples for %s to partition %d [try=%d]",
+                      chunk.vt.getRowCount(), chunk.tableName, chunk.partition, chunk.tries));
+
+        StoredProcedureInvocationHints hints = new StoredProcedureInvocationHints();
+        hints.basePartition = chunk.partition;
+        ProcedureCallback callback = new ProcedureCallback() {
+            @Override
+            public void clientCallback(ClientResponse cr) {
+                PartitionedTableLoader.this.finish(chunk, cr);
+            }
+        };
+        boolean queued = false;
+        try {
+            while ((queued = this.client.callProcedure(callback, PROC_NAME, hints,
+                                                       chunk.partition, chunk.tableName, chunk.vt)) == false) {
+                this.client.backpressureBarrier();
+            } // WHILE
+        } finally {
+            if (queued == false) this.outstanding.release();
+        }
+    }
+
+    private void finish(Chunk chunk, ClientResponse cr) {
+        try {
+            if (cr.getStatus() == Status.OK) {
+                this.sentChunks.incrementAndGet();
+                this.sentTuples.addAndGet(chunk.vt.getRowCount());
+            }
+            else if (cr.getStatus() == Status.ABORT_REJECT && chunk.tries < MAX_TRIES) {
+                if (debug.val)
+                    LOG.warn(String.format("Loading %d tuples for %s at partition %d was rejected. " +
+                             "Going to try again", chunk.vt.getRowCount(), chunk.tableName, chunk.partition));
+                this.rejectedChunks.incrementAndGet();
+                this.retries.offer(chunk);
+            }
+            else {
+                String msg = String.format("Failed to load %d tuples for %s at partition %d: %s",
+                                           chunk.vt.getRowCount(), chunk.tableName,
+                                           chunk.partition, cr.getStatusString());
+                LOG.warn(msg);
+                this.error.compareAndSet(null, new ProcCallException(cr, msg, cr.getException()));
+            }
+        } finally {
+            this.outstanding.release();
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // UTILITY METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Return the number of chunks that have been successfully loaded.
+     */
+    public long getChunkCount() {
+        return (this.sentChunks.get());
+    }
+    /**
+     * Return the number of tuples that have been successfully loaded.
+     */
+    public long getTupleCount() {
+        return (this.sentTuples.get());
+    }
+    /**
+     * Return the number of times that a chunk was rejected by the cluster.
+     */
+    public long getRejectCount() {
+        return (this.rejectedChunks.get());
+    }
+}
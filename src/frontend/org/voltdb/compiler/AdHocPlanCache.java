@@ -0,0 +1,603 @@
+package org.voltdb.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.voltdb.VoltType;
+import org.voltdb.expressions.AbstractExpression;
+import org.voltdb.expressions.ConstantValueExpression;
+import org.voltdb.expressions.ParameterValueExpression;
+import org.voltdb.plannodes.LimitPlanNode;
+import org.voltdb.plannodes.PlanNodeTree;
+import org.voltdb.types.ExpressionType;
+
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * LRU cache of the plans generated for @AdHoc queries.
+ * <p>
+ * Before we plan an ad hoc query, we normalize it and pull out all of its
+ * literals so that they can be replaced with parameters. We then plan the
+ * parameterized version of the query once and cache its fragments. When another
+ * query comes along with the same shape, we just substitute its literals back
+ * into the cached fragments instead of invoking the planner again.
+ * <p>
+ * Not every query can be parameterized (e.g., the planner can't figure out the type
+ * of a parameter in the SELECT clause). For those queries we will just cache the
+ * plan for that exact query string, and remember that we shouldn't bother trying
+ * to parameterize it again.
+ * <p>
+ * This is not thread-safe. It should only be used by the AsyncCompilerWorkThread.
+ */
+public class AdHocPlanCache {
+    private static final Logger LOG = Logger.getLogger(AdHocPlanCache.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    private static final LoggerBoolean trace = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug, trace);
+    }
+
+    // ----------------------------------------------------------------------------
+    // LITERALS
+    // ----------------------------------------------------------------------------
+
+    public enum LiteralType {
+        INTEGER,
+        DECIMAL,
+        STRING;
+    }
+
+    /**
+     * A constant that was pulled out of an ad hoc query
+     */
+    public static class Literal {
+        public final LiteralType type;
+        public final String value;
+
+        public Literal(LiteralType type, String value) {
+            this.type = type;
+            this.value = value;
+        }
+
+        /**
+         * Convert this literal into the object that should be used as
+         * the VALUE of a ConstantValueExpression of the given type.
+         * @param vtype
+         * @return
+         * @throws IllegalArgumentException if the literal can't be converted
+         */
+        protected Object toJSONValue(VoltType vtype) {
+            switch (this.type) {
+                case INTEGER: {
+                    switch (vtype) {
+                        case TINYINT:
+                        case SMALLINT:
+                        case INTEGER:
+                        case BIGINT:
+                        case TIMESTAMP: {
+                            long val = Long.parseLong(this.value);
+                            if (vtype == VoltType.TINYINT && (val < Byte.MIN_VALUE || val > Byte.MAX_VALUE) ||
+                                vtype == VoltType.SMALLINT && (val < Short.MIN_VALUE || val > Short.MAX_VALUE) ||
+                                vtype == VoltType.INTEGER && (val < Integer.MIN_VALUE || val > Integer.MAX_VALUE)) {
+                                break;
+                            }
+                            return (Long.valueOf(val));
+                        }
+                        case FLOAT:
+                            return (Double.valueOf(this.value));
+                        case DECIMAL:
+                            return (this.value);
+                        default:
+                            break;
+                    } // SWITCH
+                    break;
+                }
+                case DECIMAL: {
+                    if (vtype == VoltType.FLOAT) return (Double.valueOf(this.value));
+                    if (vtype == VoltType.DECIMAL) return (this.value);
+                    break;
+                }
+                case STRING: {
+                    if (vtype == VoltType.STRING) return (this.value);
+                    break;
+                }
+            } // SWITCH
+            throw new IllegalArgumentException(String.format("Unable to convert %s literal '%s' to %s",
+                                                             this.type, this.value, vtype));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s{%s}", this.type, this.value);
+        }
+    }
+
+    /**
+     * A normalized ad hoc query with its literals pulled out as parameters
+     */
+    public static class ParameterizedSQL {
+        private final String parameterizedSQL;
+        private final String literalSQL;
+        private final Literal params[];
+
+        private ParameterizedSQL(String parameterizedSQL, String literalSQL, Literal params[]) {
+            this.parameterizedSQL = parameterizedSQL;
+            this.literalSQL = literalSQL;
+            this.params = params;
+        }
+        /**
+         * The normalized query with each literal replaced by a '?'
+         */
+        public String getParameterizedSQL() {
+            return (this.parameterizedSQL);
+        }
+        /**
+         * The normalized query with all of its literals still in it
+         */
+        public String getLiteralSQL() {
+            return (this.literalSQL);
+        }
+        public int getParameterCount() {
+            return (this.params.length);
+        }
+        public Literal getParameter(int idx) {
+            return (this.params[idx]);
+        }
+        @Override
+        public String toString() {
+            return (this.parameterizedSQL);
+        }
+    }
+
+    // ----------------------------------------------------------------------------
+    // CACHED PLANS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * The serialized fragments for an ad hoc query.
+     * If numParameters is greater than zero, then the fragments need to be bound
+     * with {@link #bind(ParameterizedSQL)} before they can be executed.
+     */
+    public static class CachedPlan {
+        public final String aggregatorFragment;
+        public final String collectorFragment;
+        public final boolean replicatedDML;
+        public final int numParameters;
+
+        public CachedPlan(String aggregatorFragment, String collectorFragment, boolean replicatedDML, int numParameters) {
+            this.aggregatorFragment = aggregatorFragment;
+            this.collectorFragment = collectorFragment;
+            this.replicatedDML = replicatedDML;
+            this.numParameters = numParameters;
+        }
+
+        protected CachedPlan(PlannerTool.Result result, int numParameters) {
+            this(result.onePlan, result.allPlan, result.replicatedDML, numParameters);
+        }
+
+        /**
+         * Substitute the given query's literals into this plan's fragments. Returns
+         * null if any of the literals can't be used for their parameters or if some
+         * of the parameters in the plan weren't bound.
+         * @param psql
+         * @return
+         */
+        public CachedPlan bind(ParameterizedSQL psql) {
+            if (this.numParameters == 0) return (this);
+            final Literal params[] = psql.params;
+            if (params.length != this.numParameters) return (null);
+
+            boolean bound[] = new boolean[params.length];
+            String aggregator = null;
+            String collector = null;
+            try {
+                aggregator = bindFragment(this.aggregatorFragment, params, bound);
+                collector = bindFragment(this.collectorFragment, params, bound);
+            } catch (JSONException ex) {
+                if (debug.val) LOG.warn("Failed to bind parameters " + Arrays.toString(params), ex);
+                return (null);
+            } catch (RuntimeException ex) {
+                if (debug.val) LOG.debug("Failed to bind parameters: " + ex.getMessage());
+                return (null);
+            }
+            for (int i = 0; i < bound.length; i++) {
+                if (bound[i] == false) {
+                    if (debug.val) LOG.debug("Parameter #" + i + " was never bound");
+                    return (null);
+                }
+            } // FOR
+            return new CachedPlan(aggregator, collector, this.replicatedDML, 0);
+        }
+    }
+
+    /**
+     * Marker for a query shape that could not be parameterized
+     */
+    private static final CachedPlan LITERAL_ONLY = new CachedPlan(null, null, false, -1);
+
+    /**
+     * Returned by {@link #lookup(ParameterizedSQL)} when we have a good plan for the
+     * query's shape but its literals can't be bound to it. The caller should just plan
+     * the literal query and leave the parameterized plan alone for the next query.
+     */
+    public static final CachedPlan BIND_FAILED = new CachedPlan(null, null, false, -1);
+
+    private static final String PARAMETERIZED_PREFIX = "P:";
+    private static final String LITERAL_PREFIX = "L:";
+
+    // ----------------------------------------------------------------------------
+    // INSTANCE MEMBERS
+    // ----------------------------------------------------------------------------
+
+    private final int capacity;
+    private final Map<String, CachedPlan> plans;
+    private long hits = 0;
+    private long misses = 0;
+
+    public AdHocPlanCache(int capacity) {
+        assert(capacity > 0);
+        this.capacity = capacity;
+        this.plans = new LinkedHashMap<String, CachedPlan>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedPlan> eldest) {
+                return (this.size() > AdHocPlanCache.this.capacity);
+            }
+        };
+    }
+
+    /**
+     * Return a ready-to-execute plan for the given query if we have one.
+     * We first check whether we have a plan for the exact query and then whether
+     * we have a parameterized plan that the query's literals can be bound to.
+     * If we do have a parameterized plan but the literals don't fit into it, then
+     * this returns {@link #BIND_FAILED} instead of null.
+     * @param psql
+     * @return
+     */
+    public CachedPlan lookup(ParameterizedSQL psql) {
+        CachedPlan plan = this.plans.get(LITERAL_PREFIX + psql.literalSQL);
+        if (plan == null && psql.params.length > 0) {
+            CachedPlan template = this.plans.get(PARAMETERIZED_PREFIX + psql.parameterizedSQL);
+            if (template != null && template != LITERAL_ONLY) {
+                plan = template.bind(psql);
+                if (plan == null) {
+                    this.misses++;
+                    if (trace.val) LOG.trace("Failed to bind parameterized plan for " + psql);
+                    return (BIND_FAILED);
+                }
+            }
+        }
+        if (plan != null) {
+            this.hits++;
+            if (trace.val) LOG.trace("Cache hit for " + psql);
+        } else {
+            this.misses++;
+            if (trace.val) LOG.trace("Cache miss for " + psql);
+        }
+        return (plan);
+    }
+
+    /**
+     * Returns true if we should try to plan the parameterized
+     * version of the given query.
+     * @param psql
+     * @return
+     */
+    public boolean canParameterize(ParameterizedSQL psql) {
+        if (psql.params.length == 0) return (false);
+        return (this.plans.get(PARAMETERIZED_PREFIX + psql.parameterizedSQL) != LITERAL_ONLY);
+    }
+
+    /**
+     * Store the plan for the parameterized version of the given query
+     * @param psql
+     * @param plan
+     */
+    public void putParameterized(ParameterizedSQL psql, CachedPlan plan) {
+        assert(plan.numParameters == psql.params.length);
+        this.plans.put(PARAMETERIZED_PREFIX + psql.parameterizedSQL, plan);
+    }
+
+    /**
+     * Mark the given query's shape as one that we can't parameterize
+     * @param psql
+     */
+    public void putLiteralOnly(ParameterizedSQL psql) {
+        this.plans.put(PARAMETERIZED_PREFIX + psql.parameterizedSQL, LITERAL_ONLY);
+    }
+
+    /**
+     * Store the plan for the exact version of the given query
+     * @param psql
+     * @param plan
+     */
+    public void putLiteral(ParameterizedSQL psql, CachedPlan plan) {
+        assert(plan.numParameters == 0);
+        this.plans.put(LITERAL_PREFIX + psql.literalSQL, plan);
+    }
+
+    /**
+     * Remove all of the cached plans. This must be called
+     * whenever the catalog changes.
+     */
+    public void clear() {
+        if (debug.val) LOG.debug(String.format("Clearing %d cached plans [hits=%d, misses=%d]",
+                                 this.plans.size(), this.hits, this.misses));
+        this.plans.clear();
+    }
+
+    public int size() {
+        return (this.plans.size());
+    }
+    public long getHitCount() {
+        return (this.hits);
+    }
+    public long getMissCount() {
+        return (this.misses);
+    }
+
+    // ----------------------------------------------------------------------------
+    // PARAMETERIZATION
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Keywords that end an ORDER BY or GROUP BY clause. We don't parameterize
+     * numbers inside of those clauses because they might be column ordinals.
+     */
+    private static final String CLAUSE_KEYWORDS[] = {
+        "SELECT", "FROM", "WHERE", "HAVING", "ORDER", "GROUP", "LIMIT", "OFFSET", "UNION"
+    };
+
+    private static boolean isIdentifierChar(char c) {
+        return (Character.isLetterOrDigit(c) || c == '_' || c == '$');
+    }
+
+    /**
+     * Normalize the given SQL and pull out its literals. Whitespace is collapsed,
+     * comments are removed, and unquoted words are converted to upper case. Quoted
+     * identifiers and string literals are left as is. If the query already has
+     * its own parameter markers, then we won't pull out any literals.
+     * @param sql
+     * @return
+     */
+    public static ParameterizedSQL parameterize(String sql) {
+        StringBuilder parameterized = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        List<Literal> params = new ArrayList<Literal>();
+        boolean hasMarkers = false;
+        boolean ordinalClause = false;
+        String prevWord = null;
+        boolean space = false;
+
+        final int n = sql.length();
+        int i = 0;
+        while (i < n) {
+            char c = sql.charAt(i);
+
+            // Whitespace
+            if (Character.isWhitespace(c)) {
+                space = true;
+                i++;
+                continue;
+            }
+            // Comments
+            if (c == '-' && i + 1 < n && sql.charAt(i + 1) == '-') {
+                while (i < n && sql.charAt(i) != '\n') i++;
+                space = true;
+                continue;
+            }
+            if (space && literal.length() > 0) {
+                parameterized.append(' ');
+                literal.append(' ');
+            }
+            space = false;
+
+            // String Literal
+            if (c == '\'') {
+                StringBuilder value = new StringBuilder();
+                int j = i + 1;
+                while (j < n) {
+                    char cc = sql.charAt(j);
+                    if (cc == '\'') {
+                        if (j + 1 < n && sql.charAt(j + 1) == '\'') {
+                            value.append('\'');
+                            j += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    value.append(cc);
+                    j++;
+                } // WHILE
+                j = Math.min(j + 1, n);
+                String raw = sql.substring(i, j);
+                // Don't touch things like X'ABCD'
+                boolean prefixed = (i > 0 && isIdentifierChar(sql.charAt(i - 1)));
+                if (prefixed) {
+                    parameterized.append(raw);
+                } else {
+                    parameterized.append('?');
+                    params.add(new Literal(LiteralType.STRING, value.toString()));
+                }
+                literal.append(raw);
+                i = j;
+            }
+            // Quoted Identifier
+            else if (c == '"') {
+                int j = i + 1;
+                while (j < n) {
+                    if (sql.charAt(j) == '"') {
+                        if (j + 1 < n && sql.charAt(j + 1) == '"') {
+                            j += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    j++;
+                } // WHILE
+                j = Math.min(j + 1, n);
+                String raw = sql.substring(i, j);
+                parameterized.append(raw);
+                literal.append(raw);
+                i = j;
+            }
+            // Numeric Literal
+            else if (Character.isDigit(c) || (c == '.' && i + 1 < n && Character.isDigit(sql.charAt(i + 1)))) {
+                boolean decimal = false;
+                int j = i;
+                while (j < n && Character.isDigit(sql.charAt(j))) j++;
+                if (j < n && sql.charAt(j) == '.') {
+                    decimal = true;
+                    j++;
+                    while (j < n && Character.isDigit(sql.charAt(j))) j++;
+                }
+                if (j < n && (sql.charAt(j) == 'e' || sql.charAt(j) == 'E')) {
+                    int k = j + 1;
+                    if (k < n && (sql.charAt(k) == '+' || sql.charAt(k) == '-')) k++;
+                    if (k < n && Character.isDigit(sql.charAt(k))) {
+                        decimal = true;
+                        j = k;
+                        while (j < n && Character.isDigit(sql.charAt(j))) j++;
+                    }
+                }
+                String raw = sql.substring(i, j);
+                if (ordinalClause) {
+                    parameterized.append(raw);
+                } else {
+                    parameterized.append('?');
+                    params.add(new Literal(decimal ? LiteralType.DECIMAL : LiteralType.INTEGER, raw));
+                }
+                literal.append(raw);
+                i = j;
+            }
+            // Keywords + Identifiers
+            else if (isIdentifierChar(c)) {
+                int j = i;
+                while (j < n && isIdentifierChar(sql.charAt(j))) j++;
+                String word = sql.substring(i, j).toUpperCase();
+                if (word.equals("BY") && ("ORDER".equals(prevWord) || "GROUP".equals(prevWord))) {
+                    ordinalClause = true;
+                } else if (ordinalClause) {
+                    for (String keyword : CLAUSE_KEYWORDS) {
+                        if (word.equals(keyword)) {
+                            ordinalClause = false;
+                            break;
+                        }
+                    } // FOR
+                }
+                parameterized.append(word);
+                literal.append(word);
+                prevWord = word;
+                i = j;
+            }
+            // Everything Else
+            else {
+                if (c == '?') hasMarkers = true;
+                parameterized.append(c);
+                literal.append(c);
+                i++;
+            }
+        } // WHILE
+
+        // Remove any trailing semicolons
+        trimTrailing(parameterized);
+        trimTrailing(literal);
+
+        String literalSQL = literal.toString();
+        if (hasMarkers || params.isEmpty()) {
+            return new ParameterizedSQL(literalSQL, literalSQL, new Literal[0]);
+        }
+        return new ParameterizedSQL(parameterized.toString(), literalSQL, params.toArray(new Literal[params.size()]));
+    }
+
+    private static void trimTrailing(StringBuilder sb) {
+        int len = sb.length();
+        while (len > 0 && (sb.charAt(len - 1) == ';' || sb.charAt(len - 1) == ' ')) len--;
+        sb.setLength(len);
+    }
+
+    // ----------------------------------------------------------------------------
+    // BINDING
+    // ----------------------------------------------------------------------------
+
+    private static final String TYPE_KEY = AbstractExpression.Members.TYPE.name();
+    private static final String VALUE_TYPE_KEY = AbstractExpression.Members.VALUE_TYPE.name();
+    private static final String VALUE_KEY = ConstantValueExpression.Members.VALUE.name();
+    private static final String PARAM_IDX_KEY = ParameterValueExpression.Members.PARAM_IDX.name();
+    private static final String PARAMETER_TYPE = ExpressionType.VALUE_PARAMETER.toString();
+    private static final String CONSTANT_TYPE = ExpressionType.VALUE_CONSTANT.toString();
+
+    private static final String LIMIT_KEYS[][] = {
+        { LimitPlanNode.Members.LIMIT.name(), LimitPlanNode.Members.LIMIT_PARAM_IDX.name() },
+        { LimitPlanNode.Members.OFFSET.name(), LimitPlanNode.Members.OFFSET_PARAM_IDX.name() },
+    };
+
+    /**
+     * Replace all of the parameters in the serialized PlanNodeList
+     * with the given literals.
+     * @param fragment
+     * @param params
+     * @param bound
+     * @return
+     * @throws JSONException
+     */
+    protected static String bindFragment(String fragment, Literal params[], boolean bound[]) throws JSONException {
+        if (fragment == null) return (null);
+        JSONObject json = new JSONObject(fragment);
+        bindParameters(json, params, bound);
+        // There is nothing left for the EE to bind
+        json.put(PlanNodeTree.Members.PARAMETERS.name(), new JSONArray());
+        return (json.toString());
+    }
+
+    private static void bindParameters(Object obj, Literal params[], boolean bound[]) throws JSONException {
+        if (obj instanceof JSONArray) {
+            JSONArray json = (JSONArray)obj;
+            for (int i = 0, cnt = json.length(); i < cnt; i++) {
+                bindParameters(json.get(i), params, bound);
+            } // FOR
+            return;
+        }
+        if ((obj instanceof JSONObject) == false) return;
+        JSONObject json = (JSONObject)obj;
+
+        // ParameterValueExpression -> ConstantValueExpression
+        if (PARAMETER_TYPE.equals(json.optString(TYPE_KEY))) {
+            int idx = json.getInt(PARAM_IDX_KEY);
+            VoltType vtype = VoltType.typeFromString(json.getString(VALUE_TYPE_KEY));
+            json.put(VALUE_KEY, params[idx].toJSONValue(vtype));
+            json.put(TYPE_KEY, CONSTANT_TYPE);
+            json.remove(PARAM_IDX_KEY);
+            bound[idx] = true;
+            return;
+        }
+
+        // LimitPlanNode
+        for (String keys[] : LIMIT_KEYS) {
+            int idx = json.optInt(keys[1], -1);
+            if (idx < 0) continue;
+            Object val = params[idx].toJSONValue(VoltType.INTEGER);
+            json.put(keys[0], ((Long)val).intValue());
+            json.put(keys[1], -1);
+            bound[idx] = true;
+        } // FOR
+
+        String keys[] = JSONObject.getNames(json);
+        if (keys == null) return;
+        for (String key : keys) {
+            Object child = json.get(key);
+            if (child instanceof JSONObject || child instanceof JSONArray) {
+                bindParameters(child, params, bound);
+            }
+        } // FOR
+    }
+}
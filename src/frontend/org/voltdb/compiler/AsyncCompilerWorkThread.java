@@ -23,15 +23,19 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
+import org.hsqldb.HSQLInterface.HSQLParseException;
 import org.voltdb.CatalogContext;
 import org.voltdb.VoltDB;
 import org.voltdb.catalog.Catalog;
 import org.voltdb.catalog.CatalogDiffEngine;
+import org.voltdb.compiler.AdHocPlanCache.CachedPlan;
+import org.voltdb.compiler.AdHocPlanCache.ParameterizedSQL;
 import org.voltdb.utils.CatalogUtil;
 import org.voltdb.utils.DumpManager;
 import org.voltdb.utils.Encoder;
 
 import edu.brown.hstore.HStoreSite;
+import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.txns.LocalTransaction;
 import edu.brown.interfaces.Shutdownable;
 import edu.brown.logging.LoggerUtil;
@@ -50,6 +54,12 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
     //HSQLInterface m_hsql;
     PlannerTool m_ptool;
     int counter = 0;
+    
+    /** Cached plans for ad hoc queries. Null if the cache is disabled */
+    final AdHocPlanCache m_planCache;
+    /** If true, then the planner will run in this JVM */
+    final boolean m_inProcessPlanner;
+
     final int m_siteId;
     boolean m_isLoaded = false;
     CatalogContext m_context;
@@ -67,6 +77,11 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
         //m_hsql = null;
         m_siteId = siteId;
         m_context = context;
+        
+        HStoreConf hstore_conf = HStoreConf.singleton(true);
+        int cacheSize = hstore_conf.site.exec_adhoc_plan_cache_size;
+        m_planCache = (cacheSize > 0 ? new AdHocPlanCache(cacheSize) : null);
+        m_inProcessPlanner = hstore_conf.site.exec_adhoc_inprocess_planner;
 
         setName("Ad Hoc Planner");
 
@@ -80,6 +95,11 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
         m_siteId = siteId;
         //m_context = context;
         m_hStoreSite = hStoreSite;
+        
+        HStoreConf hstore_conf = hStoreSite.getHStoreConf();
+        int cacheSize = hstore_conf.site.exec_adhoc_plan_cache_size;
+        m_planCache = (cacheSize > 0 ? new AdHocPlanCache(cacheSize) : null);
+        m_inProcessPlanner = hstore_conf.site.exec_adhoc_inprocess_planner;
 
         setName("Ad Hoc Planner");
 
@@ -95,9 +115,22 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
         }
         // if no placeholder, create a new plannertool
         if (m_ptool == null) {
-            m_ptool = PlannerTool.createPlannerToolProcess(m_hStoreSite.getCatalogContext().catalog.serialize());
+            CatalogContext catalogContext = this.getCatalogContext();
+            if (m_inProcessPlanner) {
+                try {
+                    m_ptool = PlannerTool.createPlannerToolInProcess(catalogContext.catalog);
+                } catch (HSQLParseException ex) {
+                    throw new RuntimeException("Failed to load schema into in-process planner", ex);
+                }
+            } else {
+                m_ptool = PlannerTool.createPlannerToolProcess(catalogContext.catalog.serialize());
+            }
         }
     }
+    
+    private CatalogContext getCatalogContext() {
+        return (m_hStoreSite != null ? m_hStoreSite.getCatalogContext() : m_context);
+    }
 
     public void verifyEverthingIsKosher() {
         if (m_ptool != null) {
@@ -208,6 +241,10 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
                         m_ptool.kill();
                         m_ptool = null;
                     }
+                    // none of our cached plans can be trusted anymore either
+                    if (m_planCache != null) {
+                        m_planCache.clear();
+                    }
                 }
 
                 AsyncCompilerResult result = null;
@@ -276,7 +313,7 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
 //        return context;
 //    }
 
-    private AsyncCompilerResult compileAdHocPlan(AdHocPlannerWork work) {
+    protected AsyncCompilerResult compileAdHocPlan(AdHocPlannerWork work) {
         AdHocPlannedStmt plannedStmt = new AdHocPlannedStmt(work.ts);
         plannedStmt.clientHandle = work.clientHandle;
 //        plannedStmt.connectionId = work.connectionId;
@@ -284,18 +321,39 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
 //        plannedStmt.clientData = work.clientData;
 
         try {
-            ensureLoadedPlanner();
-
-            PlannerTool.Result result = m_ptool.planSql(work.sql);
-
-            plannedStmt.aggregatorFragment = result.onePlan;
-            plannedStmt.collectorFragment = result.allPlan;
-
-            plannedStmt.isReplicatedTableDML = result.replicatedDML;
             plannedStmt.sql = work.sql;
-            plannedStmt.errorMsg = result.errors;
-            if (plannedStmt.errorMsg != null)
-                LOG.error("PlannerTool Error: " + result.errors);
+            
+            // Check whether we've already planned a query that looks like this one
+            ParameterizedSQL psql = null;
+            CachedPlan plan = null;
+            if (m_planCache != null && work.sql != null) {
+                psql = AdHocPlanCache.parameterize(work.sql);
+                plan = m_planCache.lookup(psql);
+                if (plan == AdHocPlanCache.BIND_FAILED) {
+                    // The cached parameterized plan is still good for other queries,
+                    // so we'll plan this one by itself and leave that plan alone
+                    plan = null;
+                }
+                else if (plan == null && m_planCache.canParameterize(psql)) {
+                    plan = this.compileParameterizedPlan(psql);
+                }
+            }
+            
+            if (plan == null) {
+                ensureLoadedPlanner();
+                PlannerTool.Result result = m_ptool.planSql(work.sql);
+                plannedStmt.errorMsg = result.errors;
+                if (plannedStmt.errorMsg != null) {
+                    LOG.error("PlannerTool Error: " + result.errors);
+                    return plannedStmt;
+                }
+                plan = new CachedPlan(result, 0);
+                if (psql != null) m_planCache.putLiteral(psql, plan);
+            }
+
+            plannedStmt.aggregatorFragment = plan.aggregatorFragment;
+            plannedStmt.collectorFragment = plan.collectorFragment;
+            plannedStmt.isReplicatedTableDML = plan.replicatedDML;
         }
         catch (Exception e) {
             String msg = "Unexpected Ad Hoc Planning Error";
@@ -306,6 +364,32 @@ public class AsyncCompilerWorkThread extends Thread implements DumpManager.Dumpa
         return plannedStmt;
     }
 
+    /**
+     * Plan the parameterized version of the given query, cache it, and then return
+     * the plan with the query's literals bound into it. If the planner doesn't like
+     * the parameterized query or we can't bind the literals to its parameters, then
+     * we'll remember that this query's shape is no good and return null.
+     * @param psql
+     * @return
+     */
+    private CachedPlan compileParameterizedPlan(ParameterizedSQL psql) {
+        ensureLoadedPlanner();
+        PlannerTool.Result result = m_ptool.planSql(psql.getParameterizedSQL());
+        if (result.errors == null) {
+            CachedPlan template = new CachedPlan(result, psql.getParameterCount());
+            CachedPlan plan = template.bind(psql);
+            if (plan != null) {
+                m_planCache.putParameterized(psql, template);
+                return (plan);
+            }
+        }
+        if (debug.val)
+            LOG.debug(String.format("Unable to parameterize ad hoc query [%s]: %s",
+                      psql.getParameterizedSQL(), result.errors));
+        m_planCache.putLiteralOnly(psql);
+        return (null);
+    }
+
     private AsyncCompilerResult prepareApplicationCatalogDiff(CatalogChangeWork work) {
         // create the change result and set up all the boiler plate
         CatalogChangeResult retval = new CatalogChangeResult();
@@ -49,6 +49,11 @@ import edu.brown.utils.StringUtil;
 /**
  * Planner tool accepts an already compiled VoltDB catalog and then
  * interactively accept SQL and outputs plans on standard out.
+ * <p>
+ * The planner can also be loaded directly inside of the calling process with
+ * {@link #createPlannerToolInProcess(Catalog)}. This avoids the IPC round-trip
+ * for every statement, but it means that a planner that goes off into the weeds
+ * can't be killed.
  */
 public class PlannerTool {
     private static final Logger LOG = Logger.getLogger(PlannerTool.class);
@@ -56,6 +61,11 @@ public class PlannerTool {
     Process m_process;
     OutputStreamWriter m_in;
     AtomicLong m_timeOfLastPlannerCall = new AtomicLong(0);
+    
+    // In-process planner
+    final Cluster m_cluster;
+    final Database m_db;
+    final HSQLInterface m_hsql;
 
     public static class Result {
         String onePlan = null;
@@ -82,9 +92,33 @@ public class PlannerTool {
 
         m_process = process;
         m_in = in;
+        m_cluster = null;
+        m_db = null;
+        m_hsql = null;
+    }
+    
+    PlannerTool(Cluster cluster, Database db, HSQLInterface hsql) {
+        assert(cluster != null);
+        assert(db != null);
+        assert(hsql != null);
+        
+        m_process = null;
+        m_in = null;
+        m_cluster = cluster;
+        m_db = db;
+        m_hsql = hsql;
+    }
+    
+    /**
+     * Returns true if this planner runs inside of the calling process
+     */
+    public boolean isInProcess() {
+        return (m_process == null);
     }
 
     public void kill() {
+        // There is nothing that we can do for an in-process planner
+        if (m_process == null) return;
         m_process.destroy();
         try {
             m_process.waitFor();
@@ -95,6 +129,7 @@ public class PlannerTool {
     }
 
     public boolean expensiveIsRunningCheck() {
+        if (m_process == null) return true;
         try {
             m_process.exitValue();
         }
@@ -129,6 +164,18 @@ public class PlannerTool {
         }
         // remove any spaces or newlines
         sql = sql.trim();
+        
+        // If we're running in the same process, then we can just plan
+        // the stmt directly without having to go through the pipe
+        if (m_process == null) {
+            try {
+                retval = plan(m_cluster, m_db, m_hsql, sql);
+            } finally {
+                m_timeOfLastPlannerCall.set(0);
+            }
+            return retval;
+        }
+        
         try {
             m_in.write(sql + "\n");
             m_in.flush();
@@ -197,6 +244,20 @@ public class PlannerTool {
         return retval;
     }
 
+    /**
+     * Create a new PlannerTool that plans stmts inside of this process
+     * @param catalog
+     * @return
+     * @throws HSQLParseException if the database's schema could not be loaded into HSQL
+     */
+    public static PlannerTool createPlannerToolInProcess(Catalog catalog) throws HSQLParseException {
+        Cluster cluster = catalog.getClusters().get("cluster");
+        Database db = cluster.getDatabases().get("database");
+        HSQLInterface hsql = loadHSQL(db);
+        LOG.debug("Created in-process planner");
+        return new PlannerTool(cluster, db, hsql);
+    }
+
     public static PlannerTool createPlannerToolProcess(String serializedCatalog) {
         assert(serializedCatalog != null);
 
@@ -242,6 +303,74 @@ public class PlannerTool {
         return new PlannerTool(process, in);
     }
 
+    /**
+     * Load the schema of the given database into a new HSQLInterface
+     * @param db
+     * @return
+     * @throws HSQLParseException
+     */
+    static HSQLInterface loadHSQL(Database db) throws HSQLParseException {
+        HSQLInterface hsql = HSQLInterface.loadHsqldb();
+        String hexDDL = db.getSchema();
+        String ddl = Encoder.hexDecodeToString(hexDDL);
+        String[] commands = ddl.split(";");
+        for (String command : commands) {
+            command = command.trim();
+            if (command.length() == 0)
+                continue;
+            hsql.runDDLCommand(command);
+        }
+        return (hsql);
+    }
+    
+    /**
+     * Plan a single SQL stmt and return the serialized fragments
+     * @param cluster
+     * @param db
+     * @param hsql
+     * @param sql
+     * @return
+     */
+    static Result plan(Cluster cluster, Database db, HSQLInterface hsql, String sql) {
+        Result retval = new Result();
+        
+        TrivialCostModel costModel = new TrivialCostModel();
+        QueryPlanner planner = new QueryPlanner(
+                cluster, db, hsql, new DatabaseEstimates(), false, true);
+        CompiledPlan plan = null;
+        try {
+            plan = planner.compilePlan(
+                    costModel, sql, "PlannerTool", "PlannerToolProc", false, null);
+        } catch (Throwable e) {
+            String plannerMsg = e.getMessage();
+            retval.errors = (plannerMsg != null ? plannerMsg : "UNKNOWN PLANNING ERROR");
+            return retval;
+        }
+        if (plan == null) {
+            String plannerMsg = planner.getErrorMessage();
+            retval.errors = (plannerMsg != null ? plannerMsg : "UNKNOWN PLANNING ERROR");
+            return retval;
+        }
+        assert(plan.fragments.size() <= 2);
+        
+        // print out the run-at-every-partition fragment
+        for (int i = 0; i < plan.fragments.size(); i++) {
+            Fragment frag = plan.fragments.get(i);
+            PlanNodeList planList = new PlanNodeList(frag.planGraph);
+            String serializedPlan = planList.toJSONString();
+            if (frag.multiPartition) {
+                assert(retval.allPlan == null);
+                retval.allPlan = serializedPlan;
+            }
+            else {
+                assert(retval.onePlan == null);
+                retval.onePlan = serializedPlan;
+            }
+        }
+        retval.replicatedDML = plan.replicatedTableDML;
+        return retval;
+    }
+
     static synchronized void log(String str) {
         try {
             if (m_logWriter == null) {
@@ -309,21 +438,13 @@ public class PlannerTool {
         //////////////////////
 
         log("creating HSQLInterface");
-        HSQLInterface hsql = HSQLInterface.loadHsqldb();
-        String hexDDL = db.getSchema();
-        String ddl = Encoder.hexDecodeToString(hexDDL);
-        String[] commands = ddl.split(";");
-        for (String command : commands) {
-            command = command.trim();
-            if (command.length() == 0)
-                continue;
-            try {
-                hsql.runDDLCommand(command);
-            } catch (HSQLParseException e) {
-                // need a good error message here
-                log("Error creating hsql: " + e.getMessage());
-                System.exit(82);
-            }
+        HSQLInterface hsql = null;
+        try {
+            hsql = loadHSQL(db);
+        } catch (HSQLParseException e) {
+            // need a good error message here
+            log("Error creating hsql: " + e.getMessage());
+            System.exit(82);
         }
 
         log("hsql loaded");
@@ -359,60 +480,30 @@ public class PlannerTool {
             // PLAN THE STMT
             //////////////////////
 
-            TrivialCostModel costModel = new TrivialCostModel();
-            QueryPlanner planner = new QueryPlanner(
-                    cluster, db, hsql, new DatabaseEstimates(), false, true);
-            CompiledPlan plan = null;
-            try {
-                plan = planner.compilePlan(
-                        costModel, inputLine, "PlannerTool", "PlannerToolProc", false, null);
-            } catch (Throwable e) {
-                log("Error creating planner: " + e.getMessage());
-                String plannerMsg = e.getMessage();
-                if (plannerMsg != null) {
-                    System.out.println("ERROR: " + plannerMsg + "\n");
-                }
-                else {
-                    System.out.println("ERROR: UNKNOWN PLANNING ERROR\n");
-                }
-                continue;
-            }
-            if (plan == null) {
-                String plannerMsg = planner.getErrorMessage();
-                if (plannerMsg != null) {
-                    System.out.println("ERROR: " + plannerMsg + "\n");
-                }
-                else {
-                    System.out.println("ERROR: UNKNOWN PLANNING ERROR\n");
-                }
+            Result result = plan(cluster, db, hsql, inputLine);
+            if (result.errors != null) {
+                log("Error creating planner: " + result.errors);
+                System.out.println("ERROR: " + result.errors + "\n");
                 continue;
             }
             
             log("finished planning stmt");
 
-            assert(plan.fragments.size() <= 2);
-
             //////////////////////
             // OUTPUT THE RESULT
             //////////////////////
 
             // print out the run-at-every-partition fragment
-            for (int i = 0; i < plan.fragments.size(); i++) {
-                Fragment frag = plan.fragments.get(i);
-                PlanNodeList planList = new PlanNodeList(frag.planGraph);
-                String serializedPlan = planList.toJSONString();
-                String encodedPlan = serializedPlan; //Encoder.compressAndBase64Encode(serializedPlan);
-                if (frag.multiPartition) {
-                    log("PLAN-ALL GENERATED");
-                    System.out.println("PLAN-ALL: " + encodedPlan);
-                }
-                else {
-                    log("PLAN-ONE GENERATED");
-                    System.out.println("PLAN-ONE: " + encodedPlan);
-                }
+            if (result.allPlan != null) {
+                log("PLAN-ALL GENERATED");
+                System.out.println("PLAN-ALL: " + result.allPlan);
+            }
+            if (result.onePlan != null) {
+                log("PLAN-ONE GENERATED");
+                System.out.println("PLAN-ONE: " + result.onePlan);
             }
 
-            if (plan.replicatedTableDML) {
+            if (result.replicatedDML) {
                 System.out.println("REPLICATED-DML: true");
             }
             
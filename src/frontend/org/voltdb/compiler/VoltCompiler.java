@@ -92,6 +92,7 @@ import org.voltdb.sysprocs.GarbageCollection;
 import org.voltdb.sysprocs.GetCatalog;
 import org.voltdb.sysprocs.GetConfiguration;
 import org.voltdb.sysprocs.LoadMultipartitionTable;
+import org.voltdb.sysprocs.LoadSinglepartitionTable;
 import org.voltdb.sysprocs.NoOp;
 import org.voltdb.sysprocs.MarkovUpdate;
 import org.voltdb.sysprocs.Quiesce;
@@ -1284,6 +1285,7 @@ public class VoltCompiler {
         final Object[][] procedures = {
             // SysProcedure Class                   readonly    everysite
             {LoadMultipartitionTable.class,         false,      true},
+            {LoadSinglepartitionTable.class,        false,      false},
             {DatabaseDump.class,                    true,       true},
             {MarkovUpdate.class,                    true,       true},
             {Shutdown.class,                        false,      true},
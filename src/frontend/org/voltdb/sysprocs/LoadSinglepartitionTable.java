@@ -0,0 +1,108 @@
+package org.voltdb.sysprocs;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.voltdb.DependencySet;
+import org.voltdb.ParameterSet;
+import org.voltdb.ProcInfo;
+import org.voltdb.VoltSystemProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.catalog.Table;
+
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.hstore.PartitionExecutor.SystemProcedureExecutionContext;
+import edu.brown.logging.LoggerUtil;
+import edu.brown.logging.LoggerUtil.LoggerBoolean;
+
+/**
+ * Load a VoltTable whose rows all belong to a single partition directly into
+ * that partition. Unlike @LoadMultipartitionTable, this runs as a single-partition
+ * txn at the partition that owns the data, so it only locks that one partition
+ * and the input table is never split up on a coordinator.
+ * The first parameter is the partition that the rows belong to. It is up to the
+ * caller to make sure that every row actually hashes to that partition.
+ * @see org.voltdb.client.PartitionedTableLoader
+ */
+@ProcInfo(
+    partitionParam = 0,
+    singlePartition = true
+)
+public class LoadSinglepartitionTable extends VoltSystemProcedure {
+    private static final Logger LOG = Logger.getLogger(LoadSinglepartitionTable.class);
+    private static final LoggerBoolean debug = new LoggerBoolean();
+    static {
+        LoggerUtil.attachObserver(LOG, debug);
+    }
+
+    @Override
+    public void initImpl() {
+        // Nothing
+    }
+
+    @Override
+    public DependencySet executePlanFragment(Long txn_id,
+                                             Map<Integer, List<VoltTable>> dependencies,
+                                             int fragmentId,
+                                             ParameterSet params,
+                                             SystemProcedureExecutionContext context) {
+        // Nothing to do
+        return (null);
+    }
+
+    public VoltTable[] run(int partition, String tableName, VoltTable table) throws VoltAbortException {
+        assert(table != null) :
+            "VoltTable to be loaded into " + tableName + " is null in txn #" + this.getTransactionId();
+
+        Table catalog_tbl = catalogContext.database.getTables().getIgnoreCase(tableName);
+        if (catalog_tbl == null) {
+            throw new VoltAbortException("Table '" + tableName + "' does not exist");
+        }
+        // Replicated tables and tables with vertical partitions need to
+        // touch every partition, so they have to go through @LoadMultipartitionTable
+        else if (catalog_tbl.getIsreplicated() || CatalogUtil.getVerticalPartition(catalog_tbl) != null) {
+            String msg = String.format("Table '%s' cannot be loaded at a single partition. Use %s instead",
+                                       tableName, VoltSystemProcedure.procCallName(LoadMultipartitionTable.class));
+            throw new VoltAbortException(msg);
+        }
+        else if (partition != this.partitionId) {
+            String msg = String.format("Data for table '%s' was meant for partition %d but was sent to partition %d",
+                                       tableName, partition, this.partitionId);
+            throw new VoltAbortException(msg);
+        }
+        assert(this.checkRowPartitions(catalog_tbl, table)) :
+            "Not all of the rows for table '" + tableName + "' belong to partition " + this.partitionId;
+
+        if (debug.val)
+            LOG.debug(String.format("Loading %d tuples for table '%s' at partition %d in txn #%d [bytes=%d]",
+                      table.getRowCount(), tableName, this.partitionId,
+                      this.getTransactionId(), table.getUnderlyingBufferSize()));
+        this.executor.loadTable(this.getTransactionState(),
+                                catalogContext.cluster.getName(),
+                                catalogContext.database.getName(),
+                                catalog_tbl.getName(), table, 0);
+
+        VoltTable result = new VoltTable(new VoltTable.ColumnInfo("TxnId", VoltType.BIGINT),
+                                         new VoltTable.ColumnInfo("ROWS", VoltType.BIGINT));
+        result.addRow(this.getTransactionId(), table.getRowCount());
+        return (new VoltTable[]{ result });
+    }
+
+    private boolean checkRowPartitions(Table catalog_tbl, VoltTable table) {
+        table.resetRowPosition();
+        try {
+            while (table.advanceRow()) {
+                if (this.p_estimator.getTableRowPartition(catalog_tbl, table) != this.partitionId) {
+                    return (false);
+                }
+            } // WHILE
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            table.resetRowPosition();
+        }
+        return (true);
+    }
+}
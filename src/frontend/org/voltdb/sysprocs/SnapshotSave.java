@@ -111,7 +111,7 @@ public class SnapshotSave extends VoltSystemProcedure {
             final long startTime = (Long) params.toArray()[2];
             byte block = (Byte) params.toArray()[3];
             SnapshotSaveAPI saveAPI = new SnapshotSaveAPI();
-            VoltTable result = saveAPI.startSnapshotting(file_path, file_nonce, block, startTime, context, hostname);
+            VoltTable result = saveAPI.startSnapshotting(txn_id, file_path, file_nonce, block, startTime, context, hostname);
 
             LOG.trace("createSnapshotTargets :: Ends at partition : " + context.getPartitionExecutor().getPartitionId() + "\n" + result);
             return new DependencySet(SnapshotSave.DEP_createSnapshotTargets, result);
@@ -46,6 +46,7 @@ import edu.brown.hstore.PartitionExecutor.SystemProcedureExecutionContext;
 import edu.brown.hstore.internal.UtilityWorkMessage.UpdateMemoryMessage;
 import edu.brown.logging.LoggerUtil;
 import edu.brown.logging.LoggerUtil.LoggerBoolean;
+import edu.brown.profilers.LatencyHistogram;
 
 /**
  * Access the TABLE, PRCOEDURE, INITIATOR, IOSTATS, or PARTITIONCOUNT statistics.
@@ -112,6 +113,16 @@ public class Statistics extends VoltSystemProcedure {
         addStatsFragments(SysProcSelector.MULTITIER_ANTICACHE, SysProcFragmentId.PF_anticacheMemoryData, SysProcFragmentId.PF_anticacheMemoryAggregator);
     } // STATIC
     
+    /**
+     * SysProcSelector -> The column that identifies the rows whose LatencyHistograms
+     * should be merged together in the aggregator
+     */
+    private static final Map<SysProcSelector, String> LATENCY_KEYS = new HashMap<SysProcSelector, String>();
+    static {
+        LATENCY_KEYS.put(SysProcSelector.TXNPROFILER, "PROCEDURE");
+        LATENCY_KEYS.put(SysProcSelector.EXECPROFILER, "PARTITION");
+    }
+
     @Override
     public void initImpl() {
         registerPlanFragment(SysProcFragmentId.PF_tableData);
@@ -214,6 +225,13 @@ public class Statistics extends VoltSystemProcedure {
                     throw new ServerFaultException(msg, txn_id);
                 }
                 VoltTable result = VoltTableUtil.union(dependencies.get(dataFragmentId));
+                
+                // Percentiles from different sites can't be combined, so we
+                // have to merge the histograms and compute them again
+                String latencyKey = LATENCY_KEYS.get(STATS_DATA.get(dataFragmentId).getFirst());
+                if (latencyKey != null) {
+                    result = LatencyHistogram.mergeColumns(result, latencyKey);
+                }
                 return new DependencySet(fragmentId, result);
             }
             
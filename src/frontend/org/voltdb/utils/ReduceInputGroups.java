@@ -0,0 +1,269 @@
+package org.voltdb.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.voltdb.VoltTable;
+import org.voltdb.VoltTableRow;
+import org.voltdb.VoltType;
+
+/**
+ * Groups the rows of a REDUCE input table by their key using an open-addressing
+ * hash table. Rows are never copied or moved; we only keep track of each row's
+ * position in the table's buffer and chain together the rows that have the same key.
+ * <p>
+ * The rows can be added to the table while data is still arriving from the other
+ * partitions. Every call to {@link #update()} will only index the rows that were
+ * added since the last call. If the table grows past the max number of rows, then
+ * this index will give up and {@link #isOverflow()} will return true. The caller
+ * is expected to fall back to sorting the table in that case.
+ * <p>
+ * This class is not thread-safe while it is being updated. Once all of the rows are
+ * indexed, the index itself is read-only, but the rows that we hand back read their
+ * data through a ByteBuffer whose position moves when some columns (e.g., strings) are
+ * read. So every thread that iterates over groups at the same time has to get its own
+ * view of the table's buffer with {@link #newBufferView()} and pass it into
+ * {@link #getRows(int, ByteBuffer)}.
+ * @param <K>
+ */
+public class ReduceInputGroups<K> {
+
+    private static final int INITIAL_GROUPS = 16;
+    private static final int INITIAL_ROWS = 64;
+
+    /**
+     * Placeholder key for rows with a null key
+     */
+    private static final Object NULL_KEY = new Object();
+
+    private final VoltTable table;
+    private final int keyColumn;
+    private final VoltType keyType;
+    private final int maxRows;
+    private boolean overflow = false;
+
+    // Hash slot -> (group offset + 1). Zero means that the slot is empty
+    private int slots[];
+
+    // Per-group information
+    private Object keys[];
+    private int hashes[];
+    private int heads[];
+    private int tails[];
+    private int numGroups = 0;
+
+    // Per-row information
+    private int positions[];
+    private int next[];
+    private int numRows = 0;
+
+    /**
+     * Constructor
+     * @param table The REDUCE input table
+     * @param keyColumn The offset of the key column in the table
+     * @param maxRows The max number of rows that we will index
+     */
+    public ReduceInputGroups(VoltTable table, int keyColumn, int maxRows) {
+        this.table = table;
+        this.keyColumn = keyColumn;
+        this.keyType = table.getColumnType(keyColumn);
+        this.maxRows = maxRows;
+
+        this.slots = new int[INITIAL_GROUPS * 2];
+        this.keys = new Object[INITIAL_GROUPS];
+        this.hashes = new int[INITIAL_GROUPS];
+        this.heads = new int[INITIAL_GROUPS];
+        this.tails = new int[INITIAL_GROUPS];
+        this.positions = new int[INITIAL_ROWS];
+        this.next = new int[INITIAL_ROWS];
+    }
+
+    /**
+     * Index any rows that were added to the table since the last time
+     * that this method was called.
+     */
+    public void update() {
+        if (this.overflow) return;
+        int rowCount = this.table.getRowCount();
+        if (rowCount == this.numRows) return;
+        if (rowCount > this.maxRows) {
+            this.overflow();
+            return;
+        }
+
+        VoltTableRow row = null;
+        if (this.numRows == 0) {
+            row = this.table.fetchRow(0);
+        } else {
+            row = this.table.fetchRowAtPosition(this.numRows - 1, this.positions[this.numRows - 1]);
+            row.advanceRow();
+        }
+        while (true) {
+            this.addRow(row.get(this.keyColumn, this.keyType), row.getActiveRowPosition());
+            if (this.numRows == rowCount) break;
+            row.advanceRow();
+        } // WHILE
+    }
+
+    private void addRow(Object key, int position) {
+        if (key == null) key = NULL_KEY;
+        if (this.numRows == this.positions.length) {
+            int newSize = this.positions.length * 2;
+            this.positions = Arrays.copyOf(this.positions, newSize);
+            this.next = Arrays.copyOf(this.next, newSize);
+        }
+        int row = this.numRows++;
+        this.positions[row] = position;
+        this.next[row] = -1;
+
+        int hash = hash(key);
+        int mask = this.slots.length - 1;
+        int slot = hash & mask;
+        while (this.slots[slot] != 0) {
+            int group = this.slots[slot] - 1;
+            if (this.hashes[group] == hash && this.keys[group].equals(key)) {
+                this.next[this.tails[group]] = row;
+                this.tails[group] = row;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        } // WHILE
+
+        // New group
+        if (this.numGroups == this.keys.length) {
+            int newSize = this.keys.length * 2;
+            this.keys = Arrays.copyOf(this.keys, newSize);
+            this.hashes = Arrays.copyOf(this.hashes, newSize);
+            this.heads = Arrays.copyOf(this.heads, newSize);
+            this.tails = Arrays.copyOf(this.tails, newSize);
+        }
+        int group = this.numGroups++;
+        this.keys[group] = key;
+        this.hashes[group] = hash;
+        this.heads[group] = row;
+        this.tails[group] = row;
+        this.slots[slot] = group + 1;
+
+        // Keep the load factor under 50%
+        if (this.numGroups * 2 > this.slots.length) {
+            this.rehash(this.slots.length * 2);
+        }
+    }
+
+    private void rehash(int size) {
+        int newSlots[] = new int[size];
+        int mask = size - 1;
+        for (int group = 0; group < this.numGroups; group++) {
+            int slot = this.hashes[group] & mask;
+            while (newSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            } // WHILE
+            newSlots[slot] = group + 1;
+        } // FOR
+        this.slots = newSlots;
+    }
+
+    private void overflow() {
+        this.overflow = true;
+        this.slots = null;
+        this.keys = null;
+        this.hashes = null;
+        this.heads = null;
+        this.tails = null;
+        this.positions = null;
+        this.next = null;
+        this.numGroups = 0;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        // Spread the bits so that sequential keys don't end up in sequential slots
+        h *= 0x9E3779B9;
+        return (h ^ (h >>> 16));
+    }
+
+    // ----------------------------------------------------------------------------
+    // ACCESS METHODS
+    // ----------------------------------------------------------------------------
+
+    /**
+     * Returns true if the table had more rows than we were allowed to index
+     */
+    public boolean isOverflow() {
+        return (this.overflow);
+    }
+
+    public int getGroupCount() {
+        return (this.numGroups);
+    }
+
+    public int getRowCount() {
+        return (this.numRows);
+    }
+
+    /**
+     * Return the key for the given group
+     * @param group
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public K getKey(int group) {
+        assert(group < this.numGroups);
+        Object key = this.keys[group];
+        return (key == NULL_KEY ? null : (K)key);
+    }
+
+    /**
+     * Return a new view of the table's buffer for {@link #getRows(int, ByteBuffer)}.
+     * Each thread needs its own view.
+     */
+    public ByteBuffer newBufferView() {
+        return (this.table.getTableDataReference());
+    }
+
+    /**
+     * Return an iterator over all of the rows in the given group.
+     * The rows read their data through the table's own buffer, so this
+     * can only be used by one thread at a time.
+     * @param group
+     * @return
+     */
+    public Iterator<VoltTableRow> getRows(int group) {
+        return (this.getRows(group, null));
+    }
+
+    /**
+     * Return an iterator over all of the rows in the given group whose rows
+     * read their data through the given view from {@link #newBufferView()}.
+     * Different threads can iterate over different groups at the same time
+     * as long as each of them uses its own view.
+     * @param group
+     * @param view The view of the table's buffer. If null, the rows use the table's own buffer.
+     * @return
+     */
+    public Iterator<VoltTableRow> getRows(final int group, final ByteBuffer view) {
+        assert(group < this.numGroups);
+        return new Iterator<VoltTableRow>() {
+            private int row = heads[group];
+            @Override
+            public boolean hasNext() {
+                return (this.row != -1);
+            }
+            @Override
+            public VoltTableRow next() {
+                if (this.row == -1) throw new NoSuchElementException();
+                VoltTableRow ret = (view != null ?
+                        table.fetchRowAtPosition(this.row, positions[this.row], view) :
+                        table.fetchRowAtPosition(this.row, positions[this.row]));
+                this.row = next[this.row];
+                return (ret);
+            }
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Cannot remove from a VoltTable");
+            }
+        };
+    }
+}
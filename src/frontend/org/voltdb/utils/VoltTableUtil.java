@@ -1,6 +1,7 @@
 package org.voltdb.utils;
 
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
 
@@ -11,6 +12,9 @@ import org.voltdb.catalog.Table;
 import org.voltdb.types.SortDirectionType;
 
 import au.com.bytecode.opencsv.CSVWriter;
+
+import com.google.protobuf.ByteString;
+
 import edu.brown.utils.StringBoxUtil;
 import edu.brown.utils.StringUtil;
 import edu.brown.utils.TableUtil;
@@ -165,6 +169,31 @@ public abstract class VoltTableUtil {
         return (result);
     }
     
+    /**
+     * Copy the given VoltTable's backing buffer straight into a ByteString so
+     * that it can be sent over the network. Unlike going through a FastSerializer,
+     * this only copies the table's data once. The ByteString does not include the
+     * length prefix that {@link VoltTable#writeExternal(org.voltdb.messaging.FastSerializer)}
+     * writes out, so it has to be read back with {@link #fromByteString(ByteString)}.
+     * @param vt
+     * @return
+     */
+    public static ByteString toByteString(VoltTable vt) {
+        ByteBuffer buffer = vt.getTableDataReference();
+        buffer.limit(vt.getUnderlyingBufferSize());
+        return (ByteString.copyFrom(buffer));
+    }
+    
+    /**
+     * Create a VoltTable from a ByteString that was made by {@link #toByteString(VoltTable)}.
+     * The new table is backed by a heap buffer that contains nothing but the table's data,
+     * so it can be handed over to the ExecutionEngine as is.
+     * @param bs
+     * @return
+     */
+    public static VoltTable fromByteString(ByteString bs) {
+        return (new VoltTable(ByteBuffer.wrap(bs.toByteArray()), false));
+    }
     
     /**
      * Returns a row with random data that can be added to this VoltTable
@@ -0,0 +1,137 @@
+package edu.brown.api.results;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import edu.brown.api.BenchmarkControllerUtil;
+import edu.brown.profilers.LatencyHistogram;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the open-loop latencies in BenchmarkComponentResults
+ */
+public class TestBenchmarkComponentResults extends TestCase {
+
+    private static final String TXN_NAMES[] = { "TxnA", "TxnB" };
+    private static final int NUM_LATENCIES = 10000;
+    private static final int POLL_INTERVAL = 1000;
+
+    private final Random rand = new Random(1);
+
+    private BenchmarkComponentResults makeResults() {
+        BenchmarkComponentResults results = new BenchmarkComponentResults();
+        Map<Integer, String> debugLabels = new TreeMap<Integer, String>();
+        for (int i = 0; i < TXN_NAMES.length; i++) {
+            debugLabels.put(i, TXN_NAMES[i]);
+            results.transactions.put(i, 0);
+            results.dtxns.put(i, 0);
+            results.specexecs.put(i, 0);
+        } // FOR
+        results.transactions.setDebugLabels(debugLabels);
+        return (results);
+    }
+
+    private void record(BenchmarkComponentResults results, int txn_idx, int count) {
+        for (int i = 0; i < count; i++) {
+            results.transactions.put(txn_idx);
+            results.recordIntendedLatency(txn_idx, 100 + rand.nextInt(100000));
+        } // FOR
+    }
+
+    /**
+     * testCopyAndClear
+     */
+    @Test
+    public void testCopyAndClear() throws Exception {
+        BenchmarkComponentResults results = this.makeResults();
+        this.record(results, 0, NUM_LATENCIES);
+        this.record(results, 1, NUM_LATENCIES / 2);
+
+        BenchmarkComponentResults copy = results.copy();
+        results.clear(false);
+        assertEquals(NUM_LATENCIES, copy.intendedLatencies.get(0).getCount());
+        assertEquals(NUM_LATENCIES / 2, copy.intendedLatencies.get(1).getCount());
+        for (LatencyHistogram h : results.intendedLatencies.values()) {
+            assertTrue(h.isEmpty());
+        } // FOR
+
+        // Anything that gets recorded after the copy should show up in the next one
+        this.record(results, 1, 10);
+        copy = results.copy();
+        assertFalse(copy.intendedLatencies.containsKey(0));
+        assertEquals(10, copy.intendedLatencies.get(1).getCount());
+    }
+
+    /**
+     * testSerialization
+     */
+    @Test
+    public void testSerialization() throws Exception {
+        BenchmarkComponentResults results = this.makeResults();
+        this.record(results, 0, NUM_LATENCIES);
+        this.record(results, 1, NUM_LATENCIES / 2);
+
+        BenchmarkComponentResults clone = new BenchmarkComponentResults();
+        clone.fromJSON(new JSONObject(results.toJSONString()), null);
+        assertEquals(results.intendedLatencies.keySet(), clone.intendedLatencies.keySet());
+        for (Integer txn_idx : results.intendedLatencies.keySet()) {
+            assertEquals(results.intendedLatencies.get(txn_idx).toCompactString(),
+                         clone.intendedLatencies.get(txn_idx).toCompactString());
+        } // FOR
+
+        // Closed-loop clients shouldn't send anything extra
+        clone = new BenchmarkComponentResults();
+        clone.fromJSON(new JSONObject(this.makeResults().toJSONString()), null);
+        assertTrue(clone.intendedLatencies.isEmpty());
+    }
+
+    /**
+     * testFinalResult
+     */
+    @Test
+    public void testFinalResult() throws Exception {
+        String clientNames[] = { "client-000", "client-001" };
+        int numPolls = 2;
+        BenchmarkResults br = new BenchmarkResults(POLL_INTERVAL, POLL_INTERVAL * numPolls, clientNames.length);
+        LatencyHistogram expected = new LatencyHistogram();
+        LatencyHistogram expectedLast = null;
+        for (int poll = 1; poll <= numPolls; poll++) {
+            expectedLast = new LatencyHistogram();
+            for (String clientName : clientNames) {
+                BenchmarkComponentResults results = this.makeResults();
+                this.record(results, 0, NUM_LATENCIES);
+                this.record(results, 1, NUM_LATENCIES * poll);
+                for (LatencyHistogram h : results.intendedLatencies.values()) {
+                    expectedLast.add(h);
+                } // FOR
+                br.addPollResponseInfo(clientName, poll, POLL_INTERVAL * poll, results.copy(), null);
+            } // FOR
+            expected.add(expectedLast);
+        } // FOR
+        assertTrue(br.hasIntendedLatencies());
+        assertEquals(expected.getCount(), br.getAllIntendedLatencies().getCount());
+        assertEquals(expectedLast.getCount(), br.getLastIntendedLatencies().getCount());
+
+        FinalResult fr = br.getFinalResult();
+        Map<String, Double> curve = fr.getIntendedLatencyCurve();
+        assertEquals(BenchmarkControllerUtil.LATENCY_CURVE_LABELS.length, curve.size());
+        for (int i = 0; i < BenchmarkControllerUtil.LATENCY_CURVE_LABELS.length; i++) {
+            String label = BenchmarkControllerUtil.LATENCY_CURVE_LABELS[i];
+            double percentile = BenchmarkControllerUtil.LATENCY_CURVE_PERCENTILES[i];
+            assertEquals(label, expected.getValueAtPercentile(percentile) / 1000d, curve.get(label), 0.0001);
+        } // FOR
+        for (String txnName : TXN_NAMES) {
+            assertFalse(txnName, fr.getTransactionResult(txnName).getIntendedLatencyCurve().isEmpty());
+        } // FOR
+
+        // Make sure that the curve makes it into the JSON output
+        JSONObject json = new JSONObject(fr.toJSONString());
+        JSONObject jsonCurve = json.getJSONObject("INTENDEDLATENCYCURVE");
+        assertEquals(curve.get("p99"), jsonCurve.getDouble("p99"), 0.0001);
+    }
+}
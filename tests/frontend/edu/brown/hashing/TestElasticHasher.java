@@ -0,0 +1,154 @@
+package edu.brown.hashing;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.brown.BaseTestCase;
+import edu.brown.utils.ProjectType;
+
+public class TestElasticHasher extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 8;
+    private static final int NUM_VALUES = 10000;
+    private ElasticHasher hasher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        hasher = new ElasticHasher(null, NUM_PARTITIONS);
+    }
+
+    /**
+     * testDefaultHasherCompatible
+     */
+    public void testDefaultHasherCompatible() throws Exception {
+        // The initial token table should give us the same partitions
+        // as the DefaultHasher so that we don't need to reload anything
+        assertEquals(0, ElasticHasher.NUM_TOKENS % NUM_PARTITIONS);
+        DefaultHasher defaultHasher = new DefaultHasher(null, NUM_PARTITIONS);
+        for (long val = -NUM_VALUES; val < NUM_VALUES; val++) {
+            assertEquals(Long.toString(val), defaultHasher.hash(val), hasher.hash(val));
+            String str = "key" + val;
+            assertEquals(str, defaultHasher.hash(str), hasher.hash(str));
+        } // FOR
+        assertEquals(0, hasher.getVersion());
+    }
+
+    /**
+     * testMove
+     */
+    public void testMove() throws Exception {
+        int firstToken = 100;
+        int lastToken = 199;
+        int partition = 3;
+        int version = hasher.move(firstToken, lastToken, partition);
+        assertEquals(1, version);
+        assertEquals(version, hasher.getVersion());
+
+        for (long val = 0; val < NUM_VALUES; val++) {
+            int token = hasher.getToken(val);
+            int expected = (token >= firstToken && token <= lastToken ? partition : token % NUM_PARTITIONS);
+            assertEquals(Long.toString(val), expected, hasher.hash(val));
+        } // FOR
+    }
+
+    /**
+     * testRebalance
+     */
+    public void testRebalance() throws Exception {
+        // Load the token table from a hasher with fewer partitions and
+        // then spread it out over all of our partitions
+        int old_partitions = NUM_PARTITIONS / 2;
+        ElasticHasher old_hasher = new ElasticHasher(null, old_partitions);
+        hasher.fromJSON(new JSONObject(old_hasher.toJSONString()), null);
+        assertEquals(old_partitions, hasher.getNumActivePartitions());
+
+        hasher.rebalance(NUM_PARTITIONS);
+        assertEquals(NUM_PARTITIONS, hasher.getNumActivePartitions());
+        assertEquals(1, hasher.getVersion());
+
+        // Every partition should have the same number of tokens
+        int counts[] = new int[NUM_PARTITIONS];
+        for (int token = 0; token < ElasticHasher.NUM_TOKENS; token++) {
+            counts[hasher.getPartition(token)]++;
+        } // FOR
+        for (int p = 0; p < NUM_PARTITIONS; p++) {
+            assertEquals("Partition " + p, ElasticHasher.NUM_TOKENS / NUM_PARTITIONS, counts[p]);
+        } // FOR
+
+        // Only the values that moved to the new partitions should have changed
+        int moved = 0;
+        for (long val = 0; val < NUM_VALUES; val++) {
+            int old_partition = old_hasher.hash(val);
+            int new_partition = hasher.hash(val);
+            if (old_partition != new_partition) {
+                assertTrue(Long.toString(val), new_partition >= old_partitions);
+                moved++;
+            }
+        } // FOR
+        double expected = NUM_VALUES * (1.0 - (old_partitions / (double)NUM_PARTITIONS));
+        assertEquals(expected, moved, expected * 0.1);
+    }
+
+    /**
+     * testSerialization
+     */
+    public void testSerialization() throws Exception {
+        hasher.move(0, 9, NUM_PARTITIONS - 1);
+        ElasticHasher clone = new ElasticHasher(null, NUM_PARTITIONS);
+        clone.fromJSON(new JSONObject(hasher.toJSONString()), null);
+        assertEquals(hasher.getVersion(), clone.getVersion());
+        for (int token = 0; token < ElasticHasher.NUM_TOKENS; token++) {
+            assertEquals(hasher.getPartition(token), clone.getPartition(token));
+        } // FOR
+    }
+
+    /**
+     * testInit
+     */
+    public void testInit() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.addPartitions(NUM_PARTITIONS);
+        hasher.init(catalogContext);
+
+        // The catalog can't have a different number of partitions than the hasher
+        ElasticHasher smaller = new ElasticHasher(catalogContext, NUM_PARTITIONS / 2);
+        try {
+            smaller.init(catalogContext);
+            fail("Initialized a hasher with the wrong number of partitions");
+        } catch (RuntimeException ex) {
+            // Expected
+        }
+    }
+
+    /**
+     * testInvalidPlan
+     */
+    public void testInvalidPlan() throws Exception {
+        // A plan for more partitions than we have can't be loaded
+        ElasticHasher bigger = new ElasticHasher(null, NUM_PARTITIONS * 2);
+        try {
+            hasher.fromJSON(new JSONObject(bigger.toJSONString()), null);
+            fail("Loaded a plan with too many partitions");
+        } catch (JSONException ex) {
+            // Expected
+        }
+
+        // Every token has to belong to one of the plan's partitions
+        JSONObject json = new JSONObject(hasher.toJSONString());
+        json.put(ElasticHasher.Members.NUM_PARTITIONS.name(), NUM_PARTITIONS / 2);
+        try {
+            hasher.fromJSON(json, null);
+            fail("Loaded a plan with a token assigned to an invalid partition");
+        } catch (JSONException ex) {
+            // Expected
+        }
+
+        // Neither of those should have changed anything
+        assertEquals(0, hasher.getVersion());
+        assertEquals(NUM_PARTITIONS, hasher.getNumActivePartitions());
+        for (int token = 0; token < ElasticHasher.NUM_TOKENS; token++) {
+            assertEquals(token % NUM_PARTITIONS, hasher.getPartition(token));
+        } // FOR
+    }
+}
@@ -58,6 +58,9 @@ public class TestHStoreCoordinator extends BaseTestCase {
         hstore_conf.site.coordinator_sync_time = false;
         hstore_conf.site.status_enable = false;
         
+        // Use more than one event loop so that the connections get spread out
+        hstore_conf.site.coordinator_event_loops = 2;
+        
         // Create a fake cluster of two HStoreSites, each with two partitions
         // This will allow us to test same site communication as well as cross-site communication
         this.initializeCatalog(NUM_HOSTS, NUM_SITES_PER_HOST, NUM_PARTITIONS_PER_SITE);
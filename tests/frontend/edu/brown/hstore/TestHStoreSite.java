@@ -36,6 +36,7 @@ import edu.brown.benchmark.tm1.procedures.DeleteCallForwarding;
 import edu.brown.benchmark.tm1.procedures.GetNewDestination;
 import edu.brown.benchmark.tm1.procedures.GetSubscriberData;
 import edu.brown.benchmark.tm1.procedures.UpdateLocation;
+import edu.brown.benchmark.tm1.procedures.UpdateSubscriberData;
 import edu.brown.catalog.CatalogUtil;
 import edu.brown.hashing.AbstractHasher;
 import edu.brown.hstore.Hstoreservice.Status;
@@ -99,6 +100,7 @@ public class TestHStoreSite extends BaseTestCase {
         this.hstore_conf.site.specexec_enable = false;
         this.hstore_conf.site.txn_incoming_delay = 5;
         this.hstore_conf.site.exec_voltdb_procinfo = true;
+        this.hstore_conf.site.exec_batch_size = 1;
         
         this.hstore_site = createHStoreSite(catalog_site, hstore_conf);
         this.hstore_debug = this.hstore_site.getDebugContext();
@@ -173,6 +175,32 @@ public class TestHStoreSite extends BaseTestCase {
         this.statusSnapshot();
     }
     
+    /**
+     * testSinglePartitionTxnBatch
+     */
+    @Test
+    public void testSinglePartitionTxnBatch() throws Exception {
+        // Make sure that we can execute batches of single-partition txns that
+        // modify the database and that everyone gets their response back
+        hstore_conf.site.exec_batch_size = 4;
+        this.loadData(this.getTable(TM1Constants.TABLENAME_SUBSCRIBER));
+        
+        Procedure catalog_proc = this.getProcedure(UpdateSubscriberData.class);
+        int num_txns = NUM_TXNS * hstore_conf.site.exec_batch_size;
+        HStoreSiteTestUtil.LatchableProcedureCallback callback = new HStoreSiteTestUtil.LatchableProcedureCallback(num_txns);
+        for (int i = 0; i < num_txns; i++) {
+            Object params[] = { (long)(i % NUM_TXNS), 1l, (long)i, 1l };
+            this.client.callProcedure(callback, catalog_proc.getName(), params);
+        } // FOR
+        boolean result = callback.latch.await(NOTIFY_TIMEOUT, TimeUnit.MILLISECONDS);
+        assertTrue("LATCH --> " + callback.latch, result);
+        assertEquals(num_txns, callback.responses.size());
+        for (ClientResponse cr : callback.responses) {
+            assertEquals(cr.toString(), Status.OK, cr.getStatus());
+        } // FOR
+        this.statusSnapshot();
+    }
+    
     /**
      * testMultiPartitionTxn
      */
@@ -499,6 +527,49 @@ public class TestHStoreSite extends BaseTestCase {
         } // FOR
     }
     
+    /**
+     * testMetricsSnapshot
+     */
+    @Test
+    public void testMetricsSnapshot() throws Exception {
+        hstore_conf.site.txn_counters = true;
+        hstore_site.updateConf(hstore_conf, null);
+
+        Procedure catalog_proc = this.getProcedure(UpdateLocation.class);
+        int num_txns = 100;
+        Object params[] = { 1234l, "XXXX" };
+        for (int i = 0; i < num_txns; i++) {
+            this.client.callProcedure(catalog_proc.getName(), params);
+        } // FOR
+        ThreadUtil.sleep(1000);
+        assertEquals(num_txns, TransactionCounter.RECEIVED.get());
+
+        HStoreSiteMetrics metrics = new HStoreSiteMetrics(hstore_site, hstore_conf.site.metrics_port + hstore_site.getSiteId());
+        try {
+            String snapshot = metrics.snapshot();
+            String site = "site=\"" + hstore_site.getSiteId() + "\"";
+            assertTrue(snapshot, snapshot.contains("hstore_txns_total{" + site + ",counter=\"received\"} " + num_txns + "\n"));
+            for (int partition : hstore_site.getLocalPartitionIds()) {
+                String labels = "{" + site + ",partition=\"" + partition + "\"}";
+                assertTrue(snapshot, snapshot.contains("hstore_lock_queue_size" + labels));
+                assertTrue(snapshot, snapshot.contains("hstore_work_queue_size" + labels));
+            } // FOR
+            // Latencies have to be summaries with quantile labels
+            assertTrue(snapshot, snapshot.contains("# TYPE hstore_cleanup_lag_seconds summary\n"));
+            for (TransactionCleaner cleaner : hstore_site.getTransactionCleaners()) {
+                String labels = site + ",cleaner=\"" + cleaner.getId() + "\"";
+                assertTrue(snapshot, snapshot.contains("hstore_cleanup_lag_seconds{" + labels + ",quantile=\"0.99\"} "));
+                assertTrue(snapshot, snapshot.contains("hstore_cleanup_lag_seconds_count{" + labels + "} "));
+            } // FOR
+
+            // Getting the metrics should never invoke a txn
+            metrics.snapshot();
+            assertEquals(num_txns, TransactionCounter.RECEIVED.get());
+        } finally {
+            metrics.shutdown();
+        }
+    }
+
     /**
      * testSendClientResponse
      */
@@ -23,7 +23,6 @@ import org.voltdb.catalog.Site;
 import org.voltdb.catalog.Table;
 import org.voltdb.client.Client;
 import org.voltdb.client.ClientResponse;
-import org.voltdb.messaging.FastDeserializer;
 import org.voltdb.sysprocs.Statistics;
 import org.voltdb.utils.VoltTableUtil;
 import org.voltdb.utils.VoltTypeUtil;
@@ -239,8 +238,7 @@ public class TestPartitionExecutor extends BaseTestCase {
             assertFalse(bs.isEmpty());
             System.err.println("SIZE: " + StringUtil.md5sum(bs.asReadOnlyByteBuffer()));
             
-            byte serialized[] = bs.toByteArray();
-            VoltTable clone = FastDeserializer.deserialize(serialized, VoltTable.class);
+            VoltTable clone = VoltTableUtil.fromByteString(bs);
             assertNotNull(clone);
             assertEquals(vt.getRowCount(), clone.getRowCount());
             assertEquals(vt.getColumnCount(), clone.getColumnCount());
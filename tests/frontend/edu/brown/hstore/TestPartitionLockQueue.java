@@ -71,6 +71,7 @@ public class TestPartitionLockQueue extends BaseTestCase {
 
     private class BlockingTakeThread extends Thread {
         final AtomicReference<AbstractTransaction> result = new AtomicReference<AbstractTransaction>();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
         final CountDownLatch latch = new CountDownLatch(1);
         
         { this.setDaemon(true); }
@@ -80,14 +81,23 @@ public class TestPartitionLockQueue extends BaseTestCase {
                 AbstractTransaction ts = queue.take();
                 System.err.println("AWOKEN: " + ts);
                 result.set(ts);
-            } catch (InterruptedException ex) {
-                ex.printStackTrace();
+            } catch (Throwable ex) {
+                error.set(ex);
             } finally {
                 latch.countDown();
             }
         }
     }
     
+    /**
+     * Rethrow anything that went wrong in one of our test threads
+     */
+    private void checkError(AtomicReference<Throwable> error) {
+        if (error.get() != null) {
+            throw new RuntimeException("Unexpected error in test thread", error.get());
+        }
+    }
+    
     private Collection<AbstractTransaction> loadQueue(int num_txns) throws InterruptedException {
         Collection<AbstractTransaction> added = new TreeSet<AbstractTransaction>();
         for (long i = 0; i < num_txns; i++) {
@@ -135,6 +145,7 @@ public class TestPartitionLockQueue extends BaseTestCase {
         // Ok now we'll just move time forward. The thread should
         // haven been woken up on its own
         boolean result = t.latch.await(TXN_DELAY, TimeUnit.MILLISECONDS);
+        this.checkError(t.error);
         assertTrue(result);
         assertEquals(expected, t.result.get());
     }
@@ -165,6 +176,7 @@ public class TestPartitionLockQueue extends BaseTestCase {
         // Now sleep and then update the time
         // The thread still won't be woken up
         boolean result = t.latch.await(TXN_DELAY*2, TimeUnit.MILLISECONDS);
+        this.checkError(t.error);
         assertTrue(result);
         assertEquals(expected, t.result.get());
     }
@@ -462,6 +474,58 @@ public class TestPartitionLockQueue extends BaseTestCase {
         assertEquals(added.size(), found.size());
     }
     
+    /**
+     * testConcurrentOffer
+     */
+    @Test
+    public void testConcurrentOffer() throws Exception {
+        final int num_threads = 4;
+        final List<AbstractTransaction> added = new ArrayList<AbstractTransaction>();
+        for (int i = 0; i < NUM_TXNS * num_threads; i++) {
+            LocalTransaction txn = new LocalTransaction(this.hstore_site);
+            Long txnId = this.idManager.getNextUniqueTransactionId();
+            txn.testInit(txnId, 0, new PartitionSet(1), this.catalog_proc);
+            added.add(txn);
+        } // FOR
+        List<AbstractTransaction> shuffled = new ArrayList<AbstractTransaction>(added);
+        Collections.shuffle(shuffled, random);
+        
+        // Have all of the threads add their txns at the same time
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch stopLatch = new CountDownLatch(num_threads);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        for (int i = 0; i < num_threads; i++) {
+            final List<AbstractTransaction> toOffer = shuffled.subList(i * NUM_TXNS, (i+1) * NUM_TXNS);
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (AbstractTransaction ts : toOffer) {
+                            queue.offer(ts, false);
+                        } // FOR
+                    } catch (Throwable ex) {
+                        error.compareAndSet(null, ex);
+                    } finally {
+                        stopLatch.countDown();
+                    }
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        } // FOR
+        startLatch.countDown();
+        assertTrue(stopLatch.await(TXN_DELAY * 10, TimeUnit.MILLISECONDS));
+        this.checkError(error);
+        assertEquals(added.size(), this.queue.size());
+        
+        // They should always come back out in txnId order
+        for (AbstractTransaction expected : added) {
+            AbstractTransaction ts = this.queue.take();
+            assertEquals(expected, ts);
+        } // FOR
+        assertTrue(this.queue.isEmpty());
+    }
+    
     /**
      * testPoll
      */
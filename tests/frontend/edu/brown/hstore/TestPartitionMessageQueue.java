@@ -1,12 +1,21 @@
 package edu.brown.hstore;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import org.voltdb.catalog.Procedure;
 
 import edu.brown.BaseTestCase;
 import edu.brown.benchmark.tm1.procedures.UpdateLocation;
+import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.hstore.Hstoreservice.WorkFragment;
 import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.internal.FinishTxnMessage;
 import edu.brown.hstore.internal.InternalMessage;
+import edu.brown.hstore.internal.PrepareTxnMessage;
+import edu.brown.hstore.internal.SetDistributedTxnMessage;
 import edu.brown.hstore.internal.StartTxnMessage;
 import edu.brown.hstore.internal.UtilityWorkMessage;
 import edu.brown.hstore.internal.WorkFragmentMessage;
@@ -122,4 +131,139 @@ public class TestPartitionMessageQueue extends BaseTestCase {
         assertEquals(start0, next);
     }
     
+    /**
+     * testTransactionIdBeforeType
+     */
+    public void testTransactionIdBeforeType() throws Exception {
+        // A FinishTxnMessage must not overtake the work for a txn that
+        // came before it, even though it ranks higher for the same txn
+        assert(ts0.getTransactionId() < ts1.getTransactionId());
+        WorkFragmentMessage work0 = new WorkFragmentMessage(ts0, mockFragment);
+        FinishTxnMessage finish1 = new FinishTxnMessage(ts1, Status.OK);
+        StartTxnMessage start0 = new StartTxnMessage(ts0);
+        
+        this.queue.add(finish1);
+        this.queue.add(start0);
+        this.queue.add(work0);
+        assertEquals(work0, this.queue.poll());
+        assertEquals(start0, this.queue.poll());
+        assertEquals(finish1, this.queue.poll());
+        assertNull(this.queue.poll());
+    }
+    
+    /**
+     * testSameTransactionOrder
+     */
+    public void testSameTransactionOrder() throws Exception {
+        // Messages for the same txn come out based on their type no
+        // matter what order they were added in
+        InternalMessage expected[] = {
+            new SetDistributedTxnMessage(ts0),
+            new PrepareTxnMessage(ts0, null),
+            new FinishTxnMessage(ts0, Status.OK),
+            new WorkFragmentMessage(ts0, mockFragment),
+            new StartTxnMessage(ts0),
+        };
+        for (int i = expected.length - 1; i >= 0; i--) {
+            this.queue.add(expected[i]);
+        } // FOR
+        this.queue.add(utilMsg);
+        for (InternalMessage m : expected) {
+            assertEquals(m, this.queue.poll());
+        } // FOR
+        assertEquals(utilMsg, this.queue.poll());
+        
+        // And messages of the same type come out in the order that
+        // they were added, even if they are added in separate rounds
+        List<WorkFragmentMessage> work = new ArrayList<WorkFragmentMessage>();
+        for (int i = 0; i < 10; i++) {
+            WorkFragmentMessage m = new WorkFragmentMessage(ts0, mockFragment);
+            work.add(m);
+            this.queue.add(m);
+            if (i == 4) assertEquals(work.remove(0), this.queue.poll());
+        } // FOR
+        for (WorkFragmentMessage m : work) {
+            assertEquals(m, this.queue.poll());
+        } // FOR
+        assertTrue(this.queue.isEmpty());
+    }
+    
+    /**
+     * testPollWakeup
+     */
+    public void testPollWakeup() throws Exception {
+        // Make sure that a consumer that is parked waiting for work gets
+        // woken up as soon as something is added
+        final CountDownLatch latch = new CountDownLatch(1);
+        Thread producer = new Thread() {
+            public void run() {
+                try {
+                    latch.await();
+                    Thread.sleep(50);
+                } catch (InterruptedException ex) {
+                    // Ignore
+                }
+                queue.add(workMsg);
+            }
+        };
+        producer.start();
+        latch.countDown();
+        
+        long start = System.currentTimeMillis();
+        InternalMessage next = this.queue.poll(10, TimeUnit.SECONDS);
+        long elapsed = System.currentTimeMillis() - start;
+        assertEquals(workMsg, next);
+        assertTrue("Waited " + elapsed + "ms", elapsed < 5000);
+        assertTrue(this.queue.isEmpty());
+        producer.join();
+    }
+    
+    /**
+     * testMultipleProducers
+     */
+    public void testMultipleProducers() throws Exception {
+        final int num_threads = 4;
+        final int num_msgs = 1000;
+        
+        // Each thread adds its own messages. We should get all of them back
+        // out and each thread's messages should still be in the order that 
+        // they were added.
+        final List<List<UtilityWorkMessage>> added = new ArrayList<List<UtilityWorkMessage>>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < num_threads; i++) {
+            final List<UtilityWorkMessage> msgs = new ArrayList<UtilityWorkMessage>();
+            for (int j = 0; j < num_msgs; j++) {
+                msgs.add(new UtilityWorkMessage());
+            } // FOR
+            added.add(msgs);
+            threads.add(new Thread() {
+                public void run() {
+                    for (UtilityWorkMessage m : msgs) {
+                        queue.offer(m);
+                    } // FOR
+                }
+            });
+        } // FOR
+        for (Thread t : threads) t.start();
+        
+        int offsets[] = new int[num_threads];
+        int total = 0;
+        while (total < num_threads * num_msgs) {
+            InternalMessage next = this.queue.poll(1, TimeUnit.SECONDS);
+            assertNotNull(next);
+            boolean found = false;
+            for (int i = 0; i < num_threads; i++) {
+                if (offsets[i] < num_msgs && added.get(i).get(offsets[i]) == next) {
+                    offsets[i]++;
+                    found = true;
+                    break;
+                }
+            } // FOR
+            assertTrue("Unexpected " + next, found);
+            total++;
+        } // WHILE
+        for (Thread t : threads) t.join();
+        assertTrue(this.queue.isEmpty());
+        assertNull(this.queue.poll());
+    }
 }
@@ -0,0 +1,214 @@
+package edu.brown.hstore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.voltdb.ParameterSet;
+import org.voltdb.catalog.Procedure;
+import org.voltdb.catalog.Site;
+import org.voltdb.utils.EstTime;
+
+import edu.brown.BaseTestCase;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.utils.CollectionUtil;
+import edu.brown.utils.ProjectType;
+import edu.brown.utils.ThreadUtil;
+
+public class TestTransactionCleaner extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 4;
+    private static final int NUM_CLEANERS = 2;
+    private static final long WAIT_TIME = 10000; // ms
+
+    /**
+     * Txn handle that we can tell when it is allowed to be deleted
+     */
+    private class CleanerTransaction extends LocalTransaction {
+        volatile boolean deletable = true;
+
+        CleanerTransaction(HStoreSite hstore_site) {
+            super(hstore_site);
+        }
+        @Override
+        public boolean isDeletable() {
+            return (this.deletable);
+        }
+    }
+
+    /**
+     * Fake site that just keeps track of what txns the cleaners deleted
+     */
+    private class CleanerHStoreSite extends MockHStoreSite {
+        final List<Long> deleted = new ArrayList<Long>();
+
+        CleanerHStoreSite(int site_id) {
+            super(site_id, catalogContext, HStoreConf.singleton());
+        }
+        @Override
+        protected void deleteLocalTransaction(LocalTransaction ts, Status status) {
+            synchronized (this.deleted) {
+                this.deleted.add(ts.getTransactionId());
+            } // SYNCH
+            this.getInflightTxns().remove(ts.getTransactionId().longValue());
+        }
+    }
+
+    private CleanerHStoreSite hstore_site;
+    private List<TransactionCleaner> cleaners;
+    private Thread cleanerThread;
+    private Procedure catalog_proc;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TM1);
+        this.addPartitions(NUM_PARTITIONS);
+
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        hstore_conf.site.cpu_affinity = false;
+        hstore_conf.site.txn_cleaner_threads = NUM_CLEANERS;
+        hstore_conf.site.txn_cleaner_requeue_delay = 1000;
+
+        Site catalog_site = CollectionUtil.first(catalogContext.sites);
+        this.hstore_site = new CleanerHStoreSite(catalog_site.getId());
+        this.cleaners = this.hstore_site.getTransactionCleaners();
+        assertEquals(NUM_CLEANERS, this.cleaners.size());
+        this.catalog_proc = catalogContext.procedures.getIgnoreCase("@NoOp");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (this.cleanerThread != null) {
+            for (TransactionCleaner cleaner : this.cleaners) {
+                cleaner.shutdown();
+            } // FOR
+            this.cleanerThread.join(WAIT_TIME);
+            assertFalse(this.cleanerThread.isAlive());
+        }
+        super.tearDown();
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // UTILITY METHODS
+    // --------------------------------------------------------------------------------------------
+
+    private CleanerTransaction makeTransaction(int base_partition) {
+        long txnId = this.hstore_site.getTransactionIdManager(base_partition).getNextUniqueTransactionId();
+        CleanerTransaction ts = new CleanerTransaction(this.hstore_site);
+        ts.init(txnId, EstTime.currentTimeMillis(), -1, base_partition,
+                catalogContext.getPartitionSetSingleton(base_partition), false, true,
+                this.catalog_proc, new ParameterSet(), null);
+        this.hstore_site.getInflightTxns().put(txnId, ts);
+        return (ts);
+    }
+
+    private void startCleaner(TransactionCleaner cleaner) {
+        this.cleanerThread = new Thread(cleaner);
+        this.cleanerThread.setDaemon(true);
+        this.cleanerThread.start();
+    }
+
+    /**
+     * Block until the cleaner thread parks itself with nothing left to do
+     */
+    private void waitUntilParked(TransactionCleaner cleaner, Thread.State state) {
+        long stop = System.currentTimeMillis() + WAIT_TIME;
+        while (this.cleanerThread.getState() != state || cleaner.getPendingCount() > 0) {
+            assertTrue("Cleaner never parked [state=" + this.cleanerThread.getState() + "]",
+                       System.currentTimeMillis() < stop);
+            ThreadUtil.sleep(5);
+        } // WHILE
+    }
+
+    private void waitUntilDeleted(TransactionCleaner cleaner, long expected) {
+        long stop = System.currentTimeMillis() + WAIT_TIME;
+        while (cleaner.getDeletedCount() < expected) {
+            assertTrue("Cleaner only deleted " + cleaner.getDeletedCount() + " txns",
+                       System.currentTimeMillis() < stop);
+            ThreadUtil.sleep(5);
+        } // WHILE
+    }
+
+    // --------------------------------------------------------------------------------------------
+    // TEST CASES
+    // --------------------------------------------------------------------------------------------
+
+    /**
+     * testShardSelection
+     */
+    public void testShardSelection() throws Exception {
+        // Every txn should go to the cleaner for its base partition's local offset
+        int expected[] = new int[NUM_CLEANERS];
+        for (int partition = 0; partition < NUM_PARTITIONS; partition++) {
+            CleanerTransaction ts = this.makeTransaction(partition);
+            int offset = this.hstore_site.getLocalPartitionOffset(partition) % NUM_CLEANERS;
+            expected[offset]++;
+            this.hstore_site.queueDeleteTransaction(ts.getTransactionId(), Status.OK);
+            for (int i = 0; i < NUM_CLEANERS; i++) {
+                assertEquals("Cleaner #" + i, expected[i], this.cleaners.get(i).getPendingCount());
+            } // FOR
+            assertTrue(ts.getDeletableQueuedTime() > 0);
+        } // FOR
+        for (int i = 0; i < NUM_CLEANERS; i++) {
+            assertTrue("Cleaner #" + i, expected[i] > 0);
+        } // FOR
+
+        // If we don't have a handle for the txn, then it goes to the first cleaner
+        long txnId = this.hstore_site.getTransactionIdManager(NUM_PARTITIONS-1).getNextUniqueTransactionId();
+        assertNull(this.hstore_site.getInflightTxns().get(txnId));
+        this.hstore_site.queueDeleteTransaction(txnId, Status.ABORT_USER);
+        assertEquals(expected[0] + 1, this.cleaners.get(0).getPendingCount());
+        for (int i = 1; i < NUM_CLEANERS; i++) {
+            assertEquals("Cleaner #" + i, expected[i], this.cleaners.get(i).getPendingCount());
+        } // FOR
+    }
+
+    /**
+     * testWakeOnEnqueue
+     */
+    public void testWakeOnEnqueue() throws Exception {
+        TransactionCleaner cleaner = this.cleaners.get(0);
+        this.startCleaner(cleaner);
+
+        // With nothing queued and nothing to requeue, the cleaner has to park
+        // without a timeout. So the only way that it will delete anything is
+        // if queueing the txn wakes it back up.
+        for (int i = 1; i <= 3; i++) {
+            this.waitUntilParked(cleaner, Thread.State.WAITING);
+            CleanerTransaction ts = this.makeTransaction(0);
+            this.hstore_site.queueDeleteTransaction(ts.getTransactionId(), Status.OK);
+            this.waitUntilDeleted(cleaner, i);
+            assertTrue(this.hstore_site.deleted.contains(ts.getTransactionId()));
+            assertNull(this.hstore_site.getInflightTxns().get(ts.getTransactionId()));
+        } // FOR
+        assertEquals(3, cleaner.getLagHistogram().getCount());
+    }
+
+    /**
+     * testRequeueBusyTransaction
+     */
+    public void testRequeueBusyTransaction() throws Exception {
+        TransactionCleaner cleaner = this.cleaners.get(0);
+        this.startCleaner(cleaner);
+
+        CleanerTransaction ts = this.makeTransaction(0);
+        ts.deletable = false;
+        this.hstore_site.queueDeleteTransaction(ts.getTransactionId(), Status.OK);
+
+        // The cleaner can't delete the txn yet, so it should hold on to it and
+        // only park for a little bit before it checks it again
+        this.waitUntilParked(cleaner, Thread.State.TIMED_WAITING);
+        assertEquals(0, cleaner.getDeletedCount());
+        assertTrue(this.hstore_site.deleted.isEmpty());
+        assertEquals(ts, this.hstore_site.getInflightTxns().get(ts.getTransactionId()));
+
+        // Once the txn is finished, the cleaner should delete it on its own
+        // without anybody queueing it again
+        ts.deletable = true;
+        this.waitUntilDeleted(cleaner, 1);
+        assertEquals(1, this.hstore_site.deleted.size());
+        assertEquals(ts.getTransactionId(), this.hstore_site.deleted.get(0));
+        this.waitUntilParked(cleaner, Thread.State.WAITING);
+    }
+}
@@ -77,7 +77,7 @@ public class TestTransactionQueueManager extends BaseTestCase {
         this.hstore_site = new MockHStoreSite(catalog_site.getId(), catalogContext, HStoreConf.singleton()) {
             @SuppressWarnings("unchecked")
             @Override
-            public <T extends AbstractTransaction> T getTransaction(Long txn_id) {
+            public <T extends AbstractTransaction> T getTransaction(long txn_id) {
                 return (T)(txns.get(txn_id));
             }
         };
@@ -26,19 +26,25 @@
 package edu.brown.hstore.cmdlog;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Test;
+import org.voltdb.CatalogContext;
 import org.voltdb.ClientResponseImpl;
 import org.voltdb.VoltProcedure;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.Site;
+import org.voltdb.messaging.FastSerializer;
+import org.voltdb.utils.CompressionService;
 
 import edu.brown.BaseTestCase;
 import edu.brown.benchmark.tm1.procedures.UpdateLocation;
 import edu.brown.benchmark.tm1.procedures.UpdateSubscriberData;
 import edu.brown.hstore.HStoreConstants;
-import edu.brown.hstore.HStoreSite;
 import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.hstore.MockHStoreSite;
 import edu.brown.hstore.cmdlog.CommandLogReader;
@@ -46,10 +52,12 @@ import edu.brown.hstore.cmdlog.CommandLogWriter;
 import edu.brown.hstore.cmdlog.LogEntry;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.profilers.CommandLogWriterProfiler;
 import edu.brown.utils.CollectionUtil;
 import edu.brown.utils.FileUtil;
 import edu.brown.utils.PartitionSet;
 import edu.brown.utils.ProjectType;
+import edu.brown.utils.ThreadUtil;
 
 /**
  * @author mkirsch
@@ -59,6 +67,7 @@ public class TestCommandLogger extends BaseTestCase {
     
     static final AtomicLong TXN_ID = new AtomicLong(1000);
     static final int BASE_PARTITION = 0;
+    static final int BATCH_SIZE = 100;
     
     @SuppressWarnings("unchecked")
     static final Class<? extends VoltProcedure>[] TARGET_PROCS = (Class<? extends VoltProcedure>[])new Class<?>[]{
@@ -70,7 +79,32 @@ public class TestCommandLogger extends BaseTestCase {
         { 666l, 777l, 888l, 999l}
     };
     
-    HStoreSite hstore_site; 
+    /**
+     * Fake HStoreSite that finishes every txn as soon as it gets queued
+     * and keeps track of the ones that it saw
+     */
+    static class ReplayHStoreSite extends MockHStoreSite {
+        final List<LocalTransaction> queued = new ArrayList<LocalTransaction>();
+        
+        ReplayHStoreSite(int site_id, CatalogContext catalogContext, HStoreConf hstore_conf) {
+            super(site_id, catalogContext, hstore_conf);
+        }
+        @Override
+        public void transactionQueue(LocalTransaction ts) {
+            synchronized (this.queued) {
+                this.queued.add(ts);
+            } // SYNCH
+            ClientResponseImpl cresponse = new ClientResponseImpl(ts.getTransactionId(),
+                                                                  ts.getClientHandle(),
+                                                                  ts.getBasePartition(),
+                                                                  Status.OK,
+                                                                  HStoreConstants.EMPTY_RESULT,
+                                                                  "");
+            ts.getClientCallback().run(cresponse);
+        }
+    }
+    
+    ReplayHStoreSite hstore_site; 
     CommandLogWriter logger;
     Thread loggerThread;
     Procedure catalog_procs[];
@@ -88,11 +122,18 @@ public class TestCommandLogger extends BaseTestCase {
         HStoreConf hstore_conf = HStoreConf.singleton();
         hstore_conf.site.commandlog_enable = false;
         hstore_conf.site.commandlog_timeout = 1000;
+        hstore_conf.site.commandlog_batch_size = BATCH_SIZE;
+        hstore_conf.site.commandlog_profiling = true;
+        hstore_conf.site.commandlog_compress = false;
 
         Site catalog_site = CollectionUtil.first(catalogContext.sites);
-        hstore_site = new MockHStoreSite(catalog_site.getId(), catalogContext, hstore_conf);
+        hstore_site = new ReplayHStoreSite(catalog_site.getId(), catalogContext, hstore_conf);
         assert(hstore_site.isLocalPartition(0));
         
+        this.startLogger();
+    }
+    
+    private void startLogger() {
         outputFile = FileUtil.getTempFile("log");
         logger = new CommandLogWriter(hstore_site, outputFile);
         loggerThread = new Thread(this.logger);
@@ -102,14 +143,21 @@ public class TestCommandLogger extends BaseTestCase {
 
     @Override
     public void tearDown() throws Exception {
-        if (outputFile != null && outputFile.exists())
-            outputFile.delete();
+        this.deleteLog();
     }
     
-    @Test
-    public void testWithGroupCommit() throws Exception {
-        // Write out a new txn invocation to the log
-        int num_txns = 1000;
+    private void deleteLog() {
+        if (outputFile != null) {
+            for (CommandLogManifest.Segment segment : logger.getManifest().getSegments()) {
+                if (segment.file.exists()) segment.file.delete();
+            } // FOR
+            File manifestFile = CommandLogManifest.getManifestFile(outputFile);
+            if (manifestFile.exists()) manifestFile.delete();
+            if (outputFile.exists()) outputFile.delete();
+        }
+    }
+    
+    private long[] queueTransactions(int num_txns) {
         long txnId[] = new long[num_txns];
         for (int i = 0; i < num_txns; i++) {
             LocalTransaction ts = new LocalTransaction(hstore_site);
@@ -129,12 +177,10 @@ public class TestCommandLogger extends BaseTestCase {
             boolean ret = logger.appendToLog(ts, cresponse);
             assertFalse(ret);
         }
-        logger.flush(); //This makes sure everything is written to the file
-        logger.shutdown(); // This closes the file
-        
-        // Now read in the file back in and check to see that we have two
-        // entries that have our expected information
-        CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+        return (txnId);
+    }
+    
+    private void checkEntries(CommandLogReader reader, long txnId[]) {
         int ctr = 0;
         for (LogEntry entry : reader) {
             assertNotNull(entry);
@@ -150,4 +196,287 @@ public class TestCommandLogger extends BaseTestCase {
         }
         assertEquals(txnId.length, ctr);
     }
+    
+    @Test
+    public void testWithGroupCommit() throws Exception {
+        // Write out a new txn invocation to the log
+        long txnId[] = this.queueTransactions(1000);
+        logger.flush(); //This makes sure everything is written to the file
+        logger.shutdown(); // This closes the file
+        
+        // Now read in the file back in and check to see that we have two
+        // entries that have our expected information
+        CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+        this.checkEntries(reader, txnId);
+    }
+    
+    @Test
+    public void testWithCompression() throws Exception {
+        // Restart the logger so that it compresses each batch
+        logger.shutdown();
+        this.deleteLog();
+        HStoreConf.singleton().site.commandlog_compress = true;
+        this.startLogger();
+        
+        long txnId[] = this.queueTransactions(1000);
+        logger.flush();
+        logger.shutdown();
+        
+        CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+        this.checkEntries(reader, txnId);
+    }
+    
+    @Test
+    public void testSerializeFailure() throws Exception {
+        long before[] = this.queueTransactions(10);
+        
+        // This txn's parameters can't be serialized, so it has to be
+        // sent back with an error instead of being acknowledged later on
+        LocalTransaction ts = new LocalTransaction(hstore_site);
+        long badTxnId = TXN_ID.incrementAndGet();
+        ts.testInit(badTxnId,
+                    BASE_PARTITION,
+                    new PartitionSet(BASE_PARTITION),
+                    catalog_procs[0],
+                    new Object[]{ new Object(), "ABCDEF" });
+        ClientResponseImpl cresponse = new ClientResponseImpl(badTxnId,
+                                                              0l,
+                                                              BASE_PARTITION,
+                                                              Status.OK,
+                                                              HStoreConstants.EMPTY_RESULT,
+                                                              "");
+        assertTrue(logger.appendToLog(ts, cresponse));
+        assertEquals(Status.ABORT_UNEXPECTED, cresponse.getStatus());
+        assertNotNull(cresponse.getException());
+        
+        // Everything around it should still make it into the log
+        long after[] = this.queueTransactions(10);
+        logger.flush();
+        logger.shutdown();
+        
+        long txnId[] = new long[before.length + after.length];
+        System.arraycopy(before, 0, txnId, 0, before.length);
+        System.arraycopy(after, 0, txnId, before.length, after.length);
+        CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+        this.checkEntries(reader, txnId);
+    }
+    
+    @Test
+    public void testLegacyFormat() throws Exception {
+        logger.shutdown();
+        
+        // Segments written before the format was versioned start with the
+        // group commit flag and every block is compressed
+        long txnId[] = new long[100];
+        FastSerializer entries = new FastSerializer(true, true);
+        for (int i = 0; i < txnId.length; i++) {
+            LocalTransaction ts = new LocalTransaction(hstore_site);
+            txnId[i] = TXN_ID.incrementAndGet();
+            ts.testInit(txnId[i],
+                        BASE_PARTITION,
+                        new PartitionSet(BASE_PARTITION),
+                        catalog_procs[i % 2],
+                        TARGET_PARAMS[i % 2]);
+            entries.writeObject(new LogEntry().init(ts));
+        } // FOR
+        FastSerializer fs = new FastSerializer();
+        fs.writeBoolean(true);
+        fs.writeInt(0);
+        ByteBuffer block = CompressionService.compressBufferForMessaging(entries.getBBContainer().b);
+        fs.write(block);
+        
+        File legacyFile = FileUtil.getTempFile("log");
+        try {
+            FileOutputStream out = new FileOutputStream(legacyFile);
+            out.write(fs.getBytes());
+            out.close();
+            CommandLogReader reader = new CommandLogReader(legacyFile.getAbsolutePath());
+            this.checkEntries(reader, txnId);
+        } finally {
+            legacyFile.delete();
+        }
+    }
+    
+    @Test
+    public void testPoolCapacity() throws Exception {
+        assertEquals(1, CommandLogWriter.poolCapacity(0));
+        assertEquals(1024, CommandLogWriter.poolCapacity(1024));
+        assertEquals(2048, CommandLogWriter.poolCapacity(1025));
+        assertEquals(1 << 30, CommandLogWriter.poolCapacity((1 << 30) - 1));
+        // Anything bigger than 1GB can't be rounded up to a power of two
+        int size = (1 << 30) + 1;
+        assertEquals(size, CommandLogWriter.poolCapacity(size));
+        assertEquals(Integer.MAX_VALUE, CommandLogWriter.poolCapacity(Integer.MAX_VALUE));
+    }
+    
+    @Test
+    public void testBatchSizeFlush() throws Exception {
+        // Fill up exactly one batch. The writer thread should flush it
+        // out right away instead of waiting for the timeout to expire
+        long start = System.currentTimeMillis();
+        long txnId[] = this.queueTransactions(BATCH_SIZE);
+        CommandLogManifest.Segment segment = logger.getManifest().getLastSegment();
+        long deadline = start + 10000;
+        while (segment.getLastTransactionId() != txnId[txnId.length-1] && System.currentTimeMillis() < deadline) {
+            ThreadUtil.sleep(1);
+        } // WHILE
+        long elapsed = System.currentTimeMillis() - start;
+        assertEquals(txnId[txnId.length-1], segment.getLastTransactionId());
+        assertTrue("Flush took " + elapsed + "ms", elapsed < HStoreConf.singleton().site.commandlog_timeout);
+        
+        CommandLogWriterProfiler profiler = logger.getProfiler();
+        assertNotNull(profiler);
+        assertEquals(1, profiler.flushTxns.getSampleCount());
+        assertEquals(1, profiler.fsyncLatency.getSampleCount());
+        assertEquals(BATCH_SIZE, profiler.flushTxns.getMaxValue().intValue());
+        logger.shutdown();
+        
+        CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+        this.checkEntries(reader, txnId);
+    }
+    
+    @Test
+    public void testFlushHandoff() throws Exception {
+        // Restart the logger with a timeout that is long enough that
+        // flush() will only return quickly if it doesn't wait for a round
+        // that the WriterThread hasn't been asked to run yet
+        logger.shutdown();
+        this.deleteLog();
+        HStoreConf.singleton().site.commandlog_timeout = 10000;
+        this.startLogger();
+        
+        CommandLogManifest.Segment segment = logger.getManifest().getLastSegment();
+        CommandLogWriterProfiler profiler = logger.getProfiler();
+        List<Long> allTxnIds = new ArrayList<Long>();
+        int rounds = 5;
+        for (int i = 0; i < rounds; i++) {
+            long txnId[] = this.queueTransactions(10);
+            for (long t : txnId) allTxnIds.add(t);
+            
+            long start = System.currentTimeMillis();
+            logger.flush();
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue("Flush took " + elapsed + "ms", elapsed < 5000);
+            
+            // The SyncThread has to have written out the WriterThread's
+            // batch before flush() returns
+            assertEquals(txnId[txnId.length-1], segment.getLastTransactionId());
+            assertEquals(i + 1, profiler.flushTxns.getSampleCount());
+            assertEquals(0, logger.getTotalTxnCount());
+        } // FOR
+        logger.shutdown();
+        
+        long txnId[] = new long[allTxnIds.size()];
+        for (int i = 0; i < txnId.length; i++) {
+            txnId[i] = allTxnIds.get(i);
+        } // FOR
+        CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+        this.checkEntries(reader, txnId);
+    }
+    
+    @Test
+    public void testReadBlocks() throws Exception {
+        long txnId[] = this.queueTransactions(1000);
+        logger.flush();
+        logger.shutdown();
+        
+        // Deserialize the blocks out of order like the replayer would
+        // and make sure that we get back everything in each block
+        CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+        List<ByteBuffer> blocks = new ArrayList<ByteBuffer>();
+        ByteBuffer block = null;
+        while ((block = reader.readBlock()) != null) {
+            blocks.add(block);
+        } // WHILE
+        assertFalse(blocks.isEmpty());
+        
+        List<List<LogEntry>> entries = new ArrayList<List<LogEntry>>();
+        for (int i = blocks.size() - 1; i >= 0; i--) {
+            entries.add(0, reader.deserializeBlock(blocks.get(i)));
+        } // FOR
+        int ctr = 0;
+        for (List<LogEntry> e : entries) {
+            for (LogEntry entry : e) {
+                assertEquals(txnId[ctr++], entry.getTransactionId().longValue());
+            } // FOR
+        } // FOR
+        assertEquals(txnId.length, ctr);
+    }
+    
+    @Test
+    public void testReplay() throws Exception {
+        long txnId[] = this.queueTransactions(1000);
+        logger.flush();
+        logger.shutdown();
+        
+        // Everything that we wrote out should get queued again at the
+        // HStoreSite in the same order with the same parameters
+        CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+        CommandLogReplayer replayer = new CommandLogReplayer(hstore_site, reader);
+        assertEquals(txnId.length, replayer.replay());
+        assertEquals(txnId.length, hstore_site.queued.size());
+        for (int i = 0; i < txnId.length; i++) {
+            LocalTransaction ts = hstore_site.queued.get(i);
+            assertEquals(txnId[i], ts.getClientHandle());
+            assertEquals(catalog_procs[i % 2], ts.getProcedure());
+            
+            Object[] params = ts.getProcedureParameters().toArray();
+            assertEquals(TARGET_PARAMS[i % 2].length, params.length);
+            for (int j = 0; j < params.length; j++) {
+                assertEquals(TARGET_PARAMS[i % 2][j], params[j]);
+            } // FOR
+        } // FOR
+    }
+    
+    @Test
+    public void testSegmentCoverage() throws Exception {
+        long txnId[] = this.queueTransactions(100);
+        logger.flush();
+        logger.shutdown();
+        
+        // A segment is covered by a snapshot as soon as the snapshot includes
+        // its last txn. This has to match what the reader skips when it replays
+        CommandLogManifest.Segment segment = logger.getManifest().getLastSegment();
+        long lastTxnId = txnId[txnId.length-1];
+        assertEquals(lastTxnId, segment.getLastTransactionId());
+        assertFalse(segment.isCoveredBy(lastTxnId));
+        segment.close();
+        assertFalse(segment.isCoveredBy(lastTxnId - 1));
+        assertTrue(segment.isCoveredBy(lastTxnId));
+        assertTrue(segment.isCoveredBy(lastTxnId + 1));
+    }
+    
+    @Test
+    public void testSnapshotTruncation() throws Exception {
+        // Write out a batch of txns, then tell the logger that a snapshot
+        // completed at every partition after those txns
+        long before[] = this.queueTransactions(500);
+        logger.flush();
+        CommandLogManifest.Segment first = logger.getManifest().getLastSegment();
+        assertNotNull(first);
+        assertEquals(before[before.length-1], first.getLastTransactionId());
+        
+        long snapshotTxnId = TXN_ID.incrementAndGet();
+        for (int partition : hstore_site.getLocalPartitionIds().values()) {
+            logger.notifySnapshotCompleted(partition, snapshotTxnId);
+        } // FOR
+        // The writer thread should roll over to a new segment and
+        // then delete the first one
+        long deadline = System.currentTimeMillis() + 10000;
+        while (first.file.exists() && System.currentTimeMillis() < deadline) {
+            ThreadUtil.sleep(10);
+        } // WHILE
+        assertFalse(first.file.getAbsolutePath(), first.file.exists());
+        assertFalse(logger.getManifest().getSegments().contains(first));
+        
+        // Now write some more txns. Only these should come back 
+        // when we read the log in
+        long after[] = this.queueTransactions(500);
+        logger.flush();
+        logger.shutdown();
+        
+        CommandLogReader reader = new CommandLogReader(outputFile.getAbsolutePath());
+        assertEquals(snapshotTxnId, reader.getSnapshotTransactionId());
+        this.checkEntries(reader, after);
+    }
 }
@@ -19,6 +19,7 @@ import edu.brown.catalog.CatalogUtil;
 import edu.brown.hstore.Hstoreservice.WorkFragment;
 import edu.brown.hstore.conf.HStoreConf;
 import edu.brown.hstore.txns.LocalTransaction;
+import edu.brown.utils.PartitionSet;
 import edu.brown.utils.ProjectType;
 import edu.brown.hstore.BatchPlanner;
 import edu.brown.hstore.MockPartitionExecutor;
@@ -210,4 +211,53 @@ public class TestLocalTransaction extends BaseTestCase {
         } // FOR (stmt)
     }
     
+    /**
+     * testFinishAndReuse
+     */
+    public void testFinishAndReuse() throws Exception {
+        Table catalog_tbl = this.getTable("WAREHOUSE");
+        for (int partition : this.hstore_site.getLocalPartitionIds().values()) {
+            this.ts.markReleased(partition);
+            assertTrue(this.ts.markPrepared(partition));
+            this.ts.markExecutedWork(partition);
+            this.ts.markTableRead(partition, catalog_tbl);
+            assertTrue(this.ts.isMarkedReleased(partition));
+            assertTrue(this.ts.isMarkedPrepared(partition));
+            assertTrue(this.ts.hasExecutedWork(partition));
+            assertTrue(this.ts.isTableRead(partition, catalog_tbl));
+        } // FOR
+        this.ts.markControlCodeExecuted();
+        this.ts.initFirstRound(UNDO_TOKEN, this.batchStmts.length);
+        this.ts.setRestartCounter(3);
+        this.depTracker.removeTransaction(this.ts);
+        
+        // Once we call finish(), the handle should look brand new
+        this.ts.finish();
+        assertFalse(this.ts.isInitialized());
+        assertEquals(0, this.ts.getRestartCounter());
+        assertFalse(this.ts.hasPrefetchQueries());
+        for (int partition : this.hstore_site.getLocalPartitionIds().values()) {
+            assertFalse(this.ts.isMarkedReleased(partition));
+            assertFalse(this.ts.isMarkedPrepared(partition));
+            assertFalse(this.ts.hasExecutedWork(partition));
+            assertFalse(this.ts.isTableRead(partition, catalog_tbl));
+            assertTrue(this.ts.isExecReadOnly(partition));
+            assertNull(this.ts.getCurrentRoundState(partition));
+            assertEquals(0, this.ts.getCurrentRound(partition));
+        } // FOR
+        
+        // And we should be able to use it for a new single-partition txn
+        this.ts.testInit(TXN_ID + 1,
+                         BASE_PARTITION,
+                         null,
+                         new PartitionSet(BASE_PARTITION),
+                         this.catalog_proc);
+        assertTrue(this.ts.isInitialized());
+        assertEquals(TXN_ID + 1, this.ts.getTransactionId().longValue());
+        assertTrue(this.ts.isPredictSinglePartition());
+        assertFalse(this.ts.isMarkedReleased(BASE_PARTITION));
+        this.ts.initFirstRound(UNDO_TOKEN, 1);
+        assertEquals(UNDO_TOKEN, this.ts.getFirstUndoToken(BASE_PARTITION));
+    }
+    
 }
@@ -0,0 +1,120 @@
+package edu.brown.hstore.util;
+
+import java.util.concurrent.TimeUnit;
+
+import edu.brown.BaseTestCase;
+import edu.brown.hstore.util.AdmissionController.QueueType;
+
+public class TestAdmissionController extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 4;
+    private static final int LOCAL_PARTITIONS[] = { 1, 3 };
+    private static final double TARGET_MS = 5.0;
+    private static final int INTERVAL_MS = 100;
+    private static final int INIT_LIMIT = 100;
+    private static final int MIN_LIMIT = 50;
+    private static final int MAX_LIMIT = 150;
+    private static final int INCREASE_DELTA = 10;
+    private static final double DECREASE_FACTOR = 0.75;
+
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(INTERVAL_MS);
+    private static final long BELOW_TARGET = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long ABOVE_TARGET = TimeUnit.MILLISECONDS.toNanos(20);
+
+    AdmissionController controller;
+    long now = 0;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.controller = new AdmissionController(LOCAL_PARTITIONS, NUM_PARTITIONS,
+                                                  TARGET_MS, INTERVAL_MS,
+                                                  INIT_LIMIT, MIN_LIMIT, MAX_LIMIT,
+                                                  INCREASE_DELTA, DECREASE_FACTOR);
+        this.now = 0;
+        assertTrue(this.controller.update(this.now));
+    }
+
+    private boolean nextInterval() {
+        this.now += INTERVAL;
+        return (this.controller.update(this.now));
+    }
+
+    /**
+     * testInitialLimits
+     */
+    public void testInitialLimits() throws Exception {
+        for (int partition : LOCAL_PARTITIONS) {
+            assertEquals(INIT_LIMIT, this.controller.getPartitionLimit(partition));
+            assertEquals(-1, this.controller.getLastSojourn(partition));
+        } // FOR
+        assertEquals(INIT_LIMIT * LOCAL_PARTITIONS.length, this.controller.getSiteLimit());
+
+        // Nothing should change until the interval has passed
+        this.controller.recordSojourn(QueueType.LOCK_QUEUE, LOCAL_PARTITIONS[0], ABOVE_TARGET);
+        assertFalse(this.controller.update(this.now + INTERVAL - 1));
+        assertEquals(INIT_LIMIT, this.controller.getPartitionLimit(LOCAL_PARTITIONS[0]));
+    }
+
+    /**
+     * testDecrease
+     */
+    public void testDecrease() throws Exception {
+        int partition = LOCAL_PARTITIONS[0];
+        int other = LOCAL_PARTITIONS[1];
+
+        // Even if some txns got through quickly on one queue, the partition
+        // is backed up if the fastest one in the other queue had to wait
+        this.controller.recordSojourn(QueueType.LOCK_QUEUE, partition, ABOVE_TARGET * 2);
+        this.controller.recordSojourn(QueueType.LOCK_QUEUE, partition, ABOVE_TARGET);
+        this.controller.recordSojourn(QueueType.WORK_QUEUE, partition, BELOW_TARGET);
+        assertTrue(this.nextInterval());
+
+        int expected = (int)(INIT_LIMIT * DECREASE_FACTOR);
+        assertEquals(expected, this.controller.getPartitionLimit(partition));
+        assertEquals(ABOVE_TARGET, this.controller.getLastSojourn(partition));
+        assertEquals(1, this.controller.getDecreaseCount(partition));
+        assertEquals(0, this.controller.getIncreaseCount(partition));
+
+        // The other partition didn't have any samples, so it should be left alone
+        assertEquals(INIT_LIMIT, this.controller.getPartitionLimit(other));
+        assertEquals(-1, this.controller.getLastSojourn(other));
+        assertEquals(expected + INIT_LIMIT, this.controller.getSiteLimit());
+
+        // Keep decreasing until we hit the min
+        for (int i = 0; i < 10; i++) {
+            this.controller.recordSojourn(QueueType.WORK_QUEUE, partition, ABOVE_TARGET);
+            assertTrue(this.nextInterval());
+            assertTrue(this.controller.getPartitionLimit(partition) >= MIN_LIMIT);
+        } // FOR
+        assertEquals(MIN_LIMIT, this.controller.getPartitionLimit(partition));
+    }
+
+    /**
+     * testIncrease
+     */
+    public void testIncrease() throws Exception {
+        int partition = LOCAL_PARTITIONS[1];
+        this.controller.recordSojourn(QueueType.LOCK_QUEUE, partition, BELOW_TARGET);
+        this.controller.recordSojourn(QueueType.WORK_QUEUE, partition, ABOVE_TARGET);
+        this.controller.recordSojourn(QueueType.WORK_QUEUE, partition, 0);
+        assertTrue(this.nextInterval());
+        assertEquals(INIT_LIMIT + INCREASE_DELTA, this.controller.getPartitionLimit(partition));
+        assertEquals(BELOW_TARGET, this.controller.getLastSojourn(partition));
+        assertEquals(1, this.controller.getIncreaseCount(partition));
+
+        // Keep increasing until we hit the max
+        for (int i = 0; i < 10; i++) {
+            this.controller.recordSojourn(QueueType.LOCK_QUEUE, partition, BELOW_TARGET);
+            assertTrue(this.nextInterval());
+            assertTrue(this.controller.getPartitionLimit(partition) <= MAX_LIMIT);
+        } // FOR
+        assertEquals(MAX_LIMIT, this.controller.getPartitionLimit(partition));
+        assertEquals((MAX_LIMIT - INIT_LIMIT) / INCREASE_DELTA, this.controller.getIncreaseCount(partition));
+
+        // The samples from the last interval shouldn't carry over
+        assertTrue(this.nextInterval());
+        assertEquals(-1, this.controller.getLastSojourn(partition));
+        assertEquals(MAX_LIMIT, this.controller.getPartitionLimit(partition));
+    }
+}
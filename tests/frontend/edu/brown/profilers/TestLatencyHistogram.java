@@ -0,0 +1,242 @@
+package edu.brown.profilers;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+
+import junit.framework.TestCase;
+
+/**
+ * Simple tests for LatencyHistogram
+ */
+public class TestLatencyHistogram extends TestCase {
+
+    private static final int NUM_VALUES = 100000;
+    private static final double MAX_ERROR = 1.0 / LatencyHistogram.SUB_BUCKET_COUNT;
+
+    private final Random rand = new Random(1);
+    private final LatencyHistogram h = new LatencyHistogram();
+
+    private long[] generateValues(int count) {
+        long values[] = new long[count];
+        for (int i = 0; i < count; i++) {
+            // Spread them out over a bunch of orders of magnitude
+            values[i] = (long)Math.pow(10, 3 + rand.nextDouble() * 5);
+        } // FOR
+        return (values);
+    }
+
+    private void checkPercentiles(long sorted[], LatencyHistogram h) {
+        for (double percentile : LatencyHistogram.PERCENTILES) {
+            int idx = (int)Math.ceil((percentile / 100d) * sorted.length) - 1;
+            long expected = sorted[idx];
+            long actual = h.getValueAtPercentile(percentile);
+            assertTrue(percentile + " -> " + actual + " < " + expected, actual >= expected);
+            assertEquals(Double.toString(percentile), expected, actual, expected * MAX_ERROR);
+        } // FOR
+    }
+
+    /**
+     * testBuckets
+     */
+    @Test
+    public void testBuckets() throws Exception {
+        // Small values should be exact
+        for (long val = 0; val < LatencyHistogram.SUB_BUCKET_COUNT * 2; val++) {
+            int idx = LatencyHistogram.getBucketIndex(val);
+            assertEquals(val, LatencyHistogram.getBucketValue(idx));
+        } // FOR
+        // Everything else should go into a bucket whose range includes it
+        for (int i = 0; i < NUM_VALUES; i++) {
+            long val = Math.abs(rand.nextLong()) % LatencyHistogram.MAX_VALUE;
+            int idx = LatencyHistogram.getBucketIndex(val);
+            assertTrue(val <= LatencyHistogram.getBucketValue(idx));
+            if (idx > 0) assertTrue(val > LatencyHistogram.getBucketValue(idx - 1));
+        } // FOR
+        assertEquals(LatencyHistogram.getBucketIndex(LatencyHistogram.MAX_VALUE),
+                     LatencyHistogram.getBucketIndex(Long.MAX_VALUE));
+    }
+
+    /**
+     * testPercentiles
+     */
+    @Test
+    public void testPercentiles() throws Exception {
+        assertEquals(0, h.getValueAtPercentile(99d));
+        assertTrue(h.isEmpty());
+
+        long values[] = this.generateValues(NUM_VALUES);
+        for (long val : values) {
+            h.record(val);
+        } // FOR
+        h.record(-1);
+        assertEquals(NUM_VALUES, h.getCount());
+        Arrays.sort(values);
+        this.checkPercentiles(values, h);
+        assertEquals(values[values.length-1], h.getValueAtPercentile(100d), values[values.length-1] * MAX_ERROR);
+    }
+
+    /**
+     * testMerge
+     */
+    @Test
+    public void testMerge() throws Exception {
+        long values0[] = this.generateValues(NUM_VALUES);
+        long values1[] = this.generateValues(NUM_VALUES / 10);
+        LatencyHistogram h0 = new LatencyHistogram();
+        for (long val : values0) h0.record(val);
+        LatencyHistogram h1 = new LatencyHistogram();
+        for (long val : values1) h1.record(val * 10);
+
+        h.add(h0);
+        h.addCompactString(h1.toCompactString());
+        assertEquals(h0.getCount() + h1.getCount(), h.getCount());
+
+        long all[] = Arrays.copyOf(values0, values0.length + values1.length);
+        for (int i = 0; i < values1.length; i++) {
+            all[values0.length + i] = values1[i] * 10;
+        } // FOR
+        Arrays.sort(all);
+        this.checkPercentiles(all, h);
+
+        // Draining should move everything over
+        LatencyHistogram copy = new LatencyHistogram();
+        h.drainTo(copy);
+        assertTrue(h.isEmpty());
+        assertEquals(all.length, copy.getCount());
+        this.checkPercentiles(all, copy);
+    }
+
+    /**
+     * testDeltaTo
+     */
+    @Test
+    public void testDeltaTo() throws Exception {
+        long values0[] = this.generateValues(NUM_VALUES);
+        long values1[] = this.generateValues(NUM_VALUES / 10);
+        LatencyHistogram snapshot = new LatencyHistogram();
+        for (long val : values0) h.record(val);
+
+        // The first delta should have everything but leave the original alone
+        LatencyHistogram delta = new LatencyHistogram();
+        h.deltaTo(snapshot, delta);
+        assertEquals(values0.length, h.getCount());
+        assertEquals(values0.length, delta.getCount());
+        Arrays.sort(values0);
+        this.checkPercentiles(values0, delta);
+
+        // The next one should only have what was recorded since then
+        for (long val : values1) h.record(val);
+        delta = new LatencyHistogram();
+        h.deltaTo(snapshot, delta);
+        assertEquals(values0.length + values1.length, h.getCount());
+        assertEquals(values1.length, delta.getCount());
+        Arrays.sort(values1);
+        this.checkPercentiles(values1, delta);
+
+        // Nothing new means an empty delta
+        delta = new LatencyHistogram();
+        h.deltaTo(snapshot, delta);
+        assertTrue(delta.isEmpty());
+
+        // If the original gets cleared, then we start counting from zero again
+        h.clear();
+        h.record(1);
+        h.record(1);
+        h.record(values0[values0.length / 2]);
+        delta = new LatencyHistogram();
+        h.deltaTo(snapshot, delta);
+        assertEquals(3, delta.getCount());
+    }
+
+    /**
+     * testProfileMeasurement
+     */
+    @Test
+    public void testProfileMeasurement() throws Exception {
+        ProfileMeasurement pm = new ProfileMeasurement("TEST");
+        assertNull(pm.getLatencyHistogram());
+        pm.enableLatencyHistogram();
+        LatencyHistogram latencies = pm.getLatencyHistogram();
+        assertNotNull(latencies);
+
+        long values[] = this.generateValues(1000);
+        long timestamp = 0;
+        for (long val : values) {
+            pm.start(timestamp);
+            timestamp += val;
+            pm.stop(timestamp);
+        } // FOR
+        assertEquals(values.length, latencies.getCount());
+        Arrays.sort(values);
+        this.checkPercentiles(values, latencies);
+
+        pm.reset();
+        assertTrue(latencies.isEmpty());
+    }
+
+    /**
+     * testMergeColumns
+     */
+    @Test
+    public void testMergeColumns() throws Exception {
+        // Two sites with rows for the same procedure and one with a different one
+        VoltTable.ColumnInfo cols[] = new VoltTable.ColumnInfo[LatencyHistogram.PERCENTILE_SUFFIXES.length + 3];
+        int idx = 0;
+        cols[idx++] = new VoltTable.ColumnInfo("SITE", VoltType.INTEGER);
+        cols[idx++] = new VoltTable.ColumnInfo("PROCEDURE", VoltType.STRING);
+        for (String suffix : LatencyHistogram.PERCENTILE_SUFFIXES) {
+            cols[idx++] = new VoltTable.ColumnInfo("TOTAL" + suffix, VoltType.BIGINT);
+        } // FOR
+        cols[idx++] = new VoltTable.ColumnInfo("TOTAL" + LatencyHistogram.HISTOGRAM_SUFFIX, VoltType.STRING);
+        VoltTable vt = new VoltTable(cols);
+
+        String procs[] = { "neworder", "neworder", "payment" };
+        long values[][] = new long[procs.length][];
+        LatencyHistogram expected = new LatencyHistogram();
+        for (int site = 0; site < procs.length; site++) {
+            values[site] = this.generateValues(NUM_VALUES / 10);
+            LatencyHistogram siteHistogram = new LatencyHistogram();
+            for (long val : values[site]) siteHistogram.record(val * (site + 1));
+            if (site < 2) expected.add(siteHistogram);
+
+            Object row[] = new Object[cols.length];
+            row[0] = site;
+            row[1] = procs[site];
+            for (int i = 0; i < LatencyHistogram.PERCENTILES.length; i++) {
+                row[2 + i] = siteHistogram.getValueAtPercentile(LatencyHistogram.PERCENTILES[i]);
+            } // FOR
+            row[cols.length - 1] = siteHistogram.toCompactString();
+            vt.addRow(row);
+        } // FOR
+
+        VoltTable result = LatencyHistogram.mergeColumns(vt, "PROCEDURE");
+        assertEquals(vt.getRowCount(), result.getRowCount());
+        while (result.advanceRow()) {
+            int site = (int)result.getLong(0);
+            assertEquals(procs[site], result.getString(1));
+            LatencyHistogram check = expected;
+            if (site == 2) {
+                check = new LatencyHistogram();
+                check.addCompactString(vt.fetchRow(site).getString(cols.length - 1));
+            }
+            for (int i = 0; i < LatencyHistogram.PERCENTILES.length; i++) {
+                assertEquals(check.getValueAtPercentile(LatencyHistogram.PERCENTILES[i]), result.getLong(2 + i));
+            } // FOR
+            // The histogram itself should still only have this row's values
+            assertEquals(vt.fetchRow(site).getString(cols.length - 1), result.getString(cols.length - 1));
+        } // WHILE
+    }
+
+    /**
+     * testMaxValue
+     */
+    @Test
+    public void testMaxValue() throws Exception {
+        // The documented range is ~36 minutes
+        assertEquals(36, LatencyHistogram.MAX_VALUE / 1000000000l / 60);
+    }
+}
@@ -1,19 +1,27 @@
 package edu.brown.protorpc;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import ca.evanjones.protorpc.Counter;
+import ca.evanjones.protorpc.Protocol;
+import ca.evanjones.protorpc.Protocol.RpcRequest;
+import ca.evanjones.protorpc.Protocol.RpcResponse;
 
 import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
 
 import edu.brown.net.MockByteChannel;
 import edu.brown.net.NonBlockingConnection;
@@ -49,8 +57,120 @@ public class ProtoConnectionTest {
         assertEquals(2, channel.lastWrites.size());
     }
 
+    @Test
+    public void testBufferWrite() throws IOException {
+        // Nothing should get written until we flush, and then
+        // both messages should go out together
+        Counter.Value v = Counter.Value.newBuilder().setValue(42).build();
+        Counter.Value w = Counter.Value.newBuilder().setValue(43).build();
+        int size = connection.bufferWrite(v);
+        assertEquals(v.getSerializedSize() + 4, size);
+        connection.bufferWrite(w);
+        assertEquals(0, channel.lastWrites.size());
+
+        assertFalse(connection.tryFlush());
+        assertEquals(1, channel.lastWrites.size());
+        CodedInputStream in = CodedInputStream.newInstance(channel.lastWrites.get(0));
+        for (Counter.Value expected : new Counter.Value[]{ v, w }) {
+            int length = in.readRawLittleEndian32();
+            int limit = in.pushLimit(length);
+            assertEquals(expected, Counter.Value.parseFrom(in));
+            in.popLimit(limit);
+        } // FOR
+        assertTrue(in.isAtEnd());
+    }
     
-    
+    @Test
+    public void testRequestFrame() throws IOException {
+        // The frame has to be byte-for-byte the same as a regular RpcRequest
+        Counter.Value v = Counter.Value.newBuilder().setValue(42).build();
+        Descriptors.MethodDescriptor method = Counter.CounterService.getDescriptor().getMethods().get(0);
+        RpcRequest expected = ProtoRpcChannel.makeRpcRequest(7, method, v);
+        ProtoRpcChannel.RequestFrame frame = new ProtoRpcChannel.RequestFrame(7, method.getFullName(), v);
+        assertEquals(expected.getSerializedSize(), connection.bufferWrite(frame) - 4);
+        connection.bufferWrite(expected);
+        assertFalse(connection.tryFlush());
+
+        byte[] written = channel.lastWrites.get(0);
+        int half = written.length / 2;
+        assertArrayEquals(Arrays.copyOfRange(written, 0, half), Arrays.copyOfRange(written, half, written.length));
+    }
+
+    @Test
+    public void testResponseFrame() throws IOException {
+        Counter.Value v = Counter.Value.newBuilder().setValue(42).build();
+        RpcResponse expected = RpcResponse.newBuilder()
+                .setSequenceNumber(7)
+                .setStatus(Protocol.Status.OK)
+                .setResponse(v.toByteString())
+                .build();
+        connection.bufferWrite(new ProtoServer.ResponseFrame(7, Protocol.Status.OK, v, null));
+        connection.bufferWrite(expected);
+
+        RpcResponse failed = RpcResponse.newBuilder()
+                .setSequenceNumber(8)
+                .setStatus(Protocol.Status.ERROR_USER)
+                .setErrorReason("failed")
+                .build();
+        connection.bufferWrite(new ProtoServer.ResponseFrame(8, Protocol.Status.ERROR_USER, null, "failed"));
+        connection.bufferWrite(failed);
+        assertFalse(connection.tryFlush());
+
+        channel.setNextRead(channel.lastWrites.get(0));
+        assertTrue(connection.readAllAvailable());
+        for (RpcResponse response : new RpcResponse[]{ expected, expected, failed, failed }) {
+            RpcResponse.Builder builder = RpcResponse.newBuilder();
+            assertTrue(connection.readBufferedMessage(builder));
+            assertEquals(response, builder.build());
+        } // FOR
+    }
+
+    @Test
+    public void testBatchFrame() throws IOException {
+        // A batch of frames has to be read back as a single RpcRequest that
+        // unpacks into exactly the same requests, in the same order
+        Descriptors.MethodDescriptor method = Counter.CounterService.getDescriptor().getMethods().get(0);
+        List<ProtoConnection.RawMessage> frames = new ArrayList<ProtoConnection.RawMessage>();
+        List<RpcRequest> expected = new ArrayList<RpcRequest>();
+        for (int i = 0; i < 3; i++) {
+            Counter.Value v = Counter.Value.newBuilder().setValue(i).build();
+            frames.add(new ProtoRpcChannel.RequestFrame(i, method.getFullName(), v));
+            expected.add(ProtoRpcChannel.makeRpcRequest(i, method, v));
+        } // FOR
+        RpcBatch batch = RpcBatch.requests(frames);
+        assertEquals(batch.getSerializedSize() + 4, connection.bufferWrite(batch));
+        assertFalse(connection.tryFlush());
+        assertEquals(1, channel.lastWrites.size());
+
+        channel.setNextRead(channel.lastWrites.get(0));
+        assertTrue(connection.readAllAvailable());
+        RpcRequest.Builder builder = RpcRequest.newBuilder();
+        assertTrue(connection.readBufferedMessage(builder));
+        RpcRequest request = builder.build();
+        assertTrue(RpcBatch.isBatch(request));
+        assertEquals(expected, RpcBatch.unpackRequests(request));
+        assertFalse(connection.readBufferedMessage(RpcRequest.newBuilder()));
+
+        // Same thing for the responses coming back
+        channel.clear();
+        List<ProtoConnection.RawMessage> responseFrames = new ArrayList<ProtoConnection.RawMessage>();
+        responseFrames.add(new ProtoServer.ResponseFrame(0, Protocol.Status.OK, expected.get(0), null));
+        responseFrames.add(new ProtoServer.ResponseFrame(1, Protocol.Status.ERROR_USER, null, "failed"));
+        connection.bufferWrite(RpcBatch.responses(responseFrames));
+        assertFalse(connection.tryFlush());
+        channel.setNextRead(channel.lastWrites.get(0));
+        assertTrue(connection.readAllAvailable());
+        RpcResponse.Builder responseBuilder = RpcResponse.newBuilder();
+        assertTrue(connection.readBufferedMessage(responseBuilder));
+        List<RpcResponse> responses = RpcBatch.unpackResponses(responseBuilder.build());
+        assertEquals(2, responses.size());
+        assertEquals(0, responses.get(0).getSequenceNumber());
+        assertEquals(expected.get(0).toByteString(), responses.get(0).getResponse());
+        assertEquals(1, responses.get(1).getSequenceNumber());
+        assertEquals(Protocol.Status.ERROR_USER, responses.get(1).getStatus());
+        assertEquals("failed", responses.get(1).getErrorReason());
+    }
+
     @Test
     public void testReadBufferedMessage() throws IOException {
         Counter.Value.Builder builder = Counter.Value.newBuilder();
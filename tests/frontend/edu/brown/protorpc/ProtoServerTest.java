@@ -0,0 +1,140 @@
+package edu.brown.protorpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.evanjones.protorpc.Counter;
+
+import com.google.protobuf.RpcCallback;
+import com.google.protobuf.RpcController;
+
+public class ProtoServerTest {
+    private static final int NUM_RPCS = 10;
+
+    /**
+     * Holds on to every request until it has all of them and then answers them
+     * all at once, so that the responses get coalesced too.
+     */
+    private static final class CounterService extends Counter.CounterService {
+        final List<Integer> received = new ArrayList<Integer>();
+        final List<RpcCallback<Counter.Value>> pending = new ArrayList<RpcCallback<Counter.Value>>();
+
+        @Override
+        public void add(RpcController controller, Counter.Value request, RpcCallback<Counter.Value> done) {
+            received.add(request.getValue());
+            pending.add(done);
+            if (pending.size() == NUM_RPCS) {
+                for (int i = 0; i < pending.size(); i++) {
+                    pending.get(i).run(Counter.Value.newBuilder().setValue(received.get(i) * 2).build());
+                } // FOR
+                pending.clear();
+            }
+        }
+
+        @Override
+        public void get(RpcController controller, Counter.GetRequest request, RpcCallback<Counter.Value> done) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private NIOEventLoop eventLoop;
+    private ServerSocketChannel acceptSocket;
+    private ProtoServer server;
+    private CounterService service;
+    private ProtoRpcChannel channel;
+
+    @Before
+    public void setUp() throws IOException {
+        eventLoop = new NIOEventLoop();
+        acceptSocket = ServerSocketChannel.open();
+        acceptSocket.socket().bind(null);
+
+        service = new CounterService();
+        server = new ProtoServer(eventLoop);
+        server.setCoalesceLimit(1024 * 1024);
+        server.register(service);
+        server.setServerSocketForTest(acceptSocket);
+        eventLoop.registerAccept(acceptSocket, server);
+
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                                          acceptSocket.socket().getLocalPort());
+        channel = ProtoRpcChannel.connectParallel(eventLoop, new InetSocketAddress[]{ address })[0];
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        channel.close();
+        acceptSocket.close();
+    }
+
+    @Test(timeout=10000)
+    public void testCoalescedRoundTrip() {
+        // Every RPC goes out in the same batch envelope, the server unpacks it and
+        // invokes each of them, and then all of the responses come back in one
+        // envelope that the channel unpacks again
+        channel.setCoalesceLimit(1024 * 1024);
+        Counter.CounterService.Stub stub = Counter.CounterService.newStub(channel);
+        final List<Integer> responses = new ArrayList<Integer>();
+        List<ProtoRpcController> controllers = new ArrayList<ProtoRpcController>();
+        for (int i = 0; i < NUM_RPCS; i++) {
+            ProtoRpcController controller = new ProtoRpcController();
+            controllers.add(controller);
+            stub.add(controller, Counter.Value.newBuilder().setValue(i).build(), new RpcCallback<Counter.Value>() {
+                @Override
+                public void run(Counter.Value parameter) {
+                    responses.add(parameter.getValue());
+                }
+            });
+        } // FOR
+
+        for (ProtoRpcController controller : controllers) {
+            controller.block();
+            assertTrue(controller.failed() == false);
+        } // FOR
+        assertEquals(NUM_RPCS, service.received.size());
+        assertEquals(NUM_RPCS, responses.size());
+        for (int i = 0; i < NUM_RPCS; i++) {
+            assertEquals(i, service.received.get(i).intValue());
+            assertEquals(i * 2, responses.get(i).intValue());
+        } // FOR
+    }
+
+    @Test(timeout=10000)
+    public void testSingleRequest() {
+        // A lone RPC is not wrapped in an envelope, but it still has to make it
+        // through when the server is coalescing its responses
+        channel.setCoalesceLimit(1024 * 1024);
+        Counter.CounterService.Stub stub = Counter.CounterService.newStub(channel);
+        final List<Integer> responses = new ArrayList<Integer>();
+        for (int i = 0; i < NUM_RPCS; i++) {
+            ProtoRpcController controller = new ProtoRpcController();
+            stub.add(controller, Counter.Value.newBuilder().setValue(i).build(), new RpcCallback<Counter.Value>() {
+                @Override
+                public void run(Counter.Value parameter) {
+                    responses.add(parameter.getValue());
+                }
+            });
+            // Wait until the server has seen it so that it cannot be batched with the next one
+            while (service.received.size() <= i) {
+                eventLoop.runOnce();
+            } // WHILE
+        } // FOR
+        while (responses.size() < NUM_RPCS) {
+            eventLoop.runOnce();
+        } // WHILE
+        for (int i = 0; i < NUM_RPCS; i++) {
+            assertEquals(i * 2, responses.get(i).intValue());
+        } // FOR
+    }
+}
@@ -0,0 +1,125 @@
+package edu.brown.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+
+import org.voltdb.TransactionIdManager;
+
+/**
+ * Compares ConcurrentLongHashMap against the ConcurrentHashMap<Long, ?> that we used
+ * to use for the in-flight txn table at the HStoreSite. Each thread acts like a partition:
+ * it registers new txn ids, looks up txns that are still running a few times, and
+ * then deletes the oldest ones so that the number of in-flight txns stays constant.
+ * The txn ids are built the same way that TransactionIdManager does it, so the
+ * low bits of each id are the partition and the counter and timestamp are above it.
+ * <p>
+ * Usage: ConcurrentLongHashMapMicrobench [threads] [txnsPerThread] [inflightPerThread]
+ */
+public class ConcurrentLongHashMapMicrobench {
+
+    private static final int LOOKUPS_PER_TXN = 8;
+    private static final int NUM_TRIALS = 5;
+    private static final int TXNS_PER_MS = 20;
+
+    private static abstract class Target {
+        final String name;
+        Target(String name) {
+            this.name = name;
+        }
+        abstract void put(long txnId, Object ts);
+        abstract Object get(long txnId);
+        abstract Object remove(long txnId);
+        abstract void clear();
+    }
+
+    private static long[] makeTxnIds(int partition, int count) {
+        long start = System.currentTimeMillis();
+        long ret[] = new long[count];
+        for (int i = 0; i < count; i++) {
+            ret[i] = TransactionIdManager.makeIdFromComponents(start + (i / TXNS_PER_MS), i % TXNS_PER_MS, partition);
+        } // FOR
+        return (ret);
+    }
+
+    private static long runTrial(final Target target, final long txnIds[][], final int inflight) throws Exception {
+        int numThreads = txnIds.length;
+        final CyclicBarrier barrier = new CyclicBarrier(numThreads + 1);
+        Thread threads[] = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            final long ids[] = txnIds[i];
+            final Object ts = new Object();
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        barrier.await();
+                        long misses = 0;
+                        for (int txn = 0; txn < ids.length; txn++) {
+                            target.put(ids[txn], ts);
+                            for (int j = 0; j < LOOKUPS_PER_TXN; j++) {
+                                int lookup = txn - (j % inflight);
+                                if (lookup >= 0 && target.get(ids[lookup]) == null) misses++;
+                            } // FOR
+                            if (txn >= inflight) {
+                                target.remove(ids[txn - inflight]);
+                            }
+                        } // FOR
+                        if (misses != 0) throw new RuntimeException("Unexpected misses " + misses);
+                        barrier.await();
+                    } catch (Exception ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            };
+            threads[i].start();
+        } // FOR
+
+        barrier.await();
+        long start = System.nanoTime();
+        barrier.await();
+        long stop = System.nanoTime();
+        for (Thread t : threads) t.join();
+        target.clear();
+        return (stop - start);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numThreads = (args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors());
+        int txnsPerThread = (args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+        int inflight = (args.length > 2 ? Integer.parseInt(args[2]) : 1000);
+
+        final ConcurrentHashMap<Long, Object> chm = new ConcurrentHashMap<Long, Object>();
+        final ConcurrentLongHashMap<Object> clhm = new ConcurrentLongHashMap<Object>();
+        Target targets[] = {
+            new Target("ConcurrentHashMap") {
+                void put(long txnId, Object ts) { chm.put(txnId, ts); }
+                Object get(long txnId) { return (chm.get(txnId)); }
+                Object remove(long txnId) { return (chm.remove(txnId)); }
+                void clear() { chm.clear(); }
+            },
+            new Target("ConcurrentLongHashMap") {
+                void put(long txnId, Object ts) { clhm.put(txnId, ts); }
+                Object get(long txnId) { return (clhm.get(txnId)); }
+                Object remove(long txnId) { return (clhm.remove(txnId)); }
+                void clear() { clhm.clear(); }
+            },
+        };
+
+        long txnIds[][] = new long[numThreads][];
+        for (int i = 0; i < numThreads; i++) {
+            txnIds[i] = makeTxnIds(i, txnsPerThread);
+        } // FOR
+
+        System.out.printf("threads=%d / txnsPerThread=%d / inflightPerThread=%d / lookupsPerTxn=%d\n",
+                          numThreads, txnsPerThread, inflight, LOOKUPS_PER_TXN);
+        long totalOps = (long)numThreads * txnsPerThread * (LOOKUPS_PER_TXN + 2);
+        for (int trial = -1; trial < NUM_TRIALS; trial++) {
+            for (Target target : targets) {
+                long nanos = runTrial(target, txnIds, inflight);
+                // The first round is just to warm up the JIT
+                if (trial < 0) continue;
+                System.out.printf("[%d] %-22s %8.1f ms  %6.1f ns/op\n",
+                                  trial, target.name, nanos / 1000000d, nanos / (double)totalOps);
+            } // FOR
+        } // FOR
+    }
+}
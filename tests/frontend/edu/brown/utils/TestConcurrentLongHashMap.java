@@ -0,0 +1,182 @@
+package edu.brown.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+public class TestConcurrentLongHashMap extends TestCase {
+
+    private static final int NUM_KEYS = 10000;
+    private static final Random rand = new Random(0);
+
+    private final ConcurrentLongHashMap<String> map = new ConcurrentLongHashMap<String>(16, 4);
+    private final Map<Long, String> expected = new HashMap<Long, String>();
+
+    private void checkContents() {
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected.isEmpty(), map.isEmpty());
+        for (Map.Entry<Long, String> e : expected.entrySet()) {
+            assertEquals(e.getKey().toString(), e.getValue(), map.get(e.getKey()));
+        } // FOR
+        List<String> values = new ArrayList<String>(map.values());
+        assertEquals(expected.size(), values.size());
+        assertEquals(new HashSet<String>(expected.values()), new HashSet<String>(values));
+    }
+
+    /**
+     * testPutGetRemove
+     */
+    public void testPutGetRemove() throws Exception {
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1234l));
+        assertNull(map.remove(1234l));
+
+        // Txn ids are sequential, but throw in some negative and zero keys too
+        for (long key = -10; key < NUM_KEYS; key++) {
+            String val = "txn" + key;
+            assertNull(map.put(key, val));
+            expected.put(key, val);
+        } // FOR
+        this.checkContents();
+
+        // Replace and putIfAbsent
+        assertEquals("txn5", map.put(5l, "XXX"));
+        assertEquals("XXX", map.putIfAbsent(5l, "YYY"));
+        expected.put(5l, "XXX");
+        this.checkContents();
+
+        // Remove a random half of the keys
+        for (long key = -10; key < NUM_KEYS; key++) {
+            if (rand.nextBoolean()) {
+                assertEquals(expected.remove(key), map.remove(key));
+                assertNull(map.remove(key));
+                assertFalse(map.containsKey(key));
+            }
+        } // FOR
+        this.checkContents();
+
+        // Add back keys that were removed
+        for (long key = -10; key < NUM_KEYS; key += 3) {
+            if (expected.containsKey(key) == false) {
+                assertNull(map.putIfAbsent(key, "again" + key));
+                expected.put(key, "again" + key);
+            }
+        } // FOR
+        this.checkContents();
+
+        map.clear();
+        expected.clear();
+        this.checkContents();
+        assertNull(map.get(5l));
+    }
+
+    /**
+     * testSlidingWindow
+     */
+    public void testSlidingWindow() throws Exception {
+        // This is what the map sees at a site: new txn ids keep coming in
+        // and the old ones get removed, so the tables fill up with tombstones
+        int window = 100;
+        for (long key = 0; key < NUM_KEYS * 10; key++) {
+            map.put(key, Long.toString(key));
+            if (key >= window) {
+                assertEquals(Long.toString(key - window), map.remove(key - window));
+            }
+            assertEquals(Math.min(key + 1, window), map.size());
+        } // FOR
+        for (long key = NUM_KEYS * 10 - window; key < NUM_KEYS * 10; key++) {
+            assertEquals(Long.toString(key), map.get(key));
+        } // FOR
+    }
+
+    /**
+     * testNullValue
+     */
+    public void testNullValue() throws Exception {
+        try {
+            map.put(1l, null);
+            fail("Allowed null value");
+        } catch (NullPointerException ex) {
+            // Expected
+        }
+        assertTrue(map.isEmpty());
+    }
+
+    /**
+     * testConcurrentAccess
+     */
+    public void testConcurrentAccess() throws Exception {
+        final int numThreads = 4;
+        final int keysPerThread = NUM_KEYS * 5;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(numThreads + 1);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+        // Each writer adds and removes its own keys and checks that it always gets
+        // back what it put in. The reader just iterates over everything.
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < numThreads; i++) {
+            final long base = i * (long)keysPerThread;
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (long key = base; key < base + keysPerThread; key++) {
+                            String val = Long.toString(key);
+                            assertNull(map.put(key, val));
+                            assertEquals(val, map.get(key));
+                            if (key % 2 == 0) assertEquals(val, map.remove(key));
+                        } // FOR
+                    } catch (Throwable ex) {
+                        error.compareAndSet(null, ex);
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            });
+        } // FOR
+        threads.add(new Thread() {
+            public void run() {
+                try {
+                    start.await();
+                    while (finished.getCount() > 1) {
+                        for (String val : map.values()) {
+                            assertNotNull(val);
+                        } // FOR
+                    } // WHILE
+                } catch (Throwable ex) {
+                    error.compareAndSet(null, ex);
+                } finally {
+                    finished.countDown();
+                }
+            }
+        });
+        for (Thread t : threads) t.start();
+        start.countDown();
+        finished.await();
+        if (error.get() != null) throw new Exception(error.get());
+
+        assertEquals(numThreads * keysPerThread / 2, map.size());
+        Set<String> values = new HashSet<String>(map.values());
+        assertEquals(map.size(), values.size());
+        for (int i = 0; i < numThreads; i++) {
+            long base = i * (long)keysPerThread;
+            for (long key = base; key < base + keysPerThread; key++) {
+                if (key % 2 == 0) {
+                    assertNull(map.get(key));
+                } else {
+                    assertEquals(Long.toString(key), map.get(key));
+                    assertTrue(values.contains(Long.toString(key)));
+                }
+            } // FOR
+        } // FOR
+    }
+}
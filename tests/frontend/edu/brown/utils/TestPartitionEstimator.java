@@ -142,6 +142,59 @@ public class TestPartitionEstimator extends BaseTestCase {
         assertEquals(catalogContext.getAllPartitionIds(), partitions);
     }
     
+    /**
+     * testCompiledRoutes
+     */
+    public void testCompiledRoutes() throws Exception {
+        // Check that the compiled routing functions give us back the same partitions
+        // as the CacheEntries for all of the single-partition Statements
+        Random rand = new Random(0);
+        PartitionSet expected = new PartitionSet();
+        int checked = 0;
+        for (Procedure catalog_proc : catalogContext.database.getProcedures()) {
+            if (catalog_proc.getSystemproc()) continue;
+            for (Statement catalog_stmt : catalog_proc.getStatements()) {
+                if (catalog_stmt.getHas_singlesited() == false) continue;
+                if (catalog_stmt.getFragments().size() != 1) continue;
+                
+                for (int trial = 0; trial < 10; trial++) {
+                    Object params[] = new Object[catalog_stmt.getParameters().size()];
+                    for (StmtParameter catalog_param : catalog_stmt.getParameters()) {
+                        VoltType vtype = VoltType.get(catalog_param.getJavatype());
+                        params[catalog_param.getIndex()] = VoltTypeUtil.getRandomValue(vtype, rand);
+                    } // FOR
+                    
+                    expected.clear();
+                    for (PartitionSet p : p_estimator.getTablePartitions(catalog_stmt, params, BASE_PARTITION).values()) {
+                        expected.addAll(p);
+                    } // FOR
+                    if (expected.isEmpty()) expected.add(BASE_PARTITION);
+                    
+                    partitions.clear();
+                    p_estimator.getAllPartitions(partitions, catalog_stmt, params, BASE_PARTITION);
+                    assertEquals(catalog_stmt.fullName() + " " + Arrays.toString(params), expected, partitions);
+                    checked++;
+                } // FOR
+            } // FOR
+            
+            // And then the base partition too
+            int param_idx = catalog_proc.getPartitionparameter();
+            ProcParameter partition_param = (param_idx >= 0 ? catalog_proc.getParameters().get(param_idx) : null);
+            if (partition_param != null && partition_param.getIsarray() == false) {
+                Object params[] = new Object[catalog_proc.getParameters().size()];
+                for (ProcParameter catalog_param : catalog_proc.getParameters()) {
+                    if (catalog_param.getIsarray()) continue;
+                    VoltType vtype = VoltType.get(catalog_param.getType());
+                    params[catalog_param.getIndex()] = VoltTypeUtil.getRandomValue(vtype, rand);
+                } // FOR
+                assertEquals(catalog_proc.fullName(),
+                             p_estimator.getBasePartition(catalog_proc, params, true),
+                             p_estimator.getBasePartition(catalog_proc, params));
+            }
+        } // FOR
+        assertTrue(checked > 0);
+    }
+    
     /**
      * testMultiAttributePartitioning
      */
@@ -0,0 +1,171 @@
+package org.voltdb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import org.voltdb.utils.ReduceInputGroups;
+
+import edu.brown.benchmark.mapreduce.procedures.MockMapReduce;
+
+import junit.framework.TestCase;
+
+public class TestVoltMapReduceProcedure extends TestCase {
+
+    private static final String NAMES[] = { "alice", "bob", "carol", "dave", "eve" };
+    private static final int NUM_ROWS = 1000;
+
+    /**
+     * MapReduce procedure that doesn't have a combiner
+     */
+    public static class NoCombinerMapReduce extends VoltMapReduceProcedure<String> {
+        @Override
+        public VoltTable.ColumnInfo[] getMapOutputSchema() {
+            return new MockMapReduce().getMapOutputSchema();
+        }
+        @Override
+        public VoltTable.ColumnInfo[] getReduceOutputSchema() {
+            return new MockMapReduce().getReduceOutputSchema();
+        }
+        @Override
+        public void map(VoltTableRow row) {
+            String key = row.getString(0);
+            this.mapEmit(key, new Object[]{ key, row.getLong(1) });
+        }
+        @Override
+        public void reduce(String key, Iterator<VoltTableRow> rows) {
+            // Nothing to do
+        }
+    }
+    
+    private VoltTable makeMapInput() {
+        VoltTable input = new VoltTable(new VoltTable.ColumnInfo[]{
+            new VoltTable.ColumnInfo("A_NAME", VoltType.STRING),
+            new VoltTable.ColumnInfo("CNT", VoltType.BIGINT),
+        });
+        for (int i = 0; i < NUM_ROWS; i++) {
+            input.addRow(NAMES[i % NAMES.length], i);
+        } // FOR
+        return (input);
+    }
+
+    private Map<String, Long> runMap(VoltMapReduceProcedure<String> proc, VoltTable output, int bufferSize) {
+        VoltTable input = this.makeMapInput();
+        proc.startMap(output, bufferSize);
+        while (input.advanceRow()) {
+            proc.map(input.getRow());
+        } // WHILE
+        proc.finishMap();
+        
+        Map<String, Long> totals = new HashMap<String, Long>();
+        output.resetRowPosition();
+        while (output.advanceRow()) {
+            String key = output.getString(0);
+            Long total = totals.get(key);
+            totals.put(key, (total != null ? total : 0) + output.getLong(1));
+        } // WHILE
+        return (totals);
+    }
+
+    private Map<String, Long> runReduce(VoltTable input, ForkJoinPool pool) {
+        MockMapReduce proc = new MockMapReduce();
+        VoltTable output = new VoltTable(proc.getReduceOutputSchema());
+        if (pool == null) {
+            proc.reduceSorted(input, output);
+        } else {
+            ReduceInputGroups<String> groups = new ReduceInputGroups<String>(input, 0, Integer.MAX_VALUE);
+            groups.update();
+            proc.reduceGroups(groups, output, pool);
+        }
+        
+        Map<String, Long> totals = new HashMap<String, Long>();
+        output.resetRowPosition();
+        while (output.advanceRow()) {
+            String key = output.getString(0);
+            assertFalse(key, totals.containsKey(key));
+            totals.put(key, output.getLong(1));
+        } // WHILE
+        return (totals);
+    }
+    
+    /**
+     * testReduceGroups
+     */
+    @Test
+    public void testReduceGroups() throws Exception {
+        MockMapReduce proc = new MockMapReduce();
+        VoltTable input = new VoltTable(proc.getMapOutputSchema());
+        this.runMap(proc, input, 0);
+        Map<String, Long> expected = this.runReduce(input, null);
+        assertEquals(NAMES.length, expected.size());
+        
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int i = 0; i < 5; i++) {
+                assertEquals(expected, this.runReduce(input, pool));
+            } // FOR
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * testHasCombiner
+     */
+    @Test
+    public void testHasCombiner() throws Exception {
+        assertTrue(VoltMapReduceProcedure.hasCombiner(MockMapReduce.class));
+        assertFalse(VoltMapReduceProcedure.hasCombiner(NoCombinerMapReduce.class));
+    }
+    
+    /**
+     * testCombine
+     */
+    @Test
+    public void testCombine() throws Exception {
+        MockMapReduce proc = new MockMapReduce();
+        VoltTable output = new VoltTable(proc.getMapOutputSchema());
+        Map<String, Long> expected = this.runMap(new MockMapReduce(), new VoltTable(output), 0);
+        
+        // Everything fits in the buffer, so we should get one row per key
+        Map<String, Long> totals = this.runMap(proc, output, NUM_ROWS);
+        assertEquals(NAMES.length, output.getRowCount());
+        assertEquals(expected, totals);
+    }
+    
+    /**
+     * testCombineFlush
+     */
+    @Test
+    public void testCombineFlush() throws Exception {
+        MockMapReduce proc = new MockMapReduce();
+        VoltTable output = new VoltTable(proc.getMapOutputSchema());
+        Map<String, Long> expected = this.runMap(new MockMapReduce(), new VoltTable(output), 0);
+        
+        // Flushing the buffer multiple times means that we'll get one row
+        // per key for each flush, but the totals have to be the same
+        int bufferSize = NUM_ROWS / 10;
+        Map<String, Long> totals = this.runMap(proc, output, bufferSize);
+        assertEquals(NAMES.length * (NUM_ROWS / bufferSize), output.getRowCount());
+        assertEquals(expected, totals);
+    }
+    
+    /**
+     * testNoBuffer
+     */
+    @Test
+    public void testNoBuffer() throws Exception {
+        MockMapReduce proc = new MockMapReduce();
+        VoltTable output = new VoltTable(proc.getMapOutputSchema());
+        this.runMap(proc, output, 0);
+        assertEquals(NUM_ROWS, output.getRowCount());
+        
+        // Procedures without a combiner should never buffer anything
+        NoCombinerMapReduce noCombiner = new NoCombinerMapReduce();
+        output = new VoltTable(proc.getMapOutputSchema());
+        this.runMap(noCombiner, output, NUM_ROWS);
+        assertEquals(NUM_ROWS, output.getRowCount());
+    }
+}
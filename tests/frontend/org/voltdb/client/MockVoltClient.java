@@ -56,6 +56,7 @@ import java.net.UnknownHostException;
 import org.voltdb.ClientResponseDebug;
 import org.voltdb.StoredProcedureInvocationHints;
 import org.voltdb.VoltTable;
+import org.voltdb.catalog.Catalog;
 
 import edu.brown.hstore.Hstoreservice.Status;
 import edu.brown.profilers.ProfileMeasurement;
@@ -302,6 +303,11 @@ public class MockVoltClient implements Client {
         return null;
     }
 
+    @Override
+    public void updateCatalog(Catalog catalog) {
+        // Nothing to do
+    }
+
     @Override
     public boolean blocking() {
         // TODO Auto-generated method stub
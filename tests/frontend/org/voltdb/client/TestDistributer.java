@@ -25,7 +25,6 @@ package org.voltdb.client;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
@@ -47,6 +46,7 @@ import org.voltdb.network.VoltProtocolHandler;
 
 import edu.brown.hstore.HStoreConstants;
 import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.hstore.conf.HStoreConf;
 
 public class TestDistributer extends TestCase {
 
@@ -73,7 +73,7 @@ public class TestDistributer extends TestCase {
                 System.err.println("Sending response.");
             }
             catch (Exception ex) {
-                ex.printStackTrace();
+                error = ex;
             }
         }
 
@@ -105,6 +105,7 @@ public class TestDistributer extends TestCase {
 
         }
         AtomicInteger roundTrips = new AtomicInteger();
+        volatile Exception error = null;
 
         @Override
         public Runnable offBackPressure() {
@@ -130,16 +131,17 @@ public class TestDistributer extends TestCase {
 
     // A fake server.
     class MockVolt extends Thread {
-        MockVolt(int port) {
-            try {
-                network = new VoltNetwork();
-                network.start();
-                socket = ServerSocketChannel.open();
-                socket.configureBlocking(false);
-                socket.socket().bind(new InetSocketAddress(port));
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        MockVolt(int port) throws IOException {
+            this(port, 0);
+        }
+        
+        MockVolt(int port, int hostId) throws IOException {
+            this.hostId = hostId;
+            network = new VoltNetwork();
+            network.start();
+            socket = ServerSocketChannel.open();
+            socket.configureBlocking(false);
+            socket.socket().bind(new InetSocketAddress(port));
         }
 
         @Override
@@ -188,7 +190,7 @@ public class TestDistributer extends TestCase {
                         responseBuffer.putInt(30);
                         responseBuffer.put((byte)0);//version
                         responseBuffer.put((byte)0);//success response
-                        responseBuffer.putInt(0);//hostId
+                        responseBuffer.putInt(hostId);//hostId
                         responseBuffer.putLong(0);//connectionId
                         responseBuffer.putLong(0);//instanceId
                         responseBuffer.putInt(0);//instanceId pt 2
@@ -202,13 +204,12 @@ public class TestDistributer extends TestCase {
                     }
                 }
             } catch (IOException e) {
-                e.printStackTrace();
+                error = e;
             }
             try {
                 network.shutdown();
             } catch (InterruptedException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+                if (error == null) error = e;
             }
             try {
                 socket.close();
@@ -221,7 +222,19 @@ public class TestDistributer extends TestCase {
             shutdown.set(true);
         }
 
+        /**
+         * Stop the server and rethrow anything that went wrong in its threads
+         */
+        public void shutdownAndJoin() throws Exception {
+            this.shutdown();
+            this.join();
+            if (error != null) throw error;
+            if (handler != null && handler.error != null) throw handler.error;
+        }
+
         AtomicBoolean shutdown = new AtomicBoolean(false);
+        volatile Exception error = null;
+        final int hostId;
         volatile ServerSocketChannel socket = null;
         volatile MockInputHandler handler = null;
         volatile VoltNetwork network;
@@ -236,7 +249,7 @@ public class TestDistributer extends TestCase {
 
 
     @Test
-    public void testCreateConnection() throws InterruptedException {
+    public void testCreateConnection() throws Exception {
         MockVolt volt0 = null;
         MockVolt volt1 = null;
 
@@ -252,33 +265,19 @@ public class TestDistributer extends TestCase {
 
         // And a distributer
         Distributer dist = new Distributer();
-        try {
-            dist.createConnection(null, "localhost", 20000, "", "");
-            dist.createConnection(null, "localhost", 20001, "", "");
-        } catch (UnknownHostException e) {
-            e.printStackTrace();
-            fail();
-        } catch (IOException e) {
-            e.printStackTrace();
-            fail();
-        }
+        dist.createConnection(null, "localhost", 20000, "", "");
+        dist.createConnection(null, "localhost", 20001, "", "");
 
         Thread.sleep(1000);
         assertTrue(volt1.handler != null);
         assertTrue(volt0.handler != null);
 
-        if (volt0 != null) {
-            volt0.shutdown();
-            volt0.join();
-        }
-        if (volt1 != null) {
-            volt1.shutdown();
-            volt1.join();
-        }
+        volt0.shutdownAndJoin();
+        volt1.shutdownAndJoin();
     }
 
     @Test
-    public void testQueue() {
+    public void testQueue() throws Exception {
 
         // Uncongested connections get round-robin use.
         MockVolt volt0, volt1, volt2;
@@ -293,17 +292,9 @@ public class TestDistributer extends TestCase {
             volt2.start();
 
             Distributer dist = new Distributer();
-            try {
-                dist.createConnection(null, "localhost", 20000, "", "");
-                dist.createConnection(null, "localhost", 20001, "", "");
-                dist.createConnection(null, "localhost", 20002, "", "");
-            } catch (UnknownHostException e) {
-                e.printStackTrace();
-                fail();
-            } catch (IOException e) {
-                e.printStackTrace();
-                fail();
-            }
+            dist.createConnection(null, "localhost", 20000, "", "");
+            dist.createConnection(null, "localhost", 20001, "", "");
+            dist.createConnection(null, "localhost", 20002, "", "");
 
             assertTrue(volt1.handler != null);
             assertTrue(volt0.handler != null);
@@ -329,35 +320,55 @@ public class TestDistributer extends TestCase {
             assertEquals(2, volt0.handler.roundTrips.get());
             assertEquals(2, volt1.handler.roundTrips.get());
             assertEquals(2, volt2.handler.roundTrips.get());
+        }
+        finally {
+            if (volt0 != null) volt0.shutdownAndJoin();
+            if (volt1 != null) volt1.shutdownAndJoin();
+            if (volt2 != null) volt2.shutdownAndJoin();
+        }
+    }
 
+    /**
+     * testQueueDirectSite
+     */
+    public void testQueueDirectSite() throws Exception {
+        // Connections are registered under the site id that the server sent back
+        // at login, so requests for a site should only go to its connection
+        MockVolt volt0, volt1;
+        int handle = 0;
+        volt0 = volt1 = null;
+        try {
+            volt0 = new MockVolt(20000, 0);
+            volt0.start();
+            volt1 = new MockVolt(20001, 1);
+            volt1.start();
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            fail();
+            Distributer dist = new Distributer();
+            dist.createConnection(null, "localhost", 20000, "", "");
+            dist.createConnection(null, "localhost", 20001, "", "");
+            assertNotNull(volt0.handler);
+            assertNotNull(volt1.handler);
+
+            for (int i = 0; i < 6; i++) {
+                StoredProcedureInvocation pi = new StoredProcedureInvocation(++handle, "i1", new Integer(1));
+                dist.queue(pi, new ProcCallback(), 128, true, 1);
+            } // FOR
+            dist.drain();
+
+            assertEquals(0, volt0.handler.roundTrips.get());
+            assertEquals(6, volt1.handler.roundTrips.get());
         }
         finally {
-            try {
-                if (volt0 != null) {
-                    volt0.shutdown();
-                    volt0.join();
-                }
-                if (volt1 != null) {
-                    volt1.shutdown();
-                    volt1.join();
-                }
-                if (volt2 != null) {
-                    volt2.shutdown();
-                    volt2.join();
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+            if (volt0 != null) volt0.shutdownAndJoin();
+            if (volt1 != null) volt1.shutdownAndJoin();
         }
     }
 
-    public void testClient() {
+    public void testClient() throws Exception {
        MockVolt volt = null;
 
+        // Our fake server can't give the client a catalog
+        HStoreConf.singleton(true).client.txn_hints_fetch_catalog = false;
         try {
             // create a fake server and connect to it.
             volt = new MockVolt(21212);
@@ -374,28 +385,10 @@ public class TestDistributer extends TestCase {
             clt.callProcedure(new ProcCallback(), "Bar", new Integer(2));
             clt.drain();
             assertEquals(2, volt.handler.roundTrips.get());
-
-        } catch (UnknownHostException e) {
-            e.printStackTrace();
-            fail();
-        } catch (IOException e) {
-            e.printStackTrace();
-            fail();
-        } catch (Exception e) {
-            e.printStackTrace();
-            fail();
         }
         finally {
-            try {
-                if (volt != null) {
-                    volt.shutdown();
-                    volt.join();
-                }
-            } catch(Exception ignored) {
-                ignored.printStackTrace();
-            }
+            if (volt != null) volt.shutdownAndJoin();
         }
     }
 
 }
-
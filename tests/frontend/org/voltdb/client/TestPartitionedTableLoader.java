@@ -0,0 +1,235 @@
+package org.voltdb.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.StoredProcedureInvocationHints;
+import org.voltdb.VoltSystemProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.benchmark.tpcc.TPCCConstants;
+import org.voltdb.catalog.Column;
+import org.voltdb.catalog.Table;
+import org.voltdb.sysprocs.LoadSinglepartitionTable;
+import org.voltdb.utils.VoltTypeUtil;
+
+import edu.brown.BaseTestCase;
+import edu.brown.catalog.CatalogUtil;
+import edu.brown.hstore.HStoreConstants;
+import edu.brown.hstore.Hstoreservice.Status;
+import edu.brown.utils.PartitionEstimator;
+import edu.brown.utils.ProjectType;
+
+public class TestPartitionedTableLoader extends BaseTestCase {
+
+    private static final int NUM_PARTITIONS = 4;
+    private static final int NUM_ROWS = 1000;
+    private static final int CHUNK_SIZE = 50;
+    private static final int MAX_OUTSTANDING = 3;
+
+    /**
+     * Fake client that responds to each request asynchronously and keeps
+     * track of what it was sent
+     */
+    private class LoaderClient extends MockVoltClient {
+        final ExecutorService responder = Executors.newSingleThreadExecutor();
+        final List<Object[]> calls = new ArrayList<Object[]>();
+        final AtomicInteger outstanding = new AtomicInteger(0);
+        int maxOutstanding = 0;
+        int numRejects = 0;
+        Status status = Status.OK;
+
+        @Override
+        public synchronized boolean callProcedure(final ProcedureCallback callback, String procName,
+                                                  StoredProcedureInvocationHints hints, Object... parameters) {
+            assertEquals(VoltSystemProcedure.procCallName(LoadSinglepartitionTable.class), procName);
+            assertEquals(hints.basePartition, parameters[0]);
+            this.calls.add(parameters);
+            this.maxOutstanding = Math.max(this.maxOutstanding, this.outstanding.incrementAndGet());
+
+            final Status status;
+            if (this.numRejects > 0) {
+                this.numRejects--;
+                status = Status.ABORT_REJECT;
+            } else {
+                status = this.status;
+            }
+            this.responder.submit(new Runnable() {
+                public void run() {
+                    outstanding.decrementAndGet();
+                    callback.clientCallback(new ClientResponseImpl(-1, -1, HStoreConstants.NULL_PARTITION_ID,
+                                                                   status, HStoreConstants.EMPTY_RESULT, ""));
+                }
+            });
+            return (true);
+        }
+    }
+
+    private LoaderClient client;
+    private PartitionEstimator p_estimator;
+    private PartitionedTableLoader loader;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TPCC);
+        this.addPartitions(NUM_PARTITIONS);
+        this.client = new LoaderClient();
+        this.p_estimator = new PartitionEstimator(catalogContext);
+        this.loader = new PartitionedTableLoader(this.client, catalogContext, this.p_estimator,
+                                                 CHUNK_SIZE, MAX_OUTSTANDING);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        this.client.responder.shutdown();
+        this.client.responder.awaitTermination(10, TimeUnit.SECONDS);
+        super.tearDown();
+    }
+
+    private VoltTable generateTable(Table catalog_tbl, int numRows) {
+        VoltTable vt = CatalogUtil.getVoltTable(catalog_tbl);
+        for (int i = 0; i < numRows; i++) {
+            Object row[] = new Object[catalog_tbl.getColumns().size()];
+            for (Column catalog_col : catalog_tbl.getColumns()) {
+                row[catalog_col.getIndex()] = VoltTypeUtil.getRandomValue(VoltType.get(catalog_col.getType()));
+            } // FOR
+            row[catalog_tbl.getPartitioncolumn().getIndex()] = (long)(i % (NUM_PARTITIONS * 3));
+            vt.addRow(row);
+        } // FOR
+        return (vt);
+    }
+
+    private void load(Table catalog_tbl, int batchSize) throws Exception {
+        for (int i = 0; i < NUM_ROWS; i += batchSize) {
+            this.loader.load(catalog_tbl.getName(), this.generateTable(catalog_tbl, batchSize));
+        } // FOR
+        this.loader.drain();
+    }
+
+    /**
+     * testLoad
+     */
+    public void testLoad() throws Exception {
+        Table catalog_tbl = this.getTable(TPCCConstants.TABLENAME_CUSTOMER);
+        assertTrue(PartitionedTableLoader.canLoad(catalog_tbl));
+        this.load(catalog_tbl, 100);
+
+        // Every chunk has to go to the partition that owns all of its rows
+        int total = 0;
+        for (Object params[] : this.client.calls) {
+            int partition = (Integer)params[0];
+            assertEquals(catalog_tbl.getName(), params[1]);
+            VoltTable vt = (VoltTable)params[2];
+            assertTrue(vt.getRowCount() > 0);
+            assertTrue(vt.getRowCount() <= CHUNK_SIZE);
+            vt.resetRowPosition();
+            while (vt.advanceRow()) {
+                assertEquals(partition, this.p_estimator.getTableRowPartition(catalog_tbl, vt));
+            } // WHILE
+            total += vt.getRowCount();
+        } // FOR
+        assertEquals(NUM_ROWS, total);
+        assertEquals(NUM_ROWS, this.loader.getTupleCount());
+        assertEquals(this.client.calls.size(), this.loader.getChunkCount());
+        assertTrue(this.client.maxOutstanding <= MAX_OUTSTANDING);
+        assertEquals(0, this.client.outstanding.get());
+    }
+
+    /**
+     * testPartialChunk
+     */
+    public void testPartialChunk() throws Exception {
+        // Load a number of rows that doesn't divide evenly into chunks. The leftover
+        // rows for each partition should only go out when the loader is drained
+        Table catalog_tbl = this.getTable(TPCCConstants.TABLENAME_CUSTOMER);
+        int numRows = NUM_ROWS + 7;
+        VoltTable vt = this.generateTable(catalog_tbl, numRows);
+        int expected[] = new int[NUM_PARTITIONS];
+        vt.resetRowPosition();
+        while (vt.advanceRow()) {
+            expected[this.p_estimator.getTableRowPartition(catalog_tbl, vt)]++;
+        } // WHILE
+
+        int fullChunks = 0;
+        int partialChunks = 0;
+        for (int partition = 0; partition < NUM_PARTITIONS; partition++) {
+            fullChunks += expected[partition] / CHUNK_SIZE;
+            if (expected[partition] % CHUNK_SIZE != 0) partialChunks++;
+        } // FOR
+        assertTrue(partialChunks > 0);
+
+        this.loader.load(catalog_tbl.getName(), vt);
+        synchronized (this.client) {
+            assertEquals(fullChunks, this.client.calls.size());
+        } // SYNCH
+        this.loader.drain();
+        assertEquals(fullChunks + partialChunks, this.client.calls.size());
+
+        // Every partition has to get all of its rows, with the short chunk last
+        int actual[] = new int[NUM_PARTITIONS];
+        int last[] = new int[NUM_PARTITIONS];
+        for (Object params[] : this.client.calls) {
+            int partition = (Integer)params[0];
+            VoltTable chunk = (VoltTable)params[2];
+            assertTrue(chunk.getRowCount() <= CHUNK_SIZE);
+            actual[partition] += chunk.getRowCount();
+            last[partition] = chunk.getRowCount();
+        } // FOR
+        for (int partition = 0; partition < NUM_PARTITIONS; partition++) {
+            assertEquals("Partition " + partition, expected[partition], actual[partition]);
+            if (expected[partition] % CHUNK_SIZE != 0) {
+                assertEquals("Partition " + partition, expected[partition] % CHUNK_SIZE, last[partition]);
+            }
+        } // FOR
+        assertEquals(numRows, this.loader.getTupleCount());
+        assertEquals(fullChunks + partialChunks, this.loader.getChunkCount());
+        assertEquals(0, this.client.outstanding.get());
+    }
+
+    /**
+     * testRejected
+     */
+    public void testRejected() throws Exception {
+        Table catalog_tbl = this.getTable(TPCCConstants.TABLENAME_CUSTOMER);
+        this.client.numRejects = 5;
+        this.load(catalog_tbl, NUM_ROWS);
+        assertEquals(5, this.loader.getRejectCount());
+        assertEquals(NUM_ROWS, this.loader.getTupleCount());
+        assertEquals(this.loader.getChunkCount() + 5, this.client.calls.size());
+    }
+
+    /**
+     * testFailure
+     */
+    public void testFailure() throws Exception {
+        Table catalog_tbl = this.getTable(TPCCConstants.TABLENAME_CUSTOMER);
+        this.client.status = Status.ABORT_UNEXPECTED;
+        try {
+            this.load(catalog_tbl, NUM_ROWS);
+            fail("Failed to throw exception for failed load");
+        } catch (ProcCallException ex) {
+            assertEquals(Status.ABORT_UNEXPECTED, ex.getClientResponse().getStatus());
+        }
+        assertEquals(0, this.loader.getTupleCount());
+    }
+
+    /**
+     * testReplicatedTable
+     */
+    public void testReplicatedTable() throws Exception {
+        Table catalog_tbl = this.getTable(TPCCConstants.TABLENAME_ITEM);
+        assertFalse(PartitionedTableLoader.canLoad(catalog_tbl));
+        try {
+            this.loader.load(catalog_tbl.getName(), CatalogUtil.getVoltTable(catalog_tbl));
+            fail("Allowed loading replicated table");
+        } catch (RuntimeException ex) {
+            // Expected
+        }
+        assertTrue(this.client.calls.isEmpty());
+    }
+}
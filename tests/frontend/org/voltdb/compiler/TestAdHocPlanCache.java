@@ -0,0 +1,205 @@
+package org.voltdb.compiler;
+
+import org.junit.Test;
+import org.voltdb.compiler.AdHocPlanCache.CachedPlan;
+import org.voltdb.compiler.AdHocPlanCache.LiteralType;
+import org.voltdb.compiler.AdHocPlanCache.ParameterizedSQL;
+
+import edu.brown.BaseTestCase;
+import edu.brown.hstore.conf.HStoreConf;
+import edu.brown.utils.ProjectType;
+
+public class TestAdHocPlanCache extends BaseTestCase {
+
+    private static PlannerTool ptool;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp(ProjectType.TPCC);
+        if (ptool == null) {
+            ptool = PlannerTool.createPlannerToolInProcess(this.getCatalog());
+        }
+    }
+
+    private CachedPlan plan(String sql, int numParameters) {
+        PlannerTool.Result result = ptool.planSql(sql);
+        assertNull(result.errors, result.errors);
+        return new CachedPlan(result, numParameters);
+    }
+
+    /**
+     * testParameterize
+     */
+    @Test
+    public void testParameterize() throws Exception {
+        ParameterizedSQL psql = AdHocPlanCache.parameterize(
+                "select   w_name from warehouse\n where w_id = 5 -- comment\n and w_city = 'Bob''s';");
+        assertEquals("SELECT W_NAME FROM WAREHOUSE WHERE W_ID = ? AND W_CITY = ?", psql.getParameterizedSQL());
+        assertEquals("SELECT W_NAME FROM WAREHOUSE WHERE W_ID = 5 AND W_CITY = 'Bob''s'", psql.getLiteralSQL());
+        assertEquals(2, psql.getParameterCount());
+        assertEquals(LiteralType.INTEGER, psql.getParameter(0).type);
+        assertEquals("5", psql.getParameter(0).value);
+        assertEquals(LiteralType.STRING, psql.getParameter(1).type);
+        assertEquals("Bob's", psql.getParameter(1).value);
+
+        // Two queries that only differ by their literals should look the same
+        ParameterizedSQL other = AdHocPlanCache.parameterize(
+                "SELECT W_NAME FROM WAREHOUSE WHERE W_ID = 99 AND W_CITY = 'Providence'");
+        assertEquals(psql.getParameterizedSQL(), other.getParameterizedSQL());
+        assertFalse(psql.getLiteralSQL().equals(other.getLiteralSQL()));
+    }
+
+    /**
+     * testParameterizeOrderBy
+     */
+    @Test
+    public void testParameterizeOrderBy() throws Exception {
+        ParameterizedSQL psql = AdHocPlanCache.parameterize(
+                "SELECT W_ID, W_NAME FROM WAREHOUSE WHERE W_YTD > 1.5 ORDER BY 2 LIMIT 10");
+        assertEquals("SELECT W_ID, W_NAME FROM WAREHOUSE WHERE W_YTD > ? ORDER BY 2 LIMIT ?", psql.getParameterizedSQL());
+        assertEquals(2, psql.getParameterCount());
+        assertEquals(LiteralType.DECIMAL, psql.getParameter(0).type);
+        assertEquals(LiteralType.INTEGER, psql.getParameter(1).type);
+    }
+
+    /**
+     * testParameterizeExistingMarkers
+     */
+    @Test
+    public void testParameterizeExistingMarkers() throws Exception {
+        ParameterizedSQL psql = AdHocPlanCache.parameterize("SELECT * FROM WAREHOUSE WHERE W_ID = ? AND W_TAX > 0.1");
+        assertEquals(0, psql.getParameterCount());
+        assertEquals(psql.getLiteralSQL(), psql.getParameterizedSQL());
+    }
+
+    /**
+     * testBind
+     */
+    @Test
+    public void testBind() throws Exception {
+        ParameterizedSQL psql = AdHocPlanCache.parameterize("SELECT W_NAME FROM WAREHOUSE WHERE W_ID = 5 AND W_CITY = 'X'");
+        CachedPlan template = this.plan(psql.getParameterizedSQL(), psql.getParameterCount());
+        CachedPlan bound = template.bind(psql);
+        assertNotNull(bound);
+        assertEquals(0, bound.numParameters);
+        assertEquals(template.replicatedDML, bound.replicatedDML);
+        for (String fragment : new String[]{ bound.aggregatorFragment, bound.collectorFragment }) {
+            if (fragment == null) continue;
+            assertFalse(fragment, fragment.contains("VALUE_PARAMETER"));
+            assertFalse(fragment, fragment.contains("\"PARAMETERS\":[{"));
+        } // FOR
+        assertTrue(bound.collectorFragment.contains("\"VALUE\":\"X\""));
+
+        // The number of literals has to match the number of parameters
+        ParameterizedSQL other = AdHocPlanCache.parameterize("SELECT W_NAME FROM WAREHOUSE WHERE W_ID = 5");
+        assertNull(template.bind(other));
+
+        // A literal that doesn't fit into the column's type can't be bound
+        other = AdHocPlanCache.parameterize("SELECT W_NAME FROM WAREHOUSE WHERE W_ID = 99999999 AND W_CITY = 'X'");
+        assertNull(template.bind(other));
+    }
+
+    /**
+     * testLookup
+     */
+    @Test
+    public void testLookup() throws Exception {
+        AdHocPlanCache cache = new AdHocPlanCache(10);
+        ParameterizedSQL psql = AdHocPlanCache.parameterize("SELECT W_NAME FROM WAREHOUSE WHERE W_ID = 5");
+        assertNull(cache.lookup(psql));
+        assertTrue(cache.canParameterize(psql));
+        cache.putParameterized(psql, this.plan(psql.getParameterizedSQL(), psql.getParameterCount()));
+
+        ParameterizedSQL other = AdHocPlanCache.parameterize("select w_name from warehouse where w_id = 7");
+        CachedPlan plan = cache.lookup(other);
+        assertNotNull(plan);
+        assertEquals(0, plan.numParameters);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // Once a query shape is marked as literal-only we should stop trying
+        cache.putLiteralOnly(psql);
+        assertFalse(cache.canParameterize(other));
+        assertNull(cache.lookup(other));
+        cache.putLiteral(other, this.plan(other.getLiteralSQL(), 0));
+        assertNotNull(cache.lookup(other));
+        assertNull(cache.lookup(psql));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.lookup(other));
+    }
+
+    /**
+     * testEviction
+     */
+    @Test
+    public void testEviction() throws Exception {
+        int capacity = 3;
+        AdHocPlanCache cache = new AdHocPlanCache(capacity);
+        CachedPlan plan = new CachedPlan("{}", null, false, 0);
+        ParameterizedSQL first = AdHocPlanCache.parameterize("SELECT * FROM WAREHOUSE");
+        cache.putLiteral(first, plan);
+        for (int i = 0; i < capacity * 2; i++) {
+            ParameterizedSQL psql = AdHocPlanCache.parameterize("SELECT * FROM DISTRICT WHERE D_ID = " + i);
+            cache.putLiteral(psql, plan);
+            // Keep touching the first one so that it doesn't get evicted
+            assertNotNull(cache.lookup(first));
+            assertTrue(cache.size() <= capacity);
+        } // FOR
+        assertEquals(capacity, cache.size());
+    }
+
+    /**
+     * testLookupBindFailed
+     */
+    @Test
+    public void testLookupBindFailed() throws Exception {
+        AdHocPlanCache cache = new AdHocPlanCache(10);
+        ParameterizedSQL psql = AdHocPlanCache.parameterize("SELECT W_NAME FROM WAREHOUSE WHERE W_ID = 5 AND W_CITY = 'X'");
+        cache.putParameterized(psql, this.plan(psql.getParameterizedSQL(), psql.getParameterCount()));
+
+        // A literal that doesn't fit should not be treated like a query shape we've never seen
+        ParameterizedSQL bad = AdHocPlanCache.parameterize("SELECT W_NAME FROM WAREHOUSE WHERE W_ID = 99999999 AND W_CITY = 'X'");
+        assertSame(AdHocPlanCache.BIND_FAILED, cache.lookup(bad));
+        assertEquals(1, cache.getMissCount());
+
+        // And the parameterized plan has to still be there for everybody else
+        assertTrue(cache.canParameterize(bad));
+        ParameterizedSQL good = AdHocPlanCache.parameterize("SELECT W_NAME FROM WAREHOUSE WHERE W_ID = 7 AND W_CITY = 'Y'");
+        CachedPlan plan = cache.lookup(good);
+        assertNotNull(plan);
+        assertNotSame(AdHocPlanCache.BIND_FAILED, plan);
+        assertEquals(0, plan.numParameters);
+    }
+
+    /**
+     * testCompileBindFailed
+     */
+    @Test
+    public void testCompileBindFailed() throws Exception {
+        HStoreConf hstore_conf = HStoreConf.singleton();
+        hstore_conf.site.exec_adhoc_plan_cache_size = 10;
+        AsyncCompilerWorkThread thread = new AsyncCompilerWorkThread(catalogContext, 0);
+        thread.m_ptool = ptool;
+        assertNotNull(thread.m_planCache);
+
+        String queries[] = {
+            "SELECT W_NAME FROM WAREHOUSE WHERE W_ID = 5 AND W_CITY = 'X'",
+            // This one can't be bound to the parameterized plan from the first one
+            "SELECT W_NAME FROM WAREHOUSE WHERE W_ID = 99999999 AND W_CITY = 'X'",
+            // But this one still can
+            "SELECT W_NAME FROM WAREHOUSE WHERE W_ID = 7 AND W_CITY = 'Y'",
+        };
+        for (String sql : queries) {
+            AdHocPlannerWork work = new AdHocPlannerWork(null);
+            work.sql = sql;
+            AdHocPlannedStmt stmt = (AdHocPlannedStmt)thread.compileAdHocPlan(work);
+            assertNull(stmt.errorMsg, stmt.errorMsg);
+            assertNotNull(sql, stmt.collectorFragment);
+        } // FOR
+        ParameterizedSQL last = AdHocPlanCache.parameterize(queries[queries.length-1]);
+        assertTrue(thread.m_planCache.canParameterize(last));
+        assertEquals(1, thread.m_planCache.getHitCount());
+    }
+}
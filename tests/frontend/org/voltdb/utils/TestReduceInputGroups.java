@@ -0,0 +1,186 @@
+package org.voltdb.utils;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.junit.Test;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltTableRow;
+import org.voltdb.VoltType;
+
+import junit.framework.TestCase;
+
+public class TestReduceInputGroups extends TestCase {
+
+    static final VoltTable.ColumnInfo[] SCHEMA = new VoltTable.ColumnInfo[] {
+        new VoltTable.ColumnInfo("NAME", VoltType.STRING),
+        new VoltTable.ColumnInfo("COUNTER", VoltType.BIGINT),
+    };
+
+    static final int NUM_KEYS = 100;
+    static final int NUM_ROWS = 5000;
+    static final Random rand = new Random(0);
+
+    private final VoltTable table = new VoltTable(SCHEMA);
+    private final Map<String, Long> expected = new HashMap<String, Long>();
+
+    private void addRows(int count) {
+        for (int i = 0; i < count; i++) {
+            String key = (rand.nextInt(20) == 0 ? null : "KEY" + rand.nextInt(NUM_KEYS));
+            long ct = rand.nextInt(100);
+            this.table.addRow(key, ct);
+            Long total = this.expected.get(key);
+            this.expected.put(key, (total != null ? total : 0) + ct);
+        } // FOR
+    }
+
+    private void checkGroups(ReduceInputGroups<String> groups) {
+        assertFalse(groups.isOverflow());
+        assertEquals(this.table.getRowCount(), groups.getRowCount());
+        assertEquals(this.expected.size(), groups.getGroupCount());
+
+        Set<String> seen = new HashSet<String>();
+        int numRows = 0;
+        for (int group = 0; group < groups.getGroupCount(); group++) {
+            String key = groups.getKey(group);
+            assertTrue(key, seen.add(key));
+            long total = 0;
+            Iterator<VoltTableRow> it = groups.getRows(group);
+            while (it.hasNext()) {
+                VoltTableRow row = it.next();
+                String rowKey = row.getString(0);
+                if (key == null) assertTrue(row.wasNull());
+                else assertEquals(key, rowKey);
+                total += row.getLong(1);
+                numRows++;
+            } // WHILE
+            assertEquals(key, this.expected.get(key).longValue(), total);
+        } // FOR
+        assertEquals(this.table.getRowCount(), numRows);
+    }
+
+    /**
+     * testGroups
+     */
+    @Test
+    public void testGroups() throws Exception {
+        this.addRows(NUM_ROWS);
+        ReduceInputGroups<String> groups = new ReduceInputGroups<String>(this.table, 0, NUM_ROWS);
+        groups.update();
+        this.checkGroups(groups);
+    }
+
+    /**
+     * testIncrementalUpdate
+     */
+    @Test
+    public void testIncrementalUpdate() throws Exception {
+        ReduceInputGroups<String> groups = new ReduceInputGroups<String>(this.table, 0, NUM_ROWS);
+        groups.update();
+        assertEquals(0, groups.getGroupCount());
+
+        // Add the rows in a bunch of small batches like they would
+        // come in from the other partitions
+        int batches = 10;
+        for (int i = 0; i < batches; i++) {
+            this.addRows(NUM_ROWS / batches);
+            groups.update();
+            this.checkGroups(groups);
+        } // FOR
+        groups.update();
+        this.checkGroups(groups);
+    }
+
+    /**
+     * testOverflow
+     */
+    @Test
+    public void testOverflow() throws Exception {
+        ReduceInputGroups<String> groups = new ReduceInputGroups<String>(this.table, 0, NUM_ROWS / 2);
+        this.addRows(NUM_ROWS / 4);
+        groups.update();
+        assertFalse(groups.isOverflow());
+        this.addRows(NUM_ROWS / 2);
+        groups.update();
+        assertTrue(groups.isOverflow());
+        assertEquals(0, groups.getGroupCount());
+    }
+
+    /**
+     * Sums up the COUNTER column for a range of groups after checking that every
+     * row's NAME matches its group's key. Each leaf task uses its own buffer view
+     * just like VoltMapReduceProcedure.ReduceTask.
+     */
+    private static class SumTask extends RecursiveTask<Map<String, Long>> {
+        private static final long serialVersionUID = 1L;
+        private final ReduceInputGroups<String> groups;
+        private final int start;
+        private final int stop;
+
+        SumTask(ReduceInputGroups<String> groups, int start, int stop) {
+            this.groups = groups;
+            this.start = start;
+            this.stop = stop;
+        }
+
+        @Override
+        protected Map<String, Long> compute() {
+            if (this.stop - this.start > 1) {
+                int middle = (this.start + this.stop) >>> 1;
+                SumTask left = new SumTask(this.groups, this.start, middle);
+                left.fork();
+                Map<String, Long> result = new SumTask(this.groups, middle, this.stop).compute();
+                result.putAll(left.join());
+                return (result);
+            }
+            Map<String, Long> result = new HashMap<String, Long>();
+            ByteBuffer view = this.groups.newBufferView();
+            String key = this.groups.getKey(this.start);
+            long total = 0;
+            Iterator<VoltTableRow> it = this.groups.getRows(this.start, view);
+            while (it.hasNext()) {
+                VoltTableRow row = it.next();
+                // Reading the strings is what moves the buffer's position
+                String rowKey = row.getString(0);
+                if (key == null) assertTrue(row.wasNull());
+                else assertEquals(key, rowKey);
+                assertBytesEqual(rowKey, row.getStringAsBytes(0));
+                total += row.getLong(1);
+            } // WHILE
+            result.put(key, total);
+            return (result);
+        }
+    }
+
+    private static void assertBytesEqual(String expected, byte actual[]) {
+        if (expected == null) assertNull(actual);
+        else assertEquals(expected, new String(actual));
+    }
+
+    /**
+     * testParallelStrings
+     */
+    @Test
+    public void testParallelStrings() throws Exception {
+        this.addRows(NUM_ROWS);
+        ReduceInputGroups<String> groups = new ReduceInputGroups<String>(this.table, 0, NUM_ROWS);
+        groups.update();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int round = 0; round < 10; round++) {
+                Map<String, Long> totals = pool.invoke(new SumTask(groups, 0, groups.getGroupCount()));
+                assertEquals(this.expected, totals);
+            } // FOR
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
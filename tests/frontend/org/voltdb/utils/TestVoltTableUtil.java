@@ -7,6 +7,8 @@ import org.voltdb.VoltTable;
 import org.voltdb.VoltType;
 import org.voltdb.types.SortDirectionType;
 
+import com.google.protobuf.ByteString;
+
 import junit.framework.TestCase;
 
 /**
@@ -94,4 +96,32 @@ public class TestVoltTableUtil extends TestCase {
             } // WHILE
         } // FOR
     }
-}
\ No newline at end of file
+    
+    /**
+     * testByteString
+     */
+    @Test
+    public void testByteString() throws Exception {
+        ByteString bs = VoltTableUtil.toByteString(this.table);
+        assertNotNull(bs);
+        assertEquals(this.table.getUnderlyingBufferSize(), bs.size());
+        
+        VoltTable clone = VoltTableUtil.fromByteString(bs);
+        assertNotNull(clone);
+        assertEquals(this.table.getRowCount(), clone.getRowCount());
+        assertEquals(this.table.getColumnCount(), clone.getColumnCount());
+        assertEquals(this.table.getUnderlyingBufferSize(), clone.getUnderlyingBufferSize());
+        
+        // The ExecutionEngine needs the backing array to be just the table's data
+        assertEquals(bs.size(), clone.getDirectDataReference().array().length);
+        
+        this.table.resetRowPosition();
+        while (this.table.advanceRow()) {
+            assertTrue(clone.advanceRow());
+            for (int i = 0; i < SCHEMA.length; i++) {
+                assertEquals(this.table.get(i), clone.get(i));
+            } // FOR
+        } // WHILE
+        assertFalse(clone.advanceRow());
+    }
+}